@@ -689,6 +689,20 @@ function setSpacerHeight(spacer, spacerHeight) {
     measurePositions();
 }
 
+// Resize a batch of spacers, given as [selector, height] pairs, and re-measure once.
+function setSpacerHeights(spacers) {
+    var i, len, spacer;
+    for (i = 0, len = spacers.length; i < len; i++) {
+        spacer = document.querySelector(spacers[i][0]);
+        if (spacer) {
+            spacer.style.height = spacers[i][1] + "px";
+        } else {
+            console.log("can't find spacer to resize: " + spacers[i][0]);
+        }
+    }
+    measurePositions();
+}
+
 function setMessageBodyVisible(messageDomId, isVisible, spacerHeight) {
     var i, len;
     var visibility = isVisible ? "block" : "none";
@@ -767,13 +781,53 @@ function replaceMessageBodies(messageIds) {
     measurePositions();
 }
 
-// handle the special case of adding a single new message at the end of a conversation
-function appendMessageHtml() {
-    var msg = document.createElement("div");
-    msg.innerHTML = window.mail.getTempMessageBodies();
-    var body = msg.children[0];  // toss the outer div, it was just to render innerHTML into
-    document.body.insertBefore(body, document.getElementById("conversation-footer"));
-    processNewMessageBody(body.querySelector(".mail-message-content"));
+// Apply message-level patches to a rendered conversation. Each op is one of
+//   {op:'insert', id:<dom id>, before:<dom id of the next rendered message, or absent>}
+//   {op:'replace', id:<dom id>}
+//   {op:'remove', id:<dom id>}
+// The markup for inserted and replaced messages comes from the temp message bodies, one message
+// block per insert/replace op, in op order.
+function patchMessages(ops) {
+    var holder = document.createElement("div");
+    var footer = document.getElementById("conversation-footer");
+    var added = [];
+    var i, len, op, msg, existing, before;
+
+    holder.innerHTML = window.mail.getTempMessageBodies();
+    for (i = 0, len = ops.length; i < len; i++) {
+        op = ops[i];
+        existing = document.getElementById(op.id);
+        if (op.op === "remove") {
+            if (existing) {
+                existing.parentNode.removeChild(existing);
+            } else {
+                console.log("can't remove message: " + op.id);
+            }
+            continue;
+        }
+
+        msg = holder.children[0];
+        if (!msg) {
+            console.log("no markup to patch in for message: " + op.id);
+            break;
+        }
+        holder.removeChild(msg);
+        if (op.op === "replace") {
+            if (!existing) {
+                console.log("can't replace message: " + op.id);
+                continue;
+            }
+            existing.parentNode.replaceChild(msg, existing);
+        } else {
+            before = (op.before && document.getElementById(op.before)) || footer;
+            before.parentNode.insertBefore(msg, before);
+        }
+        added.push(msg);
+    }
+
+    for (i = 0, len = added.length; i < len; i++) {
+        processNewMessageBody(added[i].querySelector(".mail-message-content"));
+    }
     disablePostForms();
     measurePositions();
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.emailcommon.internet;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A message in a file, as a {@link LazyPartBody.Source}. Ranges are read with positional reads
+ * of the file's channel, so they can be read in any order, and while the file is being parsed,
+ * without reading what comes before them. Each open range holds one small buffer, so reading a
+ * part takes the same memory however large the part or the message is.
+ * <p>
+ * The file must stay open while bodies are read from it, and is closed by its owner.
+ */
+public class FileMessageSource implements LazyPartBody.Source {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final FileChannel mChannel;
+
+    public FileMessageSource(FileInputStream file) {
+        mChannel = file.getChannel();
+    }
+
+    @Override
+    public InputStream open(long offset, long length) {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Bad range " + offset + "+" + length);
+        }
+        return new RangeInputStream(offset, offset + length);
+    }
+
+    @Override
+    public boolean isRandomAccess() {
+        return true;
+    }
+
+    /**
+     * Reads a range of the file, without moving the file's position.
+     */
+    private class RangeInputStream extends InputStream {
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        /** The position in the file that the buffer is filled from next. */
+        private long mPosition;
+        private final long mEnd;
+
+        RangeInputStream(long start, long end) {
+            mPosition = start;
+            mEnd = end;
+            mBuffer.limit(0);
+        }
+
+        /**
+         * Makes sure that the buffer isn't empty, unless the range has been read.
+         */
+        private boolean fill() throws IOException {
+            if (mBuffer.hasRemaining()) {
+                return true;
+            }
+            if (mPosition >= mEnd) {
+                return false;
+            }
+            mBuffer.clear();
+            mBuffer.limit((int) Math.min(BUFFER_SIZE, mEnd - mPosition));
+            final int count = mChannel.read(mBuffer, mPosition);
+            mBuffer.flip();
+            if (count <= 0) {
+                // The file is shorter than it was when it was parsed
+                mPosition = mEnd;
+                return false;
+            }
+            mPosition += count;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? mBuffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int count = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            if (n <= 0) {
+                return 0;
+            }
+            final int buffered = (int) Math.min(n, mBuffer.remaining());
+            mBuffer.position(mBuffer.position() + buffered);
+            final long unbuffered = Math.min(n - buffered, mEnd - mPosition);
+            mPosition += unbuffered;
+            return buffered + unbuffered;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(mBuffer.remaining() + mEnd - mPosition, Integer.MAX_VALUE);
+        }
+    }
+}
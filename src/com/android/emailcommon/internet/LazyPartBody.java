@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.emailcommon.internet;
+
+import com.android.emailcommon.mail.Body;
+import com.android.emailcommon.mail.MessagingException;
+import com.google.common.io.ByteStreams;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.EOLConvertingInputStream;
+
+import android.util.Base64;
+import android.util.Base64OutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A Body that isn't copied out of the message it was parsed from. It only knows where its data
+ * is in the message, and reads it from there again each time it is opened, so parts that are
+ * never looked at cost nothing more than the parse itself.
+ * <p>
+ * The offset and length are those of the raw data in the message, whose line endings may not
+ * have been converted to CRLF yet, and which is still in its transfer encoding.
+ * {@link #getInputStream()} converts line endings with {@link EOLConvertingInputStream} as the
+ * parser did, and removes the transfer encoding.
+ */
+public class LazyPartBody implements Body {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The message that bodies were parsed from.
+     */
+    public interface Source {
+        /**
+         * Opens a range of the message.
+         */
+        InputStream open(long offset, long length) throws IOException;
+
+        /**
+         * Returns whether a range can be opened without reading what comes before it. If not,
+         * parts that are read right away, such as text, are better copied while parsing.
+         */
+        boolean isRandomAccess();
+    }
+
+    /**
+     * A Source that opens the whole message as a stream, and skips to the range. This is cheap
+     * for streams that can seek, such as those of files.
+     */
+    public abstract static class StreamSource implements Source {
+        /**
+         * Opens the message from its start.
+         */
+        protected abstract InputStream openStream() throws IOException;
+
+        @Override
+        public InputStream open(long offset, long length) throws IOException {
+            final InputStream in = openStream();
+            try {
+                ByteStreams.skipFully(in, offset);
+            } catch (IOException ioe) {
+                IOUtils.closeQuietly(in);
+                throw ioe;
+            }
+            return new BufferedInputStream(ByteStreams.limit(in, length), BUFFER_SIZE);
+        }
+
+        @Override
+        public boolean isRandomAccess() {
+            return false;
+        }
+    }
+
+    private final Source mSource;
+    private final long mOffset;
+    private final long mLength;
+    private final String mTransferEncoding;
+    private final long mSize;
+
+    public LazyPartBody(Source source, long offset, long length, String transferEncoding,
+            long size) {
+        mSource = source;
+        mOffset = offset;
+        mLength = length;
+        mTransferEncoding = transferEncoding;
+        mSize = size;
+    }
+
+    /**
+     * Reads a body to its end while it is being parsed, and returns the size of its data once
+     * its transfer encoding is removed, without decoding it.
+     *
+     * @param in the body, as handed to the parser's content handler
+     * @param transferEncoding the content transfer encoding of the body
+     */
+    public static long scan(InputStream in, String transferEncoding) throws IOException {
+        if ("base64".equalsIgnoreCase(MimeUtility.getHeaderParameter(transferEncoding, null))) {
+            return countBase64(in);
+        }
+        final InputStream decoded =
+                MimeUtility.getInputStreamForContentTransferEncoding(in, transferEncoding);
+        return ByteStreams.copy(decoded, ByteStreams.nullOutputStream());
+    }
+
+    /**
+     * Returns how many bytes the base64 data in a stream decodes to, without decoding it.
+     */
+    private static long countBase64(InputStream in) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long chars = 0;
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            for (int i = 0; i < count; i++) {
+                final byte b = buffer[i];
+                if ((b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9')
+                        || b == '+' || b == '/') {
+                    chars++;
+                }
+            }
+        }
+        // Every character holds 6 bits, and padding holds none
+        return chars * 6 / 8;
+    }
+
+    public long getOffset() {
+        return mOffset;
+    }
+
+    public long getLength() {
+        return mLength;
+    }
+
+    public String getTransferEncoding() {
+        return mTransferEncoding;
+    }
+
+    /**
+     * Returns the size of the body once its transfer encoding is removed.
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    @Override
+    public InputStream getInputStream() throws MessagingException {
+        try {
+            return MimeUtility.getInputStreamForContentTransferEncoding(openEncoded(),
+                    mTransferEncoding);
+        } catch (IOException ioe) {
+            throw new MessagingException("Unable to open body", ioe);
+        }
+    }
+
+    /**
+     * Returns the body as the parser saw it, still in its transfer encoding.
+     */
+    private InputStream openEncoded() throws IOException {
+        return new EOLConvertingInputStream(mSource.open(mOffset, mLength));
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException, MessagingException {
+        final InputStream in = getInputStream();
+        final Base64OutputStream base64Out = new Base64OutputStream(
+            out, Base64.CRLF | Base64.NO_CLOSE);
+        try {
+            IOUtils.copy(in, base64Out);
+        } finally {
+            base64Out.close();
+            in.close();
+        }
+    }
+}
@@ -23,7 +23,18 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
-
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The fields of a message or part header, in the order they were added.
+ * <p>
+ * Fields are also indexed by their case-folded name, and fields with the same name are linked in
+ * order, so finding the first field with a name takes a hash lookup, however many fields there
+ * are. Headers of received mail can have well over a hundred Received fields ahead of the
+ * Content-Type that is looked up for every part.
+ */
 public class MimeHeader {
     /**
      * Application specific header that contains Store specific information about an attachment.
@@ -48,22 +59,55 @@ public class MimeHeader {
         HEADER_ANDROID_ATTACHMENT_STORE_DATA
     };
 
+    /**
+     * Case-folded names by the spellings they were looked up with. Names are nearly always
+     * constants or common header names, so this lets lookups skip folding the name.
+     */
+    private static final ConcurrentHashMap<String, String> sKeys =
+            new ConcurrentHashMap<String, String>();
+    private static final int MAX_KEYS = 512;
+
     protected final ArrayList<Field> mFields = new ArrayList<Field>();
+    /** The first field with each case-folded name. */
+    private final HashMap<String, Field> mFirstFields = new HashMap<String, Field>();
+
+    /**
+     * Returns the case-folded form of a header name, interned if it's among the names that are
+     * remembered.
+     */
+    private static String getKey(String name) {
+        String key = sKeys.get(name);
+        if (key == null) {
+            key = name.toLowerCase(Locale.US);
+            if (sKeys.size() < MAX_KEYS) {
+                key = key.intern();
+                sKeys.put(name, key);
+            }
+        }
+        return key;
+    }
 
     public void clear() {
         mFields.clear();
+        mFirstFields.clear();
     }
 
     public String getFirstHeader(String name) throws MessagingException {
-        String[] header = getHeader(name);
-        if (header == null) {
-            return null;
-        }
-        return header[0];
+        final Field field = mFirstFields.get(getKey(name));
+        return field == null ? null : field.value;
     }
 
     public void addHeader(String name, String value) throws MessagingException {
-        mFields.add(new Field(name, value));
+        final Field field = new Field(name, getKey(name), value);
+        mFields.add(field);
+        final Field first = mFirstFields.get(field.key);
+        if (first == null) {
+            field.last = field;
+            mFirstFields.put(field.key, field);
+        } else {
+            first.last.next = field;
+            first.last = field;
+        }
     }
 
     public void setHeader(String name, String value) throws MessagingException {
@@ -75,26 +119,35 @@ public class MimeHeader {
     }
 
     public String[] getHeader(String name) throws MessagingException {
-        ArrayList<String> values = new ArrayList<String>();
-        for (Field field : mFields) {
-            if (field.name.equalsIgnoreCase(name)) {
-                values.add(field.value);
-            }
-        }
-        if (values.size() == 0) {
+        final Field first = mFirstFields.get(getKey(name));
+        if (first == null) {
             return null;
         }
-        return values.toArray(new String[] {});
+        int count = 0;
+        for (Field field = first; field != null; field = field.next) {
+            count++;
+        }
+        final String[] values = new String[count];
+        int i = 0;
+        for (Field field = first; field != null; field = field.next) {
+            values[i++] = field.value;
+        }
+        return values;
     }
 
     public void removeHeader(String name) throws MessagingException {
-        ArrayList<Field> removeFields = new ArrayList<Field>();
-        for (Field field : mFields) {
-            if (field.name.equalsIgnoreCase(name)) {
-                removeFields.add(field);
+        final String key = getKey(name);
+        if (mFirstFields.remove(key) == null) {
+            return;
+        }
+        int kept = 0;
+        for (int i = 0, count = mFields.size(); i < count; i++) {
+            final Field field = mFields.get(i);
+            if (field.key != key && !field.key.equals(key)) {
+                mFields.set(kept++, field);
             }
         }
-        mFields.removeAll(removeFields);
+        mFields.subList(kept, mFields.size()).clear();
     }
 
     /**
@@ -128,10 +181,17 @@ public class MimeHeader {
 
     private static class Field {
         final String name;
+        /** The case-folded name. */
+        final String key;
         final String value;
+        /** The next field with the same name. */
+        Field next;
+        /** The last field with the same name, kept up to date only in the first one. */
+        Field last;
 
-        public Field(String name, String value) {
+        public Field(String name, String key, String value) {
             this.name = name;
+            this.key = key;
             this.value = value;
         }
         
@@ -24,6 +24,7 @@ import com.android.emailcommon.mail.MessagingException;
 import com.android.emailcommon.mail.Multipart;
 import com.android.emailcommon.mail.Part;
 import com.android.mail.utils.LogUtils;
+import com.google.common.io.CountingInputStream;
 
 import org.apache.james.mime4j.BodyDescriptor;
 import org.apache.james.mime4j.ContentHandler;
@@ -69,6 +70,8 @@ public class MimeMessage extends Message {
     protected int mSize;
     private boolean mInhibitLocalMessageId = false;
     private boolean mComplete = true;
+    /** If set, the bodies of parts that aren't text are left in the message being parsed. */
+    private LazyPartBody.Source mLazySource;
 
     // Shared random source for generating local message-id values
     private static final java.util.Random sRandom = new java.util.Random();
@@ -121,6 +124,22 @@ public class MimeMessage extends Message {
         parse(in);
     }
 
+    /**
+     * Parse the given InputStream like {@link #MimeMessage(InputStream)}, but without copying
+     * out the parts that aren't text, or any parts if the source is random access. Those get a
+     * {@link LazyPartBody}, which reads them from the message again when they are opened.
+     *
+     * @param in InputStream providing message content
+     * @param source opens the same message content again
+     * @throws IOException
+     * @throws MessagingException
+     */
+    public MimeMessage(InputStream in, LazyPartBody.Source source)
+            throws IOException, MessagingException {
+        mLazySource = source;
+        parse(in);
+    }
+
     private MimeStreamParser init() {
         // Before parsing the input stream, clear all local fields that may be superceded by
         // the new incoming message.
@@ -135,7 +154,7 @@ public class MimeMessage extends Message {
         mBody = null;
 
         final MimeStreamParser parser = new MimeStreamParser();
-        parser.setContentHandler(new MimeMessageBuilder());
+        parser.setContentHandler(new MimeMessageBuilder(parser));
         return parser;
     }
 
@@ -538,8 +557,10 @@ public class MimeMessage extends Message {
 
     class MimeMessageBuilder implements ContentHandler {
         private final Stack<Object> stack = new Stack<Object>();
+        private final MimeStreamParser parser;
 
-        public MimeMessageBuilder() {
+        public MimeMessageBuilder(MimeStreamParser parser) {
+            this.parser = parser;
         }
 
         private void expect(Class<?> c) {
@@ -609,7 +630,22 @@ public class MimeMessage extends Message {
         @Override
         public void body(BodyDescriptor bd, InputStream in) throws IOException {
             expect(Part.class);
-            final Body body = MimeUtility.decodeBody(in, bd.getTransferEncoding());
+            final Body body;
+            final long offset =
+                    mLazySource != null ? parser.getSourcePosition(bd.getOffset()) : -1;
+            if (offset >= 0 && (mLazySource.isRandomAccess()
+                    || !MimeUtility.mimeTypeMatches(bd.getMimeType(), "text/*"))) {
+                final CountingInputStream counted = new CountingInputStream(in);
+                final long size = LazyPartBody.scan(counted, bd.getTransferEncoding());
+                final long end = parser.getSourcePosition(bd.getOffset() + counted.getCount());
+                if (end < 0) {
+                    throw new IOException("Lost track of where a body ends");
+                }
+                body = new LazyPartBody(mLazySource, offset, end - offset,
+                        bd.getTransferEncoding(), size);
+            } else {
+                body = MimeUtility.decodeBody(in, bd.getTransferEncoding());
+            }
             try {
                 ((Part)stack.peek()).setBody(body);
             } catch (MessagingException me) {
@@ -644,13 +680,9 @@ public class MimeMessage extends Message {
         @Override
         public void epilogue(InputStream is) throws IOException {
             expect(MimeMultipart.class);
-            final StringBuilder sb = new StringBuilder();
-            int b;
-            while ((b = is.read()) != -1) {
-                sb.append((char)b);
-            }
             // TODO: why is this commented out?
             // ((Multipart) stack.peek()).setEpilogue(sb.toString());
+            // Since the epilogue isn't kept, don't read it into memory; the parser skips it.
         }
 
         @Override
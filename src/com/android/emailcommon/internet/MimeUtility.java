@@ -227,9 +227,9 @@ public class MimeUtility {
         ByteArrayOutputStream out = null;
         try {
             if (part != null && part.getBody() != null) {
-                in = part.getBody().getInputStream();
                 String mimeType = part.getMimeType();
                 if (mimeType != null && MimeUtility.mimeTypeMatches(mimeType, "text/*")) {
+                    in = part.getBody().getInputStream();
                     /*
                      * Now we read the part into a buffer for further processing. Because
                      * the stream is now wrapped we'll remove any transfer encoding at this point.
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.emailcommon.utility;
+
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.TextUtils;
+import android.text.style.BackgroundColorSpan;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+/**
+ * A case-insensitive multi-term matcher used to highlight search terms in snippets and message
+ * bodies. All of the terms in a query are compiled into a single Aho-Corasick automaton, so the
+ * text is scanned exactly once regardless of how many terms the query contains.
+ *
+ * <p>Instances are immutable and thread-safe. Use {@link #compile(String)} to obtain one; the
+ * most recently compiled query is cached so that every row of a search result list shares the
+ * same automaton.</p>
+ */
+public final class SearchTermMatcher {
+    private static final int ROOT = 0;
+    private static final char[] NO_CHARS = new char[0];
+    private static final int[] NO_STATES = new int[0];
+
+    private static final String HIGHLIGHT_START = "<span style=\"background-color: "
+            + TextUtilities.HIGHLIGHT_COLOR_STRING + "\">";
+    private static final String HIGHLIGHT_END = "</span>";
+
+    /** The last matcher handed out by {@link #compile(String)}. */
+    private static volatile SearchTermMatcher sLastMatcher;
+
+    private final String mQuery;
+    private final int mTermCount;
+    /** Outgoing edges of each state, sorted by character for binary search. */
+    private final char[][] mEdgeChars;
+    private final int[][] mEdgeTargets;
+    /** Failure link of each state. */
+    private final int[] mFailure;
+    /**
+     * Length of the longest term that is a suffix of the text consumed to reach each state, or
+     * 0 if no term ends in that state.
+     */
+    private final int[] mMatchLength;
+
+    /**
+     * Returns a matcher for the whitespace separated terms in the given query. Repeated calls
+     * with the same query return the same instance.
+     */
+    public static SearchTermMatcher compile(String query) {
+        if (query == null) {
+            query = "";
+        }
+        final SearchTermMatcher last = sLastMatcher;
+        if (last != null && last.mQuery.equals(query)) {
+            return last;
+        }
+        final SearchTermMatcher matcher = new SearchTermMatcher(query);
+        sLastMatcher = matcher;
+        return matcher;
+    }
+
+    private SearchTermMatcher(String query) {
+        mQuery = query;
+
+        // Build the trie with growable per-state edge lists
+        final ArrayList<StringBuilder> edgeChars = new ArrayList<StringBuilder>();
+        final ArrayList<ArrayList<Integer>> edgeTargets = new ArrayList<ArrayList<Integer>>();
+        final ArrayList<Integer> matchLength = new ArrayList<Integer>();
+        edgeChars.add(new StringBuilder());
+        edgeTargets.add(new ArrayList<Integer>());
+        matchLength.add(0);
+
+        int termCount = 0;
+        final StringTokenizer st = new StringTokenizer(query);
+        while (st.hasMoreTokens()) {
+            final String term = st.nextToken();
+            int state = ROOT;
+            for (int i = 0; i < term.length(); i++) {
+                final char c = Character.toLowerCase(term.charAt(i));
+                final int edge = edgeChars.get(state).indexOf(String.valueOf(c));
+                if (edge >= 0) {
+                    state = edgeTargets.get(state).get(edge);
+                } else {
+                    final int next = edgeChars.size();
+                    edgeChars.add(new StringBuilder());
+                    edgeTargets.add(new ArrayList<Integer>());
+                    matchLength.add(0);
+                    edgeChars.get(state).append(c);
+                    edgeTargets.get(state).add(next);
+                    state = next;
+                }
+            }
+            matchLength.set(state, term.length());
+            termCount++;
+        }
+        mTermCount = termCount;
+
+        // Freeze the trie into sorted arrays
+        final int stateCount = edgeChars.size();
+        mEdgeChars = new char[stateCount][];
+        mEdgeTargets = new int[stateCount][];
+        mMatchLength = new int[stateCount];
+        mFailure = new int[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            final StringBuilder chars = edgeChars.get(s);
+            final int edges = chars.length();
+            if (edges == 0) {
+                mEdgeChars[s] = NO_CHARS;
+                mEdgeTargets[s] = NO_STATES;
+            } else {
+                // Sort edges by character, keeping targets aligned
+                final long[] packed = new long[edges];
+                for (int e = 0; e < edges; e++) {
+                    packed[e] = ((long) chars.charAt(e) << 32) | edgeTargets.get(s).get(e);
+                }
+                Arrays.sort(packed);
+                mEdgeChars[s] = new char[edges];
+                mEdgeTargets[s] = new int[edges];
+                for (int e = 0; e < edges; e++) {
+                    mEdgeChars[s][e] = (char) (packed[e] >>> 32);
+                    mEdgeTargets[s][e] = (int) packed[e];
+                }
+            }
+            mMatchLength[s] = matchLength.get(s);
+        }
+
+        // Compute failure links breadth-first; each state also inherits the longest match of
+        // the state its failure link points to.
+        final int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        for (int target : mEdgeTargets[ROOT]) {
+            mFailure[target] = ROOT;
+            queue[tail++] = target;
+        }
+        while (head < tail) {
+            final int s = queue[head++];
+            final char[] chars = mEdgeChars[s];
+            final int[] targets = mEdgeTargets[s];
+            for (int e = 0; e < chars.length; e++) {
+                final int target = targets[e];
+                final int failure = step(mFailure[s], chars[e]);
+                mFailure[target] = failure;
+                if (mMatchLength[failure] > mMatchLength[target]) {
+                    mMatchLength[target] = mMatchLength[failure];
+                }
+                queue[tail++] = target;
+            }
+        }
+    }
+
+    /**
+     * Returns whether the query contained no terms, in which case highlighting is a no-op.
+     */
+    public boolean isEmpty() {
+        return mTermCount == 0;
+    }
+
+    public String getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * Advances the automaton by one (already lower-cased) character.
+     */
+    private int step(int state, char c) {
+        while (true) {
+            final int edge = Arrays.binarySearch(mEdgeChars[state], c);
+            if (edge >= 0) {
+                return mEdgeTargets[state][edge];
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = mFailure[state];
+        }
+    }
+
+    /**
+     * Finds the highlight ranges in text[start, end). Overlapping matches are merged into a
+     * single range. Ranges are stored as (start, end) pairs in the returned array, which may be
+     * the given buffer or a larger copy of it; the number of ranges is stored in count[0].
+     */
+    private int[] findRanges(CharSequence text, int start, int end, int[] ranges, int[] count) {
+        int n = 0;
+        int state = ROOT;
+        for (int i = start; i < end; i++) {
+            state = step(state, Character.toLowerCase(text.charAt(i)));
+            final int matchLength = mMatchLength[state];
+            if (matchLength == 0) {
+                continue;
+            }
+            int matchStart = i + 1 - matchLength;
+            final int matchEnd = i + 1;
+            // A longer term may reach back over ranges we've already recorded
+            while (n > 0 && matchStart < ranges[2 * n - 1]) {
+                n--;
+                matchStart = Math.min(matchStart, ranges[2 * n]);
+            }
+            if (2 * n + 2 > ranges.length) {
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            }
+            ranges[2 * n] = matchStart;
+            ranges[2 * n + 1] = matchEnd;
+            n++;
+        }
+        count[0] = n;
+        return ranges;
+    }
+
+    /**
+     * Returns a copy of the given plain text with every occurrence of a search term covered by a
+     * highlight span.
+     */
+    public CharSequence highlightText(CharSequence text) {
+        if (TextUtils.isEmpty(text)) {
+            return "";
+        }
+        final SpannableStringBuilder sb = new SpannableStringBuilder(text);
+        if (isEmpty()) {
+            return sb;
+        }
+        final int[] count = new int[1];
+        final int[] ranges = findRanges(text, 0, text.length(), new int[16], count);
+        for (int r = 0; r < count[0]; r++) {
+            sb.setSpan(new BackgroundColorSpan(TextUtilities.HIGHLIGHT_COLOR_INT),
+                    ranges[2 * r], ranges[2 * r + 1], Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return sb;
+    }
+
+    /**
+     * Returns a copy of the given HTML with every occurrence of a search term in its text
+     * content wrapped in a highlight span.
+     */
+    public String highlightHtml(String html) {
+        if (TextUtils.isEmpty(html)) {
+            return "";
+        }
+        final StringBuilder sb = new StringBuilder(html.length() + 64);
+        try {
+            highlightHtml(html, sb);
+        } catch (IOException e) {
+            // Can't happen with a StringBuilder
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Streams the given HTML to {@code out}, wrapping each occurrence of a search term in its
+     * text content in a highlight span. Tags, and the content of the tags listed in
+     * {@link TextUtilities#STRIP_TAGS}, are copied through without being searched. Matches never
+     * span a tag.
+     */
+    public void highlightHtml(String html, Appendable out) throws IOException {
+        final int length = html.length();
+        if (isEmpty()) {
+            out.append(html);
+            return;
+        }
+        int[] ranges = new int[16];
+        final int[] count = new int[1];
+        int runStart = 0;
+        int i = 0;
+        while (i < length) {
+            if (html.charAt(i) == '<' && i < length - 1 && isTagStart(html.charAt(i + 1))) {
+                ranges = appendHighlightedRun(html, runStart, i, out, ranges, count);
+                final int tagEnd = findTagContentEnd(html, i);
+                out.append(html, i, tagEnd);
+                i = tagEnd;
+                runStart = i;
+            } else {
+                i++;
+            }
+        }
+        appendHighlightedRun(html, runStart, length, out, ranges, count);
+    }
+
+    private int[] appendHighlightedRun(String html, int start, int end, Appendable out,
+            int[] ranges, int[] count) throws IOException {
+        if (start >= end) {
+            return ranges;
+        }
+        ranges = findRanges(html, start, end, ranges, count);
+        int lastOut = start;
+        for (int r = 0; r < count[0]; r++) {
+            final int rangeStart = ranges[2 * r];
+            final int rangeEnd = ranges[2 * r + 1];
+            out.append(html, lastOut, rangeStart);
+            out.append(HIGHLIGHT_START);
+            out.append(html, rangeStart, rangeEnd);
+            out.append(HIGHLIGHT_END);
+            lastOut = rangeEnd;
+        }
+        out.append(html, lastOut, end);
+        return ranges;
+    }
+
+    /**
+     * Tags begin with <! or <- or </ or <letter
+     */
+    private static boolean isTagStart(char peek) {
+        return peek == '!' || peek == '-' || peek == '/' || Character.isLetter(peek);
+    }
+
+    /**
+     * Given the position of the '<' opening a tag, returns the position just past the '>' that
+     * closes it. For the tags in {@link TextUtilities#STRIP_TAGS} the element's content and its
+     * end tag are included as well.
+     */
+    private static int findTagContentEnd(String html, int tagStart) {
+        final int length = html.length();
+        int scanFrom = tagStart + 1;
+        if (tagStart < length - (TextUtilities.MAX_STRIP_TAG_LENGTH + 2)) {
+            for (String stripTag : TextUtilities.STRIP_TAGS) {
+                if (html.regionMatches(true, tagStart + 1, stripTag, 0, stripTag.length())) {
+                    final String tag =
+                            html.substring(tagStart + 1, tagStart + 1 + stripTag.length());
+                    final int endTagPosition = TextUtilities.findTagEnd(html, tag, tagStart);
+                    if (endTagPosition < 0) {
+                        return length;
+                    }
+                    scanFrom = Math.max(scanFrom, endTagPosition - 1);
+                    break;
+                }
+            }
+        }
+        final int close = html.indexOf('>', scanFrom);
+        return close < 0 ? length : close + 1;
+    }
+}
@@ -17,6 +17,8 @@ package com.android.mail.analytics;
 
 import android.os.SystemClock;
 
+import com.android.mail.perf.PerfMetrics;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 
 import java.util.Map;
@@ -25,6 +27,7 @@ import java.util.Map;
  * Generic static singleton timer that keeps track of start time of various events. It  logs the
  * event's duration into Analytics using the provided naming information.
  * This timer class supports multiple data points per event ("lapping").
+ * Durations of the ids below are also recorded in {@link PerfMetrics}.
  *
  * This class also holds some defaults constant IDs that we log. This provides an easy way to check
  * what data we are logging as well as ensuring that the IDs are consistent when accessed by
@@ -37,6 +40,14 @@ public class AnalyticsTimer {
     public static final String COMPOSE_HTML_TO_SPAN = "compose_html_to_span";
     public static final String COMPOSE_SPAN_TO_HTML = "compose_span_to_html";
 
+    /** The {@link PerfMetrics} latency that each of the ids above is also recorded in. */
+    private static final Map<String, Integer> METRICS = ImmutableMap.of(
+            OPEN_CONV_VIEW_FROM_LIST, PerfMetrics.CONVERSATION_OPEN,
+            COLD_START_LAUNCHER, PerfMetrics.COLD_START,
+            SEARCH_TO_LIST, PerfMetrics.SEARCH_TO_LIST,
+            COMPOSE_HTML_TO_SPAN, PerfMetrics.COMPOSE_HTML_TO_SPAN,
+            COMPOSE_SPAN_TO_HTML, PerfMetrics.COMPOSE_SPAN_TO_HTML);
+
     private final Map<String, Long> mStartTimes = Maps.newConcurrentMap();
 
     // Static singleton class to ensure that you can access the timer from anywhere in the code
@@ -92,6 +103,10 @@ public class AnalyticsTimer {
             throw new IllegalStateException("Trying to log id that doesn't exist: " + id);
         }
         final long time = SystemClock.uptimeMillis() - value;
+        final Integer metric = METRICS.get(id);
+        if (metric != null) {
+            PerfMetrics.recordMillis(metric, time);
+        }
         Analytics.getInstance().sendTiming(category, time, name, label);
         return time;
     }
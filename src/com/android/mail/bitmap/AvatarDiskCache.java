@@ -0,0 +1,672 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.bitmap;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
+
+import com.android.mail.utils.LogTag;
+import com.android.mail.utils.LogUtils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A size-bounded cache of scaled contact photos on disk, so that the avatars of the first screen
+ * don't need the contacts provider or a decode after the process is restarted. Emails that have
+ * no photo are remembered too, since they are most senders.
+ *
+ * <p/>
+ * Entries are keyed by email and decode size, and live in a single file: a header, followed by
+ * the entries in the order they were written. Small photos are stored as raw ARGB pixels, which
+ * load without a decode, and larger ones as JPEG. An in-memory index of the live entries is
+ * built when the file is opened, on a background thread. The entries used most recently are then
+ * loaded into memory ahead of time, for the first screen. When the file grows past its bound it
+ * is rewritten with only the entries used most recently.
+ *
+ * <p/>
+ * Every entry carries the version of the contacts it was resolved from. The version moves on,
+ * which drops every entry, whenever the contacts change: while the app runs, through an observer
+ * of the contacts provider, and since the last run, through the contacts' last update time. The
+ * provider only has that time from API 18, so before that entries expire after a day instead.
+ * The provider notifies about changes that don't touch the contacts too, such as how often they
+ * are contacted, so notifications are checked against the last update time once they settle.
+ */
+public class AvatarDiskCache {
+    private static final String LOG_TAG = LogTag.getLogTag();
+
+    private static final String FILE_NAME = "avatars";
+    private static final int MAGIC = 0x41564131; // "AVA1"
+    private static final int HEADER_SIZE = 24;
+
+    private static final long MAX_BYTES = 2 * 1024 * 1024;
+    /** Photos up to this many pixels are stored raw. A 48px photo is 9KB raw. */
+    private static final int MAX_RAW_PIXELS = 48 * 48;
+    private static final int JPEG_QUALITY = 90;
+    /** About the avatars on a first screen, on a large tablet. */
+    private static final int WARM_ENTRIES = 40;
+    /** How long entries last when the contacts provider can't tell when contacts changed. */
+    private static final long MAX_AGE_MS = 24 * 60 * 60 * 1000;
+    /** How long the contacts provider must be quiet before a change is checked. */
+    private static final long CONTACTS_CHANGE_DELAY_MS = 2000;
+
+    private static final byte FORMAT_NO_PHOTO = 0;
+    private static final byte FORMAT_ARGB = 1;
+    private static final byte FORMAT_JPEG = 2;
+
+    private static AvatarDiskCache sInstance;
+
+    private final File mFile;
+    private final long mMaxBytes;
+    /** To read when the contacts changed. Null in tests. */
+    private final ContentResolver mResolver;
+    private final CountDownLatch mOpened = new CountDownLatch(1);
+    /** Opens the file, writes entries handed over by {@link #putLater} and checks changes. */
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Runnable mCheckContacts = new Runnable() {
+        @Override
+        public void run() {
+            checkContacts(getContactsUpdatedMs(mResolver));
+        }
+    };
+
+    // All below are guarded by this
+    private RandomAccessFile mData;
+    /** Where each live entry is in the file, in access order. */
+    private final LinkedHashMap<String, IndexEntry> mIndex =
+            new LinkedHashMap<String, IndexEntry>(16, 0.75f, true /* accessOrder */);
+    /** Entries loaded ahead of time. Each is handed out once. */
+    private final Map<String, Entry> mWarm = Maps.newHashMap();
+    private long mVersion;
+    private long mContactsUpdatedMs;
+
+    /**
+     * A cached avatar.
+     */
+    public static final class Entry {
+        /** The scaled photo, or null if the email has no photo. */
+        public final Bitmap bitmap;
+
+        Entry(Bitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+    }
+
+    private static final class IndexEntry {
+        final long offset;
+        final int length;
+        final byte format;
+        final int width;
+        final int height;
+        /** The size of the whole record, to know when to compact. */
+        final int recordLength;
+        final long writtenMs;
+
+        IndexEntry(long offset, int length, byte format, int width, int height,
+                int recordLength, long writtenMs) {
+            this.offset = offset;
+            this.length = length;
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.recordLength = recordLength;
+            this.writtenMs = writtenMs;
+        }
+    }
+
+    /**
+     * Returns the cache of the app, opening it on a background thread the first time. Call this
+     * as early as possible at startup, so that the first screen's avatars are loaded by the time
+     * they are needed.
+     */
+    public static synchronized AvatarDiskCache getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            final ContentResolver resolver = appContext.getContentResolver();
+            final AvatarDiskCache cache = new AvatarDiskCache(
+                    new File(appContext.getCacheDir(), FILE_NAME), MAX_BYTES, resolver);
+            cache.mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    cache.open(getContactsUpdatedMs(resolver));
+                }
+            });
+            resolver.registerContentObserver(Contacts.CONTENT_URI, true /* descendants */,
+                    new ContentObserver(cache.mHandler) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            // Syncs and edits notify in bursts
+                            cache.mHandler.removeCallbacks(cache.mCheckContacts);
+                            cache.mHandler.postDelayed(cache.mCheckContacts,
+                                    CONTACTS_CHANGE_DELAY_MS);
+                        }
+                    });
+            sInstance = cache;
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AvatarDiskCache(File file, long maxBytes, ContentResolver resolver) {
+        mFile = file;
+        mMaxBytes = maxBytes;
+        mResolver = resolver;
+        mThread = new HandlerThread("AvatarDiskCache", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Returns when the contacts last changed, or -1 if the provider can't tell.
+     */
+    private static long getContactsUpdatedMs(ContentResolver resolver) {
+        if (resolver == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return -1;
+        }
+        try {
+            return Math.max(
+                    getLatest(resolver, Contacts.CONTENT_URI,
+                            Contacts.CONTACT_LAST_UPDATED_TIMESTAMP),
+                    getLatest(resolver, DeletedContacts.CONTENT_URI,
+                            DeletedContacts.CONTACT_DELETED_TIMESTAMP));
+        } catch (RuntimeException e) {
+            LogUtils.w(LOG_TAG, e, "Unable to read when the contacts changed");
+            return -1;
+        }
+    }
+
+    private static long getLatest(ContentResolver resolver, Uri uri, String column) {
+        final Cursor cursor = resolver.query(
+                uri.buildUpon().appendQueryParameter(ContactsContract.LIMIT_PARAM_KEY, "1")
+                        .build(),
+                new String[] { column }, null, null, column + " DESC");
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Opens the file and builds the index of its live entries, then loads the entries used most
+     * recently into memory.
+     *
+     * @param contactsUpdatedMs when the contacts last changed, or -1 if that isn't known
+     */
+    @VisibleForTesting
+    void open(long contactsUpdatedMs) {
+        try {
+            synchronized (this) {
+                try {
+                    openLocked(contactsUpdatedMs);
+                } catch (IOException e) {
+                    LogUtils.w(LOG_TAG, e, "Unable to read the avatar cache, starting over");
+                    closeQuietly();
+                    mIndex.clear();
+                    try {
+                        create(0, contactsUpdatedMs);
+                    } catch (IOException e2) {
+                        LogUtils.e(LOG_TAG, e2, "Unable to create the avatar cache");
+                        closeQuietly();
+                    }
+                }
+                warmLocked();
+            }
+        } finally {
+            mOpened.countDown();
+        }
+    }
+
+    private void openLocked(long contactsUpdatedMs) throws IOException {
+        if (!mFile.exists() || mFile.length() < HEADER_SIZE) {
+            create(0, contactsUpdatedMs);
+            return;
+        }
+
+        final DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        long validLength = HEADER_SIZE;
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an avatar cache");
+            }
+            in.readInt(); // reserved
+            mVersion = in.readLong();
+            mContactsUpdatedMs = in.readLong();
+            final boolean checkAge = contactsUpdatedMs < 0;
+            if (contactsUpdatedMs > mContactsUpdatedMs) {
+                // The contacts changed since the entries were written
+                LogUtils.d(LOG_TAG, "AvatarDiskCache: contacts changed, dropping entries");
+                in.close();
+                create(mVersion + 1, contactsUpdatedMs);
+                return;
+            }
+
+            final long now = System.currentTimeMillis();
+            long offset = HEADER_SIZE;
+            while (true) {
+                final String key;
+                try {
+                    key = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                final long version = in.readLong();
+                final long writtenMs = in.readLong();
+                final byte format = in.readByte();
+                final int width = in.readShort();
+                final int height = in.readShort();
+                final int length = in.readInt();
+                final int headerLength = recordHeaderLength(key);
+                if (in.skipBytes(length) != length) {
+                    break;
+                }
+                final int recordLength = headerLength + length;
+                if (version == mVersion && (!checkAge || now - writtenMs < MAX_AGE_MS)) {
+                    // Later entries for a key replace earlier ones
+                    mIndex.remove(key);
+                    mIndex.put(key, new IndexEntry(offset + headerLength, length, format,
+                            width, height, recordLength, writtenMs));
+                } else {
+                    mIndex.remove(key);
+                }
+                offset += recordLength;
+                validLength = offset;
+            }
+        } catch (EOFException e) {
+            // The last entry wasn't written completely
+        } finally {
+            in.close();
+        }
+
+        mData = new RandomAccessFile(mFile, "rw");
+        if (mData.length() != validLength) {
+            mData.setLength(validLength);
+        }
+        LogUtils.d(LOG_TAG, "AvatarDiskCache: opened with %d entries, %d bytes", mIndex.size(),
+                validLength);
+    }
+
+    private static int recordHeaderLength(String key) {
+        // UTF length prefix, key, version, time, format, width, height, data length
+        return 2 + modifiedUtf8Length(key) + 8 + 8 + 1 + 2 + 2 + 4;
+    }
+
+    private static int modifiedUtf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            length += (c != 0 && c < 0x80) ? 1 : (c < 0x800 ? 2 : 3);
+        }
+        return length;
+    }
+
+    /**
+     * Starts an empty file.
+     */
+    private void create(long version, long contactsUpdatedMs) throws IOException {
+        closeQuietly();
+        mIndex.clear();
+        mVersion = version;
+        mContactsUpdatedMs = Math.max(contactsUpdatedMs, 0);
+        mData = new RandomAccessFile(mFile, "rw");
+        mData.setLength(0);
+        writeHeader(mData);
+    }
+
+    private void writeHeader(RandomAccessFile file) throws IOException {
+        file.seek(0);
+        file.writeInt(MAGIC);
+        file.writeInt(0);
+        file.writeLong(mVersion);
+        file.writeLong(mContactsUpdatedMs);
+    }
+
+    private void warmLocked() {
+        final List<String> keys = Lists.newArrayList(mIndex.keySet());
+        for (int i = Math.max(0, keys.size() - WARM_ENTRIES); i < keys.size(); i++) {
+            final String key = keys.get(i);
+            final Entry entry = readLocked(mIndex.get(key));
+            if (entry != null) {
+                mWarm.put(key, entry);
+            }
+        }
+        LogUtils.d(LOG_TAG, "AvatarDiskCache: warmed %d entries", mWarm.size());
+    }
+
+    private static String getKey(String email, int width, int height) {
+        return email + '@' + width + 'x' + height;
+    }
+
+    /**
+     * Returns the avatar of an email at a decode size, or null if it isn't cached. Waits for the
+     * cache to open, so must not be called from the UI thread.
+     */
+    public Entry get(String email, int width, int height) {
+        awaitOpen();
+        final String key = getKey(email, width, height);
+        synchronized (this) {
+            final Entry warm = mWarm.remove(key);
+            if (warm != null) {
+                // Keep the access order up to date
+                mIndex.get(key);
+                return warm;
+            }
+            final IndexEntry index = mIndex.get(key);
+            return index != null ? readLocked(index) : null;
+        }
+    }
+
+    private Entry readLocked(IndexEntry index) {
+        if (index == null || mData == null) {
+            return null;
+        }
+        if (index.format == FORMAT_NO_PHOTO) {
+            return new Entry(null);
+        }
+        try {
+            final byte[] data = new byte[index.length];
+            mData.seek(index.offset);
+            mData.readFully(data);
+            final Bitmap bitmap;
+            if (index.format == FORMAT_ARGB) {
+                bitmap = Bitmap.createBitmap(index.width, index.height, Bitmap.Config.ARGB_8888);
+                bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(data));
+            } else {
+                final BitmapFactory.Options opts = new BitmapFactory.Options();
+                opts.inMutable = true;
+                bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+            }
+            return bitmap != null ? new Entry(bitmap) : null;
+        } catch (IOException e) {
+            LogUtils.w(LOG_TAG, e, "Unable to read an avatar");
+            return null;
+        } catch (RuntimeException e) {
+            // Bad pixel data
+            LogUtils.w(LOG_TAG, e, "Unable to read an avatar");
+            return null;
+        }
+    }
+
+    /**
+     * Stores the avatar of an email at a decode size. Must not be called from the UI thread.
+     *
+     * @param bitmap the scaled photo, or null if the email has no photo
+     * @param logicalWidth the width of the photo in the bitmap, which may be larger
+     * @param logicalHeight the height of the photo in the bitmap, which may be larger
+     */
+    public void put(String email, int width, int height, Bitmap bitmap, int logicalWidth,
+            int logicalHeight) {
+        byte format = FORMAT_NO_PHOTO;
+        byte[] data = new byte[0];
+        if (bitmap != null) {
+            Bitmap photo = bitmap;
+            if (bitmap.getWidth() != logicalWidth || bitmap.getHeight() != logicalHeight
+                    || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+                photo = copyPhoto(bitmap, logicalWidth, logicalHeight);
+            }
+            if (logicalWidth * logicalHeight <= MAX_RAW_PIXELS) {
+                format = FORMAT_ARGB;
+                final ByteBuffer buffer = ByteBuffer.allocate(photo.getByteCount());
+                photo.copyPixelsToBuffer(buffer);
+                data = buffer.array();
+            } else {
+                format = FORMAT_JPEG;
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                photo.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+                data = out.toByteArray();
+            }
+            if (photo != bitmap) {
+                photo.recycle();
+            }
+        }
+
+        awaitOpen();
+        final String key = getKey(email, width, height);
+        synchronized (this) {
+            if (mData == null) {
+                return;
+            }
+            try {
+                final long offset = mData.length();
+                final long now = System.currentTimeMillis();
+                mData.seek(offset);
+                final ByteArrayOutputStream record = new ByteArrayOutputStream(
+                        recordHeaderLength(key) + data.length);
+                final DataOutputStream out = new DataOutputStream(record);
+                out.writeUTF(key);
+                out.writeLong(mVersion);
+                out.writeLong(now);
+                out.writeByte(format);
+                out.writeShort(logicalWidth);
+                out.writeShort(logicalHeight);
+                out.writeInt(data.length);
+                out.write(data);
+                out.flush();
+                mData.write(record.toByteArray());
+                mWarm.remove(key);
+                mIndex.put(key, new IndexEntry(offset + recordHeaderLength(key), data.length,
+                        format, logicalWidth, logicalHeight, record.size(), now));
+
+                if (mData.length() > mMaxBytes) {
+                    compactLocked();
+                }
+            } catch (IOException e) {
+                LogUtils.w(LOG_TAG, e, "Unable to write an avatar");
+            }
+        }
+    }
+
+    /**
+     * Like {@link #put}, but encodes and writes the avatar on the cache's own thread, so that
+     * the caller can go on to show it. The cache takes the bitmap over and recycles it once it
+     * is written, so it must not be used elsewhere; see {@link #copyPhoto}. May be called from
+     * any thread.
+     */
+    public void putLater(final String email, final int width, final int height,
+            final Bitmap bitmap, final int logicalWidth, final int logicalHeight) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                put(email, width, height, bitmap, logicalWidth, logicalHeight);
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a copy of the photo in a bitmap, which may be larger than the photo, that can be
+     * handed to {@link #putLater}.
+     */
+    public static Bitmap copyPhoto(Bitmap bitmap, int logicalWidth, int logicalHeight) {
+        final Bitmap photo =
+                Bitmap.createBitmap(logicalWidth, logicalHeight, Bitmap.Config.ARGB_8888);
+        new Canvas(photo).drawBitmap(bitmap, 0, 0, null);
+        return photo;
+    }
+
+    /**
+     * Rewrites the file with the entries used most recently, up to three quarters of its bound.
+     */
+    private void compactLocked() throws IOException {
+        final long budget = mMaxBytes * 3 / 4;
+        // Keep the newest entries, in access order
+        final List<Map.Entry<String, IndexEntry>> entries =
+                Lists.newArrayList(mIndex.entrySet());
+        int first = entries.size();
+        long size = HEADER_SIZE;
+        while (first > 0 && size + entries.get(first - 1).getValue().recordLength <= budget) {
+            first--;
+            size += entries.get(first).getValue().recordLength;
+        }
+
+        final File temp = new File(mFile.getPath() + ".tmp");
+        final DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        final LinkedHashMap<String, IndexEntry> index = Maps.newLinkedHashMap();
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(0);
+            out.writeLong(mVersion);
+            out.writeLong(mContactsUpdatedMs);
+            long offset = HEADER_SIZE;
+            for (int i = first; i < entries.size(); i++) {
+                final String key = entries.get(i).getKey();
+                final IndexEntry entry = entries.get(i).getValue();
+                final byte[] data = new byte[entry.length];
+                mData.seek(entry.offset);
+                mData.readFully(data);
+                out.writeUTF(key);
+                out.writeLong(mVersion);
+                out.writeLong(entry.writtenMs);
+                out.writeByte(entry.format);
+                out.writeShort(entry.width);
+                out.writeShort(entry.height);
+                out.writeInt(data.length);
+                out.write(data);
+                final int headerLength = recordHeaderLength(key);
+                index.put(key, new IndexEntry(offset + headerLength, entry.length, entry.format,
+                        entry.width, entry.height, entry.recordLength, entry.writtenMs));
+                offset += entry.recordLength;
+            }
+        } finally {
+            out.close();
+        }
+
+        closeQuietly();
+        if (!temp.renameTo(mFile)) {
+            temp.delete();
+            throw new IOException("Unable to replace the avatar cache");
+        }
+        mData = new RandomAccessFile(mFile, "rw");
+        mIndex.clear();
+        mIndex.putAll(index);
+        LogUtils.d(LOG_TAG, "AvatarDiskCache: compacted to %d entries, %d bytes", mIndex.size(),
+                mData.length());
+    }
+
+    /**
+     * Drops every entry, because the contacts changed. The entries stay in the file until it is
+     * next compacted, but are never read again.
+     */
+    public void invalidate() {
+        // So that the next start doesn't drop the entries written after this change
+        invalidate(getContactsUpdatedMs(mResolver));
+    }
+
+    /**
+     * Drops every entry if the contacts changed since the entries were written, after the
+     * contacts provider notified about a change.
+     *
+     * @param contactsUpdatedMs when the contacts last changed, or -1 if that isn't known
+     */
+    @VisibleForTesting
+    void checkContacts(long contactsUpdatedMs) {
+        awaitOpen();
+        synchronized (this) {
+            if (contactsUpdatedMs >= 0 && contactsUpdatedMs <= mContactsUpdatedMs) {
+                // Nothing a contact is made of changed
+                return;
+            }
+        }
+        LogUtils.d(LOG_TAG, "AvatarDiskCache: contacts changed, dropping entries");
+        invalidate(contactsUpdatedMs);
+    }
+
+    private void invalidate(long contactsUpdatedMs) {
+        awaitOpen();
+        synchronized (this) {
+            mVersion++;
+            mContactsUpdatedMs = Math.max(mContactsUpdatedMs, contactsUpdatedMs);
+            mIndex.clear();
+            mWarm.clear();
+            if (mData == null) {
+                return;
+            }
+            try {
+                writeHeader(mData);
+            } catch (IOException e) {
+                LogUtils.w(LOG_TAG, e, "Unable to invalidate the avatar cache");
+            }
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void close() {
+        mThread.quit();
+        closeQuietly();
+    }
+
+    private void awaitOpen() {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            LogUtils.w(LOG_TAG, "AvatarDiskCache used on the UI thread");
+        }
+        try {
+            mOpened.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void closeQuietly() {
+        if (mData != null) {
+            try {
+                mData.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            mData = null;
+        }
+    }
+}
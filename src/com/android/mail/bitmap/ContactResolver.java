@@ -18,9 +18,12 @@
 package com.android.mail.bitmap;
 
 import android.content.ContentResolver;
+import android.graphics.Bitmap;
 import android.os.AsyncTask;
 import android.os.AsyncTask.Status;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.util.LruCache;
 
 import com.android.bitmap.BitmapCache;
 import com.android.bitmap.DecodeTask;
@@ -30,21 +33,40 @@ import com.android.ex.photo.util.Trace;
 import com.android.mail.ContactInfo;
 import com.android.mail.SenderInfoLoader;
 import com.android.mail.bitmap.ContactRequest.ContactRequestHolder;
+import com.android.mail.perf.PerfMetrics;
 import com.android.mail.utils.LogTag;
 import com.android.mail.utils.LogUtils;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Batches up ContactRequests so we can efficiently query the contacts provider. Kicks off a
  * ContactResolverTask to query for contact images in the background.
+ *
+ * <p/>
+ * Resolving is a pipeline of two stages. Batches are queried one at a time, and the photos they
+ * find are decoded on a small pool of threads while the next batch is queried. Both stages take
+ * the requests of the latest layout pass first, since those are the rows on screen. The decode
+ * pool is shared by every resolver, so layout passes are counted across resolvers. Requests
+ * that are removed before their photo is decoded, because their row was recycled, are never
+ * decoded. Emails without a photo are not queried again for {@link #NO_PHOTO_TTL_MS}.
+ *
+ * <p/>
+ * With an {@link AvatarDiskCache}, requests are looked up on disk before they are queried, and
+ * the results of queries are written back, so that avatars survive the process.
  */
 public class ContactResolver implements Runnable {
 
@@ -54,20 +76,77 @@ public class ContactResolver implements Runnable {
     private static final int MAXIMUM_PHOTO_SIZE = 96;
     private static final int HALF_MAXIMUM_PHOTO_SIZE = 48;
 
+    /** Most emails in one query, so that a backlog doesn't hold up the rows on screen. */
+    private static final int MAX_BATCH_SIZE = 20;
+    /** How long an email that has no photo isn't queried again. */
+    @VisibleForTesting
+    static final long NO_PHOTO_TTL_MS = 5 * 60 * 1000;
+    private static final int NO_PHOTO_CACHE_SIZE = 500;
+
     protected final ContentResolver mResolver;
     private final BitmapCache mCache;
-    /** Insertion ordered set allows us to work from the top down. */
-    private final LinkedHashSet<ContactRequestHolder> mBatch;
+    /** Insertion ordered map allows us to work from the top down. */
+    private final LinkedHashMap<ContactRequestHolder, PendingRequest> mBatch;
+    /** When each email found without a photo may be queried again, in uptime millis. */
+    private final LruCache<String, Long> mNoPhotoUntil =
+            new LruCache<String, Long>(NO_PHOTO_CACHE_SIZE);
 
     private final Handler mHandler = new Handler();
     private ContactResolverTask mTask;
+    private AvatarDiskCache mDiskCache;
+    /**
+     * Moves on after every layout pass of any resolver, so that the latest requests are those on
+     * screen. UI thread only.
+     */
+    private static int sGeneration;
+    /** Orders the requests of every resolver in the order they were added. UI thread only. */
+    private static long sSequence;
 
+    /** When the first avatar was requested from this resolver. */
+    private long mColdFillStartNanos;
+    /** Whether the avatars first requested from this resolver have all been filled. */
+    private boolean mColdFillDone;
 
     /** Size 1 pool mostly to make systrace output traces on one line. */
     private static final Executor SMALL_POOL_EXECUTOR = new ThreadPoolExecutor(1, 1,
             1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
     private static final Executor EXECUTOR = SMALL_POOL_EXECUTOR;
 
+    /** Decodes are fast, but leave a core to the UI thread. */
+    private static final int DECODE_THREADS =
+            Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+    /** Runs {@link DecodeJob}s, which order themselves latest layout pass first. */
+    private static final ThreadPoolExecutor DECODE_EXECUTOR = new ThreadPoolExecutor(
+            DECODE_THREADS, DECODE_THREADS, 1, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<Runnable>());
+
+    static {
+        DECODE_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /** Latest layout pass first. Sorting is stable, so each pass stays top down. */
+    private static final Comparator<PendingRequest> LATEST_FIRST =
+            new Comparator<PendingRequest>() {
+                @Override
+                public int compare(PendingRequest lhs, PendingRequest rhs) {
+                    return rhs.generation < lhs.generation ? -1
+                            : (rhs.generation == lhs.generation ? 0 : 1);
+                }
+            };
+
+    /** The order of the decode pool: latest layout pass first, then top down. */
+    @VisibleForTesting
+    static final Comparator<PendingRequest> DECODE_ORDER = new Comparator<PendingRequest>() {
+        @Override
+        public int compare(PendingRequest lhs, PendingRequest rhs) {
+            final int byGeneration = LATEST_FIRST.compare(lhs, rhs);
+            if (byGeneration != 0) {
+                return byGeneration;
+            }
+            return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+        }
+    };
+
     public interface ContactDrawableInterface {
         public void onDecodeComplete(final RequestKey key, final ReusableBitmap result);
         public int getDecodeWidth();
@@ -77,38 +156,71 @@ public class ContactResolver implements Runnable {
     public ContactResolver(final ContentResolver resolver, final BitmapCache cache) {
         mResolver = resolver;
         mCache = cache;
-        mBatch = new LinkedHashSet<ContactRequestHolder>();
+        mBatch = new LinkedHashMap<ContactRequestHolder, PendingRequest>();
     }
 
     @Override
     public void run() {
+        // Requests added from now on are from a later layout pass.
+        sGeneration++;
+
         // Start to process a new batch.
         if (mBatch.isEmpty()) {
             return;
         }
 
-        if (mTask != null && mTask.getStatus() == Status.RUNNING) {
+        if (mTask != null && mTask.getStatus() != Status.FINISHED) {
+            // It starts the next batch when it is done.
             LogUtils.d(TAG, "ContactResolver << batch skip");
             return;
         }
 
         Trace.beginSection("ContactResolver run");
-        LogUtils.d(TAG, "ContactResolver >> batch start");
+        final List<PendingRequest> batch = takeBatch();
+        if (!batch.isEmpty()) {
+            LogUtils.d(TAG, "ContactResolver >> batch start %d", batch.size());
+            mTask = getContactResolverTask(batch);
+            mTask.executeOnExecutor(EXECUTOR);
+        }
+        Trace.endSection();
+    }
 
-        // Make a copy of the batch.
-        LinkedHashSet<ContactRequestHolder> batch = new LinkedHashSet<ContactRequestHolder>(mBatch);
+    /**
+     * Answers the requests for emails that are known to have no photo, and returns the next
+     * requests to query, latest layout pass first.
+     */
+    @VisibleForTesting
+    List<PendingRequest> takeBatch() {
+        final long now = SystemClock.uptimeMillis();
+        final List<PendingRequest> noPhoto = Lists.newArrayList();
+        final List<PendingRequest> candidates = Lists.newArrayList();
+        for (PendingRequest pending : mBatch.values()) {
+            if (pending.inFlight) {
+                continue;
+            }
+            final Long until = mNoPhotoUntil.get(pending.holder.getEmail());
+            if (until != null && until > now) {
+                noPhoto.add(pending);
+            } else {
+                candidates.add(pending);
+            }
+        }
 
-        if (mTask != null) {
-            mTask.cancel(true);
+        for (PendingRequest pending : noPhoto) {
+            PerfMetrics.increment(PerfMetrics.COUNT_CONTACT_PHOTO_NEGATIVE_HITS);
+            deliver(pending.holder, null);
         }
 
-        mTask = getContactResolverTask(batch);
-        mTask.executeOnExecutor(EXECUTOR);
-        Trace.endSection();
+        Collections.sort(candidates, LATEST_FIRST);
+        final List<PendingRequest> batch = Lists.newArrayList(
+                candidates.subList(0, Math.min(MAX_BATCH_SIZE, candidates.size())));
+        for (PendingRequest pending : batch) {
+            pending.inFlight = true;
+        }
+        return batch;
     }
 
-    protected ContactResolverTask getContactResolverTask(
-            LinkedHashSet<ContactRequestHolder> batch) {
+    protected ContactResolverTask getContactResolverTask(List<PendingRequest> batch) {
         return new ContactResolverTask(batch, mResolver, mCache, this);
     }
 
@@ -116,13 +228,48 @@ public class ContactResolver implements Runnable {
         return mCache;
     }
 
+    /**
+     * Keeps avatars on disk as well as in the {@link BitmapCache}. Must be called before the
+     * first request is added.
+     */
+    public void setDiskCache(AvatarDiskCache diskCache) {
+        mDiskCache = diskCache;
+    }
+
     public void add(final ContactRequest request, final ContactDrawableInterface drawable) {
-        mBatch.add(new ContactRequestHolder(request, drawable));
+        final ContactRequestHolder holder = new ContactRequestHolder(request, drawable);
+        if (!mBatch.containsKey(holder)) {
+            mBatch.put(holder, new PendingRequest(holder, sGeneration, sSequence++));
+        }
+        if (mDiskCache != null && !mColdFillDone && mColdFillStartNanos == 0) {
+            mColdFillStartNanos = PerfMetrics.start();
+        }
         notifyBatchReady();
     }
 
     public void remove(final ContactRequest request, final ContactDrawableInterface drawable) {
-        mBatch.remove(new ContactRequestHolder(request, drawable));
+        final PendingRequest pending = mBatch.remove(new ContactRequestHolder(request, drawable));
+        if (pending != null && pending.inFlight) {
+            // Its row was recycled, so nobody will see the photo.
+            pending.cancelled = true;
+            final DecodeJob decode = pending.decode;
+            if (decode != null && DECODE_EXECUTOR.remove(decode)) {
+                PerfMetrics.increment(PerfMetrics.COUNT_CONTACT_PHOTO_DECODES_CANCELLED);
+            }
+        }
+        stopColdFillIfDone();
+    }
+
+    /**
+     * Stops timing the cold fill once no request is left in the batch, whether its last requests
+     * were delivered or removed.
+     */
+    private void stopColdFillIfDone() {
+        if (mBatch.isEmpty() && mColdFillStartNanos != 0 && !mColdFillDone) {
+            // The first screen of avatars is filled in
+            PerfMetrics.stop(PerfMetrics.AVATAR_COLD_FILL, mColdFillStartNanos);
+            mColdFillDone = true;
+        }
     }
 
     /**
@@ -143,26 +290,104 @@ public class ContactResolver implements Runnable {
         mHandler.post(this);
     }
 
+    /**
+     * Queues the decode of a photo that was found for a request. May be called from any thread.
+     */
+    @VisibleForTesting
+    void decode(final PendingRequest pending, final byte[] photo) {
+        final DecodeJob decode = new DecodeJob(pending, photo);
+        pending.decode = decode;
+        DECODE_EXECUTOR.execute(decode);
+    }
+
+    /**
+     * Delivers a photo that was read from disk, through the {@link BitmapCache} like a decoded
+     * one. May be called from any thread.
+     */
+    private void deliverFromDisk(final ContactRequestHolder request, final Bitmap photo) {
+        final ReusableBitmap result = new ReusableBitmap(photo, false /* reusable */);
+        result.setLogicalWidth(photo.getWidth());
+        result.setLogicalHeight(photo.getHeight());
+        result.acquireReference();
+        if (mCache != null) {
+            mCache.put(request.contactRequest, result);
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deliver(request, result);
+            }
+        });
+    }
+
+    /**
+     * Returns the size that photos are decoded to for a drawable of the given size.
+     */
+    private static int getPhotoSize(final int decodeSize) {
+        return HALF_MAXIMUM_PHOTO_SIZE >= decodeSize ? HALF_MAXIMUM_PHOTO_SIZE : MAXIMUM_PHOTO_SIZE;
+    }
+
+    /**
+     * Passes the result of a request to its drawable. Must be called from the UI thread.
+     */
+    private void deliver(final ContactRequestHolder request, final ReusableBitmap bitmap) {
+        final PendingRequest pending = mBatch.remove(request);
+        if (pending != null) {
+            PerfMetrics.stop(PerfMetrics.CONTACT_PHOTO_RESOLVE, pending.startNanos);
+        }
+        stopColdFillIfDone();
+
+        // DecodeTask does not add null results to the cache.
+        if (bitmap == null && mCache != null) {
+            // Cache null result.
+            mCache.put(request.contactRequest, null);
+        }
+
+        request.destination.onDecodeComplete(request.contactRequest, bitmap);
+    }
+
+    /**
+     * Answers requests for an email from the UI thread, without a query, until
+     * {@link #NO_PHOTO_TTL_MS} after the given time.
+     */
+    @VisibleForTesting
+    void rememberNoPhoto(final String email, final long nowMs) {
+        mNoPhotoUntil.put(email, nowMs + NO_PHOTO_TTL_MS);
+    }
+
+    /**
+     * Called on the UI thread when a batch has been queried. Requests that the query skipped go
+     * back to waiting for the next batch.
+     */
+    private void onBatchQueried(final List<PendingRequest> batch) {
+        for (PendingRequest pending : batch) {
+            if (pending.decode == null) {
+                pending.inFlight = false;
+            }
+        }
+        notifyBatchReady();
+    }
+
     /**
      * This is not a very traditional AsyncTask, in the sense that we do not care about what gets
      * returned in doInBackground(). Instead, we signal traditional "return values" through
      * publishProgress().
      *
      * <p/>
-     * The reason we do this is because this task is responsible for decoding an entire batch of
-     * ContactRequests. But, we do not want to have to wait to decode all of them before updating
-     * any views. So we must do all the work in doInBackground(),
-     * but upon finishing each individual task, we need to jump out to the UI thread and update
-     * that view.
+     * The reason we do this is because this task is responsible for querying an entire batch of
+     * ContactRequests. But, we do not want to have to wait for the whole batch before updating
+     * any views. So requests that have no photo jump out to the UI thread through
+     * publishProgress(), and photos that were found are handed to the decode pool, which
+     * updates their views as each decode finishes.
      */
     public static class ContactResolverTask extends AsyncTask<Void, Result, Void> {
 
-        private final Set<ContactRequestHolder> mContactRequests;
+        private final List<PendingRequest> mContactRequests;
         private final ContentResolver mResolver;
         private final BitmapCache mCache;
         private final ContactResolver mCallback;
 
-        public ContactResolverTask(final Set<ContactRequestHolder> contactRequests,
+        public ContactResolverTask(final List<PendingRequest> contactRequests,
                 final ContentResolver resolver, final BitmapCache cache,
                 final ContactResolver callback) {
             mContactRequests = contactRequests;
@@ -174,26 +399,51 @@ public class ContactResolver implements Runnable {
         @Override
         protected Void doInBackground(final Void... params) {
             Trace.beginSection("set up");
+            final AvatarDiskCache disk = mCallback.mDiskCache;
             final Set<String> emails = new HashSet<String>(mContactRequests.size());
-            for (ContactRequestHolder request : mContactRequests) {
-                final String email = request.getEmail();
-                emails.add(email);
+            for (PendingRequest pending : mContactRequests) {
+                if (pending.cancelled) {
+                    continue;
+                }
+                final ContactRequestHolder request = pending.holder;
+                if (disk != null) {
+                    final AvatarDiskCache.Entry entry = disk.get(request.getEmail(),
+                            getPhotoSize(request.destination.getDecodeWidth()),
+                            getPhotoSize(request.destination.getDecodeHeight()));
+                    if (entry != null) {
+                        PerfMetrics.increment(PerfMetrics.COUNT_AVATAR_DISK_HITS);
+                        pending.fromDisk = true;
+                        if (entry.bitmap != null) {
+                            mCallback.deliverFromDisk(request, entry.bitmap);
+                        } else {
+                            publishProgress(new Result(request, true));
+                        }
+                        continue;
+                    }
+                    PerfMetrics.increment(PerfMetrics.COUNT_AVATAR_DISK_MISSES);
+                }
+                emails.add(request.getEmail());
             }
             Trace.endSection();
+            if (emails.isEmpty()) {
+                return null;
+            }
 
             Trace.beginSection("load contact photo bytes");
             // Query the contacts provider for the current batch of emails.
             final ImmutableMap<String, ContactInfo> contactInfos = loadContactPhotos(emails);
             Trace.endSection();
 
-            for (ContactRequestHolder request : mContactRequests) {
-                Trace.beginSection("decode");
+            for (PendingRequest pending : mContactRequests) {
+                final ContactRequestHolder request = pending.holder;
                 final String email = request.getEmail();
+                if (pending.cancelled || pending.fromDisk) {
+                    continue;
+                }
                 if (contactInfos == null) {
                     // Query failed.
                     LogUtils.d(TAG, "ContactResolver -- failed  %s", email);
-                    publishProgress(new Result(request, null));
-                    Trace.endSection();
+                    publishProgress(new Result(request, false));
                     continue;
                 }
 
@@ -201,7 +451,6 @@ public class ContactResolver implements Runnable {
                 if (contactInfo == null) {
                     // Request skipped. Try again next batch.
                     LogUtils.d(TAG, "ContactResolver  = skipped %s", email);
-                    Trace.endSection();
                     continue;
                 }
 
@@ -210,32 +459,17 @@ public class ContactResolver implements Runnable {
                 if (photo == null) {
                     // No photo bytes found.
                     LogUtils.d(TAG, "ContactResolver -- failed  %s", email);
-                    publishProgress(new Result(request, null));
-                    Trace.endSection();
+                    publishProgress(new Result(request, true));
+                    if (disk != null) {
+                        disk.putLater(email, getPhotoSize(request.destination.getDecodeWidth()),
+                                getPhotoSize(request.destination.getDecodeHeight()), null, 0, 0);
+                    }
                     continue;
                 }
 
                 // Query succeeded. Photo bytes found.
-                request.contactRequest.bytes = photo;
-
-                // Start decode.
                 LogUtils.d(TAG, "ContactResolver ++ found   %s", email);
-                // Synchronously decode the photo bytes. We are already in a background
-                // thread, and we want decodes to finish in order. The decodes are blazing
-                // fast so we don't need to kick off multiple threads.
-                final int width = HALF_MAXIMUM_PHOTO_SIZE >= request.destination.getDecodeWidth()
-                        ? HALF_MAXIMUM_PHOTO_SIZE : MAXIMUM_PHOTO_SIZE;
-                final int height = HALF_MAXIMUM_PHOTO_SIZE >= request.destination.getDecodeHeight()
-                        ? HALF_MAXIMUM_PHOTO_SIZE : MAXIMUM_PHOTO_SIZE;
-                final DecodeTask.DecodeOptions opts = new DecodeTask.DecodeOptions(
-                        width, height, 1 / 2f, DecodeTask.DecodeOptions.STRATEGY_ROUND_NEAREST);
-                final ReusableBitmap result = new DecodeTask(request.contactRequest, opts, null,
-                        null, mCache).decode();
-                request.contactRequest.bytes = null;
-
-                // Decode success.
-                publishProgress(new Result(request, result));
-                Trace.endSection();
+                mCallback.decode(pending, photo);
             }
 
             return null;
@@ -249,41 +483,123 @@ public class ContactResolver implements Runnable {
         }
 
         /**
-         * We use progress updates to jump to the UI thread so we can decode the batch
-         * incrementally.
+         * We use progress updates to jump to the UI thread so we can update the views of the
+         * batch incrementally.
          */
         @Override
         protected void onProgressUpdate(final Result... values) {
             final ContactRequestHolder request = values[0].request;
-            final ReusableBitmap bitmap = values[0].bitmap;
+            if (values[0].noPhoto) {
+                mCallback.rememberNoPhoto(request.getEmail(), SystemClock.uptimeMillis());
+            }
+            mCallback.deliver(request, null);
+        }
 
-            // DecodeTask does not add null results to the cache.
-            if (bitmap == null && mCache != null) {
-                // Cache null result.
-                mCache.put(request.contactRequest, null);
+        @Override
+        protected void onPostExecute(final Void aVoid) {
+            // Batch queried. Start next batch.
+            mCallback.onBatchQueried(mContactRequests);
+        }
+    }
+
+    /**
+     * A request in the batch, and how far it has got through the pipeline.
+     */
+    public static class PendingRequest {
+        public final ContactRequestHolder holder;
+        /** The layout pass that added the request. */
+        final int generation;
+        /** Orders requests of the same layout pass top down. */
+        final long sequence;
+        final long startNanos;
+        /** Whether it is being queried or decoded. UI thread only. */
+        boolean inFlight;
+        /** Set when it is removed while in flight. */
+        volatile boolean cancelled;
+        /** Set once a photo was found for it. */
+        volatile DecodeJob decode;
+        /** Set when it was answered from the disk cache. Background thread only. */
+        boolean fromDisk;
+
+        PendingRequest(final ContactRequestHolder holder, final int generation,
+                final long sequence) {
+            this.holder = holder;
+            this.generation = generation;
+            this.sequence = sequence;
+            startNanos = PerfMetrics.start();
+        }
+    }
+
+    /**
+     * Decodes the photo of one request on the decode pool, and delivers it on the UI thread.
+     */
+    private class DecodeJob implements Runnable, Comparable<DecodeJob> {
+        private final PendingRequest mPending;
+        private final byte[] mPhoto;
+
+        DecodeJob(final PendingRequest pending, final byte[] photo) {
+            mPending = pending;
+            mPhoto = photo;
+        }
+
+        @Override
+        public void run() {
+            if (mPending.cancelled) {
+                PerfMetrics.increment(PerfMetrics.COUNT_CONTACT_PHOTO_DECODES_CANCELLED);
+                return;
             }
+            Trace.beginSection("decode");
+            final ContactRequestHolder request = mPending.holder;
+            request.contactRequest.bytes = mPhoto;
+            final int width = getPhotoSize(request.destination.getDecodeWidth());
+            final int height = getPhotoSize(request.destination.getDecodeHeight());
+            final DecodeTask.DecodeOptions opts = new DecodeTask.DecodeOptions(
+                    width, height, 1 / 2f, DecodeTask.DecodeOptions.STRATEGY_ROUND_NEAREST);
+            final ReusableBitmap result = new DecodeTask(request.contactRequest, opts, null,
+                    null, mCache).decode();
+            request.contactRequest.bytes = null;
+            Trace.endSection();
+
+            // Copy the photo out before delivering, since the bitmap may be reused once it is
+            // released, but write it after.
+            final AvatarDiskCache disk = mDiskCache;
+            final Bitmap photo = disk != null && result != null
+                    ? AvatarDiskCache.copyPhoto(result.bmp, result.getLogicalWidth(),
+                            result.getLogicalHeight())
+                    : null;
+
+            // Decode success.
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(request, result);
+                }
+            });
 
-            request.destination.onDecodeComplete(request.contactRequest, bitmap);
+            if (photo != null) {
+                disk.putLater(request.getEmail(), width, height, photo, photo.getWidth(),
+                        photo.getHeight());
+            }
         }
 
         @Override
-        protected void onPostExecute(final Void aVoid) {
-            // Batch completed. Start next batch.
-            mCallback.notifyBatchReady();
+        public int compareTo(final DecodeJob other) {
+            return DECODE_ORDER.compare(mPending, other.mPending);
         }
     }
 
     /**
-     * Wrapper for the ContactRequest and its decoded bitmap. This class is used to pass results
+     * Wrapper for a ContactRequest that has no photo. This class is used to pass results
      * to onProgressUpdate().
      */
     private static class Result {
         public final ContactRequestHolder request;
-        public final ReusableBitmap bitmap;
+        /** Whether the query found no photo, rather than failing. */
+        public final boolean noPhoto;
 
-        private Result(final ContactRequestHolder request, final ReusableBitmap bitmap) {
+        private Result(final ContactRequestHolder request, final boolean noPhoto) {
             this.request = request;
-            this.bitmap = bitmap;
+            this.noPhoto = noPhoto;
         }
     }
 }
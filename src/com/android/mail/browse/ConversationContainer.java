@@ -35,11 +35,13 @@ import android.widget.ScrollView;
 
 import com.android.mail.R;
 import com.android.mail.browse.ScrollNotifier.ScrollListener;
+import com.android.mail.perf.PerfMetrics;
 import com.android.mail.providers.UIProvider;
 import com.android.mail.ui.ConversationViewFragment;
-import com.android.mail.utils.DequeMap;
+import com.android.mail.utils.DrawIdler;
 import com.android.mail.utils.InputSmoother;
 import com.android.mail.utils.LogUtils;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
@@ -90,7 +92,26 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
      */
     private static final float SNAP_HEADER_MAX_SCROLL_SPEED = 600f;
 
+    /**
+     * Number of scrap views kept for each item view type, except message headers and footers,
+     * which there can be many of on screen at once.
+     */
+    private static final int MAX_SCRAP_VIEWS_PER_TYPE = 2;
+    private static final int MAX_SCRAP_MESSAGE_HEADERS = 12;
+    private static final int MAX_SCRAP_MESSAGE_FOOTERS = 4;
+    /**
+     * Number of message header and footer views to inflate ahead of time while the UI is idle,
+     * so the first ones to scroll into view don't have to be inflated while drawing.
+     */
+    private static final int PREINFLATE_COUNT = 2;
+
     private ConversationAccountController mAccountController;
+    private OverlayHeightListener mOverlayHeightListener;
+    /**
+     * Overlays whose estimated heights were corrected during the current
+     * {@link #positionOverlays} pass.
+     */
+    private final List<ConversationOverlayItem> mCorrectedOverlays = Lists.newArrayList();
     private ConversationViewAdapter mOverlayAdapter;
     private OverlayPosition[] mOverlayPositions;
     private ConversationWebView mWebView;
@@ -138,10 +159,10 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
     private boolean mMissedPointerDown;
 
     /**
-     * A recycler that holds removed scrap views, organized by integer item view type. All views
-     * in this data structure should be removed from their view parent prior to insertion.
+     * A recycler that holds scrap views, organized by integer item view type. Scrap views may
+     * still be children of this container, laid out off screen.
      */
-    private final DequeMap<Integer, View> mScrapViews = new DequeMap<Integer, View>();
+    private final OverlayViewPool mScrapViews;
 
     /**
      * The current set of overlay views in the view hierarchy. Looking through this map is faster
@@ -195,6 +216,39 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
      */
     private int mAdditionalBottomBorderOverlayTop;
 
+    /**
+     * Direction of the last scroll: 1 is towards the end of the conversation, -1 towards the
+     * start, and 0 if there hasn't been one yet.
+     */
+    private int mScrollDirection;
+    /**
+     * The adapter index of the nearest overlay ahead of the screen in the scroll direction that
+     * has no view yet, or -1. We calculate this after a pass through {@link #positionOverlays},
+     * and bind a view for it once the current frame is done.
+     */
+    private int mBindAheadIndex = -1;
+    private int mBindAheadDistance;
+    private boolean mBindAheadPosted;
+    private final Runnable mBindAheadRunnable = new BindAheadRunnable();
+
+    /**
+     * Tells us when drawing stops, which ends a scroll session and lets us inflate views ahead
+     * of time.
+     */
+    private final DrawIdler mDrawIdler = new DrawIdler();
+    private final DrawIdler.IdleListener mIdleListener = new IdleListener();
+    private final Runnable mPreinflateRunnable = new PreinflateRunnable();
+
+    /**
+     * Overlay views bound, bound ahead of time, inflated and dropped from a full scrap pile
+     * since the current scroll session began. A scroll session lasts until drawing goes idle.
+     */
+    private boolean mInScrollSession;
+    private int mSessionBinds;
+    private int mSessionBindAheads;
+    private int mSessionInflates;
+    private int mSessionEvictions;
+
     /**
      * Child views of this container should implement this interface to be notified when they are
      * being detached.
@@ -207,6 +261,18 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
         void onDetachedFromParent();
     }
 
+    /**
+     * Notified when overlays whose heights were estimated turn out to have a different height
+     * once their real views are measured. The HTML spacers for these overlays need to be resized.
+     */
+    public interface OverlayHeightListener {
+        /**
+         * @param items overlay items whose {@link ConversationOverlayItem#getHeight()} has been
+         * corrected to the measured height of their views
+         */
+        void onOverlayHeightsCorrected(List<ConversationOverlayItem> items);
+    }
+
     public static class OverlayPosition {
         public final int top;
         public final int bottom;
@@ -236,6 +302,13 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
 
         mOverlayViews = new SparseArray<OverlayView>();
 
+        mScrapViews = new OverlayViewPool(ConversationViewAdapter.VIEW_TYPE_COUNT,
+                MAX_SCRAP_VIEWS_PER_TYPE);
+        mScrapViews.setCapacity(ConversationViewAdapter.VIEW_TYPE_MESSAGE_HEADER,
+                MAX_SCRAP_MESSAGE_HEADERS);
+        mScrapViews.setCapacity(ConversationViewAdapter.VIEW_TYPE_MESSAGE_FOOTER,
+                MAX_SCRAP_MESSAGE_FOOTERS);
+
         mVelocityTracker = new InputSmoother(c);
 
         mTouchSlop = ViewConfiguration.get(c).getScaledTouchSlop();
@@ -262,6 +335,23 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
         }
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mDrawIdler.setRootView(this);
+        mDrawIdler.setListener(mIdleListener);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        mDrawIdler.setListener(null);
+        mDrawIdler.setRootView(null);
+        removeCallbacks(mPreinflateRunnable);
+        removeCallbacks(mBindAheadRunnable);
+        mBindAheadPosted = false;
+        super.onDetachedFromWindow();
+    }
+
     public void setupSnapHeader() {
         mSnapHeader = (SnapHeader) findViewById(R.id.snap_header);
         mSnapHeader.setSnappy();
@@ -289,6 +379,10 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
         mSnapEnabled = false; // TODO - re-enable when dogfooders howl
     }
 
+    public void setOverlayHeightListener(OverlayHeightListener listener) {
+        mOverlayHeightListener = listener;
+    }
+
     /**
      * Re-bind any existing views that correspond to the given adapter positions.
      *
@@ -338,6 +432,7 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
             detachOverlay(mOverlayViews.valueAt(i), true /* removeFromContainer */);
         }
         mOverlayViews.clear();
+        mBindAheadIndex = -1;
     }
 
     private void onDataSetChanged() {
@@ -442,6 +537,10 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
     @Override
     public void onNotifierScroll(final int y) {
         mVelocityTracker.onInput(y);
+        if (!mInScrollSession) {
+            mInScrollSession = true;
+            mSessionBinds = mSessionBindAheads = mSessionInflates = mSessionEvictions = 0;
+        }
         mDisableLayoutTracing = true;
         positionOverlays(y, true /* postAddView */); // post the addView since we're in draw code
         mDisableLayoutTracing = false;
@@ -457,6 +556,9 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
      *                    immediately.
      */
     private void positionOverlays(int y, boolean postAddView) {
+        if (y != mOffsetY) {
+            mScrollDirection = y > mOffsetY ? 1 : -1;
+        }
         mOffsetY = y;
 
         /*
@@ -491,6 +593,7 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
 
         mSnapIndex = -1;
         mAdditionalBottomBorderOverlayTop = 0;
+        mBindAheadIndex = -1;
 
         int adapterLoopIndex = mOverlayAdapter.getCount() - 1;
         int spacerIndex = mOverlayPositions.length - 1;
@@ -552,6 +655,46 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
 
         positionSnapHeader(mSnapIndex);
         positionAdditionalBottomBorder(postAddView);
+
+        if (mBindAheadIndex != -1 && !mBindAheadPosted) {
+            post(mBindAheadRunnable);
+            mBindAheadPosted = true;
+        }
+
+        notifyCorrectedOverlays();
+    }
+
+    /**
+     * Tells the listener about overlays whose estimated heights were corrected since the last
+     * call.
+     */
+    private void notifyCorrectedOverlays() {
+        if (!mCorrectedOverlays.isEmpty()) {
+            final List<ConversationOverlayItem> corrected =
+                    ImmutableList.copyOf(mCorrectedOverlays);
+            mCorrectedOverlays.clear();
+            if (mOverlayHeightListener != null) {
+                mOverlayHeightListener.onOverlayHeightsCorrected(corrected);
+            }
+        }
+    }
+
+    /**
+     * If the item's height was only estimated, replace it with the height of its freshly
+     * measured view and remember the item if the two differ.
+     */
+    private void checkEstimatedHeight(ConversationOverlayItem item, View overlayView) {
+        if (!item.isHeightEstimated()) {
+            return;
+        }
+        final int estimate = item.getHeight();
+        final int measured = overlayView.getMeasuredHeight();
+        item.setHeight(measured);
+        if (estimate != measured) {
+            traceLayout("corrected estimated overlay height %d->%d (%s)", estimate, measured,
+                    item);
+            mCorrectedOverlays.add(item);
+        }
     }
 
     /**
@@ -675,8 +818,9 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
     }
 
     public void addScrapView(int type, View v) {
-        mScrapViews.add(type, v);
-        addViewInLayoutWrapper(v, false /* postAddView */);
+        if (mScrapViews.offer(type, v)) {
+            addViewInLayoutWrapper(v, false /* postAddView */);
+        }
     }
 
     private void detachOverlay(OverlayView overlay, boolean removeFromContainer) {
@@ -685,7 +829,15 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
         if (removeFromContainer) {
             removeViewInLayout(overlay.view);
         }
-        mScrapViews.add(overlay.itemType, overlay.view);
+        if (!mScrapViews.offer(overlay.itemType, overlay.view)) {
+            // The pile for this type is full, so let the view go. Removing it is posted for the
+            // same reason detaching is, see mOverlayViews.
+            if (!removeFromContainer) {
+                post(new RemoveViewRunnable(overlay.view));
+            }
+            mSessionEvictions++;
+            PerfMetrics.increment(PerfMetrics.COUNT_OVERLAY_SCRAP_EVICTIONS);
+        }
         if (overlay.view instanceof DetachListener) {
             ((DetachListener) overlay.view).onDetachedFromParent();
         }
@@ -789,16 +941,15 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
             View overlayView = overlay != null ? overlay.view : null;
             // show and/or move overlay
             if (overlayView == null) {
-                overlayView = addOverlayView(adapterIndex, postAddView);
-                ViewCompat.setLayoutDirection(overlayView, ViewCompat.getLayoutDirection(this));
-                measureOverlayView(overlayView);
-                item.markMeasurementValid();
+                overlayView = showOverlayView(adapterIndex, item, postAddView);
                 traceLayout("show/measure overlay %d", adapterIndex);
             } else {
                 traceLayout("move overlay %d", adapterIndex);
                 if (!item.isMeasurementValid()) {
                     item.rebindView(overlayView);
+                    onOverlayBound();
                     measureOverlayView(overlayView);
+                    checkEstimatedHeight(item, overlayView);
                     item.markMeasurementValid();
                     traceLayout("and (re)measure overlay %d, old/new heights=%d/%d", adapterIndex,
                             overlayView.getHeight(), overlayView.getMeasuredHeight());
@@ -811,10 +962,22 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
             mAdditionalBottomBorderOverlayTop = (childBottom > mAdditionalBottomBorderOverlayTop) ?
                     childBottom : mAdditionalBottomBorderOverlayTop;
         } else {
-            // hide overlay
-            if (overlay != null) {
+            final int distanceAhead = getDistanceAhead(overlayTopY, overlayBottomY);
+            if (overlay != null && distanceAhead != -1) {
+                // bound ahead of time, so leave it off screen until it scrolls into view
+                traceLayout("keep overlay %d ahead of the screen", adapterIndex);
+                layoutOverlay(overlay.view, overlayTopY,
+                        overlayTopY + overlay.view.getMeasuredHeight());
+            } else if (overlay != null) {
+                // hide overlay
                 traceLayout("hide overlay %d", adapterIndex);
                 onOverlayScrolledOff(adapterIndex, overlay, overlayTopY, overlayBottomY);
+            } else if (distanceAhead != -1) {
+                traceLayout("overlay %d is about to scroll into view", adapterIndex);
+                if (mBindAheadIndex == -1 || distanceAhead < mBindAheadDistance) {
+                    mBindAheadIndex = adapterIndex;
+                    mBindAheadDistance = distanceAhead;
+                }
             } else {
                 traceLayout("ignore non-visible overlay %d", adapterIndex);
             }
@@ -832,6 +995,34 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
 
     }
 
+    /**
+     * Returns how far an off-screen overlay is ahead of the screen in the current scroll
+     * direction, or -1 if it has no height, is behind the screen or is more than half a screen
+     * ahead.
+     */
+    private int getDistanceAhead(int overlayTopY, int overlayBottomY) {
+        if (overlayTopY == overlayBottomY || mScrollDirection == 0) {
+            return -1;
+        }
+        final int distance = mScrollDirection > 0 ? overlayTopY - (mOffsetY + getHeight())
+                : mOffsetY - overlayBottomY;
+        return distance >= 0 && distance <= getHeight() / 2 ? distance : -1;
+    }
+
+    /**
+     * Gets a view for the overlay at the given adapter index, adds it and measures it. The
+     * caller still has to lay it out.
+     */
+    private View showOverlayView(int adapterIndex, ConversationOverlayItem item,
+            boolean postAddView) {
+        final View overlayView = addOverlayView(adapterIndex, postAddView);
+        ViewCompat.setLayoutDirection(overlayView, ViewCompat.getLayoutDirection(this));
+        measureOverlayView(overlayView);
+        checkEstimatedHeight(item, overlayView);
+        item.markMeasurementValid();
+        return overlayView;
+    }
+
     // layout an existing view
     // need its top offset into the conversation, its height, and the scroll offset
     private void layoutOverlay(View child, int childTop, int childBottom) {
@@ -855,7 +1046,10 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
             LogUtils.d(TAG, "want to REUSE scrolled-in view: index=%d obj=%s", adapterIndex, view);
         } else {
             LogUtils.d(TAG, "want to CREATE scrolled-in view: index=%d obj=%s", adapterIndex, view);
+            mSessionInflates++;
+            PerfMetrics.increment(PerfMetrics.COUNT_OVERLAY_INFLATES);
         }
+        onOverlayBound();
 
         if (view.getParent() == null) {
             addViewInLayoutWrapper(view, postAddView);
@@ -869,6 +1063,11 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
         return view;
     }
 
+    private void onOverlayBound() {
+        mSessionBinds++;
+        PerfMetrics.increment(PerfMetrics.COUNT_OVERLAY_BINDS);
+    }
+
     private void addViewInLayoutWrapper(View view, boolean postAddView) {
         final AddViewRunnable addviewRunnable = new AddViewRunnable(view);
         if (postAddView) {
@@ -892,6 +1091,97 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
         }
     };
 
+    private class RemoveViewRunnable implements Runnable {
+        private final View mView;
+
+        public RemoveViewRunnable(View view) {
+            mView = view;
+        }
+
+        @Override
+        public void run() {
+            removeViewInLayout(mView);
+        }
+    }
+
+    private class BindAheadRunnable implements Runnable {
+        @Override
+        public void run() {
+            mBindAheadPosted = false;
+            final int adapterIndex = mBindAheadIndex;
+            mBindAheadIndex = -1;
+            if (adapterIndex == -1 || mOverlayAdapter == null
+                    || adapterIndex >= mOverlayAdapter.getCount()
+                    || mOverlayViews.get(adapterIndex) != null) {
+                return;
+            }
+            // Bind, measure and park the view off screen where it belongs. The next pass through
+            // positionOverlays() will keep it there until it scrolls into view.
+            final ConversationOverlayItem item = mOverlayAdapter.getItem(adapterIndex);
+            final View overlayView = showOverlayView(adapterIndex, item, false /* postAddView */);
+            layoutOverlay(overlayView, item.getTop(),
+                    item.getTop() + overlayView.getMeasuredHeight());
+            traceLayout("bound overlay %d ahead of time", adapterIndex);
+            mSessionBindAheads++;
+            PerfMetrics.increment(PerfMetrics.COUNT_OVERLAY_BIND_AHEADS);
+            notifyCorrectedOverlays();
+        }
+    }
+
+    private class IdleListener implements DrawIdler.IdleListener {
+        @Override
+        public void onStateChanged(DrawIdler idler, int newState) {
+            if (newState != DrawIdler.STATE_IDLE) {
+                return;
+            }
+            if (mInScrollSession) {
+                mInScrollSession = false;
+                LogUtils.d(TAG, "scroll session: %d overlays bound (%d ahead of time),"
+                        + " %d inflated, %d scrap views dropped", mSessionBinds,
+                        mSessionBindAheads, mSessionInflates, mSessionEvictions);
+            }
+            removeCallbacks(mPreinflateRunnable);
+            post(mPreinflateRunnable);
+        }
+    }
+
+    private class PreinflateRunnable implements Runnable {
+        @Override
+        public void run() {
+            if (mOverlayAdapter == null || mDrawIdler.getCurrentState() != DrawIdler.STATE_IDLE) {
+                return;
+            }
+            if (preinflate(ConversationViewAdapter.VIEW_TYPE_MESSAGE_HEADER)
+                    || preinflate(ConversationViewAdapter.VIEW_TYPE_MESSAGE_FOOTER)) {
+                // one view at a time, so we don't hold up input or drawing for long
+                post(this);
+            }
+        }
+    }
+
+    /**
+     * Inflates a view of the given type into the scrap pile, unless the pile already has
+     * {@link #PREINFLATE_COUNT} views or the conversation has no items of that type.
+     *
+     * @return whether a view was inflated
+     */
+    private boolean preinflate(int type) {
+        if (mScrapViews.size(type) >= PREINFLATE_COUNT) {
+            return false;
+        }
+        for (int i = 0, len = mOverlayAdapter.getCount(); i < len; i++) {
+            final ConversationOverlayItem item = mOverlayAdapter.getItem(i);
+            if (item.getType() == type) {
+                mScrapViews.offer(type,
+                        item.createView(getContext(), mOverlayAdapter.getLayoutInflater(), this));
+                PerfMetrics.increment(PerfMetrics.COUNT_OVERLAY_PREINFLATES);
+                LogUtils.d(TAG, "inflated overlay view of type %d while idle", type);
+                return true;
+            }
+        }
+        return false;
+    }
+
     private class RemoveBorderRunnable implements Runnable {
         @Override
         public void run() {
@@ -1039,12 +1329,7 @@ public class ConversationContainer extends ViewGroup implements ScrollListener {
     public View getNextOverlayView(View curr, boolean isDown) {
         // Find the scraps that we should avoid when fetching the next view.
         final Set<View> scraps = Sets.newHashSet();
-        mScrapViews.visitAll(new DequeMap.Visitor<View>() {
-            @Override
-            public void visit(View item) {
-                scraps.add(item);
-            }
-        });
+        mScrapViews.addAllTo(scraps);
         return mOverlayAdapter.getNextOverlayView(curr, isDown, scraps);
     }
 
@@ -20,10 +20,10 @@ package com.android.mail.browse;
 import android.app.Activity;
 import android.content.ContentProvider;
 import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.OperationApplicationException;
 import android.database.CharArrayBuffer;
 import android.database.ContentObserver;
 import android.database.Cursor;
@@ -33,12 +33,12 @@ import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
-import android.os.RemoteException;
 import android.os.SystemClock;
 import android.support.v4.util.SparseArrayCompat;
 import android.text.TextUtils;
 
 import com.android.mail.content.ThreadSafeCursorWrapper;
+import com.android.mail.perf.PerfMetrics;
 import com.android.mail.providers.Conversation;
 import com.android.mail.providers.Folder;
 import com.android.mail.providers.FolderList;
@@ -165,6 +165,20 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
 
     private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
 
+    /** Rolls back the cached values of conversations that couldn't be written. */
+    private final ConversationWriteQueue.FailureListener mWriteFailureListener =
+            new ConversationWriteQueue.FailureListener() {
+                @Override
+                public void onWritesFailed(final Set<String> conversationUris) {
+                    mMainThreadHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            rollBackCachedValues(conversationUris);
+                        }
+                    });
+                }
+            };
+
     private final boolean mCachingEnabled;
 
     private void setCursor(UnderlyingCursorWrapper cursor) {
@@ -269,7 +283,8 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
      * Simple wrapper for a cursor that provides methods for quickly determining
      * the existence of a row.
      */
-    private static class UnderlyingCursorWrapper extends ThreadSafeCursorWrapper
+    @VisibleForTesting
+    static class UnderlyingCursorWrapper extends ThreadSafeCursorWrapper
             implements DrawIdler.IdleListener {
 
         /**
@@ -454,6 +469,8 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
 
             mRowCache = Collections.unmodifiableList(Arrays.asList(cache));
             final long end = SystemClock.uptimeMillis();
+            PerfMetrics.recordMillis(PerfMetrics.CURSOR_PRELOAD, end - start);
+            PerfMetrics.add(PerfMetrics.COUNT_ROWS_PRELOADED, count);
             LogUtils.i(LOG_TAG, "*** ConversationCursor pre-loading took %sms n=%s", (end-start),
                     count);
 
@@ -895,6 +912,41 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
         return Uri.decode(underlyingUri.toString());
     }
 
+    /**
+     * Drops the cached values of conversations whose changes the underlying provider didn't
+     * accept, so they show their actual state again.
+     *
+     * @param uriStrings the underlying uris of the conversations
+     */
+    private void rollBackCachedValues(Set<String> uriStrings) {
+        if (isClosed()) {
+            return;
+        }
+        LogUtils.w(LOG_TAG, "Rolling back changes to %d conversations", uriStrings.size());
+        synchronized (mCacheMapLock) {
+            for (String uriString : uriStrings) {
+                final ContentValues values = mCacheMap.remove(uriString);
+                if (values != null && values.containsKey(DELETED_COLUMN)) {
+                    mDeletedCount--;
+                }
+            }
+        }
+        final Iterator<Conversation> iter = mMostlyDead.iterator();
+        while (iter.hasNext()) {
+            final Conversation conv = iter.next();
+            if (uriStrings.contains(uriStringFromCachingUri(conv.uri))) {
+                conv.convFlags &= ~Conversation.FLAG_MOSTLY_DEAD;
+                iter.remove();
+            }
+        }
+        if (mDeferSync && mMostlyDead.isEmpty()) {
+            mDeferSync = false;
+            checkNotifyUI();
+        }
+        recalibratePosition();
+        notifyDataChanged();
+    }
+
     public void setConversationColumn(Uri conversationUri, String columnName, Object value) {
         final String uriStr = uriStringFromCachingUri(conversationUri);
         synchronized (mCacheMapLock) {
@@ -1424,6 +1476,7 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
         public static String sUriPrefix;
         public static final String URI_SEPARATOR = "://";
         private ContentResolver mResolver;
+        private ConversationWriteQueue mWriteQueue;
 
         /**
          * Allows the implementing provider to specify the authority that should be used.
@@ -1436,6 +1489,7 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
             AUTHORITY = getAuthority();
             sUriPrefix = "content://" + AUTHORITY + "/";
             mResolver = getContext().getContentResolver();
+            mWriteQueue = new ConversationWriteQueue(mResolver);
             return true;
         }
 
@@ -1449,7 +1503,18 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
         @Override
         public Uri insert(Uri uri, ContentValues values) {
             insertLocal(uri, values);
-            return ProviderExecute.opInsert(mResolver, uri, values);
+            final Uri underlyingUri = uriFromCachingUri(uri);
+            final ContentProviderOperation op =
+                    ContentProviderOperation.newInsert(underlyingUri).withValues(values).build();
+            if (offUiThread()) {
+                final ContentProviderResult[] results = mWriteQueue.applyNow(
+                        underlyingUri.getAuthority(), Lists.newArrayList(op),
+                        ImmutableSet.<String>of(), null /* listener */);
+                return results != null ? results[0].uri : null;
+            }
+            mWriteQueue.enqueue(underlyingUri.getAuthority(), Uri.decode(underlyingUri.toString()),
+                    op, null /* listener */);
+            return null;
         }
 
         @Override
@@ -1467,53 +1532,6 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
             return null;
         }
 
-        /**
-         * Quick and dirty class that executes underlying provider CRUD operations on a background
-         * thread.
-         */
-        static class ProviderExecute implements Runnable {
-            static final int DELETE = 0;
-            static final int INSERT = 1;
-            static final int UPDATE = 2;
-
-            final int mCode;
-            final Uri mUri;
-            final ContentValues mValues; //HEHEH
-            final ContentResolver mResolver;
-
-            ProviderExecute(int code, ContentResolver resolver, Uri uri, ContentValues values) {
-                mCode = code;
-                mUri = uriFromCachingUri(uri);
-                mValues = values;
-                mResolver = resolver;
-            }
-
-            static Uri opInsert(ContentResolver resolver, Uri uri, ContentValues values) {
-                ProviderExecute e = new ProviderExecute(INSERT, resolver, uri, values);
-                if (offUiThread()) return (Uri)e.go();
-                new Thread(e).start();
-                return null;
-            }
-
-            @Override
-            public void run() {
-                go();
-            }
-
-            public Object go() {
-                switch(mCode) {
-                    case DELETE:
-                        return mResolver.delete(mUri, null, null);
-                    case INSERT:
-                        return mResolver.insert(mUri, mValues);
-                    case UPDATE:
-                        return mResolver.update(mUri,  mValues, null, null);
-                    default:
-                        return null;
-                }
-            }
-        }
-
         private void insertLocal(Uri uri, ContentValues values) {
             // Placeholder for now; there's no local insert
         }
@@ -1597,8 +1615,13 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
 
         public int apply(Collection<ConversationOperation> ops,
                 ConversationCursor conversationCursor) {
+            // Off the UI thread, the changes are written before returning
+            final boolean notUiThread = offUiThread();
             final HashMap<String, ArrayList<ContentProviderOperation>> batchMap =
                     new HashMap<String, ArrayList<ContentProviderOperation>>();
+            final HashMap<String, Set<String>> batchUris = new HashMap<String, Set<String>>();
+            final ConversationWriteQueue.FailureListener listener =
+                    conversationCursor.mWriteFailureListener;
             // Increment sequence count
             sSequence++;
 
@@ -1607,14 +1630,24 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
             for (ConversationOperation op: ops) {
                 Uri underlyingUri = uriFromCachingUri(op.mUri);
                 String authority = underlyingUri.getAuthority();
-                ArrayList<ContentProviderOperation> authOps = batchMap.get(authority);
-                if (authOps == null) {
-                    authOps = new ArrayList<ContentProviderOperation>();
-                    batchMap.put(authority, authOps);
-                }
                 ContentProviderOperation cpo = op.execute(underlyingUri);
                 if (cpo != null) {
-                    authOps.add(cpo);
+                    final String conversationUri = uriStringFromCachingUri(op.mUri);
+                    if (notUiThread) {
+                        ArrayList<ContentProviderOperation> authOps = batchMap.get(authority);
+                        if (authOps == null) {
+                            authOps = new ArrayList<ContentProviderOperation>();
+                            batchMap.put(authority, authOps);
+                            batchUris.put(authority, Sets.<String>newHashSet());
+                        }
+                        authOps.add(cpo);
+                        batchUris.get(authority).add(conversationUri);
+                    } else if (op.isCoalescable()) {
+                        mWriteQueue.enqueueUpdate(authority, conversationUri, cpo.getUri(),
+                                op.mValues, listener);
+                    } else {
+                        mWriteQueue.enqueue(authority, conversationUri, cpo, listener);
+                    }
                 }
                 // Keep track of whether our operations require recalibrating the cursor position
                 if (op.mRecalibrateRequired) {
@@ -1631,27 +1664,9 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
             conversationCursor.notifyDataChanged();
 
             // Send changes to underlying provider
-            final boolean notUiThread = offUiThread();
             for (final String authority: batchMap.keySet()) {
-                final ArrayList<ContentProviderOperation> opList = batchMap.get(authority);
-                if (notUiThread) {
-                    try {
-                        mResolver.applyBatch(authority, opList);
-                    } catch (RemoteException e) {
-                    } catch (OperationApplicationException e) {
-                    }
-                } else {
-                    new Thread(new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                mResolver.applyBatch(authority, opList);
-                            } catch (RemoteException e) {
-                            } catch (OperationApplicationException e) {
-                            }
-                        }
-                    }).start();
-                }
+                mWriteQueue.applyNow(authority, batchMap.get(authority),
+                        batchUris.get(authority), listener);
             }
             return sSequence;
         }
@@ -1748,6 +1763,15 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
             mMostlyDead = conv.isMostlyDead();
         }
 
+        /**
+         * Returns whether this operation only sets columns whose latest value is all that
+         * matters, so it can be folded into an earlier pending write.
+         */
+        private boolean isCoalescable() {
+            return mType == UPDATE && !mMostlyDead && !mLocalDeleteOnUpdate
+                    && ConversationWriteQueue.isCoalescable(mValues);
+        }
+
         private ContentProviderOperation execute(Uri underlyingUri) {
             Uri uri = underlyingUri.buildUpon()
                     .appendQueryParameter(UIProvider.SEQUENCE_QUERY_PARAMETER,
@@ -2176,7 +2200,8 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
     }
 
     public void undo(final Context context, final Uri undoUri) {
-        new Thread(new Runnable() {
+        // The undo has to reach the provider after the changes it undoes
+        sProvider.mWriteQueue.runAfterPendingWrites(new Runnable() {
             @Override
             public void run() {
                 Cursor c = context.getContentResolver().query(undoUri, UIProvider.UNDO_PROJECTION,
@@ -2185,7 +2210,7 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
                     c.close();
                 }
             }
-        }).start();
+        });
         undoLocal();
     }
 
@@ -64,6 +64,7 @@ import com.android.mail.R;
 import com.android.mail.analytics.Analytics;
 import com.android.mail.bitmap.CheckableContactFlipDrawable;
 import com.android.mail.bitmap.ContactDrawable;
+import com.android.mail.perf.PerfMetrics;
 import com.android.mail.perf.Timer;
 import com.android.mail.providers.Account;
 import com.android.mail.providers.Conversation;
@@ -472,11 +473,13 @@ public class ConversationItemView extends View
             final boolean swipeEnabled, final boolean importanceMarkersEnabled,
             final boolean showChevronsEnabled, final AnimatedAdapter adapter) {
         Utils.traceBeginSection("CIVC.bind");
+        final long start = PerfMetrics.startDetailed();
         bind(ConversationItemViewModel.forConversation(mAccount.getEmailAddress(), conversation),
                 activity, null /* conversationItemAreaClickListener */,
                 set, folder, checkboxOrSenderImage, swipeEnabled, importanceMarkersEnabled,
                 showChevronsEnabled, adapter, -1 /* backgroundOverrideResId */,
                 null /* photoBitmap */, false /* useFullMargins */, true /* mDividerEnabled */);
+        PerfMetrics.stop(PerfMetrics.CONVERSATION_LIST_BIND, start);
         Utils.traceEndSection();
     }
 
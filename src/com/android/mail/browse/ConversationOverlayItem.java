@@ -33,6 +33,7 @@ public abstract class ConversationOverlayItem {
     private int mHeight;  // in px
     private int mTop;  // in px
     private boolean mNeedsMeasure;
+    private boolean mHeightEstimated;
 
     public static final String LOG_TAG = ConversationViewFragment.LAYOUT_TAG;
 
@@ -105,6 +106,7 @@ public abstract class ConversationOverlayItem {
      */
     public boolean setHeight(int h) {
         LogUtils.i(LOG_TAG, "IN setHeight=%dpx of overlay item: %s", h, this);
+        mHeightEstimated = false;
         if (mHeight != h) {
             mHeight = h;
             mNeedsMeasure = true;
@@ -113,6 +115,26 @@ public abstract class ConversationOverlayItem {
         return false;
     }
 
+    /**
+     * Set a height that was estimated rather than measured from a bound view (see
+     * {@link OverlayHeightModel}). {@link ConversationContainer} measures the real view when the
+     * overlay is first positioned and reports any difference to its
+     * {@link ConversationContainer.OverlayHeightListener}.
+     */
+    public void setEstimatedHeight(int h) {
+        setHeight(h);
+        mNeedsMeasure = true;
+        mHeightEstimated = true;
+    }
+
+    /**
+     * Returns true if the current height is an estimate that has not yet been checked against
+     * a real view.
+     */
+    public boolean isHeightEstimated() {
+        return mHeightEstimated;
+    }
+
     public int getTop() {
         return mTop;
     }
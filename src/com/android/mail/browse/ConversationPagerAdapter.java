@@ -21,13 +21,16 @@ import android.app.Fragment;
 import android.app.FragmentManager;
 import android.app.FragmentTransaction;
 import android.content.Context;
+import android.content.res.Resources;
 import android.database.Cursor;
 import android.database.DataSetObserver;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.support.v4.view.ViewPager;
 import android.view.ViewGroup;
 
+import com.android.mail.R;
 import com.android.mail.preferences.MailPrefs;
 import com.android.mail.providers.Account;
 import com.android.mail.providers.Conversation;
@@ -42,6 +45,10 @@ import com.android.mail.ui.TwoPaneController;
 import com.android.mail.utils.FragmentStatePagerAdapter2;
 import com.android.mail.utils.HtmlSanitizer;
 import com.android.mail.utils.LogUtils;
+import com.android.mail.utils.Utils;
+import com.google.common.collect.Lists;
+
+import java.util.List;
 
 public class ConversationPagerAdapter extends FragmentStatePagerAdapter2
         implements ViewPager.OnPageChangeListener {
@@ -121,6 +128,38 @@ public class ConversationPagerAdapter extends FragmentStatePagerAdapter2
 
     private boolean mPageChangeListenerEnabled;
 
+    /**
+     * <tt>true</tt> to prefetch the messages of the conversations next to the primary item, see
+     * {@link ConversationPrefetcher}.
+     */
+    private boolean mPrefetchEnabled;
+    /**
+     * Neighbors with more messages than this aren't loaded while offscreen, see
+     * ConversationViewFragment#showConversation(). Only those are prefetched.
+     */
+    private final int mMaxAutoLoadMessages;
+    /** Position of the primary item the neighbors were last prefetched for. */
+    private int mPrefetchPosition = NO_PREFETCH_POSITION;
+    /** Position to prefetch the neighbors of once the initial conversation has loaded. */
+    private int mPendingPrefetchPosition = NO_PREFETCH_POSITION;
+    /**
+     * Prefetches wait for the initial conversation, like offscreen loads do, so they don't
+     * compete with it.
+     */
+    private final DataSetObserver mInitialConversationObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            final int position = mPendingPrefetchPosition;
+            stopWaitingForInitialConversation();
+            if (mPrefetchEnabled && !mStopListeningMode && position != NO_PREFETCH_POSITION) {
+                mPrefetchPosition = position;
+                prefetchNeighbors(position);
+            }
+        }
+    };
+
+    private static final int NO_PREFETCH_POSITION = -1;
+
     private static final String LOG_TAG = ConversationPagerController.LOG_TAG;
 
     private static final String BUNDLE_DETACHED_MODE =
@@ -145,6 +184,10 @@ public class ConversationPagerAdapter extends FragmentStatePagerAdapter2
                 mAccount.supportsCapability(UIProvider.AccountCapabilities.SERVER_SANITIZED_HTML);
         mClientSanitizedHtml =
                 mAccount.supportsCapability(UIProvider.AccountCapabilities.CLIENT_SANITIZED_HTML);
+        final Resources res = context.getResources();
+        mPrefetchEnabled = res.getBoolean(R.bool.prefetch_neighbor_conversations)
+                && !Utils.isLowRamDevice(context);
+        mMaxAutoLoadMessages = res.getInteger(R.integer.max_auto_load_messages);
     }
 
     public boolean matches(Account account, Folder folder) {
@@ -167,6 +210,21 @@ public class ConversationPagerAdapter extends FragmentStatePagerAdapter2
         return mDetachedMode;
     }
 
+    /**
+     * Turns prefetching of the conversations next to the primary item on or off. Off by default
+     * unless {@link R.bool#prefetch_neighbor_conversations} is set.
+     */
+    public void setPrefetchEnabled(boolean enabled) {
+        if (mPrefetchEnabled != enabled) {
+            mPrefetchEnabled = enabled;
+            mPrefetchPosition = NO_PREFETCH_POSITION;
+            if (!enabled) {
+                stopWaitingForInitialConversation();
+                ConversationPrefetcher.cancelAll();
+            }
+        }
+    }
+
     /**
      * Returns true if singleton mode or detached mode have been enabled, or if the current cursor
      * is null.
@@ -281,6 +339,64 @@ public class ConversationPagerAdapter extends FragmentStatePagerAdapter2
         LogUtils.d(LOG_TAG, "IN PagerAdapter.setPrimaryItem, pos=%d, frag=%s", position,
                 object);
         super.setPrimaryItem(container, position, object);
+        if (!mPrefetchEnabled || mStopListeningMode || position == mPrefetchPosition
+                || mController == null) {
+            return;
+        }
+        if (mController.isInitialConversationLoading()) {
+            if (mPendingPrefetchPosition == NO_PREFETCH_POSITION) {
+                mController.registerConversationLoadedObserver(mInitialConversationObserver);
+            }
+            mPendingPrefetchPosition = position;
+            return;
+        }
+        stopWaitingForInitialConversation();
+        mPrefetchPosition = position;
+        prefetchNeighbors(position);
+    }
+
+    private void stopWaitingForInitialConversation() {
+        if (mPendingPrefetchPosition != NO_PREFETCH_POSITION) {
+            mPendingPrefetchPosition = NO_PREFETCH_POSITION;
+            if (mController != null) {
+                mController.unregisterConversationLoadedObserver(mInitialConversationObserver);
+            }
+        }
+    }
+
+    /**
+     * Prefetches the messages of the conversations before and after the given position that
+     * won't be loaded offscreen, and cancels any other prefetches. The prefetch of the
+     * conversation at the position itself is kept, since its fragment has just become visible
+     * and its message loader may not have claimed it yet.
+     * <p>
+     * Neighbors with up to {@link #mMaxAutoLoadMessages} messages are already loaded and
+     * rendered by their offscreen fragments. Larger ones wait until they are visible, since
+     * rendering them offscreen is too costly, so paging to one shows a loading state. Their
+     * messages are loaded ahead of time here, but not rendered. Remote conversations need the
+     * network, and are left to load when visible.
+     */
+    private void prefetchNeighbors(int position) {
+        final ConversationCursor cursor = getCursor();
+        final List<Uri> messageListUris = Lists.newArrayListWithCapacity(2);
+        Uri currentMessageListUri = null;
+        if (!isPagingDisabled(cursor)) {
+            if (cursor.moveToPosition(position)) {
+                currentMessageListUri = cursor.getConversation().messageListUri;
+            }
+            for (int neighbor : new int[] { position + 1, position - 1 }) {
+                if (!cursor.moveToPosition(neighbor)) {
+                    continue;
+                }
+                final Conversation c = cursor.getConversation();
+                if (c.isRemote || c.getNumMessages() <= mMaxAutoLoadMessages) {
+                    continue;
+                }
+                messageListUris.add(c.messageListUri);
+            }
+        }
+        ConversationPrefetcher.prefetch(mContext.getContentResolver(), messageListUris,
+                currentMessageListUri);
     }
 
     @Override
@@ -498,6 +614,7 @@ public class ConversationPagerAdapter extends FragmentStatePagerAdapter2
 
     public void setActivityController(ActivityController controller) {
         boolean wasNull = (mController == null);
+        stopWaitingForInitialConversation();
         if (mController != null && !mStopListeningMode) {
             mController.unregisterConversationListObserver(mListObserver);
             mController.unregisterFolderObserver(mFolderObserver);
@@ -534,6 +651,8 @@ public class ConversationPagerAdapter extends FragmentStatePagerAdapter2
         }
         mLastKnownCount = getCount();
         mStopListeningMode = true;
+        stopWaitingForInitialConversation();
+        ConversationPrefetcher.cancelAll();
         LogUtils.d(LOG_TAG, "CPA.stopListening, this=%s", this);
     }
 
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.android.mail.perf.PerfMetrics;
+import com.android.mail.providers.UIProvider;
+import com.android.mail.utils.LogTag;
+import com.android.mail.utils.LogUtils;
+import com.google.common.collect.Maps;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Loads the messages of the conversations next to the one being viewed before the user pages to
+ * them, so their conversation views can skip the query. Used for the neighbors that are too
+ * large to be loaded offscreen, which would otherwise only start loading once visible.
+ * <p>
+ * Each prefetch queries the conversation's message list, builds every message and converts its
+ * body to HTML, all on a background thread. The result waits, watching for changes, until a
+ * conversation view's message loader claims it with {@link #take(Uri)}. Only the conversations
+ * last passed to {@link #prefetch}, and the one being viewed, are kept, so paging quickly
+ * cancels the prefetches that are no longer next to the current conversation. Conversations with
+ * bodies larger than {@link #MAX_BODY_CHARS} are not kept.
+ */
+public final class ConversationPrefetcher {
+    private static final String LOG_TAG = LogTag.getLogTag();
+
+    /** Most chars of message bodies kept for one conversation, about 1MB. */
+    private static final int MAX_BODY_CHARS = 512 * 1024;
+    /** How long a message loader waits for a prefetch of its conversation that is still running. */
+    private static final long MAX_WAIT_MS = 1000;
+
+    private static final Object sLock = new Object();
+    /** Prefetches that haven't been claimed yet, by message list uri. Guarded by sLock. */
+    private static final Map<Uri, Prefetch> sPrefetches = Maps.newHashMap();
+    /** Guarded by sLock. */
+    private static Handler sHandler;
+
+    private ConversationPrefetcher() {}
+
+    private static final class Prefetch implements Runnable {
+        final ContentResolver resolver;
+        final Uri uri;
+        /** Counted down once the prefetch has finished, whether or not it succeeded. */
+        final CountDownLatch done = new CountDownLatch(1);
+        final ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                stale = true;
+            }
+        };
+        volatile boolean cancelled;
+        volatile boolean stale;
+        private final AtomicBoolean mDropped = new AtomicBoolean();
+        /** The loaded messages, or null until loaded. Guarded by sLock. */
+        MessageCursor cursor;
+
+        Prefetch(ContentResolver resolver, Uri uri) {
+            this.resolver = resolver;
+            this.uri = uri;
+        }
+
+        @Override
+        public void run() {
+            try {
+                load();
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private void load() {
+            if (cancelled) {
+                return;
+            }
+            final long start = PerfMetrics.start();
+            Cursor inner = null;
+            try {
+                inner = resolver.query(uri, UIProvider.MESSAGE_PROJECTION, null, null, null);
+                if (inner == null) {
+                    return;
+                }
+                inner.registerContentObserver(observer);
+                // Ensure the cursor window is filled
+                final int count = inner.getCount();
+
+                final MessageCursor messages = new MessageCursor(inner);
+                int bodyChars = 0;
+                for (int i = 0; i < count && !cancelled; i++) {
+                    messages.moveToPosition(i);
+                    // Builds and caches the message, and converts text bodies to HTML
+                    bodyChars += messages.getMessage().getBodyAsHtml().length();
+                    if (bodyChars > MAX_BODY_CHARS) {
+                        LogUtils.d(LOG_TAG, "Not prefetching %s, its bodies are too large", uri);
+                        countDropped();
+                        return;
+                    }
+                }
+                messages.moveToPosition(-1);
+
+                synchronized (sLock) {
+                    if (!cancelled) {
+                        cursor = messages;
+                        inner = null;
+                    }
+                }
+            } catch (RuntimeException e) {
+                LogUtils.w(LOG_TAG, e, "Unable to prefetch %s", uri);
+            } finally {
+                if (inner != null) {
+                    inner.unregisterContentObserver(observer);
+                    inner.close();
+                }
+                PerfMetrics.stop(PerfMetrics.CONVERSATION_PREFETCH, start);
+            }
+        }
+
+        /** Must be called with sLock held. */
+        void cancel() {
+            cancelled = true;
+            sHandler.removeCallbacks(this);
+            if (cursor != null) {
+                cursor.unregisterContentObserver(observer);
+                cursor.close();
+                cursor = null;
+            }
+            countDropped();
+        }
+
+        /** Counts this prefetch as thrown away, once. */
+        void countDropped() {
+            if (mDropped.compareAndSet(false, true)) {
+                PerfMetrics.increment(PerfMetrics.COUNT_CONVERSATION_PREFETCHES_DROPPED);
+            }
+        }
+    }
+
+    /**
+     * Prefetches the messages of the given conversations, and cancels every other prefetch.
+     * Conversations that are already prefetched are kept. Call this on the UI thread when the
+     * current conversation changes.
+     *
+     * @param currentMessageListUri the conversation now being viewed, or null. Its prefetch, if
+     * any, is kept for its message loader to claim, but a new one isn't started.
+     */
+    public static void prefetch(ContentResolver resolver, Collection<Uri> messageListUris,
+            Uri currentMessageListUri) {
+        synchronized (sLock) {
+            final Iterator<Map.Entry<Uri, Prefetch>> it = sPrefetches.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<Uri, Prefetch> entry = it.next();
+                final Uri uri = entry.getKey();
+                if (!uri.equals(currentMessageListUri) && !messageListUris.contains(uri)) {
+                    entry.getValue().cancel();
+                    it.remove();
+                }
+            }
+            for (Uri uri : messageListUris) {
+                if (uri == null || sPrefetches.containsKey(uri)) {
+                    continue;
+                }
+                final Prefetch prefetch = new Prefetch(resolver, uri);
+                sPrefetches.put(uri, prefetch);
+                getHandlerLocked().post(prefetch);
+                PerfMetrics.increment(PerfMetrics.COUNT_CONVERSATION_PREFETCHES);
+            }
+        }
+    }
+
+    /**
+     * Cancels every prefetch and drops the results nobody claimed.
+     */
+    public static void cancelAll() {
+        synchronized (sLock) {
+            for (Prefetch prefetch : sPrefetches.values()) {
+                prefetch.cancel();
+            }
+            sPrefetches.clear();
+        }
+    }
+
+    /**
+     * Claims the prefetched messages of a conversation, waiting a little if they are still
+     * loading. Call this from the message loader's worker thread, never the UI thread.
+     *
+     * @return the messages, up to date and positioned before the first one, or null if the
+     * conversation wasn't prefetched. The caller owns the cursor.
+     */
+    public static MessageCursor take(Uri messageListUri) {
+        final Prefetch prefetch;
+        synchronized (sLock) {
+            prefetch = sPrefetches.remove(messageListUri);
+        }
+        if (prefetch == null) {
+            return null;
+        }
+
+        boolean done = false;
+        try {
+            done = prefetch.done.await(MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final MessageCursor cursor;
+        synchronized (sLock) {
+            if (!done) {
+                prefetch.cancel();
+                return null;
+            }
+            cursor = prefetch.cursor;
+            prefetch.cursor = null;
+        }
+        if (cursor == null) {
+            // the prefetch failed or was too large
+            return null;
+        }
+
+        cursor.unregisterContentObserver(prefetch.observer);
+        if (prefetch.stale) {
+            LogUtils.d(LOG_TAG, "Prefetched %s changed since, loading it again", messageListUri);
+            cursor.close();
+            prefetch.countDropped();
+            return null;
+        }
+        PerfMetrics.increment(PerfMetrics.COUNT_CONVERSATION_PREFETCH_HITS);
+        return cursor;
+    }
+
+    private static Handler getHandlerLocked() {
+        if (sHandler == null) {
+            final HandlerThread thread =
+                    new HandlerThread("ConversationPrefetch", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sHandler = new Handler(thread.getLooper());
+        }
+        return sHandler;
+    }
+}
@@ -676,44 +676,43 @@ public class ConversationViewAdapter extends BaseAdapter {
             return;
         }
 
-        mItems.remove(pos);
-        mItems.addAll(pos, replacements);
+        replaceItems(pos, pos + 1, replacements);
+    }
+
+    /**
+     * Replace the items in positions [start, end) with the given items, and renumber every item
+     * from {@code start} onwards. Items before {@code start} keep their positions.
+     */
+    public void replaceItems(int start, int end,
+            Collection<ConversationOverlayItem> replacements) {
+        mItems.subList(start, end).clear();
+        mItems.addAll(start, replacements);
 
-        // update position for all items
-        for (int i = 0, size = mItems.size(); i < size; i++) {
+        // update position for all items that may have moved
+        for (int i = start, size = mItems.size(); i < size; i++) {
             mItems.get(i).setPosition(i);
         }
     }
 
+    /**
+     * Sets the message of its items.
+     *
+     * @param affectedPositions gets the positions of the items, or null when every overlay is
+     * about to be re-bound anyway
+     */
     public void updateItemsForMessage(ConversationMessage message,
             List<Integer> affectedPositions) {
         for (int i = 0, len = mItems.size(); i < len; i++) {
             final ConversationOverlayItem item = mItems.get(i);
             if (item.belongsToMessage(message)) {
                 item.setMessage(message);
-                affectedPositions.add(i);
+                if (affectedPositions != null) {
+                    affectedPositions.add(i);
+                }
             }
         }
     }
 
-    /**
-     * Remove and return the {@link ConversationFooterItem} from the adapter.
-     */
-    public ConversationFooterItem removeFooterItem() {
-        final int count = mItems.size();
-        if (count < 4) {
-            LogUtils.e(LOG_TAG, "not enough items in the adapter. count: %s", count);
-            return null;
-        }
-        final ConversationFooterItem item = (ConversationFooterItem) mItems.remove(count - 1);
-        if (item == null) {
-            LogUtils.e(LOG_TAG, "removed wrong overlay item: %s", item);
-            return null;
-        }
-
-        return item;
-    }
-
     public ConversationFooterItem getFooterItem() {
         final int count = mItems.size();
         if (count < 4) {
@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.SystemClock;
+
+import com.android.mail.perf.PerfMetrics;
+import com.android.mail.providers.UIProvider.ConversationColumns;
+import com.android.mail.utils.LogTag;
+import com.android.mail.utils.LogUtils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes conversation changes through to the underlying providers in the order they were made,
+ * on a single background thread.
+ * <p>
+ * Writes are held for up to {@link #MAX_LATENCY_MS} so bursts of changes go out in a few
+ * batches. While a write is pending, a later change to the same plain conversation columns
+ * (starred, read and so on) is folded into it, so starring and then unstarring a conversation
+ * sends a single update. Writes that fail because the provider died are retried. Writes that
+ * still fail are reported to their {@link FailureListener}, which should undo whatever was
+ * shown optimistically.
+ */
+final class ConversationWriteQueue {
+    private static final String LOG_TAG = LogTag.getLogTag();
+
+    /** How long a write may wait for others to batch with. */
+    private static final long MAX_LATENCY_MS = 100;
+    /** Most operations sent in one batch. A full batch is flushed right away. */
+    private static final int MAX_BATCH_SIZE = 50;
+    /** Attempts made for a batch when the provider process dies. */
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 250;
+
+    /**
+     * Columns whose latest value is all that matters, so changes to them can be folded into a
+     * pending update. Other columns, such as {@link ConversationColumns#FOLDERS_UPDATED}, hold
+     * changes that must all be sent.
+     */
+    private static final Set<String> COALESCABLE_COLUMNS = ImmutableSet.of(
+            ConversationColumns.STARRED,
+            ConversationColumns.READ,
+            ConversationColumns.SEEN,
+            ConversationColumns.VIEWED,
+            ConversationColumns.PRIORITY);
+
+    /**
+     * Told about writes that the underlying provider didn't accept. Called on the thread that
+     * applied them, which is not the UI thread.
+     */
+    interface FailureListener {
+        /**
+         * @param conversationUris the underlying uris of the conversations that weren't written
+         */
+        void onWritesFailed(Set<String> conversationUris);
+    }
+
+    private static final class Write {
+        final String authority;
+        /** Underlying conversation uri without query parameters. */
+        final String conversationUri;
+        final FailureListener listener;
+        final long enqueueTime;
+        /** The operation to send, or null if it's built from {@link #uri} and {@link #values}. */
+        final ContentProviderOperation operation;
+        Uri uri;
+        ContentValues values;
+
+        Write(String authority, String conversationUri, FailureListener listener,
+                ContentProviderOperation operation, Uri uri, ContentValues values) {
+            this.authority = authority;
+            this.conversationUri = conversationUri;
+            this.listener = listener;
+            this.operation = operation;
+            this.uri = uri;
+            this.values = values;
+            enqueueTime = SystemClock.elapsedRealtime();
+        }
+
+        boolean isCoalescable() {
+            return operation == null;
+        }
+
+        ContentProviderOperation toOperation() {
+            return operation != null ? operation
+                    : ContentProviderOperation.newUpdate(uri).withValues(values).build();
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+
+    /** Guards {@link #mPending} and {@link #mFlushScheduled}. */
+    private final Object mLock = new Object();
+    private final List<Write> mPending = Lists.newArrayList();
+    private boolean mFlushScheduled;
+
+    /** Held while writing, so batches go out one at a time and in order. */
+    private final Object mFlushLock = new Object();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    ConversationWriteQueue(ContentResolver resolver) {
+        this(resolver, startWriterThread());
+    }
+
+    @VisibleForTesting
+    ConversationWriteQueue(ContentResolver resolver, Looper looper) {
+        mResolver = resolver;
+        mHandler = new Handler(looper);
+    }
+
+    private static Looper startWriterThread() {
+        final HandlerThread thread =
+                new HandlerThread("ConversationWrites", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        return thread.getLooper();
+    }
+
+    /**
+     * Returns whether an update with these values can be folded into other pending updates,
+     * see {@link #enqueueUpdate}.
+     */
+    static boolean isCoalescable(ContentValues values) {
+        if (values == null || values.size() == 0) {
+            return false;
+        }
+        for (String column : values.keySet()) {
+            if (!COALESCABLE_COLUMNS.contains(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Queues an operation to send as is.
+     *
+     * @param conversationUri underlying uri of the conversation the operation changes, without
+     *                        query parameters
+     */
+    void enqueue(String authority, String conversationUri, ContentProviderOperation operation,
+            FailureListener listener) {
+        add(new Write(authority, conversationUri, listener, operation, null, null));
+    }
+
+    /**
+     * Queues an update of columns for which only the latest value matters, per
+     * {@link #isCoalescable(ContentValues)}. If the conversation already has such an update
+     * pending, with nothing else queued for the conversation since, the values are merged into
+     * it instead.
+     */
+    void enqueueUpdate(String authority, String conversationUri, Uri uri, ContentValues values,
+            FailureListener listener) {
+        synchronized (mLock) {
+            for (int i = mPending.size() - 1; i >= 0; i--) {
+                final Write pending = mPending.get(i);
+                if (!pending.conversationUri.equals(conversationUri)) {
+                    continue;
+                }
+                if (pending.isCoalescable() && pending.listener == listener
+                        && pending.authority.equals(authority)) {
+                    pending.values.putAll(values);
+                    // the newer uri carries the newer sequence number
+                    pending.uri = uri;
+                    PerfMetrics.increment(PerfMetrics.COUNT_CONVERSATION_WRITES_COALESCED);
+                    return;
+                }
+                break;
+            }
+        }
+        add(new Write(authority, conversationUri, listener, null, uri, new ContentValues(values)));
+    }
+
+    private void add(Write write) {
+        PerfMetrics.increment(PerfMetrics.COUNT_CONVERSATION_WRITES_QUEUED);
+        synchronized (mLock) {
+            mPending.add(write);
+            if (mPending.size() >= MAX_BATCH_SIZE) {
+                mHandler.removeCallbacks(mFlushRunnable);
+                mHandler.post(mFlushRunnable);
+                mFlushScheduled = true;
+            } else if (!mFlushScheduled) {
+                mHandler.postDelayed(mFlushRunnable, MAX_LATENCY_MS);
+                mFlushScheduled = true;
+            }
+        }
+    }
+
+    /**
+     * Sends every pending write, then the given operations, on the calling thread. Use this
+     * off the UI thread when the caller needs the operations done before it continues.
+     *
+     * @return the results, or null if the operations failed
+     */
+    ContentProviderResult[] applyNow(String authority, ArrayList<ContentProviderOperation> ops,
+            Set<String> conversationUris, FailureListener listener) {
+        synchronized (mFlushLock) {
+            flushLocked();
+            final ContentProviderResult[] results = applyBatch(authority, ops);
+            if (results == null && listener != null) {
+                listener.onWritesFailed(conversationUris);
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Runs a task on the writer thread once every write queued so far has been sent, e.g. to
+     * ask the provider to undo them.
+     */
+    void runAfterPendingWrites(final Runnable task) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mFlushLock) {
+                    flushLocked();
+                    task.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends every pending write on the calling thread.
+     */
+    void flush() {
+        synchronized (mFlushLock) {
+            flushLocked();
+        }
+    }
+
+    @VisibleForTesting
+    int getPendingCount() {
+        synchronized (mLock) {
+            return mPending.size();
+        }
+    }
+
+    private void flushLocked() {
+        final List<Write> writes;
+        synchronized (mLock) {
+            if (mFlushScheduled) {
+                mHandler.removeCallbacks(mFlushRunnable);
+                mFlushScheduled = false;
+            }
+            if (mPending.isEmpty()) {
+                return;
+            }
+            writes = Lists.newArrayList(mPending);
+            mPending.clear();
+        }
+
+        final long now = SystemClock.elapsedRealtime();
+        for (Write write : writes) {
+            PerfMetrics.recordMillis(PerfMetrics.CONVERSATION_WRITE_DELAY,
+                    now - write.enqueueTime);
+        }
+
+        // Send consecutive writes for the same authority together, keeping them in order
+        int start = 0;
+        while (start < writes.size()) {
+            final String authority = writes.get(start).authority;
+            int end = start + 1;
+            while (end < writes.size() && end - start < MAX_BATCH_SIZE
+                    && writes.get(end).authority.equals(authority)) {
+                end++;
+            }
+            final List<Write> batch = writes.subList(start, end);
+            final ArrayList<ContentProviderOperation> ops =
+                    new ArrayList<ContentProviderOperation>(batch.size());
+            for (Write write : batch) {
+                ops.add(write.toOperation());
+            }
+            if (applyBatch(authority, ops) == null) {
+                reportFailures(batch);
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Applies a batch, retrying if the provider died.
+     *
+     * @return the results, or null if the batch failed
+     */
+    private ContentProviderResult[] applyBatch(String authority,
+            ArrayList<ContentProviderOperation> ops) {
+        final long start = PerfMetrics.start();
+        PerfMetrics.increment(PerfMetrics.COUNT_CONVERSATION_WRITE_BATCHES);
+        PerfMetrics.add(PerfMetrics.COUNT_CONVERSATION_WRITES_FLUSHED, ops.size());
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return mResolver.applyBatch(authority, ops);
+                } catch (RemoteException e) {
+                    if (attempt == MAX_ATTEMPTS) {
+                        LogUtils.e(LOG_TAG, e, "Giving up on %d conversation writes to %s",
+                                ops.size(), authority);
+                        return null;
+                    }
+                    LogUtils.w(LOG_TAG, e, "Retrying %d conversation writes to %s", ops.size(),
+                            authority);
+                    PerfMetrics.increment(PerfMetrics.COUNT_CONVERSATION_WRITE_RETRIES);
+                    SystemClock.sleep(RETRY_DELAY_MS * attempt);
+                } catch (OperationApplicationException e) {
+                    LogUtils.e(LOG_TAG, e, "Conversation writes to %s failed", authority);
+                    return null;
+                } catch (RuntimeException e) {
+                    // e.g. IllegalArgumentException for an unknown authority or uri
+                    LogUtils.e(LOG_TAG, e, "Conversation writes to %s failed", authority);
+                    return null;
+                }
+            }
+        } finally {
+            PerfMetrics.stop(PerfMetrics.CONVERSATION_WRITE_FLUSH, start);
+        }
+    }
+
+    private static void reportFailures(List<Write> batch) {
+        PerfMetrics.add(PerfMetrics.COUNT_CONVERSATION_WRITES_FAILED, batch.size());
+        // group the conversations by listener, usually there is only one
+        final List<Write> remaining = Lists.newArrayList(batch);
+        while (!remaining.isEmpty()) {
+            final FailureListener listener = remaining.get(0).listener;
+            final Set<String> uris = Sets.newHashSet();
+            for (int i = remaining.size() - 1; i >= 0; i--) {
+                final Write write = remaining.get(i);
+                if (write.listener == listener) {
+                    uris.add(write.conversationUri);
+                    remaining.remove(i);
+                }
+            }
+            if (listener != null) {
+                listener.onWritesFailed(uris);
+            }
+        }
+    }
+}
@@ -21,21 +21,30 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 
 import com.android.emailcommon.TempDirectory;
+import com.android.emailcommon.internet.FileMessageSource;
 import com.android.emailcommon.internet.MimeMessage;
 import com.android.emailcommon.mail.MessagingException;
 import com.android.mail.ui.MailAsyncTaskLoader;
 import com.android.mail.utils.LogTag;
 import com.android.mail.utils.LogUtils;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 
 /**
  * Loader that builds a ConversationMessage from an EML file Uri.
+ * <p>
+ * If the EML file is a file rather than a pipe, none of its parts are copied out of it. Text is
+ * read straight from the file while building the message, and
+ * {@link com.android.mail.providers.EmlAttachmentProvider} decodes each attachment from the
+ * file when it is opened.
  */
 public class EmlMessageLoader extends MailAsyncTaskLoader<ConversationMessage> {
     private static final String LOG_TAG = LogTag.getLogTag();
@@ -52,18 +61,31 @@ public class EmlMessageLoader extends MailAsyncTaskLoader<ConversationMessage> {
         final Context context = getContext();
         TempDirectory.setTempDirectory(context);
         final ContentResolver resolver = context.getContentResolver();
-        final InputStream stream;
+        final ParcelFileDescriptor descriptor;
         try {
-            stream = resolver.openInputStream(mEmlFileUri);
+            descriptor = resolver.openFileDescriptor(mEmlFileUri, "r");
         } catch (FileNotFoundException e) {
             LogUtils.e(LOG_TAG, e, "Could not find eml file at uri: %s", mEmlFileUri);
             return null;
         }
+        if (descriptor == null) {
+            LogUtils.e(LOG_TAG, "Could not open eml file at uri: %s", mEmlFileUri);
+            return null;
+        }
+        final FileInputStream emlFile = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+        // pipes report no size, and can't be read at random
+        final FileMessageSource source =
+                descriptor.getStatSize() >= 0 ? new FileMessageSource(emlFile) : null;
+        final InputStream stream = new BufferedInputStream(emlFile);
 
         final MimeMessage mimeMessage;
         ConversationMessage convMessage;
         try {
-            mimeMessage = new MimeMessage(stream);
+            if (source != null) {
+                mimeMessage = new MimeMessage(stream, source);
+            } else {
+                mimeMessage = new MimeMessage(stream);
+            }
             convMessage = new ConversationMessage(context, mimeMessage, mEmlFileUri);
         } catch (IOException e) {
             LogUtils.e(LOG_TAG, e, "Could not read eml file");
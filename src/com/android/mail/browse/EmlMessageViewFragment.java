@@ -40,6 +40,7 @@ import android.widget.Toast;
 
 import com.android.emailcommon.mail.Address;
 import com.android.mail.R;
+import com.android.mail.perf.PerfMetrics;
 import com.android.mail.providers.Account;
 import com.android.mail.ui.AbstractConversationWebViewClient;
 import com.android.mail.ui.ContactLoaderCallbacks;
@@ -86,6 +87,9 @@ public class EmlMessageViewFragment extends Fragment
 
     private boolean mMessageLoadFailed;
 
+    /** When the eml file started opening, until its body is rendered; otherwise 0. */
+    private long mOpenStartNanos;
+
     /**
      * Cache of email address strings to parsed Address objects.
      * <p>
@@ -123,6 +127,10 @@ public class EmlMessageViewFragment extends Fragment
                 return;
             }
             mViewController.dismissLoadingStatus();
+            if (mOpenStartNanos != 0) {
+                PerfMetrics.stop(PerfMetrics.EML_OPEN, mOpenStartNanos);
+                mOpenStartNanos = 0;
+            }
 
             final Set<String> emailAddresses = Sets.newHashSet();
             final List<Address> cacheCopy;
@@ -162,6 +170,9 @@ public class EmlMessageViewFragment extends Fragment
 
         Bundle args = getArguments();
         mEmlFileUri = args.getParcelable(ARG_EML_FILE_URI);
+        if (savedState == null) {
+            mOpenStartNanos = PerfMetrics.start();
+        }
 
         mWebViewClient = new EmlWebViewClient(null);
         mViewController = new SecureConversationViewController(this);
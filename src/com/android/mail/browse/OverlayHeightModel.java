@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import android.text.TextUtils;
+import android.util.SparseIntArray;
+
+import com.android.mail.browse.ConversationViewAdapter.MessageFooterItem;
+import com.android.mail.browse.ConversationViewAdapter.MessageHeaderItem;
+import com.android.mail.perf.PerfMetrics;
+import com.android.mail.providers.UIProvider.MessageFlagLoaded;
+
+/**
+ * Estimates the heights of conversation overlays (message headers, message footers and
+ * super-collapsed blocks) without inflating and measuring a view for each one.
+ * <p>
+ * Like {@link ConversationItemViewCoordinates}, heights are cached per configuration: the
+ * attributes of an item that decide which child views are shown. Message header text is
+ * single-line and ellipsized, so two items with the same configuration at the same width have
+ * the same height. Items whose height depends on content of variable length (spam warnings,
+ * calendar invites, expanded details, attachments) are not cacheable and must always be measured.
+ * <p>
+ * An estimate is only a starting point for the HTML spacers. {@link ConversationContainer}
+ * measures the real view once the overlay is positioned, and reports any difference so the
+ * spacer can be corrected.
+ */
+public class OverlayHeightModel {
+    public static final int UNKNOWN = -1;
+
+    // A cache key is the view type in its low bits, and the attributes below above them. Each
+    // attribute has its own bit, so that different configurations never share a key.
+    private static final int TYPE_BITS = 8;
+    private static final int KEY_EXPANDED = 1 << TYPE_BITS;
+    private static final int KEY_TOP_BORDER = KEY_EXPANDED << 1;
+    private static final int KEY_DRAFT = KEY_TOP_BORDER << 1;
+    private static final int KEY_ATTACHMENTS = KEY_DRAFT << 1;
+    private static final int KEY_IMAGE_PROMPT = KEY_ATTACHMENTS << 1;
+    private static final int KEY_SHOW_IMAGES = KEY_IMAGE_PROMPT << 1;
+    private static final int KEY_PERMALINK = KEY_SHOW_IMAGES << 1;
+    private static final int KEY_PARTIAL_COMPLETE = KEY_PERMALINK << 1;
+
+    private final SparseIntArray mHeights = new SparseIntArray();
+    private int mWidth;
+
+    private int mEstimates;
+    private int mMeasurements;
+
+    /**
+     * Set the width that overlays are laid out at. Cached heights are discarded when it changes.
+     */
+    public void setWidth(int width) {
+        if (width != mWidth) {
+            mWidth = width;
+            mHeights.clear();
+        }
+    }
+
+    /**
+     * Returns the cached height of items with the same configuration as the given item, or
+     * {@link #UNKNOWN} if there is none or the item is not cacheable. In the latter case the
+     * caller should measure the item and {@link #put} the result.
+     */
+    public int getEstimate(ConversationOverlayItem item) {
+        final Integer key = getCacheKey(item);
+        final int height = key != null ? mHeights.get(key, UNKNOWN) : UNKNOWN;
+        if (height == UNKNOWN) {
+            mMeasurements++;
+            PerfMetrics.increment(PerfMetrics.COUNT_OVERLAY_HEIGHTS_MEASURED);
+        } else {
+            mEstimates++;
+            PerfMetrics.increment(PerfMetrics.COUNT_OVERLAY_HEIGHTS_ESTIMATED);
+        }
+        return height;
+    }
+
+    /**
+     * Record the measured height of an item, to be used for later items with the same
+     * configuration.
+     */
+    public void put(ConversationOverlayItem item, int height) {
+        final Integer key = getCacheKey(item);
+        if (key != null) {
+            mHeights.put(key, height);
+        }
+    }
+
+    public int getEstimateCount() {
+        return mEstimates;
+    }
+
+    public int getMeasurementCount() {
+        return mMeasurements;
+    }
+
+    /**
+     * Returns a key that identifies the configuration of the given item, or null if its height
+     * can't be predicted from its configuration.
+     */
+    private static Integer getCacheKey(ConversationOverlayItem item) {
+        switch (item.getType()) {
+            case ConversationViewAdapter.VIEW_TYPE_MESSAGE_HEADER:
+                return getHeaderCacheKey((MessageHeaderItem) item);
+            case ConversationViewAdapter.VIEW_TYPE_MESSAGE_FOOTER:
+                return getFooterCacheKey((MessageFooterItem) item);
+            case ConversationViewAdapter.VIEW_TYPE_SUPER_COLLAPSED_BLOCK:
+                return item.getType();
+            default:
+                return null;
+        }
+    }
+
+    private static Integer getHeaderCacheKey(MessageHeaderItem header) {
+        final ConversationMessage msg = header.getMessage();
+        final ConversationViewAdapter adapter = header.getAdapter();
+        final boolean hasTopBorder =
+                adapter == null || !adapter.isPreviousItemSuperCollapsed(header);
+        final int key = header.getType() | bit(hasTopBorder, KEY_TOP_BORDER)
+                | bit(msg.isDraft(), KEY_DRAFT);
+        if (!header.isExpanded()) {
+            return key | bit(msg.hasAttachments, KEY_ATTACHMENTS);
+        }
+        if (header.detailsExpanded || msg.spamWarningString != null
+                || msg.isFlaggedCalendarInvite()) {
+            return null;
+        }
+        return key | KEY_EXPANDED | bit(msg.shouldShowImagePrompt(), KEY_IMAGE_PROMPT)
+                | bit(header.getShowImages(), KEY_SHOW_IMAGES);
+    }
+
+    private static Integer getFooterCacheKey(MessageFooterItem footer) {
+        // The footer is measured with the same content whether or not it is expanded; its
+        // spacer is just hidden while collapsed.
+        final ConversationMessage msg = footer.getHeaderItem().getMessage();
+        if (msg.hasAttachments) {
+            return null;
+        }
+        return footer.getType()
+                | bit(msg.clipped && !TextUtils.isEmpty(msg.permalink), KEY_PERMALINK)
+                | bit(msg.messageFlagLoaded == MessageFlagLoaded.FLAG_LOADED_PARTIAL_COMPLETE,
+                        KEY_PARTIAL_COMPLETE);
+    }
+
+    private static int bit(boolean set, int bit) {
+        return set ? bit : 0;
+    }
+}
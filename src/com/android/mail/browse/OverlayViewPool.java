@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import android.view.View;
+
+import java.util.Collection;
+
+/**
+ * A recycler that holds scrap overlay views, organized by integer item view type. Each type has
+ * its own capacity, so a long conversation can't pile up an unbounded number of views of one
+ * type. Views are handed back most recently recycled first, and nothing is allocated when a
+ * view is recycled or reused.
+ */
+final class OverlayViewPool {
+    private final View[][] mPiles;
+    private final int[] mSizes;
+
+    /**
+     * @param typeCount the number of view types, which are 0 to typeCount - 1
+     * @param defaultCapacity the number of views kept for each type unless changed with
+     *                        {@link #setCapacity(int, int)}
+     */
+    OverlayViewPool(int typeCount, int defaultCapacity) {
+        mPiles = new View[typeCount][];
+        mSizes = new int[typeCount];
+        for (int i = 0; i < typeCount; i++) {
+            mPiles[i] = new View[defaultCapacity];
+        }
+    }
+
+    /**
+     * Changes the number of views kept for a type. Views over the new capacity are dropped.
+     */
+    void setCapacity(int type, int capacity) {
+        final View[] pile = new View[capacity];
+        final int size = Math.min(mSizes[type], capacity);
+        System.arraycopy(mPiles[type], 0, pile, 0, size);
+        mPiles[type] = pile;
+        mSizes[type] = size;
+    }
+
+    int getCapacity(int type) {
+        return mPiles[type].length;
+    }
+
+    int size(int type) {
+        return mSizes[type];
+    }
+
+    /**
+     * Adds a view to the pile of its type.
+     *
+     * @return false if the pile is full, in which case the caller should let go of the view
+     */
+    boolean offer(int type, View view) {
+        final View[] pile = mPiles[type];
+        final int size = mSizes[type];
+        if (size == pile.length) {
+            return false;
+        }
+        pile[size] = view;
+        mSizes[type] = size + 1;
+        return true;
+    }
+
+    /**
+     * Removes and returns a view of the given type, or null if there are none.
+     */
+    View poll(int type) {
+        final int size = mSizes[type];
+        if (size == 0) {
+            return null;
+        }
+        final View[] pile = mPiles[type];
+        final View view = pile[size - 1];
+        pile[size - 1] = null;
+        mSizes[type] = size - 1;
+        return view;
+    }
+
+    /**
+     * Returns, but does not remove, the view that {@link #poll(int)} would return.
+     */
+    View peek(int type) {
+        final int size = mSizes[type];
+        return size == 0 ? null : mPiles[type][size - 1];
+    }
+
+    /**
+     * Adds every pooled view, of any type, to {@code out}.
+     */
+    void addAllTo(Collection<? super View> out) {
+        for (int type = 0; type < mPiles.length; type++) {
+            for (int i = 0; i < mSizes[type]; i++) {
+                out.add(mPiles[type][i]);
+            }
+        }
+    }
+}
@@ -92,6 +92,7 @@ import com.android.mail.compose.AttachmentsView.AttachmentAddedOrDeletedListener
 import com.android.mail.compose.AttachmentsView.AttachmentFailureException;
 import com.android.mail.compose.FromAddressSpinner.OnAccountChangedListener;
 import com.android.mail.compose.QuotedTextView.RespondInlineListener;
+import com.android.mail.perf.PerfMetrics;
 import com.android.mail.providers.Account;
 import com.android.mail.providers.Attachment;
 import com.android.mail.providers.Folder;
@@ -2591,6 +2592,7 @@ public class ComposeActivity extends ActionBarActivity
                 UIProvider.AccountCallMethods.SAVE_MESSAGE :
                 UIProvider.AccountCallMethods.SEND_MESSAGE;
 
+        final long start = PerfMetrics.start();
         try {
             if (updateExistingMessage) {
                 sendOrSaveMessage.mValues.put(BaseColumns._ID, messageIdToSave);
@@ -2626,6 +2628,8 @@ public class ComposeActivity extends ActionBarActivity
         } finally {
             // Close any opened file descriptors
             closeOpenedAttachmentFds(sendOrSaveMessage);
+            PerfMetrics.stop(sendOrSaveMessage.mSave ? PerfMetrics.SAVE_MESSAGE
+                    : PerfMetrics.SEND_MESSAGE, start);
         }
     }
 
@@ -18,19 +18,35 @@ package com.android.mail.content;
 
 import android.database.Cursor;
 import android.database.CursorWrapper;
+import android.database.StaleDataException;
 import android.util.SparseArray;
 
+import com.android.mail.utils.LogTag;
+import com.android.mail.utils.LogUtils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * A cursor-backed type that can return an object for each row of the cursor. This class is most
  * useful when:
  * 1. The cursor is returned in conjunction with an AsyncTaskLoader and created off the UI thread.
  * 2. A single row in the cursor specifies everything for an object.
+ *
+ * The cache of objects is safe to populate from a background thread through
+ * {@link #fillCache(int, int)}, provided the wrapped cursor keeps a separate position per thread,
+ * as {@link ThreadSafeCursorWrapper} does.
  */
 public class ObjectCursor <T> extends CursorWrapper {
-    /** The cache for objects in the underlying cursor. */
+    private static final String LOG_TAG = LogTag.getLogTag();
+
+    /** The cache for objects in the underlying cursor. Guarded by itself. */
     private final SparseArray<T> mCache;
     /** An object that knows how to construct {@link T} objects using cursors. */
     private final CursorCreator<T> mFactory;
+    /** Number of objects created by the factory, including ones rebuilt after eviction. */
+    private final AtomicInteger mModelsBuilt = new AtomicInteger();
+    /** Number of objects returned by {@link #getModel()}. */
+    private final AtomicInteger mModelsRead = new AtomicInteger();
 
     /**
      * Creates a new object cursor.
@@ -58,15 +74,33 @@ public class ObjectCursor <T> extends CursorWrapper {
         if (c == null ) {
             return null;
         }
-        final int currentPosition = c.getPosition();
+        mModelsRead.incrementAndGet();
+        return getModelAt(c, c.getPosition());
+    }
+
+    /**
+     * Returns the cached object at the given position, creating it from the cursor, which must
+     * already be at that position, if needed.
+     */
+    private T getModelAt(Cursor c, int position) {
         // The cache contains this object, return it.
-        final T prev = mCache.get(currentPosition);
-        if (prev != null) {
-            return prev;
+        synchronized (mCache) {
+            final T prev = mCache.get(position);
+            if (prev != null) {
+                return prev;
+            }
         }
         // Get the object at the current position and add it to the cache.
         final T model = mFactory.createFromCursor(c);
-        mCache.put(currentPosition, model);
+        mModelsBuilt.incrementAndGet();
+        synchronized (mCache) {
+            // Another thread might have beaten us to it, keep the first one.
+            final T prev = mCache.get(position);
+            if (prev != null) {
+                return prev;
+            }
+            mCache.put(position, model);
+        }
         return model;
     }
 
@@ -81,14 +115,83 @@ public class ObjectCursor <T> extends CursorWrapper {
         }
         do {
             // As a side effect of getModel, the model is cached away.
-            getModel();
+            getModelAt(c, c.getPosition());
         } while (c.moveToNext());
     }
 
+    /**
+     * Populates the cache for the positions in [from, to), clamped to the cursor's rows. Stops
+     * early if the cursor is closed, or if the calling thread is interrupted.
+     */
+    final void fillCache(int from, int to) {
+        final Cursor c = getWrappedCursor();
+        if (c == null) {
+            return;
+        }
+        try {
+            for (int pos = Math.max(0, from); pos < to; pos++) {
+                if (isClosed() || Thread.currentThread().isInterrupted()
+                        || !c.moveToPosition(pos)) {
+                    return;
+                }
+                getModelAt(c, pos);
+            }
+        } catch (IllegalStateException e) {
+            // The cursor was closed underneath us; nobody needs these models anymore.
+            LogUtils.d(LOG_TAG, "ObjectCursor closed while filling cache");
+        } catch (StaleDataException e) {
+            // Its window was released by the close
+            LogUtils.d(LOG_TAG, "ObjectCursor closed while filling cache");
+        }
+    }
+
+    /**
+     * Drops cached objects outside of [keepFrom, keepTo) to release memory. They are rebuilt from
+     * the cursor as new objects when next requested, so changes that callers made to the dropped
+     * objects are lost. Only trim the cursors of callers that never update their objects in
+     * place or hold on to them.
+     *
+     * @return the number of objects dropped
+     */
+    final int trimCache(int keepFrom, int keepTo) {
+        if (mCache == null) {
+            return 0;
+        }
+        int dropped = 0;
+        synchronized (mCache) {
+            for (int i = mCache.size() - 1; i >= 0; i--) {
+                final int pos = mCache.keyAt(i);
+                if (pos < keepFrom || pos >= keepTo) {
+                    mCache.removeAt(i);
+                    dropped++;
+                }
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Returns the number of objects the factory has created for this cursor.
+     */
+    public final int getModelsBuilt() {
+        return mModelsBuilt.get();
+    }
+
+    /**
+     * Returns the number of objects requested through {@link #getModel()}.
+     */
+    public final int getModelsRead() {
+        return mModelsRead.get();
+    }
+
     @Override
     public void close() {
         super.close();
-        mCache.clear();
+        if (mCache != null) {
+            synchronized (mCache) {
+                mCache.clear();
+            }
+        }
     }
 
 }
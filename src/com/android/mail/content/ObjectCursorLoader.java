@@ -17,15 +17,24 @@
 package com.android.mail.content;
 
 import com.android.mail.utils.LogTag;
+import com.android.mail.utils.LogUtils;
 
 import android.content.AsyncTaskLoader;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Process;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A copy of the framework's {@link android.content.CursorLoader} class. Copied because
@@ -52,6 +61,58 @@ public class ObjectCursorLoader<T> extends AsyncTaskLoader<ObjectCursor<T>> {
 
     private int mDebugDelayMs = 0;
 
+    /** Build every model in {@link #loadInBackground()}. This is the default. */
+    public static final int MATERIALIZE_ALL = 0;
+    /**
+     * Build the models in a window around a position in {@link #loadInBackground()}, and the
+     * rest on a low priority background thread.
+     */
+    public static final int MATERIALIZE_WINDOW = 1;
+    /**
+     * Only build models when they are requested through {@link ObjectCursor#getModel()}.
+     */
+    public static final int MATERIALIZE_ON_DEMAND = 2;
+
+    private int mMaterializePolicy = MATERIALIZE_ALL;
+    private int mWindowPosition = 0;
+    private int mWindowSize = 0;
+    /** Whether models outside the window may be evicted when memory runs low. */
+    private boolean mEvictable = false;
+
+    /** Builds the models outside of the first window, one cursor at a time. */
+    private static final Executor LOW_PRIORITY_EXECUTOR = new ThreadPoolExecutor(1, 1,
+            1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                            r.run();
+                        }
+                    }, "ObjectCursorLoader");
+                }
+            });
+
+    /** Evicts models outside of the window when memory runs low. */
+    private final ComponentCallbacks2 mTrimCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                trimCache();
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimCache();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {}
+    };
+    private boolean mTrimCallbacksRegistered = false;
+
     public ObjectCursorLoader(Context context, Uri uri, String[] projection,
             CursorCreator<T> factory) {
         super(context);
@@ -73,6 +134,12 @@ public class ObjectCursorLoader<T> extends AsyncTaskLoader<ObjectCursor<T>> {
     /* Runs on a worker thread */
     @Override
     public ObjectCursor<T> loadInBackground() {
+        final ObjectCursor<T> prefetched = takePrefetchedCursor();
+        if (prefetched != null) {
+            prefetched.registerContentObserver(mObserver);
+            return prefetched;
+        }
+
         final Cursor inner = getContext().getContentResolver().query(mUri, mProjection,
                 mSelection, mSelectionArgs, mSortOrder);
         if (inner == null) {
@@ -84,8 +151,27 @@ public class ObjectCursorLoader<T> extends AsyncTaskLoader<ObjectCursor<T>> {
         inner.registerContentObserver(mObserver);
 
         // Modifications to the ObjectCursor, create an Object Cursor and fill the cache.
-        final ObjectCursor<T> cursor = getObjectCursor(inner);
-        cursor.fillCache();
+        final ObjectCursor<T> cursor;
+        if (mMaterializePolicy == MATERIALIZE_ALL) {
+            cursor = getObjectCursor(inner);
+            cursor.fillCache();
+        } else {
+            // Models will be built on other threads than the UI thread, so each thread needs its
+            // own cursor position.
+            cursor = getObjectCursor(new ThreadSafeCursorWrapper(inner));
+            if (mMaterializePolicy == MATERIALIZE_WINDOW) {
+                final int windowStart = getWindowStart();
+                final int windowEnd = windowStart + mWindowSize;
+                cursor.fillCache(windowStart, windowEnd);
+                LOW_PRIORITY_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        cursor.fillCache(windowEnd, cursor.getCount());
+                        cursor.fillCache(0, windowStart);
+                    }
+                });
+            }
+        }
 
         try {
             if (mDebugDelayMs > 0) {
@@ -96,6 +182,14 @@ public class ObjectCursorLoader<T> extends AsyncTaskLoader<ObjectCursor<T>> {
         return cursor;
     }
 
+    /**
+     * Returns a cursor for this loader's uri that was loaded ahead of time, with its models
+     * already built, or null to query for one. Runs on a worker thread.
+     */
+    protected ObjectCursor<T> takePrefetchedCursor() {
+        return null;
+    }
+
     protected ObjectCursor<T> getObjectCursor(Cursor inner) {
         return new ObjectCursor<T>(inner, mFactory);
     }
@@ -131,6 +225,10 @@ public class ObjectCursorLoader<T> extends AsyncTaskLoader<ObjectCursor<T>> {
      */
     @Override
     protected void onStartLoading() {
+        if (mEvictable && mMaterializePolicy != MATERIALIZE_ALL && !mTrimCallbacksRegistered) {
+            getContext().registerComponentCallbacks(mTrimCallbacks);
+            mTrimCallbacksRegistered = true;
+        }
         if (mCursor != null) {
             deliverResult(mCursor);
         }
@@ -162,7 +260,14 @@ public class ObjectCursorLoader<T> extends AsyncTaskLoader<ObjectCursor<T>> {
         // Ensure the loader is stopped
         onStopLoading();
 
+        if (mTrimCallbacksRegistered) {
+            getContext().unregisterComponentCallbacks(mTrimCallbacks);
+            mTrimCallbacksRegistered = false;
+        }
+
         if (mCursor != null && !mCursor.isClosed()) {
+            LogUtils.d(LOG_TAG, "ObjectCursorLoader %s: %d models built, %d read", mUri,
+                    mCursor.getModelsBuilt(), mCursor.getModelsRead());
             mCursor.close();
         }
         mCursor = null;
@@ -179,6 +284,13 @@ public class ObjectCursorLoader<T> extends AsyncTaskLoader<ObjectCursor<T>> {
         writer.println(Arrays.toString(mSelectionArgs));
         writer.print(prefix); writer.print("mSortOrder="); writer.println(mSortOrder);
         writer.print(prefix); writer.print("mCursor="); writer.println(mCursor);
+        writer.print(prefix); writer.print("mMaterializePolicy=");
+        writer.println(mMaterializePolicy);
+        if (mCursor != null) {
+            writer.print(prefix); writer.print("modelsBuilt=");
+            writer.print(mCursor.getModelsBuilt());
+            writer.print(" modelsRead="); writer.println(mCursor.getModelsRead());
+        }
     }
 
     /**
@@ -193,6 +305,54 @@ public class ObjectCursorLoader<T> extends AsyncTaskLoader<ObjectCursor<T>> {
         return this;
     }
 
+    /**
+     * Sets how eagerly models are built for the rows of the loaded cursors. Must be called before
+     * the loader is started.
+     *
+     * @param policy one of {@link #MATERIALIZE_ALL}, {@link #MATERIALIZE_WINDOW} or
+     *               {@link #MATERIALIZE_ON_DEMAND}
+     * @param windowPosition the position the first window is centered on, usually the first
+     *                       visible row. Only used for {@link #MATERIALIZE_WINDOW}
+     * @param windowSize the number of models in the window. Only used for
+     *                   {@link #MATERIALIZE_WINDOW}
+     * @return this object itself, for fluent chaining
+     */
+    public ObjectCursorLoader<T> setMaterializePolicy(int policy, int windowPosition,
+            int windowSize) {
+        mMaterializePolicy = policy;
+        mWindowPosition = windowPosition;
+        mWindowSize = windowSize;
+        return this;
+    }
+
+    /**
+     * Lets models outside the window be evicted when memory runs low, for the
+     * {@link #MATERIALIZE_WINDOW} and {@link #MATERIALIZE_ON_DEMAND} policies. Evicted models are
+     * rebuilt as new objects when they are next requested, so callers that update models in
+     * place, or hold on to them, must not make their loader evictable. Must be called before the
+     * loader is started.
+     *
+     * @return this object itself, for fluent chaining
+     */
+    public ObjectCursorLoader<T> setEvictable(boolean evictable) {
+        mEvictable = evictable;
+        return this;
+    }
+
+    private int getWindowStart() {
+        return Math.max(0, mWindowPosition - mWindowSize / 2);
+    }
+
+    private void trimCache() {
+        final ObjectCursor<T> cursor = mCursor;
+        if (cursor == null || !mEvictable || mMaterializePolicy == MATERIALIZE_ALL) {
+            return;
+        }
+        final int windowStart = getWindowStart();
+        final int dropped = cursor.trimCache(windowStart, windowStart + mWindowSize);
+        LogUtils.d(LOG_TAG, "ObjectCursorLoader %s: evicted %d models", mUri, dropped);
+    }
+
     public final Uri getUri() {
         return mUri;
     }
@@ -28,6 +28,7 @@ import com.android.mail.providers.Folder;
 import com.android.mail.ui.ControllableActivity;
 import com.android.mail.ui.FolderListFragment;
 import com.android.mail.utils.FolderUri;
+import com.google.common.base.Objects;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -226,6 +227,18 @@ public abstract class DrawerItem {
 
     public abstract @DrawerItemType int getType();
 
+    /**
+     * Returns whether this item and the given one stand for the same entry in the drawer, so that
+     * a view bound to one can be rebound to the other in place. Their content, such as a
+     * folder's unread count, may still differ.
+     */
+    public boolean isSameItem(DrawerItem other) {
+        return other != null && getType() == other.getType()
+                && mItemCategory == other.mItemCategory
+                && Objects.equal(mFolder, other.mFolder)
+                && Objects.equal(mAccount, other.mAccount);
+    }
+
     public void onClick(View v) {}
 }
 
@@ -71,4 +71,9 @@ class HeaderDrawerItem extends DrawerItem {
     public @DrawerItemType int getType() {
         return VIEW_HEADER;
     }
+
+    @Override
+    public boolean isSameItem(DrawerItem other) {
+        return super.isSameItem(other) && mResource == ((HeaderDrawerItem) other).mResource;
+    }
 }
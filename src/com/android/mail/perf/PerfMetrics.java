@@ -0,0 +1,486 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.perf;
+
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Process-wide registry of performance metrics that is cheap enough to leave on in production.
+ * <p>
+ * Unlike {@link Timer} and {@link SimpleTimer}, which log individual measurements while
+ * debugging, this aggregates measurements so they can be inspected later. Every metric has a
+ * fixed id, declared below. Latencies go into lock-free log-linear histograms, and counters
+ * are plain atomic longs. Nothing is allocated or locked when a measurement is recorded.
+ * <p>
+ * Typical use:
+ *
+ * <pre>
+ * final long start = PerfMetrics.start();
+ * ... code to measure ...
+ * PerfMetrics.stop(PerfMetrics.SANITIZE_HTML, start);
+ * </pre>
+ *
+ * Sampling is disabled until {@link #init} is called when a mail activity is created. Debug
+ * builds then sample everything. Release builds sample one process in
+ * {@link #RELEASE_SAMPLE_ONE_IN}, so that metrics can be aggregated from the field, and leave
+ * out the per-frame paths timed through {@link #startDetailed()}. Sampling can also be switched
+ * at run time with {@code adb shell dumpsys activity <mail activity> --perf-metrics
+ * on|detailed|off}, and tests switch it with {@link #setEnabled}. While sampling is disabled,
+ * {@link #start()} returns 0 and nothing is recorded. The results are printed by {@link #dump},
+ * which is included in the output of {@code adb shell dumpsys activity} for the mail
+ * activity.
+ */
+public final class PerfMetrics {
+    // Latency ids. Keep LATENCY_NAMES in sync.
+    /** Tapping a conversation in the list until its content is revealed. */
+    public static final int CONVERSATION_OPEN = 0;
+    /** Loading the rendered conversation into the WebView until it signals content ready. */
+    public static final int CONVERSATION_WEBVIEW_LOAD = 1;
+    /** Applying a conversation update by patching the changed messages. */
+    public static final int CONVERSATION_PATCH = 2;
+    /** Applying a conversation update by rendering the conversation again. */
+    public static final int CONVERSATION_RERENDER = 3;
+    /** Binding a conversation to a conversation list item. */
+    public static final int CONVERSATION_LIST_BIND = 4;
+    /** Pre-loading the rows of a new conversation list cursor. */
+    public static final int CURSOR_PRELOAD = 5;
+    /** Sanitizing the HTML of a message body. */
+    public static final int SANITIZE_HTML = 6;
+    /** The provider calls that send a message. */
+    public static final int SEND_MESSAGE = 7;
+    /** The provider calls that save a draft. */
+    public static final int SAVE_MESSAGE = 8;
+    /** Launching the app until the conversation list is shown. */
+    public static final int COLD_START = 9;
+    /** Submitting a search until the results are shown. */
+    public static final int SEARCH_TO_LIST = 10;
+    /** Converting a quoted message to spans for compose. */
+    public static final int COMPOSE_HTML_TO_SPAN = 11;
+    /** Converting the compose body spans to HTML. */
+    public static final int COMPOSE_SPAN_TO_HTML = 12;
+    /** Querying search suggestions from all sources. */
+    public static final int SUGGESTIONS_QUERY = 13;
+    /** Querying recent search suggestions. */
+    public static final int RECENT_SUGGESTIONS_QUERY = 14;
+    /** Sending a batch of conversation changes to the underlying provider. */
+    public static final int CONVERSATION_WRITE_FLUSH = 15;
+    /** Time a conversation change waited in the write queue before being sent. */
+    public static final int CONVERSATION_WRITE_DELAY = 16;
+    /**
+     * Swiping to a conversation too large to load offscreen, whose messages weren't prefetched,
+     * until it is revealed.
+     */
+    public static final int CONVERSATION_SWIPE = 17;
+    /**
+     * Swiping to a conversation too large to load offscreen, whose messages were prefetched,
+     * until it is revealed.
+     */
+    public static final int CONVERSATION_SWIPE_PREFETCHED = 18;
+    /** Prefetching the messages of a conversation next to the one being viewed. */
+    public static final int CONVERSATION_PREFETCH = 19;
+    /** A sender's avatar, from its request until its photo or placeholder is shown. */
+    public static final int CONTACT_PHOTO_RESOLVE = 20;
+    /** The first avatars a conversation list requested, until they are all filled in. */
+    public static final int AVATAR_COLD_FILL = 21;
+    /** Opening an eml file until its message body is rendered. */
+    public static final int EML_OPEN = 22;
+
+    private static final String[] LATENCY_NAMES = {
+            "conversation_open",
+            "conversation_webview_load",
+            "conversation_patch",
+            "conversation_rerender",
+            "conversation_list_bind",
+            "cursor_preload",
+            "sanitize_html",
+            "send_message",
+            "save_message",
+            "cold_start",
+            "search_to_list",
+            "compose_html_to_span",
+            "compose_span_to_html",
+            "suggestions_query",
+            "recent_suggestions_query",
+            "conversation_write_flush",
+            "conversation_write_delay",
+            "conversation_swipe",
+            "conversation_swipe_prefetched",
+            "conversation_prefetch",
+            "contact_photo_resolve",
+            "avatar_cold_fill",
+            "eml_open",
+    };
+
+    // Counter ids. Keep COUNTER_NAMES in sync.
+    /** Conversation list rows pre-loaded. */
+    public static final int COUNT_ROWS_PRELOADED = 0;
+    /** Conversation overlays whose height was estimated without measuring. */
+    public static final int COUNT_OVERLAY_HEIGHTS_ESTIMATED = 1;
+    /** Conversation overlays that had to be measured. */
+    public static final int COUNT_OVERLAY_HEIGHTS_MEASURED = 2;
+    /** Conversation overlay views inflated while scrolling, because no scrap view was free. */
+    public static final int COUNT_OVERLAY_INFLATES = 3;
+    /** Conversation overlay views bound to an item. */
+    public static final int COUNT_OVERLAY_BINDS = 4;
+    /** Conversation overlay views bound before scrolling into view. */
+    public static final int COUNT_OVERLAY_BIND_AHEADS = 5;
+    /** Conversation overlay views inflated ahead of time while the UI was idle. */
+    public static final int COUNT_OVERLAY_PREINFLATES = 6;
+    /** Scrolled-off conversation overlay views dropped because their scrap pile was full. */
+    public static final int COUNT_OVERLAY_SCRAP_EVICTIONS = 7;
+    /** Conversation changes queued for the underlying provider. */
+    public static final int COUNT_CONVERSATION_WRITES_QUEUED = 8;
+    /** Conversation changes folded into a change that was already queued. */
+    public static final int COUNT_CONVERSATION_WRITES_COALESCED = 9;
+    /** Operations sent to the underlying provider; divided by batches, the mean queue depth. */
+    public static final int COUNT_CONVERSATION_WRITES_FLUSHED = 10;
+    /** Batches of conversation changes sent to the underlying provider. */
+    public static final int COUNT_CONVERSATION_WRITE_BATCHES = 11;
+    /** Batches sent again because the underlying provider died. */
+    public static final int COUNT_CONVERSATION_WRITE_RETRIES = 12;
+    /** Conversation changes that the underlying provider didn't accept. */
+    public static final int COUNT_CONVERSATION_WRITES_FAILED = 13;
+    /** Conversations whose messages were prefetched. */
+    public static final int COUNT_CONVERSATION_PREFETCHES = 14;
+    /** Prefetched conversations that were used by a conversation view. */
+    public static final int COUNT_CONVERSATION_PREFETCH_HITS = 15;
+    /** Prefetched conversations thrown away: cancelled, out of date or too large. */
+    public static final int COUNT_CONVERSATION_PREFETCHES_DROPPED = 16;
+    /** Changes to an account's inbox that were folded into a load of its unread count. */
+    public static final int COUNT_UNREAD_LOADS_AVOIDED = 17;
+    /** Contact photo decodes skipped because their row was recycled first. */
+    public static final int COUNT_CONTACT_PHOTO_DECODES_CANCELLED = 18;
+    /** Contact photo requests answered by an email recently found to have no photo. */
+    public static final int COUNT_CONTACT_PHOTO_NEGATIVE_HITS = 19;
+    /** Avatars read from the disk cache, with or without a photo. */
+    public static final int COUNT_AVATAR_DISK_HITS = 20;
+    /** Avatars that weren't in the disk cache. */
+    public static final int COUNT_AVATAR_DISK_MISSES = 21;
+    /** Eml attachments decoded from their eml file when they were opened. */
+    public static final int COUNT_EML_PARTS_EXTRACTED = 22;
+
+    private static final String[] COUNTER_NAMES = {
+            "rows_preloaded",
+            "overlay_heights_estimated",
+            "overlay_heights_measured",
+            "overlay_inflates",
+            "overlay_binds",
+            "overlay_bind_aheads",
+            "overlay_preinflates",
+            "overlay_scrap_evictions",
+            "conversation_writes_queued",
+            "conversation_writes_coalesced",
+            "conversation_writes_flushed",
+            "conversation_write_batches",
+            "conversation_write_retries",
+            "conversation_writes_failed",
+            "conversation_prefetches",
+            "conversation_prefetch_hits",
+            "conversation_prefetches_dropped",
+            "unread_loads_avoided",
+            "contact_photo_decodes_cancelled",
+            "contact_photo_negative_hits",
+            "avatar_disk_hits",
+            "avatar_disk_misses",
+            "eml_parts_extracted",
+    };
+
+    /** Release builds sample one process in this many. */
+    public static final int RELEASE_SAMPLE_ONE_IN = 20;
+    /** The dumpsys argument that switches sampling, followed by on, detailed or off. */
+    public static final String DUMP_ARG = "--perf-metrics";
+
+    private static volatile boolean sEnabled = false;
+    /** Whether the per-frame paths are sampled too. Only consulted while sampling. */
+    private static volatile boolean sDetailed = false;
+    private static boolean sInitialized = false;
+
+    private static final AtomicReferenceArray<LatencyHistogram> sHistograms =
+            new AtomicReferenceArray<LatencyHistogram>(LATENCY_NAMES.length);
+    private static final AtomicLongArray sCounters = new AtomicLongArray(COUNTER_NAMES.length);
+
+    private PerfMetrics() {}
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Turns sampling on or off. Measurements already recorded are kept.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * Turns sampling of the per-frame paths on or off, for while sampling is enabled.
+     */
+    public static void setDetailed(boolean detailed) {
+        sDetailed = detailed;
+    }
+
+    /**
+     * Decides once per process whether it is sampled: always in debug builds, including the
+     * per-frame paths, and for one process in {@link #RELEASE_SAMPLE_ONE_IN} otherwise.
+     */
+    public static synchronized void init(boolean debuggable) {
+        if (sInitialized) {
+            return;
+        }
+        sInitialized = true;
+        if (debuggable) {
+            sEnabled = true;
+            sDetailed = true;
+        } else if (new Random().nextInt(RELEASE_SAMPLE_ONE_IN) == 0) {
+            sEnabled = true;
+        }
+    }
+
+    /**
+     * Applies {@link #DUMP_ARG} if it is in the arguments to dumpsys.
+     */
+    public static void applyDumpArgs(String[] args) {
+        if (args == null) {
+            return;
+        }
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (!DUMP_ARG.equals(args[i])) {
+                continue;
+            }
+            final String value = args[i + 1];
+            if ("on".equals(value) || "detailed".equals(value)) {
+                sEnabled = true;
+                sDetailed = "detailed".equals(value);
+            } else if ("off".equals(value)) {
+                sEnabled = false;
+            }
+        }
+    }
+
+    /**
+     * Returns a start time to pass to {@link #stop}, or 0 if sampling is disabled.
+     */
+    public static long start() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Like {@link #start()}, but for paths that run every frame, which are only sampled in
+     * detail. Returns 0 otherwise.
+     */
+    public static long startDetailed() {
+        return sEnabled && sDetailed ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, as returned by {@link #start()}, in the
+     * given latency metric.
+     */
+    public static void stop(int metric, long startNanos) {
+        if (startNanos != 0) {
+            getHistogram(metric).record(
+                    TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+        }
+    }
+
+    /**
+     * Records a latency that was measured elsewhere, in milliseconds.
+     */
+    public static void recordMillis(int metric, long millis) {
+        if (sEnabled) {
+            getHistogram(metric).record(TimeUnit.MILLISECONDS.toMicros(millis));
+        }
+    }
+
+    public static void increment(int counter) {
+        add(counter, 1);
+    }
+
+    public static void add(int counter, long delta) {
+        if (sEnabled) {
+            sCounters.addAndGet(counter, delta);
+        }
+    }
+
+    public static long getCount(int counter) {
+        return sCounters.get(counter);
+    }
+
+    /**
+     * Returns the histogram of a latency metric.
+     */
+    public static LatencyHistogram getHistogram(int metric) {
+        LatencyHistogram histogram = sHistograms.get(metric);
+        while (histogram == null) {
+            sHistograms.compareAndSet(metric, null, new LatencyHistogram());
+            histogram = sHistograms.get(metric);
+        }
+        return histogram;
+    }
+
+    /**
+     * Discards every measurement recorded so far.
+     */
+    public static void reset() {
+        for (int i = 0; i < sHistograms.length(); i++) {
+            sHistograms.set(i, null);
+        }
+        for (int i = 0; i < sCounters.length(); i++) {
+            sCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * Prints every metric that has been recorded, one per line.
+     */
+    public static void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.print("PerfMetrics (sampling ");
+        writer.print(sEnabled ? (sDetailed ? "detailed" : "enabled") : "disabled");
+        writer.println("):");
+        final String innerPrefix = prefix + "  ";
+        for (int i = 0; i < LATENCY_NAMES.length; i++) {
+            final LatencyHistogram histogram = sHistograms.get(i);
+            if (histogram == null || histogram.getCount() == 0) {
+                continue;
+            }
+            writer.print(innerPrefix);
+            writer.print(LATENCY_NAMES[i]);
+            writer.print(": ");
+            writer.println(histogram);
+        }
+        for (int i = 0; i < COUNTER_NAMES.length; i++) {
+            final long count = sCounters.get(i);
+            if (count == 0) {
+                continue;
+            }
+            writer.print(innerPrefix);
+            writer.print(COUNTER_NAMES[i]);
+            writer.print(": ");
+            writer.println(count);
+        }
+    }
+
+    /**
+     * A lock-free histogram of latencies in microseconds. Values are counted in log-linear
+     * buckets, as in HdrHistogram: every power of two is split into {@link #SUB_BUCKETS} equal
+     * buckets, so a reported value is within 1/{@link #SUB_BUCKETS} of the recorded one.
+     * Values of an hour or more are counted in the last bucket.
+     */
+    public static final class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        /** Largest power of two with its own buckets, 2^32us is over an hour. */
+        private static final int MAX_EXPONENT = 32;
+        private static final int BUCKET_COUNT =
+                (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        LatencyHistogram() {}
+
+        public void record(long micros) {
+            if (micros < 0) {
+                micros = 0;
+            }
+            mBuckets.incrementAndGet(getBucket(micros));
+            mCount.incrementAndGet();
+            mSum.addAndGet(micros);
+            long max = mMax.get();
+            while (micros > max && !mMax.compareAndSet(max, micros)) {
+                max = mMax.get();
+            }
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getMaxMicros() {
+            return mMax.get();
+        }
+
+        public long getMeanMicros() {
+            final long count = mCount.get();
+            return count > 0 ? mSum.get() / count : 0;
+        }
+
+        /**
+         * Returns the value at the given percentile (0-100), to within the bucket precision.
+         */
+        public long getPercentileMicros(double percentile) {
+            final long[] counts = new long[BUCKET_COUNT];
+            long total = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] = mBuckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(getBucketHighestValue(i), mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+
+        static int getBucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            final int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent > MAX_EXPONENT) {
+                return BUCKET_COUNT - 1;
+            }
+            final int subBucket =
+                    (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        static long getBucketHighestValue(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            final long width = 1L << (exponent - SUB_BUCKET_BITS);
+            final long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) * width;
+            return lowest + width - 1;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "n=%d mean=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+                    getCount(), getMeanMicros() / 1000f, getPercentileMicros(50) / 1000f,
+                    getPercentileMicros(90) / 1000f, getPercentileMicros(99) / 1000f,
+                    getMaxMicros() / 1000f);
+        }
+    }
+}
@@ -53,6 +53,9 @@ public final class MailPrefs extends VersionedPrefs {
 
     private final int mSnapHeaderDefault;
 
+    /** The sender whitelist as of the last call to {@link #getDisplayImagesFromSender}. */
+    private volatile SenderWhitelist mSenderWhitelist;
+
     public static final class PreferenceKeys {
         private static final String MIGRATED_VERSION = "migrated-version";
 
@@ -381,31 +384,26 @@ public final class MailPrefs extends VersionedPrefs {
 
     /**
      * Returns whether or not an email address is in the whitelist of senders to show images for.
-     * This method reads the entire whitelist, so if you have multiple emails to check, you should
-     * probably call getSenderWhitelist() and check membership yourself.
+     * The whitelist is compiled once and reused until it is changed, so this is cheap to call
+     * for every message.
      *
      * @param sender raw email address ("foo@bar.com")
      * @return whether we should show pictures for this sender
      */
     public boolean getDisplayImagesFromSender(String sender) {
-        boolean displayImages = getSenderWhitelist().contains(sender);
-        if (!displayImages) {
-            final SharedPreferences sharedPreferences = getSharedPreferences();
-            // Check the saved email address patterns to determine if this pattern matches
-            final Set<String> defaultPatternSet = Collections.emptySet();
-            final Set<String> currentPatterns = sharedPreferences.getStringSet(
-                        PreferenceKeys.DISPLAY_IMAGES_PATTERNS, defaultPatternSet);
-            for (String pattern : currentPatterns) {
-                displayImages = Pattern.compile(pattern).matcher(sender).matches();
-                if (displayImages) {
-                    break;
-                }
-            }
-        }
-
-        return displayImages;
+        return getCompiledSenderWhitelist().contains(sender);
     }
 
+    private SenderWhitelist getCompiledSenderWhitelist() {
+        final Set<String> addresses = getSenderWhitelist();
+        final Set<String> patterns = getSenderWhitelistPatterns();
+        SenderWhitelist whitelist = mSenderWhitelist;
+        if (whitelist == null || !whitelist.isCompiledFrom(addresses, patterns)) {
+            whitelist = new SenderWhitelist(addresses, patterns);
+            mSenderWhitelist = whitelist;
+        }
+        return whitelist;
+    }
 
     public void setDisplayImagesFromSender(String sender, List<Pattern> allowedPatterns) {
         if (allowedPatterns != null) {
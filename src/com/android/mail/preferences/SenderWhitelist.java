@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.preferences;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable, compiled form of the senders that images are always shown for. Exact addresses
+ * are held in a hash set, and all of the saved address patterns are compiled into a single
+ * alternation, so a lookup costs one hash probe and at most one regex match no matter how many
+ * senders have been approved.
+ * <p>
+ * Instances remember the preference sets they were compiled from. SharedPreferences hands out
+ * the same set instance until the preference is written, so {@link #isCompiledFrom} is a cheap
+ * way to tell whether the whitelist needs to be recompiled.
+ */
+final class SenderWhitelist {
+    /**
+     * Matches patterns that can't safely be combined with others: backreferences would be
+     * renumbered, group names could clash and a comments mode comment would swallow the rest of
+     * the alternation.
+     */
+    private static final Pattern NOT_COMBINABLE =
+            Pattern.compile("\\\\[1-9k]|\\(\\?<[a-zA-Z]|\\(\\?[a-zA-Z-]*x");
+
+    private final Set<String> mAddressSource;
+    private final Set<String> mPatternSource;
+
+    private final ImmutableSet<String> mAddresses;
+    /** The combinable patterns as a single alternation, or null if there are none. */
+    private final Pattern mCombinedPattern;
+    /** Patterns that can't be combined and are matched one at a time. */
+    private final ImmutableList<Pattern> mSeparatePatterns;
+
+    SenderWhitelist(Set<String> addresses, Set<String> patterns) {
+        mAddressSource = addresses;
+        mPatternSource = patterns;
+        mAddresses = ImmutableSet.copyOf(addresses);
+
+        final StringBuilder combined = new StringBuilder();
+        final ImmutableList.Builder<Pattern> separate = ImmutableList.builder();
+        for (String pattern : patterns) {
+            if (NOT_COMBINABLE.matcher(pattern).find()) {
+                separate.add(Pattern.compile(pattern));
+            } else {
+                if (combined.length() > 0) {
+                    combined.append('|');
+                }
+                combined.append("(?:").append(pattern).append(')');
+            }
+        }
+        mCombinedPattern = combined.length() > 0 ? Pattern.compile(combined.toString()) : null;
+        mSeparatePatterns = separate.build();
+    }
+
+    /**
+     * Returns whether this whitelist was compiled from exactly these preference sets.
+     */
+    boolean isCompiledFrom(Set<String> addresses, Set<String> patterns) {
+        return addresses == mAddressSource && patterns == mPatternSource;
+    }
+
+    /**
+     * @param sender raw email address ("foo@bar.com")
+     * @return whether the sender is whitelisted, either exactly or by pattern
+     */
+    boolean contains(String sender) {
+        if (mAddresses.contains(sender)) {
+            return true;
+        }
+        if (mCombinedPattern != null && mCombinedPattern.matcher(sender).matches()) {
+            return true;
+        }
+        for (Pattern pattern : mSeparatePatterns) {
+            if (pattern.matcher(sender).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -25,7 +25,9 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.text.TextUtils;
 
+import com.android.emailcommon.internet.LazyPartBody;
 import com.android.emailcommon.internet.MimeUtility;
+import com.android.emailcommon.mail.Body;
 import com.android.emailcommon.mail.MessagingException;
 import com.android.emailcommon.mail.Part;
 import com.android.mail.browse.MessageAttachmentBar;
@@ -270,8 +272,21 @@ public class Attachment implements Parcelable {
             flags = 0;
             messageLoadMoreUri = null;
 
-            // insert attachment into content provider so that we can open the file
             final ContentResolver resolver = context.getContentResolver();
+            final Body body = part.getBody();
+            if (body instanceof LazyPartBody) {
+                // the part stays in the eml file until it is opened, so only tell the content
+                // provider where to find it
+                final LazyPartBody lazyBody = (LazyPartBody) body;
+                size = (int) lazyBody.getSize();
+                downloadedSize = size;
+                final ContentValues values = toContentValues();
+                EmlAttachmentProvider.putPartLocation(values, emlFileUri, lazyBody);
+                resolver.insert(uri, values);
+                return;
+            }
+
+            // insert attachment into content provider so that we can open the file
             resolver.insert(uri, toContentValues());
 
             // save the file in the cache
@@ -288,15 +288,15 @@ public class Conversation implements Parcelable {
         read = cursor.getInt(UIProvider.CONVERSATION_READ_COLUMN) != 0;
         seen = cursor.getInt(UIProvider.CONVERSATION_SEEN_COLUMN) != 0;
         starred = cursor.getInt(UIProvider.CONVERSATION_STARRED_COLUMN) != 0;
-        rawFolders = readRawFolders(cursor);
+        String account = cursor.getString(UIProvider.CONVERSATION_ACCOUNT_URI_COLUMN);
+        accountUri = !TextUtils.isEmpty(account) ? Uri.parse(account) : null;
+        rawFolders = readRawFolders(cursor, FolderPool.forAccount(accountUri));
         convFlags = cursor.getInt(UIProvider.CONVERSATION_FLAGS_COLUMN);
         personalLevel = cursor.getInt(UIProvider.CONVERSATION_PERSONAL_LEVEL_COLUMN);
         spam = cursor.getInt(UIProvider.CONVERSATION_IS_SPAM_COLUMN) != 0;
         phishing = cursor.getInt(UIProvider.CONVERSATION_IS_PHISHING_COLUMN) != 0;
         muted = cursor.getInt(UIProvider.CONVERSATION_MUTED_COLUMN) != 0;
         color = cursor.getInt(UIProvider.CONVERSATION_COLOR_COLUMN);
-        String account = cursor.getString(UIProvider.CONVERSATION_ACCOUNT_URI_COLUMN);
-        accountUri = !TextUtils.isEmpty(account) ? Uri.parse(account) : null;
         position = NO_POSITION;
         localDeleteOnUpdate = false;
         conversationInfo = readConversationInfo(cursor);
@@ -577,25 +577,27 @@ public class Conversation implements Parcelable {
         return ci;
     }
 
-    private static FolderList readRawFolders(Cursor cursor) {
+    private static FolderList readRawFolders(Cursor cursor, FolderPool pool) {
         final FolderList fl;
 
         if (cursor instanceof ConversationCursor) {
             final byte[] blob = ((ConversationCursor) cursor).getCachedBlob(
                     UIProvider.CONVERSATION_RAW_FOLDERS_COLUMN);
             if (blob != null && blob.length > 0) {
-                return FolderList.fromBlob(blob);
+                return FolderList.fromBlob(blob, pool);
             }
         }
 
         final Bundle response = cursor.respond(RAW_FOLDERS_REQUEST);
         if (response.containsKey(ConversationCursorCommand.COMMAND_GET_RAW_FOLDERS)) {
-            fl = response.getParcelable(ConversationCursorCommand.COMMAND_GET_RAW_FOLDERS);
+            final FolderList parceled =
+                    response.getParcelable(ConversationCursorCommand.COMMAND_GET_RAW_FOLDERS);
+            fl = pool != null ? pool.intern(parceled) : parceled;
         } else {
             // legacy fallback
             // TODO: delete this once Email supports the respond call
             fl = FolderList.fromBlob(
-                    cursor.getBlob(UIProvider.CONVERSATION_RAW_FOLDERS_COLUMN));
+                    cursor.getBlob(UIProvider.CONVERSATION_RAW_FOLDERS_COLUMN), pool);
         }
         return fl;
     }
@@ -629,7 +631,7 @@ public class Conversation implements Parcelable {
             } else if (ConversationColumns.SEEN.equals(key)) {
                 seen = (Integer) val != 0;
             } else if (ConversationColumns.RAW_FOLDERS.equals(key)) {
-                rawFolders = FolderList.fromBlob((byte[]) val);
+                rawFolders = FolderList.fromBlob((byte[]) val, FolderPool.forAccount(accountUri));
             } else if (ConversationColumns.VIEWED.equals(key)) {
                 // ignore. this is not read from the cursor, either.
             } else if (ConversationColumns.PRIORITY.equals(key)) {
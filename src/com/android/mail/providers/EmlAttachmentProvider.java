@@ -31,17 +31,22 @@ import android.os.Environment;
 import android.os.ParcelFileDescriptor;
 import android.os.SystemClock;
 import android.text.TextUtils;
+import android.util.LruCache;
 
+import com.android.emailcommon.internet.LazyPartBody;
+import com.android.emailcommon.mail.MessagingException;
 import com.android.ex.photo.provider.PhotoContract;
 import com.android.mail.R;
+import com.android.mail.perf.PerfMetrics;
 import com.android.mail.utils.LogTag;
 import com.android.mail.utils.LogUtils;
 import com.android.mail.utils.MimeType;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
+import org.apache.commons.io.IOUtils;
+
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -59,6 +64,10 @@ import java.util.Map;
  * exception of the attachment raw data which is stored in the cache). When
  * the process is killed, all of the attachments disappear if they still
  * exist.
+ *
+ * Attachments inserted with a part location (see {@link #putPartLocation}) aren't copied
+ * when the eml file is opened. Instead each is decoded from the eml file the first time it is
+ * opened, and only the most recently opened ones are kept in the cache.
  */
 public class EmlAttachmentProvider extends ContentProvider {
     private static final String LOG_TAG = LogTag.getLogTag();
@@ -78,6 +87,19 @@ public class EmlAttachmentProvider extends ContentProvider {
     /** Any IO reads should be limited to this timeout */
     private static final long READ_TIMEOUT = 3600 * 1000;
 
+    /**
+     * The most bytes of attachments kept in the cache after being decoded from eml files. The most
+     * recently opened attachment is kept even if it is larger.
+     */
+    private static final int MAX_EXTRACTED_BYTES = 16 * 1024 * 1024;
+
+    // Insert values that say where an attachment's part is in its eml file.
+    private static final String PART_EML_FILE_URI = "partEmlFileUri";
+    private static final String PART_OFFSET = "partOffset";
+    private static final String PART_LENGTH = "partLength";
+    private static final String PART_TRANSFER_ENCODING = "partTransferEncoding";
+    private static final String PART_SIZE = "partSize";
+
     private static Uri BASE_URI;
 
     private DownloadManager mDownloadManager;
@@ -92,6 +114,18 @@ public class EmlAttachmentProvider extends ContentProvider {
      */
     private Map<Uri, Attachment> mUriAttachmentMap;
 
+    /**
+     * Map that contains a mapping from an attachment uri to its part in the eml file, for
+     * attachments that haven't been copied out of the eml file.
+     */
+    private Map<Uri, LazyPartBody> mUriPartMap;
+
+    /**
+     * The attachments that were decoded from their eml files, least recently opened first.
+     * Files that are evicted are deleted. Guarded by itself.
+     */
+    private LruCache<Uri, ExtractedPart> mExtractedParts;
+
 
     @Override
     public boolean onCreate() {
@@ -111,6 +145,23 @@ public class EmlAttachmentProvider extends ContentProvider {
 
         mUriListMap = Maps.newHashMap();
         mUriAttachmentMap = Maps.newHashMap();
+        mUriPartMap = Maps.newConcurrentMap();
+        mExtractedParts = new LruCache<Uri, ExtractedPart>(MAX_EXTRACTED_BYTES) {
+            @Override
+            protected int sizeOf(Uri uri, ExtractedPart part) {
+                // A larger part takes the whole budget, so it evicts every other part but is
+                // itself kept until the next one is opened
+                return (int) Math.min(part.length, MAX_EXTRACTED_BYTES);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Uri uri, ExtractedPart oldPart,
+                    ExtractedPart newPart) {
+                if (newPart == null || !newPart.file.equals(oldPart.file)) {
+                    oldPart.file.delete();
+                }
+            }
+        };
         return true;
     }
 
@@ -182,6 +233,11 @@ public class EmlAttachmentProvider extends ContentProvider {
     public Uri insert(Uri uri, ContentValues values) {
         final Uri listUri = getListUriFromAttachmentUri(uri);
 
+        final LazyPartBody part = getPartLocation(values);
+        if (part != null) {
+            mUriPartMap.put(uri, part);
+        }
+
         // add mapping from uri to attachment
         if (mUriAttachmentMap.put(uri, new Attachment(values)) == null) {
             // only add uri to list if the list
@@ -209,6 +265,10 @@ public class EmlAttachmentProvider extends ContentProvider {
                 // delete each file and remove each element from the mapping
                 for (final Uri attachmentUri : attachmentUris) {
                     mUriAttachmentMap.remove(attachmentUri);
+                    mUriPartMap.remove(attachmentUri);
+                    synchronized (mExtractedParts) {
+                        mExtractedParts.remove(attachmentUri);
+                    }
                 }
 
                 deleteDirectory(getCacheFileDirectory(uri));
@@ -307,21 +367,23 @@ public class EmlAttachmentProvider extends ContentProvider {
         // 2. copy file
         final String oldFilePath = getFilePath(uri);
 
+        // open the old file first, since it may have to be decoded from the eml file
+        final InputStream inputStream;
+        try {
+            inputStream = new ParcelFileDescriptor.AutoCloseInputStream(openFile(uri, "r"));
+        } catch (FileNotFoundException e) {
+            LogUtils.e(LOG_TAG, "File not found for file %s", oldFilePath);
+            return 0;
+        }
+
         // update the destination before getting the new file path
         // otherwise it will just point to the old location.
         attachment.destination = UIProvider.AttachmentDestination.EXTERNAL;
         final String newFilePath = getFilePath(uri);
 
-        InputStream inputStream = null;
         OutputStream outputStream = null;
 
         try {
-            try {
-                inputStream = new FileInputStream(oldFilePath);
-            } catch (FileNotFoundException e) {
-                LogUtils.e(LOG_TAG, "File not found for file %s", oldFilePath);
-                return 0;
-            }
             try {
                 outputStream = new FileOutputStream(newFilePath);
             } catch (FileNotFoundException e) {
@@ -371,6 +433,9 @@ public class EmlAttachmentProvider extends ContentProvider {
 
                 // 4. delete old file
                 new File(oldFilePath).delete();
+                synchronized (mExtractedParts) {
+                    mExtractedParts.remove(uri);
+                }
             } catch (IOException e) {
                 // Error writing file, delete partial file
                 LogUtils.e(LOG_TAG, e, "Cannot write to file %s", newFilePath);
@@ -378,9 +443,7 @@ public class EmlAttachmentProvider extends ContentProvider {
             }
         } finally {
             try {
-                if (inputStream != null) {
-                    inputStream.close();
-                }
+                inputStream.close();
             } catch (IOException e) {
             }
             try {
@@ -399,6 +462,11 @@ public class EmlAttachmentProvider extends ContentProvider {
 
     @Override
     public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        final Attachment attachment = mUriAttachmentMap.get(uri);
+        if (attachment == null) {
+            // Its eml file was closed
+            throw new FileNotFoundException("No attachment for " + uri);
+        }
         final String filePath = getFilePath(uri);
 
         final int fileMode;
@@ -413,7 +481,101 @@ public class EmlAttachmentProvider extends ContentProvider {
             fileMode = ParcelFileDescriptor.MODE_READ_ONLY;
         }
 
-        return ParcelFileDescriptor.open(new File(filePath), fileMode);
+        final File file = new File(filePath);
+        final LazyPartBody part = mUriPartMap.get(uri);
+        if (part != null && fileMode == ParcelFileDescriptor.MODE_READ_ONLY
+                && !attachment.isSavedToExternal()) {
+            return openPart(uri, part, file);
+        }
+        return ParcelFileDescriptor.open(file, fileMode);
+    }
+
+    /**
+     * Opens an attachment that is kept in its eml file, decoding it into the given cache file
+     * if it isn't there already. Opening a part waits for other opens of the same part, which
+     * are serialized on it, but not for any other part.
+     */
+    private ParcelFileDescriptor openPart(Uri uri, LazyPartBody part, File file)
+            throws FileNotFoundException {
+        synchronized (part) {
+            synchronized (mExtractedParts) {
+                if (mExtractedParts.get(uri) != null && file.exists()) {
+                    return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+                }
+            }
+
+            final File tempFile = new File(file.getPath() + ".tmp");
+            InputStream in = null;
+            OutputStream out = null;
+            try {
+                in = part.getInputStream();
+                out = new FileOutputStream(tempFile);
+                IOUtils.copy(in, out);
+                out.close();
+                out = null;
+                if (!tempFile.renameTo(file)) {
+                    throw new IOException("Unable to rename " + tempFile);
+                }
+            } catch (IOException e) {
+                LogUtils.e(LOG_TAG, e, "Error extracting eml attachment %s", uri);
+                tempFile.delete();
+                throw new FileNotFoundException(e.getMessage());
+            } catch (MessagingException e) {
+                LogUtils.e(LOG_TAG, e, "Error extracting eml attachment %s", uri);
+                throw new FileNotFoundException(e.getMessage());
+            } finally {
+                IOUtils.closeQuietly(in);
+                IOUtils.closeQuietly(out);
+            }
+            PerfMetrics.increment(PerfMetrics.COUNT_EML_PARTS_EXTRACTED);
+
+            // open the file before caching it, since a part too large for the cache is
+            // deleted right away, but stays readable through the open descriptor
+            final ParcelFileDescriptor descriptor =
+                    ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+            synchronized (mExtractedParts) {
+                mExtractedParts.put(uri, new ExtractedPart(file, file.length()));
+            }
+            return descriptor;
+        }
+    }
+
+    /**
+     * Adds where an eml attachment is in its eml file to the values inserted for it, so that
+     * it is decoded only when it is opened.
+     */
+    public static void putPartLocation(ContentValues values, Uri emlFileUri,
+            LazyPartBody part) {
+        values.put(PART_EML_FILE_URI, emlFileUri.toString());
+        values.put(PART_OFFSET, part.getOffset());
+        values.put(PART_LENGTH, part.getLength());
+        values.put(PART_TRANSFER_ENCODING, part.getTransferEncoding());
+        values.put(PART_SIZE, part.getSize());
+    }
+
+    /**
+     * Returns the part in the eml file that the values inserted for an attachment point to,
+     * or null if they don't.
+     */
+    private LazyPartBody getPartLocation(ContentValues values) {
+        if (!values.containsKey(PART_EML_FILE_URI)) {
+            return null;
+        }
+        final Uri emlFileUri = Uri.parse(values.getAsString(PART_EML_FILE_URI));
+        final LazyPartBody.Source source = new LazyPartBody.StreamSource() {
+            @Override
+            protected InputStream openStream() throws IOException {
+                final InputStream in =
+                        getContext().getContentResolver().openInputStream(emlFileUri);
+                if (in == null) {
+                    throw new FileNotFoundException("Unable to open " + emlFileUri);
+                }
+                return in;
+            }
+        };
+        return new LazyPartBody(source, values.getAsLong(PART_OFFSET),
+                values.getAsLong(PART_LENGTH), values.getAsString(PART_TRANSFER_ENCODING),
+                values.getAsLong(PART_SIZE));
     }
 
     /**
@@ -520,4 +682,17 @@ public class EmlAttachmentProvider extends ContentProvider {
 
         file.delete();
     }
+
+    /**
+     * An attachment decoded from its eml file into the cache.
+     */
+    private static class ExtractedPart {
+        final File file;
+        final long length;
+
+        ExtractedPart(File file, long length) {
+            this.file = file;
+            this.length = length;
+        }
+    }
 }
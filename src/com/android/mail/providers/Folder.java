@@ -582,6 +582,44 @@ public class Folder implements Parcelable, Comparable<Folder> {
         return folderUri == null ? 0 : folderUri.hashCode();
     }
 
+    /**
+     * Returns true if every field that is parceled is the same in both folders.
+     * This is <b>not</b> a replacement for {@link #equals(Object)}, which only compares uris.
+     * @param other Folder object to compare
+     * @return true if the two folders would parcel identically
+     */
+    boolean contentsEqual(Folder other) {
+        if (other == this) {
+            return true;
+        }
+        return other != null
+                && id == other.id
+                && capabilities == other.capabilities
+                && hasChildren == other.hasChildren
+                && syncWindow == other.syncWindow
+                && unseenCount == other.unseenCount
+                && unreadCount == other.unreadCount
+                && totalCount == other.totalCount
+                && syncStatus == other.syncStatus
+                && lastSyncResult == other.lastSyncResult
+                && type == other.type
+                && iconResId == other.iconResId
+                && lastMessageTimestamp == other.lastMessageTimestamp
+                && Objects.equal(folderUri != null ? folderUri.fullUri : null,
+                        other.folderUri != null ? other.folderUri.fullUri : null)
+                && Objects.equal(persistentId, other.persistentId)
+                && Objects.equal(name, other.name)
+                && Objects.equal(conversationListUri, other.conversationListUri)
+                && Objects.equal(childFoldersListUri, other.childFoldersListUri)
+                && Objects.equal(refreshUri, other.refreshUri)
+                && Objects.equal(bgColor, other.bgColor)
+                && Objects.equal(fgColor, other.fgColor)
+                && Objects.equal(loadMoreUri, other.loadMoreUri)
+                && Objects.equal(hierarchicalDesc, other.hierarchicalDesc)
+                && Objects.equal(parent, other.parent)
+                && Objects.equal(unreadSenders, other.unreadSenders);
+    }
+
     @Override
     public String toString() {
         // log extra info at DEBUG level or finer
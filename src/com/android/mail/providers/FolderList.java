@@ -79,6 +79,17 @@ public class FolderList implements Parcelable {
         return result;
     }
 
+    /**
+     * Like {@link #fromBlob(byte[])}, but shares the decoded folders with other conversations of
+     * the same account through the account's {@link FolderPool}.
+     *
+     * @param pool the account's pool, or null to not intern the folders
+     */
+    public static FolderList fromBlob(byte[] blob, FolderPool pool) {
+        final FolderList result = fromBlob(blob);
+        return pool != null ? pool.intern(result) : result;
+    }
+
     public static FolderList copyOf(Collection<Folder> in) {
         return new FolderList(in);
     }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.providers;
+
+import android.net.Uri;
+
+import com.android.mail.utils.FolderUri;
+import com.android.mail.utils.LogTag;
+import com.android.mail.utils.LogUtils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns the {@link Folder}s of an account's conversations, so the thousands of conversations
+ * in a list that carry the same few folders share one instance of each instead of decoding
+ * their own copy, with its own uris and strings, from every raw folders blob.
+ * <p>
+ * A pooled folder is only handed out for a folder with exactly the same contents, see
+ * {@link Folder#contentsEqual(Folder)}, so interning never changes what a conversation shows.
+ * Folders returned from the pool are shared and must not be modified.
+ * <p>
+ * Each entry is stamped with the pool's version. {@link #invalidate()} moves the version on
+ * when the account's folders change, so entries from before the change are replaced the next
+ * time their folder is seen rather than being compared against.
+ */
+public final class FolderPool {
+    private static final String LOG_TAG = LogTag.getLogTag();
+
+    /** More distinct folders than this in one account and the pool starts over. */
+    private static final int MAX_FOLDERS = 500;
+
+    private static final Map<Uri, FolderPool> sPools = Maps.newHashMap();
+
+    private final Uri mAccountUri;
+    private final Map<FolderUri, Entry> mFolders = Maps.newHashMap();
+    private int mVersion;
+
+    private static final class Entry {
+        final Folder folder;
+        final int version;
+
+        Entry(Folder folder, int version) {
+            this.folder = folder;
+            this.version = version;
+        }
+    }
+
+    @VisibleForTesting
+    FolderPool(Uri accountUri) {
+        mAccountUri = accountUri;
+    }
+
+    /**
+     * Returns the pool for an account, creating it if needed.
+     *
+     * @param accountUri the account's uri, or null if it isn't known
+     * @return the account's pool, or null if there's no account to pool for
+     */
+    public static FolderPool forAccount(Uri accountUri) {
+        if (accountUri == null) {
+            return null;
+        }
+        synchronized (sPools) {
+            FolderPool pool = sPools.get(accountUri);
+            if (pool == null) {
+                pool = new FolderPool(accountUri);
+                sPools.put(accountUri, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Moves an account's pool on to a new version, if it has one. Call this whenever a folder
+     * cursor for the account reports a change.
+     */
+    public static void invalidate(Uri accountUri) {
+        if (accountUri == null) {
+            return;
+        }
+        final FolderPool pool;
+        synchronized (sPools) {
+            pool = sPools.get(accountUri);
+        }
+        if (pool != null) {
+            pool.invalidate();
+        }
+    }
+
+    /**
+     * Drops every pooled folder of every account, e.g. when memory is low.
+     */
+    public static void clearAll() {
+        synchronized (sPools) {
+            for (FolderPool pool : sPools.values()) {
+                pool.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the pooled instance of a folder with the same contents, adding the folder to the
+     * pool if there is none.
+     */
+    public synchronized Folder intern(Folder folder) {
+        if (folder == null || folder.folderUri == null) {
+            return folder;
+        }
+        final Entry entry = mFolders.get(folder.folderUri);
+        if (entry != null && entry.version == mVersion && entry.folder.contentsEqual(folder)) {
+            return entry.folder;
+        }
+        if (entry == null && mFolders.size() >= MAX_FOLDERS) {
+            LogUtils.d(LOG_TAG, "Folder pool for %s is full, clearing it", mAccountUri);
+            mFolders.clear();
+        }
+        // The newest copy wins, conversations decoded later are the most likely to match it
+        mFolders.put(folder.folderUri, new Entry(folder, mVersion));
+        return folder;
+    }
+
+    /**
+     * Returns a list of the pooled instances of the given folders. The list itself is returned
+     * if every folder in it is already pooled.
+     */
+    public FolderList intern(FolderList folderList) {
+        if (folderList == null) {
+            return null;
+        }
+        final List<Folder> folders = folderList.folders;
+        Folder[] interned = null;
+        for (int i = 0; i < folders.size(); i++) {
+            final Folder folder = folders.get(i);
+            final Folder pooled = intern(folder);
+            if (pooled != folder && interned == null) {
+                interned = folders.toArray(new Folder[folders.size()]);
+            }
+            if (interned != null) {
+                interned[i] = pooled;
+            }
+        }
+        if (interned == null) {
+            return folderList;
+        }
+        return FolderList.copyOf(Arrays.asList(interned));
+    }
+
+    /**
+     * Marks every pooled folder out of date. They're replaced as the conversations using them
+     * are decoded again.
+     */
+    public synchronized void invalidate() {
+        mVersion++;
+    }
+
+    public synchronized void clear() {
+        mFolders.clear();
+        mVersion++;
+    }
+
+    @VisibleForTesting
+    synchronized int size() {
+        return mFolders.size();
+    }
+}
@@ -23,29 +23,27 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 
-import com.android.mail.content.ObjectCursor;
-import com.android.mail.content.ObjectCursorLoader;
 import com.android.mail.ui.AbstractActivityController;
 import com.android.mail.ui.RestrictedActivity;
-import com.android.mail.utils.LogUtils;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
  * A container to keep a list of Folder objects, with the ability to automatically keep in sync with
  * the folders in the providers.
+ * <p>
+ * The inboxes of all accounts are loaded by one {@link UnreadCountLoader}, which batches their
+ * changes, so that a sync across many accounts results in a single call to the
+ * {@link UnreadCountChangedListener}.
  */
 public class FolderWatcher {
-    public static final String FOLDER_URI = "FOLDER-URI";
-    /** List of URIs that are watched. */
-    private final List<Uri> mUris = new ArrayList<Uri>();
+    /** The id of the loader of the watched inboxes. */
+    private static final int LOADER_UNREAD_COUNTS = AbstractActivityController.LAST_LOADER_ID;
+    /** The account of each watched inbox URI. */
+    private final Map<Uri, Account> mAccounts = Maps.newLinkedHashMap();
     /** Map returning the default inbox folder for each URI */
-    private final Map<Uri, Folder> mInboxMap = new HashMap<Uri, Folder>();
+    private final Map<Uri, Folder> mInboxMap = Maps.newHashMap();
     private final RestrictedActivity mActivity;
     /** Handles folder callbacks and reads unread counts. */
     private final UnreadLoads mUnreadCallback = new UnreadLoads();
@@ -56,10 +54,12 @@ public class FolderWatcher {
      */
     private UnreadCountChangedListener mConsumer;
 
-    private final static String LOG_TAG = LogUtils.TAG;
-
     public static interface UnreadCountChangedListener {
-        void onUnreadCountChange();
+        /**
+         * Called once for every load of the watched inboxes in which any unread count changed.
+         * @param changes the new unread count of each account whose count changed
+         */
+        void onUnreadCountChange(Map<Account, Integer> changes);
     }
 
     /**
@@ -82,98 +82,18 @@ public class FolderWatcher {
         if (allAccounts == null) {
             return;
         }
-        // Create list of Inbox URIs from the array of accounts.
-        final List<Uri> newAccounts = new ArrayList<Uri>(allAccounts.length);
+        mAccounts.clear();
         for (final Account account : allAccounts) {
-            newAccounts.add(account.settings.defaultInbox);
-        }
-        // Stop watching accounts not in the new list.
-        final List<Uri> uriCopy = Collections.unmodifiableList(Lists.newArrayList(mUris));
-        for (final Uri previous : uriCopy) {
-            if (!newAccounts.contains(previous)) {
-                stopWatching(previous);
-            }
-        }
-        // Add accounts in the new list, that are not already watched.
-        for (final Uri fresh : newAccounts) {
-            if (!mUris.contains(fresh)) {
-                startWatching(fresh);
-            }
-        }
-    }
-
-    /**
-     * Starts watching the given URI for changes. It is NOT safe to call this method repeatedly
-     * for the same URI.
-     * @param uri the URI for an inbox whose unread count is to be watched
-     */
-    private void startWatching(Uri uri) {
-        final int location = insertAtNextEmptyLocation(uri);
-        LogUtils.d(LOG_TAG, "Watching %s, at position %d.", uri, location);
-        // No inbox folder yet, put a safe placeholder for now.
-        mInboxMap.put(uri, null);
-        final LoaderManager lm = mActivity.getLoaderManager();
-        final Bundle args = new Bundle();
-        args.putString(FOLDER_URI, uri.toString());
-        lm.initLoader(getLoaderFromPosition(location), args, mUnreadCallback);
-    }
-
-    /**
-     * Locates the next empty position in {@link #mUris} and inserts the URI there, returning the
-     * location.
-     * @return location where the URI was inserted.
-     */
-    private int insertAtNextEmptyLocation(Uri newElement) {
-        Uri uri;
-        int location = -1;
-        for (int size = mUris.size(), i = 0; i < size; i++) {
-            uri = mUris.get(i);
-            // Hole in the list, use this position
-            if (uri == null) {
-                location = i;
-                break;
-            }
-        }
-
-        if (location < 0) {
-            // No hole found, return the current size;
-            location = mUris.size();
-            mUris.add(location, newElement);
-        } else {
-            mUris.set(location, newElement);
+            mAccounts.put(account.settings.defaultInbox, account);
         }
-        return location;
-    }
+        // Forget the inboxes of accounts that are gone.
+        mInboxMap.keySet().retainAll(mAccounts.keySet());
 
-    /**
-     * Returns the loader ID for a position inside the {@link #mUris} table.
-     * @param position position in the {@link #mUris} list
-     * @return a loader id
-     */
-    private static int getLoaderFromPosition(int position) {
-        return position + AbstractActivityController.LAST_LOADER_ID;
-    }
-
-    /**
-     * Stops watching the given URI for folder changes. Subsequent calls to
-     * {@link #getUnreadCount(Account)} for this uri will return null.
-     * @param uri the URI for a folder
-     */
-    private void stopWatching(Uri uri) {
-        if (uri == null) {
-            return;
-        }
-
-        final int id = mUris.indexOf(uri);
-        // Does not exist in the list, we have stopped watching it already.
-        if (id < 0) {
-            return;
-        }
-        // Destroy the loader before removing references to the object.
+        // Also hands a loader retained across a configuration change over to this watcher.
         final LoaderManager lm = mActivity.getLoaderManager();
-        lm.destroyLoader(getLoaderFromPosition(id));
-        mInboxMap.remove(uri);
-        mUris.set(id, null);
+        final UnreadCountLoader loader = (UnreadCountLoader) lm.initLoader(LOADER_UNREAD_COUNTS,
+                Bundle.EMPTY, mUnreadCallback);
+        loader.setUris(mAccounts.keySet());
     }
 
     /**
@@ -193,52 +113,45 @@ public class FolderWatcher {
     }
 
     public final Folder getDefaultInbox(Account account) {
-        final Uri uri = account.settings.defaultInbox;
-        if (mInboxMap.containsKey(uri)) {
-            final Folder candidate = mInboxMap.get(uri);
-            if (candidate != null) {
-                return candidate;
-            }
-        }
-        return null;
+        return mInboxMap.get(account.settings.defaultInbox);
     }
 
     /**
      * Class to perform {@link LoaderManager.LoaderCallbacks} for populating unread counts.
      */
-    private class UnreadLoads implements LoaderManager.LoaderCallbacks<ObjectCursor<Folder>> {
-        // TODO(viki): Fix http://b/8494129 and read only the URI and unread count.
-        /** Only interested in the folder unread count, but asking for everything due to
-         * bug 8494129. */
-        private final String[] projection = UIProvider.FOLDERS_PROJECTION;
-
+    private class UnreadLoads implements LoaderManager.LoaderCallbacks<Map<Uri, Folder>> {
         @Override
-        public Loader<ObjectCursor<Folder>> onCreateLoader(int id, Bundle args) {
-            final Uri uri = Uri.parse(args.getString(FOLDER_URI));
-            return new ObjectCursorLoader<Folder>(mActivity.getActivityContext(), uri, projection,
-                    Folder.FACTORY);
+        public Loader<Map<Uri, Folder>> onCreateLoader(int id, Bundle args) {
+            final UnreadCountLoader loader =
+                    new UnreadCountLoader(mActivity.getActivityContext());
+            loader.setUris(mAccounts.keySet());
+            return loader;
         }
 
         @Override
-        public void onLoadFinished(Loader<ObjectCursor<Folder>> loader, ObjectCursor<Folder> data) {
-            if (data == null || data.getCount() <= 0 || !data.moveToFirst()) {
+        public void onLoadFinished(Loader<Map<Uri, Folder>> loader, Map<Uri, Folder> data) {
+            if (data == null) {
                 return;
             }
-            final Folder f = data.getModel();
-            final Uri uri = f.folderUri.getComparisonUri();
-            final int unreadCount = f.unreadCount;
-            final Folder previousFolder = mInboxMap.get(uri);
-            final boolean unreadCountChanged = previousFolder == null
-                    || unreadCount != previousFolder.unreadCount;
-            mInboxMap.put(uri, f);
+            final Map<Account, Integer> changes = Maps.newLinkedHashMap();
+            for (final Map.Entry<Uri, Account> entry : mAccounts.entrySet()) {
+                final Folder f = data.get(entry.getKey());
+                if (f == null) {
+                    continue;
+                }
+                final Folder previousFolder = mInboxMap.put(entry.getKey(), f);
+                if (previousFolder == null || f.unreadCount != previousFolder.unreadCount) {
+                    changes.put(entry.getValue(), f.unreadCount);
+                }
+            }
             // Once we have updated data, we notify the parent class that something new appeared.
-            if (unreadCountChanged) {
-                mConsumer.onUnreadCountChange();
+            if (!changes.isEmpty()) {
+                mConsumer.onUnreadCountChange(changes);
             }
         }
 
         @Override
-        public void onLoaderReset(Loader<ObjectCursor<Folder>> loader) {
+        public void onLoaderReset(Loader<Map<Uri, Folder>> loader) {
             // Do nothing.
         }
     }
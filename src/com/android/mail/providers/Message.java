@@ -234,6 +234,10 @@ public class Message implements Parcelable, HtmlMessage {
 
     private transient List<Attachment> mAttachments = null;
 
+    /** {@link #bodyText} as it was when {@link #mLinkifiedBodyHtml} was built from it. */
+    private transient String mLinkifiedBodyText = null;
+    private transient String mLinkifiedBodyHtml = null;
+
     @Override
     public int describeContents() {
         return 0;
@@ -731,10 +735,15 @@ public class Message implements Parcelable, HtmlMessage {
         if (!TextUtils.isEmpty(bodyHtml)) {
             body = bodyHtml;
         } else if (!TextUtils.isEmpty(bodyText)) {
-            final SpannableString spannable = new SpannableString(bodyText);
-            Linkify.addLinks(spannable, Linkify.EMAIL_ADDRESSES | Linkify.WEB_URLS
-                    | Linkify.PHONE_NUMBERS);
-            body = Html.toHtml(spannable);
+            // Linkifying is slow, so keep the result for as long as the text doesn't change
+            if (mLinkifiedBodyHtml == null || mLinkifiedBodyText != bodyText) {
+                final SpannableString spannable = new SpannableString(bodyText);
+                Linkify.addLinks(spannable, Linkify.EMAIL_ADDRESSES | Linkify.WEB_URLS
+                        | Linkify.PHONE_NUMBERS);
+                mLinkifiedBodyHtml = Html.toHtml(spannable);
+                mLinkifiedBodyText = bodyText;
+            }
+            body = mLinkifiedBodyHtml;
         }
         return body;
     }
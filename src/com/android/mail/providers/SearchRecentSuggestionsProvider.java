@@ -24,13 +24,27 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 
 import com.android.mail.R;
+import com.android.mail.perf.PerfMetrics;
 
 import java.util.ArrayList;
 
 public class SearchRecentSuggestionsProvider {
+    /** Source id of the suggestions from the user's historical searches. */
+    public static final int SOURCE_HISTORY = 0;
+
+    /**
+     * Receives suggestions from {@link #query(String, SuggestionsCallback)}. Called on the
+     * querying thread, once per source, in the order the sources finish.
+     */
+    public interface SuggestionsCallback {
+        void onSuggestionsLoaded(int source, Cursor cursor);
+    }
+
     /*
      * String used to delimit different parts of a query.
      */
@@ -40,12 +54,40 @@ public class SearchRecentSuggestionsProvider {
     private SQLiteOpenHelper mOpenHelper;
     private static final String DATABASE_NAME = "suggestions.db";
     private static final String SUGGESTIONS_TABLE = "suggestions";
+    /**
+     * Full-text index over display1, keyed by the suggestions row id (docid == _id). It is kept
+     * in sync by {@link #saveRecentQuery(String)} and {@link #clearHistory()} rather than by
+     * triggers, since the suggestions table's ON CONFLICT REPLACE does not fire delete triggers.
+     */
+    private static final String SUGGESTIONS_FTS_TABLE = "suggestions_fts";
 
-    private static final String QUERY =
-            " SELECT _id" +
+    private static final String COLUMNS =
+            " SELECT " + SUGGESTIONS_TABLE + "._id" +
             "   , display1 AS " + SearchManager.SUGGEST_COLUMN_TEXT_1 +
             "   , ? || query AS " + SearchManager.SUGGEST_COLUMN_QUERY +
-            "   , ? AS " + SearchManager.SUGGEST_COLUMN_ICON_1 +
+            "   , ? AS " + SearchManager.SUGGEST_COLUMN_ICON_1;
+
+    /** Used for an empty query; date is indexed, so this is an index walk. */
+    private static final String QUERY_ALL =
+            COLUMNS +
+            " FROM " + SUGGESTIONS_TABLE +
+            " ORDER BY date DESC";
+
+    /** Prefix match of every token of the query through the full-text index. */
+    private static final String QUERY_PREFIX =
+            COLUMNS +
+            " FROM " + SUGGESTIONS_FTS_TABLE +
+            " JOIN " + SUGGESTIONS_TABLE +
+            " ON " + SUGGESTIONS_TABLE + "._id = " + SUGGESTIONS_FTS_TABLE + ".docid" +
+            " WHERE " + SUGGESTIONS_FTS_TABLE + " MATCH ?" +
+            " ORDER BY date DESC";
+
+    /**
+     * Substring scan, only used for queries without any letters or digits, which the full-text
+     * tokenizer would discard.
+     */
+    private static final String QUERY_LIKE =
+            COLUMNS +
             " FROM " + SUGGESTIONS_TABLE +
             " WHERE display1 LIKE ?" +
             " ORDER BY date DESC";
@@ -57,10 +99,12 @@ public class SearchRecentSuggestionsProvider {
     // 1      original implementation with queries, and 1 or 2 display columns
     // 1->2   added UNIQUE constraint to display1 column
     // 2->3   <redacted> being dumb and accidentally upgraded, this should be ignored.
-    private static final int DATABASE_VERSION = 3 * 256;
+    // 3->4   added the suggestions_fts prefix index and an index on date
+    private static final int DATABASE_VERSION = 4 * 256;
 
     private static final int DATABASE_VERSION_2 = 2 * 256;
     private static final int DATABASE_VERSION_3 = 3 * 256;
+    private static final int DATABASE_VERSION_4 = 4 * 256;
 
     private String mHistoricalIcon;
 
@@ -107,6 +151,13 @@ public class SearchRecentSuggestionsProvider {
                     ",date LONG" +
                     ");";
             db.execSQL(create);
+            createIndices(db);
+        }
+
+        private static void createIndices(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS suggestions_date ON suggestions (date);");
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + SUGGESTIONS_FTS_TABLE +
+                    " USING fts4 (display1, prefix=\"1,2,3\");");
         }
 
         @Override
@@ -118,6 +169,15 @@ public class SearchRecentSuggestionsProvider {
                 // Oops, didn't mean to upgrade this database. Ignore this upgrade.
                 return;
             }
+            if ((oldVersion == DATABASE_VERSION_2 || oldVersion == DATABASE_VERSION_3)
+                    && newVersion == DATABASE_VERSION_4) {
+                // The suggestions table is unchanged; index the existing history.
+                createIndices(db);
+                db.execSQL("INSERT INTO " + SUGGESTIONS_FTS_TABLE + " (docid, display1)" +
+                        " SELECT _id, display1 FROM suggestions;");
+                return;
+            }
+            db.execSQL("DROP TABLE IF EXISTS " + SUGGESTIONS_FTS_TABLE);
             db.execSQL("DROP TABLE IF EXISTS suggestions");
             onCreate(db);
         }
@@ -143,6 +203,33 @@ public class SearchRecentSuggestionsProvider {
     }
 
     public Cursor query(String query) {
+        final long start = SystemClock.elapsedRealtime();
+        final Cursor c = queryHistory(query);
+        PerfMetrics.recordMillis(PerfMetrics.RECENT_SUGGESTIONS_QUERY,
+                SystemClock.elapsedRealtime() - start);
+        return c;
+    }
+
+    /**
+     * Queries for suggestions, handing the rows of each source to the callback as soon as that
+     * source has been queried. The cursor passed to the callback is closed when it returns.
+     */
+    public void query(String query, SuggestionsCallback callback) {
+        final Cursor c = query(query);
+        if (c != null) {
+            try {
+                callback.onSuggestionsLoaded(SOURCE_HISTORY, c);
+            } finally {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the historical searches matching the given query, most recent first. Every token of
+     * the query is matched as a word prefix through the full-text index.
+     */
+    protected Cursor queryHistory(String query) {
         final SQLiteDatabase db = getDatabase(true /* readOnly */);
         if (db != null) {
             final StringBuilder builder = new StringBuilder();
@@ -152,17 +239,62 @@ public class SearchRecentSuggestionsProvider {
                 }
             }
 
-            final String[] args = new String[] {
-                    builder.toString(), mHistoricalIcon, "%" + query + "%" };
+            final String sql;
+            final String[] args;
+            final String match = buildPrefixMatch(query);
+            if (TextUtils.isEmpty(query)) {
+                sql = QUERY_ALL;
+                args = new String[] { builder.toString(), mHistoricalIcon };
+            } else if (match != null) {
+                sql = QUERY_PREFIX;
+                args = new String[] { builder.toString(), mHistoricalIcon, match };
+            } else {
+                sql = QUERY_LIKE;
+                args = new String[] { builder.toString(), mHistoricalIcon, "%" + query + "%" };
+            }
 
             try {
                 // db could have been closed due to cleanup, simply don't do anything.
-                return db.rawQuery(QUERY, args);
+                final Cursor c = db.rawQuery(sql, args);
+                // Run the query now, on this thread, rather than on the first access.
+                c.getCount();
+                return c;
             } catch (IllegalStateException e) {}
         }
         return null;
     }
 
+    /**
+     * Builds an FTS MATCH expression requiring every token of the query as a word prefix, e.g.
+     * <code>"foo*" "bar*"</code>. Each token is quoted so that FTS operators typed by the user
+     * are matched literally. Returns null if the query contains nothing the tokenizer would
+     * index.
+     */
+    private static String buildPrefixMatch(String query) {
+        if (query == null) {
+            return null;
+        }
+        final StringBuilder match = new StringBuilder();
+        final String[] tokens = TextUtils.split(query.trim(), QUERY_TOKEN_SEPARATOR);
+        for (String token : tokens) {
+            boolean indexable = false;
+            for (int i = 0; i < token.length(); i++) {
+                if (Character.isLetterOrDigit(token.charAt(i))) {
+                    indexable = true;
+                    break;
+                }
+            }
+            if (!indexable) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append('"').append(token.replace("\"", "")).append("*\"");
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
     /**
      * We are going to keep track of recent suggestions ourselves and not depend on the framework.
      * Note that this writes to disk. DO NOT CALL FROM MAIN THREAD.
@@ -174,10 +306,27 @@ public class SearchRecentSuggestionsProvider {
             values.put("display1", query);
             values.put("query", query);
             values.put("date", System.currentTimeMillis());
-            // Note:  This table has on-conflict-replace semantics, so insert may actually replace
             try {
                 // db could have been closed due to cleanup, simply don't do anything.
-                db.insert(SUGGESTIONS_TABLE, null, values);
+                db.beginTransaction();
+                try {
+                    // Update in place if we've seen this query before so that the row keeps its
+                    // id, and with it its entry in the full-text index.
+                    final int updated = db.update(SUGGESTIONS_TABLE, values, "display1 = ?",
+                            new String[] { query });
+                    if (updated == 0) {
+                        final long id = db.insert(SUGGESTIONS_TABLE, null, values);
+                        if (id >= 0) {
+                            final ContentValues ftsValues = new ContentValues(2);
+                            ftsValues.put("docid", id);
+                            ftsValues.put("display1", query);
+                            db.insert(SUGGESTIONS_FTS_TABLE, null, ftsValues);
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
             } catch (IllegalStateException e) {}
         }
     }
@@ -187,7 +336,14 @@ public class SearchRecentSuggestionsProvider {
         if (db != null) {
             try {
                 // db could have been closed due to cleanup, simply don't do anything.
-                db.delete(SUGGESTIONS_TABLE, null, null);
+                db.beginTransaction();
+                try {
+                    db.delete(SUGGESTIONS_TABLE, null, null);
+                    db.delete(SUGGESTIONS_FTS_TABLE, null, null);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
             } catch (IllegalStateException e) {}
         }
     }
@@ -20,6 +20,7 @@ package com.android.mail.providers;
 import android.database.Cursor;
 import android.database.MergeCursor;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.provider.BaseColumns;
 import android.provider.ContactsContract;
 import android.app.SearchManager;
@@ -28,9 +29,19 @@ import android.content.Context;
 import android.text.TextUtils;
 
 import com.android.mail.R;
+import com.android.mail.perf.PerfMetrics;
+import com.android.mail.utils.LogTag;
+import com.android.mail.utils.LogUtils;
 import com.android.mail.utils.MatrixCursorWithCachedColumns;
 
 import java.util.ArrayList;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Simple extension / instantiation of SearchRecentSuggestionsProvider, independent
@@ -53,11 +64,26 @@ public class SuggestionsProvider extends SearchRecentSuggestionsProvider {
             ContactsContract.CommonDataKinds.Email.DISPLAY_NAME,
             ContactsContract.CommonDataKinds.Email.DATA
     };
+    /** Source id of the suggestions from contact email addresses. */
+    public static final int SOURCE_CONTACTS = 1;
     /**
      * Minimum length of query before we start showing contacts suggestions.
      */
     static private final int MIN_QUERY_LENGTH_FOR_CONTACTS = 2;
 
+    private static final String LOG_TAG = LogTag.getLogTag();
+
+    /**
+     * Runs the lookups of each source, one thread per source. Callers block on their results, so
+     * this must not be a pool that the callers themselves may be running on.
+     */
+    private static final ThreadPoolExecutor QUERY_EXECUTOR = new ThreadPoolExecutor(2, 2,
+            1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        QUERY_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
     public SuggestionsProvider(Context context) {
         super(context);
     }
@@ -65,48 +91,178 @@ public class SuggestionsProvider extends SearchRecentSuggestionsProvider {
     @Override
     public Cursor query(String query) {
         Cursor mergeCursor = null;
+        final Cursor[] cursors = new Cursor[2];
+        queryAll(query, new SuggestionsCallback() {
+            @Override
+            public void onSuggestionsLoaded(int source, Cursor cursor) {
+                cursors[source] = cursor;
+            }
+        }, false /* closeCursors */);
+        final ArrayList<Cursor> nonNull = new ArrayList<Cursor>(2);
+        // Historical searches come before contacts regardless of which finished first.
+        for (Cursor c : cursors) {
+            if (c != null) {
+                nonNull.add(c);
+            }
+        }
+        if (nonNull.size() > 0) {
+            mergeCursor = new MergeCursor(nonNull.toArray(new Cursor[nonNull.size()]));
+        }
+        return mergeCursor;
+    }
 
+    @Override
+    public void query(String query, SuggestionsCallback callback) {
+        queryAll(query, callback, true /* closeCursors */);
+    }
+
+    /**
+     * Looks up historical searches and contacts concurrently, delivering each to the callback on
+     * the calling thread as it completes. If the calling thread is interrupted, any lookup that
+     * is still running is cancelled and no further results are delivered.
+     */
+    private void queryAll(String query, SuggestionsCallback callback, boolean closeCursors) {
         synchronized (mTermsLock) {
             mFullQueryTerms = null;
             super.setFullQueryTerms(mFullQueryTerms);
         }
         // Get the custom suggestions for email which are from, to, etc.
-        if (query != null) {
-            // Tokenize the query.
-            String[] tokens = TextUtils.split(query,
-                    SearchRecentSuggestionsProvider.QUERY_TOKEN_SEPARATOR);
-            // There are multiple tokens, so query on the last token only.
-            if (tokens != null && tokens.length > 1) {
-                query = tokens[tokens.length - 1];
-                // Leave off the last token since we are auto completing on it.
-                synchronized (mTermsLock) {
-                    mFullQueryTerms = new ArrayList<String>();
-                    for (int i = 0, size = tokens.length - 1; i < size; i++) {
-                        mFullQueryTerms.add(tokens[i]);
+        if (query == null) {
+            return;
+        }
+        final long start = SystemClock.elapsedRealtime();
+        // Tokenize the query.
+        String[] tokens = TextUtils.split(query,
+                SearchRecentSuggestionsProvider.QUERY_TOKEN_SEPARATOR);
+        // There are multiple tokens, so query on the last token only.
+        if (tokens != null && tokens.length > 1) {
+            query = tokens[tokens.length - 1];
+            // Leave off the last token since we are auto completing on it.
+            synchronized (mTermsLock) {
+                mFullQueryTerms = new ArrayList<String>();
+                for (int i = 0, size = tokens.length - 1; i < size; i++) {
+                    mFullQueryTerms.add(tokens[i]);
+                }
+                super.setFullQueryTerms(mFullQueryTerms);
+            }
+        } else {
+            // Strip excess whitespace.
+            query = query.trim();
+        }
+        // Pass query; at this point it is either the last term OR the
+        // only term.
+        final String lastTerm = query;
+        final CompletionService<SourceQuery> completionService =
+                new ExecutorCompletionService<SourceQuery>(QUERY_EXECUTOR);
+        final ArrayList<Future<SourceQuery>> pending = new ArrayList<Future<SourceQuery>>(2);
+        final ArrayList<SourceQuery> queries = new ArrayList<SourceQuery>(2);
+        queries.add(new SourceQuery(SOURCE_HISTORY) {
+            @Override
+            protected Cursor query() {
+                return queryHistory(lastTerm);
+            }
+        });
+        if (lastTerm.length() >= MIN_QUERY_LENGTH_FOR_CONTACTS) {
+            queries.add(new SourceQuery(SOURCE_CONTACTS) {
+                @Override
+                protected Cursor query() {
+                    return new ContactsCursor().query(lastTerm);
+                }
+            });
+        }
+        for (SourceQuery q : queries) {
+            pending.add(completionService.submit(q, q));
+        }
+
+        try {
+            while (!pending.isEmpty()) {
+                final Future<SourceQuery> done = completionService.take();
+                pending.remove(done);
+                final Cursor c = getQuietly(done);
+                if (c == null) {
+                    continue;
+                }
+                try {
+                    callback.onSuggestionsLoaded(done.get().source, c);
+                } finally {
+                    if (closeCursors) {
+                        c.close();
                     }
-                    super.setFullQueryTerms(mFullQueryTerms);
                 }
-            } else {
-                // Strip excess whitespace.
-                query = query.trim();
             }
-            ArrayList<Cursor> cursors = new ArrayList<Cursor>();
-            // Pass query; at this point it is either the last term OR the
-            // only term.
-            final Cursor c = super.query(query);
-            if (c != null) {
-                cursors.add(c);
+            PerfMetrics.recordMillis(PerfMetrics.SUGGESTIONS_QUERY,
+                    SystemClock.elapsedRealtime() - start);
+        } catch (InterruptedException e) {
+            // A newer query superseded this one. Lookups that finish from now on close their own
+            // results, and the ones that already finished are closed here.
+            for (SourceQuery q : queries) {
+                q.abandon();
             }
+            for (Future<SourceQuery> f : pending) {
+                f.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Returns the result of a finished lookup, which the caller now owns, or null. */
+    private static Cursor getQuietly(Future<SourceQuery> future) throws InterruptedException {
+        try {
+            return future.get().takeResult();
+        } catch (ExecutionException e) {
+            LogUtils.w(LOG_TAG, e.getCause(), "Error querying suggestions");
+            return null;
+        }
+    }
+
+    /**
+     * Looks up the suggestions of one source on {@link #QUERY_EXECUTOR}. The result is held until
+     * the querying thread takes it, or closed if that thread gave up on it first.
+     */
+    private static abstract class SourceQuery implements Runnable {
+        final int source;
+        /** Guarded by this. */
+        private Cursor mResult;
+        /** Guarded by this. */
+        private boolean mAbandoned;
 
-            if (query.length() >= MIN_QUERY_LENGTH_FOR_CONTACTS) {
-                cursors.add(new ContactsCursor().query(query));
+        SourceQuery(int source) {
+            this.source = source;
+        }
+
+        protected abstract Cursor query();
+
+        @Override
+        public void run() {
+            Cursor c = query();
+            synchronized (this) {
+                if (!mAbandoned) {
+                    mResult = c;
+                    c = null;
+                }
+            }
+            if (c != null) {
+                c.close();
             }
+        }
+
+        synchronized Cursor takeResult() {
+            final Cursor c = mResult;
+            mResult = null;
+            return c;
+        }
 
-            if (cursors.size() > 0) {
-                mergeCursor = new MergeCursor(cursors.toArray(new Cursor[cursors.size()]));
+        /** Closes the result, now or once the lookup finishes, unless it was already taken. */
+        void abandon() {
+            final Cursor c;
+            synchronized (this) {
+                mAbandoned = true;
+                c = takeResult();
+            }
+            if (c != null) {
+                c.close();
             }
         }
-        return mergeCursor;
     }
 
     /**
@@ -140,7 +296,8 @@ public class SuggestionsProvider extends SearchRecentSuggestionsProvider {
                 final int addressIndex = cursor
                         .getColumnIndex(ContactsContract.CommonDataKinds.Email.DATA);
                 String match;
-                while (cursor.moveToNext()) {
+                // Stop early if a newer query has superseded this one.
+                while (!Thread.currentThread().isInterrupted() && cursor.moveToNext()) {
                     match = cursor.getString(nameIndex);
                     match = !TextUtils.isEmpty(match) ? match : cursor.getString(addressIndex);
                     // The order of fields is:
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.providers;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.android.mail.perf.PerfMetrics;
+import com.android.mail.utils.LogTag;
+import com.android.mail.utils.LogUtils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the default inbox of every account for {@link FolderWatcher}, in a single loader.
+ * <p>
+ * Each watched inbox keeps its cursor open and observed, and a change marks only that inbox as
+ * dirty. Changes are debounced for {@link #DEBOUNCE_MS}, but never delayed more than
+ * {@link #MAX_DELAY_MS} after the first one, and then one load queries every dirty inbox. A sync
+ * that notifies each account's inbox several times costs one load, rather than a load per
+ * account per notification. Notifications that didn't need a query of their own are counted in
+ * {@link PerfMetrics#COUNT_UNREAD_LOADS_AVOIDED}.
+ * <p>
+ * The result maps the uri of every watched inbox that has loaded to its folder, so that a
+ * retained loader can be handed to new callbacks after a configuration change.
+ */
+final class UnreadCountLoader extends AsyncTaskLoader<Map<Uri, Folder>> {
+    private static final String LOG_TAG = LogTag.getLogTag();
+
+    /** How long after the last change to an inbox its load waits for more changes. */
+    @VisibleForTesting
+    static final long DEBOUNCE_MS = 250;
+    /** The longest a change waits for its load, however many changes follow it. */
+    @VisibleForTesting
+    static final long MAX_DELAY_MS = 1000;
+
+    // TODO(viki): Fix http://b/8494129 and read only the URI and unread count.
+    /** Only interested in the folder unread count, but asking for everything due to
+     * bug 8494129. */
+    private static final String[] PROJECTION = UIProvider.FOLDERS_PROJECTION;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** Guards the fields below, which are shared with the load running in the background. */
+    private final Object mLock = new Object();
+    /** Inboxes that are watched. */
+    private final Set<Uri> mWatched = Sets.newHashSet();
+    /** Watched inboxes that changed since they were last queried. */
+    private final Set<Uri> mDirty = Sets.newHashSet();
+    /** The latest folder of each watched inbox. */
+    private final Map<Uri, Folder> mFolders = Maps.newHashMap();
+    /** The open cursor of each watched inbox, which observes the inbox for changes. */
+    private final Map<Uri, Cursor> mCursors = Maps.newHashMap();
+
+    /** When the first change of the pending batch was seen, or -1 if none is pending. */
+    private long mFirstChangeMs = -1;
+    private Map<Uri, Folder> mResult;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            mFirstChangeMs = -1;
+            onContentChanged();
+        }
+    };
+
+    UnreadCountLoader(Context context) {
+        super(context);
+    }
+
+    /**
+     * Watches exactly these inboxes from now on. Inboxes that weren't watched before are loaded
+     * right away, and inboxes that are no longer watched are dropped from later results.
+     *
+     * Must be called from the UI thread
+     */
+    void setUris(Collection<Uri> uris) {
+        boolean added = false;
+        synchronized (mLock) {
+            final Iterator<Uri> watched = mWatched.iterator();
+            while (watched.hasNext()) {
+                final Uri uri = watched.next();
+                if (!uris.contains(uri)) {
+                    watched.remove();
+                    mDirty.remove(uri);
+                    mFolders.remove(uri);
+                    closeQuietly(mCursors.remove(uri));
+                }
+            }
+            for (final Uri uri : uris) {
+                if (uri != null && mWatched.add(uri)) {
+                    mDirty.add(uri);
+                    added = true;
+                }
+            }
+        }
+        if (added) {
+            // Don't keep a new account's unread count waiting behind the debounce.
+            onContentChanged();
+        }
+    }
+
+    /**
+     * Marks an inbox as changed, and schedules a load of every changed inbox once changes stop
+     * coming in.
+     *
+     * Must be called from the UI thread
+     */
+    @VisibleForTesting
+    void onInboxChanged(Uri uri) {
+        synchronized (mLock) {
+            if (!mWatched.contains(uri)) {
+                return;
+            }
+            if (!mDirty.add(uri)) {
+                // Its load is already due, and will pick up this change as well.
+                PerfMetrics.increment(PerfMetrics.COUNT_UNREAD_LOADS_AVOIDED);
+            }
+        }
+        final long now = SystemClock.uptimeMillis();
+        if (mFirstChangeMs < 0) {
+            mFirstChangeMs = now;
+        }
+        mHandler.removeCallbacks(mFlush);
+        mHandler.postAtTime(mFlush, Math.min(now + DEBOUNCE_MS, mFirstChangeMs + MAX_DELAY_MS));
+    }
+
+    /* Runs on a worker thread */
+    @Override
+    public Map<Uri, Folder> loadInBackground() {
+        final List<Uri> dirty;
+        final int watched;
+        synchronized (mLock) {
+            dirty = Lists.newArrayList(mDirty);
+            mDirty.clear();
+            watched = mWatched.size();
+        }
+        LogUtils.d(LOG_TAG, "UnreadCountLoader: loading %d of %d inboxes", dirty.size(), watched);
+
+        for (final Uri uri : dirty) {
+            final Cursor cursor = getContext().getContentResolver().query(uri, PROJECTION, null,
+                    null, null);
+            final Folder folder =
+                    cursor != null && cursor.moveToFirst() ? new Folder(cursor) : null;
+            synchronized (mLock) {
+                if (!mWatched.contains(uri)) {
+                    // Stopped watching it while it loaded
+                    closeQuietly(cursor);
+                    continue;
+                }
+                if (cursor != null) {
+                    cursor.registerContentObserver(new InboxObserver(uri));
+                    closeQuietly(mCursors.put(uri, cursor));
+                }
+                if (folder != null) {
+                    mFolders.put(uri, folder);
+                }
+            }
+        }
+
+        synchronized (mLock) {
+            return ImmutableMap.copyOf(mFolders);
+        }
+    }
+
+    /* Runs on the UI thread */
+    @Override
+    public void deliverResult(Map<Uri, Folder> folders) {
+        if (isReset()) {
+            return;
+        }
+        mResult = folders;
+        if (isStarted()) {
+            super.deliverResult(folders);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mResult != null) {
+            deliverResult(mResult);
+        }
+        if (takeContentChanged() || mResult == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(Map<Uri, Folder> folders) {
+        // The cancelled load already took its inboxes off the dirty list, so make sure that the
+        // next start loads again rather than delivering what it had before.
+        if (!isStarted()) {
+            onContentChanged();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mHandler.removeCallbacks(mFlush);
+        mFirstChangeMs = -1;
+        synchronized (mLock) {
+            for (final Cursor cursor : mCursors.values()) {
+                closeQuietly(cursor);
+            }
+            mCursors.clear();
+            mWatched.clear();
+            mDirty.clear();
+            mFolders.clear();
+        }
+        mResult = null;
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        synchronized (mLock) {
+            writer.print(prefix); writer.print("mWatched="); writer.println(mWatched);
+            writer.print(prefix); writer.print("mDirty="); writer.println(mDirty);
+        }
+    }
+
+    private static void closeQuietly(Cursor cursor) {
+        if (cursor != null && !cursor.isClosed()) {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Observes the cursor of one inbox, and passes its changes on to {@link #onInboxChanged}.
+     */
+    private class InboxObserver extends ContentObserver {
+        private final Uri mUri;
+
+        InboxObserver(Uri uri) {
+            super(mHandler);
+            mUri = uri;
+        }
+
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onInboxChanged(mUri);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.providers.protos.mock;
+
+import android.database.AbstractCursor;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+/**
+ * A cursor whose rows are made on demand by a {@link RowSource}, so that a cursor over hundreds of
+ * thousands of rows only ever holds the row it is positioned on. When the cursor is sent to
+ * another process, {@link AbstractCursor#fillWindow} asks for just the rows of each window.
+ */
+public class GeneratedCursor extends AbstractCursor {
+
+    /**
+     * Makes the rows of a {@link GeneratedCursor}. Rows must be the same every time they are made,
+     * since the cursor may visit them in any order and any number of times.
+     */
+    public interface RowSource {
+        /** The columns that {@link #fillRow} fills, in order. */
+        String[] getColumnNames();
+
+        int getCount();
+
+        /**
+         * Fills in every column of a row. Values may be null, a {@link Number}, a
+         * {@code byte[]}, or anything whose {@link Object#toString()} is the column's value.
+         */
+        void fillRow(int position, Object[] row);
+    }
+
+    private final RowSource mSource;
+    private final String[] mColumnNames;
+    /** For each column of this cursor, its index in the rows made by the source, or -1. */
+    private final int[] mSourceColumns;
+    private final Object[] mRow;
+    /** The position that {@link #mRow} was filled for, or -1. */
+    private int mRowPosition = -1;
+
+    /**
+     * @param projection the columns to return, or null for all of the source's columns. Columns
+     * the source doesn't know about are always null.
+     */
+    public GeneratedCursor(String[] projection, RowSource source) {
+        mSource = source;
+        final String[] sourceColumns = source.getColumnNames();
+        mColumnNames = projection != null ? projection : sourceColumns;
+        mRow = new Object[sourceColumns.length];
+
+        final Map<String, Integer> indexes = Maps.newHashMapWithExpectedSize(sourceColumns.length);
+        for (int i = 0; i < sourceColumns.length; i++) {
+            indexes.put(sourceColumns[i], i);
+        }
+        mSourceColumns = new int[mColumnNames.length];
+        for (int i = 0; i < mColumnNames.length; i++) {
+            final Integer index = indexes.get(mColumnNames[i]);
+            mSourceColumns[i] = index != null ? index : -1;
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return mSource.getCount();
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    private Object get(int column) {
+        if (column < 0 || column >= mColumnNames.length) {
+            throw new IllegalArgumentException("Requested column: " + column + ", # of columns: "
+                    + mColumnNames.length);
+        }
+        if (mPos < 0 || mPos >= getCount()) {
+            throw new IllegalStateException("Cursor is not positioned on a row: " + mPos);
+        }
+        final int sourceColumn = mSourceColumns[column];
+        if (sourceColumn < 0) {
+            return null;
+        }
+        if (mRowPosition != mPos) {
+            mSource.fillRow(mPos, mRow);
+            mRowPosition = mPos;
+        }
+        return mRow[sourceColumn];
+    }
+
+    @Override
+    public String getString(int column) {
+        final Object value = get(column);
+        return value != null ? value.toString() : null;
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        final Object value = get(column);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString());
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        final Object value = get(column);
+        if (value == null) {
+            return 0.0d;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return Double.parseDouble(value.toString());
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return (byte[]) get(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        final Object value = get(column);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof byte[]) {
+            return FIELD_TYPE_BLOB;
+        } else if (value instanceof Float || value instanceof Double) {
+            return FIELD_TYPE_FLOAT;
+        } else if (value instanceof Number) {
+            return FIELD_TYPE_INTEGER;
+        }
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return get(column) == null;
+    }
+}
@@ -0,0 +1,652 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.providers.protos.mock;
+
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.android.mail.providers.Attachment;
+import com.android.mail.providers.ConversationInfo;
+import com.android.mail.providers.Folder;
+import com.android.mail.providers.FolderList;
+import com.android.mail.providers.ParticipantInfo;
+import com.android.mail.providers.UIProvider;
+import com.android.mail.providers.UIProvider.AccountColumns;
+import com.android.mail.providers.UIProvider.AttachmentColumns;
+import com.android.mail.providers.UIProvider.AttachmentDestination;
+import com.android.mail.providers.UIProvider.AttachmentState;
+import com.android.mail.providers.UIProvider.AttachmentType;
+import com.android.mail.providers.UIProvider.ConversationSendingState;
+import com.android.mail.providers.UIProvider.FolderCapabilities;
+import com.android.mail.providers.UIProvider.FolderType;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a large, made up mailbox for load and scroll benchmarks, one row at a time.
+ * <p>
+ * Every row is derived from the mailbox's seed and the row's ids alone, so any row can be made
+ * without making the rows before it, and two mailboxes with the same configuration have exactly
+ * the same contents. Nothing is kept in memory besides the folders of each account.
+ * <p>
+ * The numbers of conversations, messages, labels and the size of message bodies are set with a
+ * {@link Builder}. Each conversation has between one and {@link Builder#setMaxMessages} messages,
+ * except the first conversation of every folder, which always has the most, so benchmarks have a
+ * known worst case to open.
+ */
+public final class SyntheticMailbox {
+
+    /** Folders that every account has, before its labels. */
+    private static final String[] SYSTEM_FOLDER_NAMES = { "Inbox", "Sent", "Drafts", "Trash" };
+    private static final int[] SYSTEM_FOLDER_TYPES =
+            { FolderType.INBOX, FolderType.SENT, FolderType.DRAFT, FolderType.TRASH };
+
+    /** Every tenth conversation of a folder is unread. */
+    private static final int UNREAD_INTERVAL = 10;
+    /** Most people taking part in one conversation. */
+    private static final int MAX_PARTICIPANTS = 6;
+    /** The date of the newest conversation of every folder, so that dates don't depend on now. */
+    private static final long NEWEST_DATE_MS = 1388534400000L;
+    private static final long CONVERSATION_INTERVAL_MS = 17 * 60 * 1000;
+    private static final long MESSAGE_INTERVAL_MS = 3 * 60 * 1000;
+
+    private static final String[] FIRST_NAMES = { "Alice", "Bruno", "Chandra", "Dmitri", "Elena",
+            "Farid", "Grace", "Hiroshi", "Ines", "Jamal", "Katrin", "Luis", "Mei", "Nadia", "Omar",
+            "Priya", "Quentin", "Rosa", "Sven", "Tomasz" };
+    private static final String[] LAST_NAMES = { "Anders", "Baptiste", "Costa", "Dubois", "Eriksen",
+            "Fischer", "Garcia", "Horvat", "Ivanova", "Jensen", "Kowalski", "Lindqvist", "Moreau",
+            "Nakamura", "Okafor", "Petrov" };
+    private static final String[] WORDS = { "quarterly", "review", "meeting", "schedule", "budget",
+            "release", "draft", "proposal", "update", "notes", "travel", "invoice", "design",
+            "launch", "feedback", "agenda", "report", "migration", "contract", "offsite", "the",
+            "and", "for", "with", "about", "next", "week", "please", "thanks", "team", "project",
+            "timeline", "numbers", "latest", "version", "attached", "question", "follow", "up" };
+    private static final String[] LABEL_COLORS = { "-4224594", "-16738680", "-1086464",
+            "-13208132", "-5317", "-10453621", "-2937041", "-16537100" };
+    private static final String[] ATTACHMENT_TYPES = { "image/jpeg", "application/pdf",
+            "text/plain", "application/zip" };
+    private static final String[] ATTACHMENT_EXTENSIONS = { "jpg", "pdf", "txt", "zip" };
+
+    private final long mSeed;
+    private final int mAccountCount;
+    private final int mLabelCount;
+    private final int mConversationCount;
+    private final int mMaxMessages;
+    private final int mLabelsPerConversation;
+    private final int mBodyChars;
+    private final int mMaxAttachments;
+
+    /** The folders of each account, made on first use. Guarded by itself. */
+    private final List<Folder>[] mFolders;
+
+    /**
+     * Configures a {@link SyntheticMailbox}. The defaults are sized for scroll benchmarks: one
+     * account whose folders have 100,000 conversations of up to 200 messages each, with heavy HTML
+     * bodies and eight labels per conversation.
+     */
+    public static final class Builder {
+        private long mSeed = 0;
+        private int mAccountCount = 1;
+        private int mLabelCount = 20;
+        private int mConversationCount = 100000;
+        private int mMaxMessages = 200;
+        private int mLabelsPerConversation = 8;
+        private int mBodyChars = 32 * 1024;
+        private int mMaxAttachments = 3;
+
+        /** Mailboxes made with the same seed and configuration have the same contents. */
+        public Builder setSeed(long seed) {
+            mSeed = seed;
+            return this;
+        }
+
+        public Builder setAccountCount(int accountCount) {
+            mAccountCount = accountCount;
+            return this;
+        }
+
+        /** Sets how many labels each account has, besides its system folders. */
+        public Builder setLabelCount(int labelCount) {
+            mLabelCount = labelCount;
+            return this;
+        }
+
+        /** Sets how many conversations every folder has. */
+        public Builder setConversationCount(int conversationCount) {
+            mConversationCount = conversationCount;
+            return this;
+        }
+
+        /** Sets the most messages a conversation has. */
+        public Builder setMaxMessages(int maxMessages) {
+            mMaxMessages = maxMessages;
+            return this;
+        }
+
+        /** Sets the most labels a conversation has, which is capped by the number of labels. */
+        public Builder setLabelsPerConversation(int labelsPerConversation) {
+            mLabelsPerConversation = labelsPerConversation;
+            return this;
+        }
+
+        /** Sets roughly how many chars of HTML each message body has. */
+        public Builder setBodyChars(int bodyChars) {
+            mBodyChars = bodyChars;
+            return this;
+        }
+
+        /** Sets the most attachments a message has. Zero means no message has attachments. */
+        public Builder setMaxAttachments(int maxAttachments) {
+            mMaxAttachments = maxAttachments;
+            return this;
+        }
+
+        public SyntheticMailbox build() {
+            if (mAccountCount < 1 || mConversationCount < 0 || mMaxMessages < 1
+                    || mLabelCount < 0 || mLabelsPerConversation < 0 || mBodyChars < 0
+                    || mMaxAttachments < 0) {
+                throw new IllegalArgumentException("Invalid synthetic mailbox configuration");
+            }
+            return new SyntheticMailbox(this);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private SyntheticMailbox(Builder builder) {
+        mSeed = builder.mSeed;
+        mAccountCount = builder.mAccountCount;
+        mLabelCount = builder.mLabelCount;
+        mConversationCount = builder.mConversationCount;
+        mMaxMessages = builder.mMaxMessages;
+        mLabelsPerConversation = Math.min(builder.mLabelsPerConversation, builder.mLabelCount);
+        mBodyChars = builder.mBodyChars;
+        mMaxAttachments = builder.mMaxAttachments;
+        mFolders = new List[mAccountCount];
+    }
+
+    public int getAccountCount() {
+        return mAccountCount;
+    }
+
+    public int getFolderCount() {
+        return SYSTEM_FOLDER_NAMES.length + mLabelCount;
+    }
+
+    public int getConversationCount() {
+        return mConversationCount;
+    }
+
+    public int getMessageCount(int account, int folder, int conversation) {
+        if (conversation == 0) {
+            return mMaxMessages;
+        }
+        return 1 + random(account, folder, conversation, -1).nextInt(mMaxMessages);
+    }
+
+    public int getAttachmentCount(int account, int folder, int conversation, int message) {
+        if (mMaxAttachments == 0 || !hasAttachments(account, folder, conversation)
+                || message % 3 != 0) {
+            return 0;
+        }
+        return 1 + random(account, folder, conversation, message).nextInt(mMaxAttachments);
+    }
+
+    /** Whether the given ids are all in range. Pass -1 for the ids that don't apply. */
+    public boolean exists(int account, int folder, int conversation, int message,
+            int attachment) {
+        if (account < 0 || account >= mAccountCount) {
+            return false;
+        }
+        if (folder >= getFolderCount() || conversation >= mConversationCount) {
+            return false;
+        }
+        if (message >= 0 && message >= getMessageCount(account, folder, conversation)) {
+            return false;
+        }
+        return attachment < 0
+                || attachment < getAttachmentCount(account, folder, conversation, message);
+    }
+
+    public static Uri getAccountsUri() {
+        return Uri.parse("content://" + SyntheticUiProvider.AUTHORITY + "/accounts");
+    }
+
+    public static String getAccountUri(int account) {
+        return "content://" + SyntheticUiProvider.AUTHORITY + "/account/" + account;
+    }
+
+    public static String getFolderUri(int account, int folder) {
+        return getAccountUri(account) + "/folder/" + folder;
+    }
+
+    public static String getConversationUri(int account, int folder, int conversation) {
+        return getFolderUri(account, folder) + "/conversation/" + conversation;
+    }
+
+    public static String getMessageUri(int account, int folder, int conversation, int message) {
+        return getConversationUri(account, folder, conversation) + "/message/" + message;
+    }
+
+    /**
+     * Returns the values of an account's row, keyed by column. Accounts use the same settings as
+     * those of {@link MockUiProvider}, with this mailbox's uris.
+     */
+    public Map<String, Object> getAccountValues(int account) {
+        final String accountUri = getAccountUri(account);
+        final String name = "account" + account + "@syntheticprovider.com";
+        final Map<String, Object> values =
+                MockUiProvider.createAccountDetailsMap(account, getFolderUri(account, 0));
+        values.put(AccountColumns.NAME, name);
+        values.put(AccountColumns.TYPE, "com.android.mail.providers.protos.synthetic");
+        values.put(AccountColumns.ACCOUNT_MANAGER_NAME, name);
+        values.put(AccountColumns.ACCOUNT_ID, name);
+        values.put(AccountColumns.URI, accountUri);
+        values.put(AccountColumns.FOLDER_LIST_URI, accountUri + "/folders");
+        values.put(AccountColumns.FULL_FOLDER_LIST_URI, accountUri + "/folders");
+        values.put(AccountColumns.ALL_FOLDER_LIST_URI, accountUri + "/folders");
+        values.put(AccountColumns.ACCOUNT_FROM_ADDRESSES, null);
+        values.put(AccountColumns.SEARCH_URI, Uri.EMPTY);
+        values.put(AccountColumns.EXPUNGE_MESSAGE_URI, Uri.EMPTY);
+        values.put(AccountColumns.UNDO_URI, Uri.EMPTY);
+        values.put(AccountColumns.COMPOSE_URI, Uri.EMPTY);
+        values.put(AccountColumns.SYNC_AUTHORITY, SyntheticUiProvider.AUTHORITY);
+        return values;
+    }
+
+    /**
+     * Fills a folder's row, in the order of {@link UIProvider#FOLDERS_PROJECTION}.
+     */
+    public void fillFolderRow(int account, int folder, Object[] row) {
+        final Folder f = getFolders(account).get(folder);
+        final int unread = (mConversationCount + UNREAD_INTERVAL - 1) / UNREAD_INTERVAL;
+        row[UIProvider.FOLDER_ID_COLUMN] = f.id;
+        row[UIProvider.FOLDER_PERSISTENT_ID_COLUMN] = f.persistentId;
+        row[UIProvider.FOLDER_URI_COLUMN] = f.folderUri.fullUri;
+        row[UIProvider.FOLDER_NAME_COLUMN] = f.name;
+        row[UIProvider.FOLDER_HAS_CHILDREN_COLUMN] = 0;
+        row[UIProvider.FOLDER_CAPABILITIES_COLUMN] = f.capabilities;
+        row[UIProvider.FOLDER_SYNC_WINDOW_COLUMN] = 0;
+        row[UIProvider.FOLDER_CONVERSATION_LIST_URI_COLUMN] = f.conversationListUri;
+        row[UIProvider.FOLDER_CHILD_FOLDERS_LIST_COLUMN] = null;
+        row[UIProvider.FOLDER_UNSEEN_COUNT_COLUMN] = 0;
+        row[UIProvider.FOLDER_UNREAD_COUNT_COLUMN] = unread;
+        row[UIProvider.FOLDER_TOTAL_COUNT_COLUMN] = mConversationCount;
+        row[UIProvider.FOLDER_REFRESH_URI_COLUMN] = null;
+        row[UIProvider.FOLDER_SYNC_STATUS_COLUMN] = 0;
+        row[UIProvider.FOLDER_LAST_SYNC_RESULT_COLUMN] = 0;
+        row[UIProvider.FOLDER_TYPE_COLUMN] = f.type;
+        row[UIProvider.FOLDER_ICON_RES_ID_COLUMN] = 0;
+        row[UIProvider.FOLDER_NOTIFICATION_ICON_RES_ID_COLUMN] = 0;
+        row[UIProvider.FOLDER_BG_COLOR_COLUMN] = f.bgColor;
+        row[UIProvider.FOLDER_FG_COLOR_COLUMN] = f.fgColor;
+        row[UIProvider.FOLDER_LOAD_MORE_URI_COLUMN] = null;
+        row[UIProvider.FOLDER_HIERARCHICAL_DESC_COLUMN] = f.name;
+        row[UIProvider.FOLDER_LAST_MESSAGE_TIMESTAMP_COLUMN] = NEWEST_DATE_MS;
+        row[UIProvider.FOLDER_PARENT_URI_COLUMN] = null;
+    }
+
+    /**
+     * Fills a conversation's row, in the order of {@link UIProvider#CONVERSATION_PROJECTION}.
+     * Conversations are newest first.
+     */
+    public void fillConversationRow(int account, int folder, int conversation, Object[] row) {
+        final Random random = random(account, folder, conversation, -2);
+        final String uri = getConversationUri(account, folder, conversation);
+        final int messageCount = getMessageCount(account, folder, conversation);
+        final boolean read = conversation % UNREAD_INTERVAL != 0;
+        final String subject = makeSubject(account, folder, conversation);
+        final String firstSnippet = makeSnippet(random);
+        final String lastSnippet = makeSnippet(random);
+
+        final ConversationInfo info = new ConversationInfo(messageCount, 0, firstSnippet,
+                read ? null : lastSnippet, lastSnippet);
+        final String[] participants = getParticipants(account, folder, conversation);
+        for (int i = 0; i < participants.length && i < messageCount; i++) {
+            info.addParticipant(new ParticipantInfo(getName(participants[i]),
+                    getAddress(participants[i]), 0, read || i < participants.length - 1));
+        }
+
+        final List<Folder> folders = getFolders(account);
+        final List<Folder> labels = Lists.newArrayListWithCapacity(1 + mLabelsPerConversation);
+        labels.add(folders.get(folder));
+        final int labelCount = random.nextInt(mLabelsPerConversation + 1);
+        final int firstLabel = random.nextInt(Math.max(mLabelCount, 1));
+        for (int i = 0; i < labelCount; i++) {
+            final Folder label =
+                    folders.get(SYSTEM_FOLDER_NAMES.length + (firstLabel + i) % mLabelCount);
+            if (label.id != folder) {
+                labels.add(label);
+            }
+        }
+
+        final long date = getConversationDate(folder, conversation);
+        row[UIProvider.CONVERSATION_ID_COLUMN] = getConversationId(folder, conversation);
+        row[UIProvider.CONVERSATION_URI_COLUMN] = uri;
+        row[UIProvider.CONVERSATION_MESSAGE_LIST_URI_COLUMN] = uri + "/messages";
+        row[UIProvider.CONVERSATION_SUBJECT_COLUMN] = subject;
+        row[UIProvider.CONVERSATION_SNIPPET_COLUMN] = lastSnippet;
+        row[UIProvider.CONVERSATION_INFO_COLUMN] = info.toBlob();
+        row[UIProvider.CONVERSATION_DATE_RECEIVED_MS_COLUMN] = date;
+        row[UIProvider.CONVERSATION_HAS_ATTACHMENTS_COLUMN] =
+                mMaxAttachments > 0 && hasAttachments(account, folder, conversation) ? 1 : 0;
+        row[UIProvider.CONVERSATION_NUM_MESSAGES_COLUMN] = messageCount;
+        row[UIProvider.CONVERSATION_NUM_DRAFTS_COLUMN] = 0;
+        row[UIProvider.CONVERSATION_SENDING_STATE_COLUMN] = ConversationSendingState.OTHER;
+        row[UIProvider.CONVERSATION_PRIORITY_COLUMN] = 0;
+        row[UIProvider.CONVERSATION_READ_COLUMN] = read ? 1 : 0;
+        row[UIProvider.CONVERSATION_SEEN_COLUMN] = 1;
+        row[UIProvider.CONVERSATION_STARRED_COLUMN] = random.nextInt(20) == 0 ? 1 : 0;
+        row[UIProvider.CONVERSATION_RAW_FOLDERS_COLUMN] = FolderList.listToBlob(labels);
+        row[UIProvider.CONVERSATION_FLAGS_COLUMN] = 0;
+        row[UIProvider.CONVERSATION_PERSONAL_LEVEL_COLUMN] = 0;
+        row[UIProvider.CONVERSATION_IS_SPAM_COLUMN] = 0;
+        row[UIProvider.CONVERSATION_IS_PHISHING_COLUMN] = 0;
+        row[UIProvider.CONVERSATION_MUTED_COLUMN] = 0;
+        row[UIProvider.CONVERSATION_COLOR_COLUMN] = 0;
+        row[UIProvider.CONVERSATION_ACCOUNT_URI_COLUMN] = getAccountUri(account);
+        row[UIProvider.CONVERSATION_SENDER_INFO_COLUMN] = null;
+        row[UIProvider.CONVERSATION_BASE_URI_COLUMN] = null;
+        row[UIProvider.CONVERSATION_REMOTE_COLUMN] = 0;
+        row[UIProvider.CONVERSATION_ORDER_KEY_COLUMN] = date;
+    }
+
+    /**
+     * Fills a message's row, in the order of {@link UIProvider#MESSAGE_PROJECTION}. Messages are
+     * oldest first.
+     */
+    public void fillMessageRow(int account, int folder, int conversation, int message,
+            Object[] row) {
+        final Random random = random(account, folder, conversation, message);
+        final String uri = getMessageUri(account, folder, conversation, message);
+        final int messageCount = getMessageCount(account, folder, conversation);
+        final boolean last = message == messageCount - 1;
+        final String[] participants = getParticipants(account, folder, conversation);
+        final String from = participants[message % participants.length];
+        final StringBuilder to = new StringBuilder();
+        for (int i = 0; i < participants.length; i++) {
+            if (i != message % participants.length) {
+                if (to.length() > 0) {
+                    to.append(", ");
+                }
+                to.append(participants[i]);
+            }
+        }
+        final String subject = makeSubject(account, folder, conversation);
+        final int attachmentCount = getAttachmentCount(account, folder, conversation, message);
+        final String attachments;
+        if (attachmentCount > 0) {
+            final List<Attachment> list = Lists.newArrayListWithCapacity(attachmentCount);
+            for (int i = 0; i < attachmentCount; i++) {
+                list.add(new Attachment(
+                        makeAttachmentValues(account, folder, conversation, message, i)));
+            }
+            attachments = Attachment.toJSONArray(list);
+        } else {
+            attachments = null;
+        }
+
+        row[UIProvider.MESSAGE_ID_COLUMN] =
+                getConversationId(folder, conversation) * mMaxMessages + message;
+        row[UIProvider.MESSAGE_SERVER_ID_COLUMN] =
+                account + "-" + folder + "-" + conversation + "-" + message;
+        row[UIProvider.MESSAGE_URI_COLUMN] = uri;
+        row[UIProvider.MESSAGE_CONVERSATION_URI_COLUMN] =
+                getConversationUri(account, folder, conversation);
+        row[UIProvider.MESSAGE_SUBJECT_COLUMN] = message == 0 ? subject : "Re: " + subject;
+        row[UIProvider.MESSAGE_SNIPPET_COLUMN] = makeSnippet(random);
+        row[UIProvider.MESSAGE_FROM_COLUMN] = from;
+        row[UIProvider.MESSAGE_TO_COLUMN] = to.toString();
+        row[UIProvider.MESSAGE_CC_COLUMN] = null;
+        row[UIProvider.MESSAGE_BCC_COLUMN] = null;
+        row[UIProvider.MESSAGE_REPLY_TO_COLUMN] = null;
+        row[UIProvider.MESSAGE_DATE_RECEIVED_MS_COLUMN] = getConversationDate(folder, conversation)
+                - (messageCount - 1 - message) * MESSAGE_INTERVAL_MS;
+        row[UIProvider.MESSAGE_BODY_HTML_COLUMN] = makeBody(random, getName(from));
+        row[UIProvider.MESSAGE_BODY_TEXT_COLUMN] = null;
+        row[UIProvider.MESSAGE_EMBEDS_EXTERNAL_RESOURCES_COLUMN] = 0;
+        row[UIProvider.MESSAGE_REF_MESSAGE_URI_COLUMN] = null;
+        row[UIProvider.MESSAGE_DRAFT_TYPE_COLUMN] = 0;
+        row[UIProvider.MESSAGE_APPEND_REF_MESSAGE_CONTENT_COLUMN] = 0;
+        row[UIProvider.MESSAGE_HAS_ATTACHMENTS_COLUMN] = attachmentCount > 0 ? 1 : 0;
+        row[UIProvider.MESSAGE_ATTACHMENT_LIST_URI_COLUMN] = uri + "/attachments";
+        row[UIProvider.MESSAGE_ATTACHMENT_BY_CID_URI_COLUMN] = null;
+        row[UIProvider.MESSAGE_FLAGS_COLUMN] = 0;
+        row[UIProvider.MESSAGE_ALWAYS_SHOW_IMAGES_COLUMN] = 0;
+        row[UIProvider.MESSAGE_READ_COLUMN] =
+                last && conversation % UNREAD_INTERVAL == 0 ? 0 : 1;
+        row[UIProvider.MESSAGE_SEEN_COLUMN] = 1;
+        row[UIProvider.MESSAGE_STARRED_COLUMN] = 0;
+        row[UIProvider.QUOTED_TEXT_OFFSET_COLUMN] = 0;
+        row[UIProvider.MESSAGE_ATTACHMENTS_COLUMN] = attachments;
+        row[UIProvider.MESSAGE_CUSTOM_FROM_ADDRESS_COLUMN] = null;
+        row[UIProvider.MESSAGE_ACCOUNT_URI_COLUMN] = getAccountUri(account);
+        row[UIProvider.MESSAGE_EVENT_INTENT_COLUMN] = null;
+        row[UIProvider.MESSAGE_SPAM_WARNING_STRING_ID_COLUMN] = null;
+        row[UIProvider.MESSAGE_SPAM_WARNING_LEVEL_COLUMN] = 0;
+        row[UIProvider.MESSAGE_SPAM_WARNING_LINK_TYPE_COLUMN] = 0;
+        row[UIProvider.MESSAGE_VIA_DOMAIN_COLUMN] = null;
+        row[UIProvider.MESSAGE_SENDING_STATE_COLUMN] = 0;
+        row[UIProvider.MESSAGE_CLIPPED_COLUMN] = 0;
+        row[UIProvider.MESSAGE_PERMALINK_COLUMN] = null;
+        row[UIProvider.MESSAGE_FLAG_LOADED_COLUMN] = 1;
+        row[UIProvider.MESSAGE_LOAD_MORE_URI_COLUMN] = null;
+    }
+
+    /**
+     * Fills an attachment's row, in the order of {@link UIProvider#ATTACHMENT_PROJECTION}.
+     */
+    public void fillAttachmentRow(int account, int folder, int conversation, int message,
+            int attachment, Object[] row) {
+        final ContentValues values =
+                makeAttachmentValues(account, folder, conversation, message, attachment);
+        for (int i = 0; i < UIProvider.ATTACHMENT_PROJECTION.length; i++) {
+            row[i] = values.get(UIProvider.ATTACHMENT_PROJECTION[i]);
+        }
+    }
+
+    private ContentValues makeAttachmentValues(int account, int folder, int conversation,
+            int message, int attachment) {
+        final Random random = random(account, folder, conversation, message * 64 + attachment);
+        final int kind = random.nextInt(ATTACHMENT_TYPES.length);
+        final ContentValues values = new ContentValues(UIProvider.ATTACHMENT_PROJECTION.length);
+        values.put(AttachmentColumns.NAME, WORDS[random.nextInt(WORDS.length)] + "-" + attachment
+                + "." + ATTACHMENT_EXTENSIONS[kind]);
+        values.put(AttachmentColumns.SIZE, 1024 + random.nextInt(4 * 1024 * 1024));
+        values.put(AttachmentColumns.URI, getMessageUri(account, folder, conversation, message)
+                + "/attachment/" + attachment);
+        values.put(AttachmentColumns.CONTENT_TYPE, ATTACHMENT_TYPES[kind]);
+        values.put(AttachmentColumns.STATE, AttachmentState.NOT_SAVED);
+        values.put(AttachmentColumns.DESTINATION, AttachmentDestination.CACHE);
+        values.put(AttachmentColumns.DOWNLOADED_SIZE, 0);
+        values.put(AttachmentColumns.SUPPORTS_DOWNLOAD_AGAIN, true);
+        values.put(AttachmentColumns.TYPE, AttachmentType.STANDARD);
+        values.put(AttachmentColumns.FLAGS, 0);
+        values.put(AttachmentColumns.CONTENT_ID, "part" + attachment);
+        return values;
+    }
+
+    /**
+     * Returns the folders of an account: the system folders followed by the labels.
+     */
+    public List<Folder> getFolders(int account) {
+        synchronized (mFolders) {
+            if (mFolders[account] == null) {
+                final List<Folder> folders = Lists.newArrayListWithCapacity(getFolderCount());
+                for (int i = 0; i < getFolderCount(); i++) {
+                    folders.add(makeFolder(account, i));
+                }
+                mFolders[account] = folders;
+            }
+            return mFolders[account];
+        }
+    }
+
+    private Folder makeFolder(int account, int folder) {
+        final boolean system = folder < SYSTEM_FOLDER_NAMES.length;
+        final String uri = getFolderUri(account, folder);
+        final Folder.Builder builder = new Folder.Builder()
+                .setId(folder)
+                .setPersistentId(account + "/" + folder)
+                .setUri(Uri.parse(uri))
+                .setConversationListUri(Uri.parse(uri + "/conversations"))
+                .setCapabilities(FolderCapabilities.CAN_ACCEPT_MOVED_MESSAGES
+                        | FolderCapabilities.ARCHIVE | FolderCapabilities.DELETE)
+                .setTotalCount(mConversationCount)
+                .setParent(Uri.EMPTY);
+        if (system) {
+            builder.setName(SYSTEM_FOLDER_NAMES[folder])
+                    .setType(SYSTEM_FOLDER_TYPES[folder]);
+        } else {
+            final int label = folder - SYSTEM_FOLDER_NAMES.length;
+            builder.setName(capitalize(WORDS[label % WORDS.length]) + " " + label)
+                    .setType(FolderType.DEFAULT)
+                    .setBgColor(LABEL_COLORS[label % LABEL_COLORS.length])
+                    .setFgColor("-1");
+        }
+        return builder.build();
+    }
+
+    private long getConversationId(int folder, int conversation) {
+        return (long) folder * mConversationCount + conversation;
+    }
+
+    private static long getConversationDate(int folder, int conversation) {
+        return NEWEST_DATE_MS - conversation * CONVERSATION_INTERVAL_MS - folder * 1000L;
+    }
+
+    private boolean hasAttachments(int account, int folder, int conversation) {
+        return random(account, folder, conversation, -3).nextInt(4) == 0;
+    }
+
+    /** Returns the people of a conversation, formatted as addresses. */
+    private String[] getParticipants(int account, int folder, int conversation) {
+        final Random random = random(account, folder, conversation, -4);
+        final String[] participants = new String[2 + random.nextInt(MAX_PARTICIPANTS - 1)];
+        final int first = random.nextInt(FIRST_NAMES.length * LAST_NAMES.length);
+        for (int i = 0; i < participants.length; i++) {
+            final int person = (first + i * 7) % (FIRST_NAMES.length * LAST_NAMES.length);
+            final String firstName = FIRST_NAMES[person % FIRST_NAMES.length];
+            final String lastName = LAST_NAMES[person / FIRST_NAMES.length];
+            participants[i] = '"' + firstName + " " + lastName + "\" <"
+                    + firstName.toLowerCase() + "." + lastName.toLowerCase() + "@example.com>";
+        }
+        return participants;
+    }
+
+    private static String getName(String participant) {
+        return participant.substring(1, participant.indexOf('"', 1));
+    }
+
+    private static String getAddress(String participant) {
+        return participant.substring(participant.indexOf('<') + 1, participant.length() - 1);
+    }
+
+    private String makeSubject(int account, int folder, int conversation) {
+        final Random random = random(account, folder, conversation, -5);
+        final StringBuilder subject = new StringBuilder();
+        appendWords(random, subject, 3 + random.nextInt(6));
+        subject.setCharAt(0, Character.toUpperCase(subject.charAt(0)));
+        return subject.append(" #").append(conversation).toString();
+    }
+
+    private static String makeSnippet(Random random) {
+        final StringBuilder snippet = new StringBuilder();
+        appendWords(random, snippet, 12 + random.nextInt(12));
+        return snippet.toString();
+    }
+
+    /**
+     * Makes a newsletter-like body of about {@link #mBodyChars} chars, with styled paragraphs,
+     * links, tables and a quoted reply, which is the kind of markup that is slow to lay out.
+     */
+    private String makeBody(Random random, String sender) {
+        final StringBuilder body = new StringBuilder(mBodyChars + 512);
+        body.append("<div dir=\"ltr\" style=\"font-family:arial,sans-serif;font-size:13px\">");
+        int section = 0;
+        while (body.length() < mBodyChars) {
+            switch (section++ % 4) {
+                case 0:
+                case 1:
+                    body.append("<p style=\"margin:0 0 12px 0;line-height:1.4\">");
+                    appendWords(random, body, 40 + random.nextInt(40));
+                    body.append(" <a href=\"http://www.example.com/")
+                            .append(WORDS[random.nextInt(WORDS.length)]).append('/')
+                            .append(random.nextInt(100000)).append("\">")
+                            .append(WORDS[random.nextInt(WORDS.length)]).append("</a>.</p>");
+                    break;
+                case 2:
+                    body.append("<table cellpadding=\"4\" cellspacing=\"0\" border=\"1\" "
+                            + "style=\"border-collapse:collapse;width:100%\"><tbody>");
+                    for (int r = 0; r < 4; r++) {
+                        body.append("<tr>");
+                        for (int c = 0; c < 3; c++) {
+                            body.append("<td style=\"color:#444\">");
+                            appendWords(random, body, 2);
+                            body.append(' ').append(random.nextInt(10000)).append("</td>");
+                        }
+                        body.append("</tr>");
+                    }
+                    body.append("</tbody></table><br>");
+                    break;
+                default:
+                    body.append("<div class=\"gmail_quote\">On an earlier date, ").append(sender)
+                            .append(" wrote:<blockquote style=\"margin:0 0 0 .8ex;"
+                                    + "border-left:1px #ccc solid;padding-left:1ex\">");
+                    appendWords(random, body, 30 + random.nextInt(30));
+                    body.append("</blockquote></div>");
+                    break;
+            }
+        }
+        return body.append("</div>").toString();
+    }
+
+    private static void appendWords(Random random, StringBuilder out, int count) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                out.append(' ');
+            }
+            out.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    /**
+     * Returns a random number generator for one part of one row, seeded from the mailbox's seed
+     * and the row's ids, so the row comes out the same every time it is made.
+     */
+    private Random random(int account, int folder, int conversation, int part) {
+        long h = mSeed;
+        h = mix(h + account);
+        h = mix(h + folder);
+        h = mix(h + conversation);
+        h = mix(h + part);
+        return new Random(h);
+    }
+
+    /** The finalizer of SplitMix64, which spreads nearby ids over the whole range. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
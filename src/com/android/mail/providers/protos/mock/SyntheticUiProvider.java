@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.providers.protos.mock;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.android.mail.providers.UIProvider;
+import com.android.mail.providers.protos.mock.GeneratedCursor.RowSource;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A provider of the whole {@link UIProvider} contract over a {@link SyntheticMailbox}, for load
+ * and scroll benchmarks that need far more mail than {@link MockUiProvider} holds.
+ * <p>
+ * Rows are made as they are read through {@link GeneratedCursor}s, so a folder of 100,000
+ * conversations costs no more memory than a folder of ten. Changes are accepted and ignored.
+ * Benchmarks pick the size of the mailbox with {@link #setMailbox} before querying.
+ */
+public final class SyntheticUiProvider extends ContentProvider {
+
+    public static final String AUTHORITY = "com.android.mail.syntheticprovider";
+
+    private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+    private static final int ACCOUNTS = 0;
+    private static final int ACCOUNT = 1;
+    private static final int FOLDERS = 2;
+    private static final int FOLDER = 3;
+    private static final int CONVERSATIONS = 4;
+    private static final int CONVERSATION = 5;
+    private static final int MESSAGES = 6;
+    private static final int MESSAGE = 7;
+    private static final int ATTACHMENTS = 8;
+    private static final int ATTACHMENT = 9;
+
+    static {
+        final String folder = "account/#/folder/#";
+        final String conversation = folder + "/conversation/#";
+        final String message = conversation + "/message/#";
+        sUriMatcher.addURI(AUTHORITY, "accounts", ACCOUNTS);
+        sUriMatcher.addURI(AUTHORITY, "account/#", ACCOUNT);
+        sUriMatcher.addURI(AUTHORITY, "account/#/folders", FOLDERS);
+        sUriMatcher.addURI(AUTHORITY, folder, FOLDER);
+        sUriMatcher.addURI(AUTHORITY, folder + "/conversations", CONVERSATIONS);
+        sUriMatcher.addURI(AUTHORITY, conversation, CONVERSATION);
+        sUriMatcher.addURI(AUTHORITY, conversation + "/messages", MESSAGES);
+        sUriMatcher.addURI(AUTHORITY, message, MESSAGE);
+        sUriMatcher.addURI(AUTHORITY, message + "/attachments", ATTACHMENTS);
+        sUriMatcher.addURI(AUTHORITY, message + "/attachment/#", ATTACHMENT);
+    }
+
+    private static volatile SyntheticMailbox sMailbox = new SyntheticMailbox.Builder().build();
+
+    /**
+     * Replaces the mailbox that every synthetic provider serves. Cursors that are already open
+     * keep reading the previous mailbox.
+     */
+    public static void setMailbox(SyntheticMailbox mailbox) {
+        sMailbox = mailbox;
+    }
+
+    public static SyntheticMailbox getMailbox() {
+        return sMailbox;
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+        final SyntheticMailbox mailbox = sMailbox;
+        final int match = sUriMatcher.match(uri);
+        if (match == UriMatcher.NO_MATCH) {
+            return null;
+        }
+        if (match == ACCOUNTS) {
+            return new GeneratedCursor(projection,
+                    new AccountRows(mailbox, 0, mailbox.getAccountCount()));
+        }
+
+        // The ids in the path, in the order account, folder, conversation, message, attachment
+        final List<String> segments = uri.getPathSegments();
+        final int[] ids = { -1, -1, -1, -1, -1 };
+        for (int i = 1, id = 0; i < segments.size() && id < ids.length; i += 2, id++) {
+            try {
+                ids[id] = Integer.parseInt(segments.get(i));
+            } catch (NumberFormatException e) {
+                break;
+            }
+        }
+        if (!mailbox.exists(ids[0], ids[1], ids[2], ids[3], ids[4])) {
+            return null;
+        }
+
+        final RowSource rows;
+        switch (match) {
+            case ACCOUNT:
+                rows = new AccountRows(mailbox, ids[0], 1);
+                break;
+            case FOLDERS:
+                rows = new FolderRows(mailbox, ids[0], 0, mailbox.getFolderCount());
+                break;
+            case FOLDER:
+                rows = new FolderRows(mailbox, ids[0], ids[1], 1);
+                break;
+            case CONVERSATIONS:
+                rows = new ConversationRows(mailbox, ids[0], ids[1], 0,
+                        mailbox.getConversationCount());
+                break;
+            case CONVERSATION:
+                rows = new ConversationRows(mailbox, ids[0], ids[1], ids[2], 1);
+                break;
+            case MESSAGES:
+                rows = new MessageRows(mailbox, ids[0], ids[1], ids[2], 0,
+                        mailbox.getMessageCount(ids[0], ids[1], ids[2]));
+                break;
+            case MESSAGE:
+                rows = new MessageRows(mailbox, ids[0], ids[1], ids[2], ids[3], 1);
+                break;
+            case ATTACHMENTS:
+                rows = new AttachmentRows(mailbox, ids[0], ids[1], ids[2], ids[3], 0,
+                        mailbox.getAttachmentCount(ids[0], ids[1], ids[2], ids[3]));
+                break;
+            case ATTACHMENT:
+                rows = new AttachmentRows(mailbox, ids[0], ids[1], ids[2], ids[3], ids[4], 1);
+                break;
+            default:
+                return null;
+        }
+        return new GeneratedCursor(projection, rows);
+    }
+
+    @Override
+    public Uri insert(Uri url, ContentValues values) {
+        return url;
+    }
+
+    @Override
+    public int update(Uri url, ContentValues values, String selection, String[] selectionArgs) {
+        return 0;
+    }
+
+    @Override
+    public int delete(Uri url, String selection, String[] selectionArgs) {
+        return 0;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    /**
+     * A range of rows of one table of a mailbox, starting at {@link #mFirst}.
+     */
+    private abstract static class Rows implements RowSource {
+        protected final SyntheticMailbox mMailbox;
+        protected final int mFirst;
+        private final int mCount;
+        private final String[] mColumnNames;
+
+        Rows(SyntheticMailbox mailbox, String[] columnNames, int first, int count) {
+            mMailbox = mailbox;
+            mColumnNames = columnNames;
+            mFirst = first;
+            mCount = count;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumnNames;
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+    }
+
+    private static final class AccountRows extends Rows {
+        AccountRows(SyntheticMailbox mailbox, int first, int count) {
+            super(mailbox, UIProvider.ACCOUNTS_PROJECTION, first, count);
+        }
+
+        @Override
+        public void fillRow(int position, Object[] row) {
+            final Map<String, Object> values = mMailbox.getAccountValues(mFirst + position);
+            for (int i = 0; i < row.length; i++) {
+                row[i] = values.get(UIProvider.ACCOUNTS_PROJECTION[i]);
+            }
+        }
+    }
+
+    private static final class FolderRows extends Rows {
+        private final int mAccount;
+
+        FolderRows(SyntheticMailbox mailbox, int account, int first, int count) {
+            super(mailbox, UIProvider.FOLDERS_PROJECTION, first, count);
+            mAccount = account;
+        }
+
+        @Override
+        public void fillRow(int position, Object[] row) {
+            mMailbox.fillFolderRow(mAccount, mFirst + position, row);
+        }
+    }
+
+    private static final class ConversationRows extends Rows {
+        private final int mAccount;
+        private final int mFolder;
+
+        ConversationRows(SyntheticMailbox mailbox, int account, int folder, int first,
+                int count) {
+            super(mailbox, UIProvider.CONVERSATION_PROJECTION, first, count);
+            mAccount = account;
+            mFolder = folder;
+        }
+
+        @Override
+        public void fillRow(int position, Object[] row) {
+            mMailbox.fillConversationRow(mAccount, mFolder, mFirst + position, row);
+        }
+    }
+
+    private static final class MessageRows extends Rows {
+        private final int mAccount;
+        private final int mFolder;
+        private final int mConversation;
+
+        MessageRows(SyntheticMailbox mailbox, int account, int folder, int conversation,
+                int first, int count) {
+            super(mailbox, UIProvider.MESSAGE_PROJECTION, first, count);
+            mAccount = account;
+            mFolder = folder;
+            mConversation = conversation;
+        }
+
+        @Override
+        public void fillRow(int position, Object[] row) {
+            mMailbox.fillMessageRow(mAccount, mFolder, mConversation, mFirst + position, row);
+        }
+    }
+
+    private static final class AttachmentRows extends Rows {
+        private final int mAccount;
+        private final int mFolder;
+        private final int mConversation;
+        private final int mMessage;
+
+        AttachmentRows(SyntheticMailbox mailbox, int account, int folder, int conversation,
+                int message, int first, int count) {
+            super(mailbox, UIProvider.ATTACHMENT_PROJECTION, first, count);
+            mAccount = account;
+            mFolder = folder;
+            mConversation = conversation;
+            mMessage = message;
+        }
+
+        @Override
+        public void fillRow(int position, Object[] row) {
+            mMailbox.fillAttachmentRow(mAccount, mFolder, mConversation, mMessage,
+                    mFirst + position, row);
+        }
+    }
+}
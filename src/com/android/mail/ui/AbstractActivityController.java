@@ -84,6 +84,7 @@ import com.android.mail.providers.Account;
 import com.android.mail.providers.Conversation;
 import com.android.mail.providers.ConversationInfo;
 import com.android.mail.providers.Folder;
+import com.android.mail.providers.FolderPool;
 import com.android.mail.providers.FolderWatcher;
 import com.android.mail.providers.MailAppProvider;
 import com.android.mail.providers.Settings;
@@ -427,7 +428,7 @@ public abstract class AbstractActivityController implements ActivityController,
     /**
      * Guaranteed to be the last loader ID used by the activity. Loaders are owned by Activity or
      * fragments, and within an activity, loader IDs need to be unique. A hack to ensure that the
-     * {@link FolderWatcher} can create its folder loaders without clashing with the IDs of those
+     * {@link FolderWatcher} can create its folder loader without clashing with the IDs of those
      * of the {@link AbstractActivityController}. Currently, the {@link FolderWatcher} is the only
      * other class that uses this activity's LoaderManager. If another class needs activity-level
      * loaders, consider consolidating the loaders in a central location: a UI-less fragment
@@ -3564,6 +3565,9 @@ public abstract class AbstractActivityController implements ActivityController,
                         final Folder folder = data.getModel();
                         setHasFolderChanged(folder);
                         mFolder = folder;
+                        if (mAccount != null) {
+                            FolderPool.invalidate(mAccount.uri);
+                        }
                         mFolderObservable.notifyChanged();
                     } else {
                         LogUtils.d(LOG_TAG, "Unable to get the folder %s",
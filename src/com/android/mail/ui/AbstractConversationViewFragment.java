@@ -36,6 +36,7 @@ import com.android.mail.R;
 import com.android.mail.analytics.Analytics;
 import com.android.mail.browse.ConversationAccountController;
 import com.android.mail.browse.ConversationMessage;
+import com.android.mail.browse.ConversationPrefetcher;
 import com.android.mail.browse.ConversationViewHeader.ConversationViewHeaderCallbacks;
 import com.android.mail.browse.MessageCursor;
 import com.android.mail.browse.MessageCursor.ConversationController;
@@ -107,6 +108,8 @@ public abstract class AbstractConversationViewFragment extends Fragment implemen
     protected ConversationViewState mViewState;
 
     private boolean mIsDetached;
+    /** True if the messages were first loaded by {@link ConversationPrefetcher}. */
+    private boolean mMessagesPrefetched;
 
     private boolean mHasConversationBeenTransformed;
     private boolean mHasConversationTransformBeenReverted;
@@ -327,6 +330,13 @@ public abstract class AbstractConversationViewFragment extends Fragment implemen
         return mCursor;
     }
 
+    /**
+     * Returns true if the messages were prefetched before this conversation was shown.
+     */
+    protected boolean wereMessagesPrefetched() {
+        return mMessagesPrefetched;
+    }
+
     public Handler getHandler() {
         return mHandler;
     }
@@ -538,6 +548,7 @@ public abstract class AbstractConversationViewFragment extends Fragment implemen
                 }
                 final MessageCursor oldCursor = mCursor;
                 mCursor = messageCursor;
+                mMessagesPrefetched = ((MessageLoader) loader).wasPrefetched();
                 onMessageCursorLoadFinished(loader, mCursor, oldCursor);
             }
         }
@@ -640,6 +651,7 @@ public abstract class AbstractConversationViewFragment extends Fragment implemen
 
     private static class MessageLoader extends ObjectCursorLoader<ConversationMessage> {
         private boolean mDeliveredFirstResults = false;
+        private volatile boolean mPrefetched = false;
 
         public MessageLoader(Context c, Uri messageListUri) {
             super(c, messageListUri, UIProvider.MESSAGE_PROJECTION, ConversationMessage.FACTORY);
@@ -670,6 +682,26 @@ public abstract class AbstractConversationViewFragment extends Fragment implemen
             }
         }
 
+        @Override
+        protected ObjectCursor<ConversationMessage> takePrefetchedCursor() {
+            if (mDeliveredFirstResults) {
+                // later loads are because the messages changed, a prefetch would be out of date
+                return null;
+            }
+            final MessageCursor cursor = ConversationPrefetcher.take(getUri());
+            if (cursor != null) {
+                mPrefetched = true;
+            }
+            return cursor;
+        }
+
+        /**
+         * Returns true if the first messages this loader delivered had been prefetched.
+         */
+        public boolean wasPrefetched() {
+            return mPrefetched;
+        }
+
         @Override
         protected ObjectCursor<ConversationMessage> getObjectCursor(Cursor inner) {
             return new MessageCursor(inner);
@@ -18,10 +18,13 @@
 package com.android.mail.ui;
 
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
 import android.os.Bundle;
 import android.os.StrictMode;
 import android.support.v7.app.ActionBarActivity;
 
+import com.android.mail.perf.PerfMetrics;
+
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 
@@ -62,6 +65,8 @@ public abstract class AbstractMailActivity extends ActionBarActivity implements
 
         super.onCreate(savedInstanceState);
         mUiHandler.setEnabled(true);
+
+        PerfMetrics.init((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
     }
 
     @Override
@@ -97,6 +102,8 @@ public abstract class AbstractMailActivity extends ActionBarActivity implements
         // Both are still possible to use, and the supportlib dump reads from neither.
         getLoaderManager().dump(prefix, fd, writer, args);
         getFragmentManager().dump(prefix, fd, writer, args);
+        PerfMetrics.applyDumpArgs(args);
+        PerfMetrics.dump(prefix, writer);
     }
 
 }
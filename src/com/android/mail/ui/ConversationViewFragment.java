@@ -70,11 +70,13 @@ import com.android.mail.browse.MailWebView.ContentSizeChangeListener;
 import com.android.mail.browse.MessageCursor;
 import com.android.mail.browse.MessageFooterView;
 import com.android.mail.browse.MessageHeaderView;
+import com.android.mail.browse.OverlayHeightModel;
 import com.android.mail.browse.ScrollIndicatorsView;
 import com.android.mail.browse.SuperCollapsedBlock;
 import com.android.mail.browse.WebViewContextMenu;
 import com.android.mail.compose.ComposeActivity;
 import com.android.mail.content.ObjectCursor;
+import com.android.mail.perf.PerfMetrics;
 import com.android.mail.print.PrintUtils;
 import com.android.mail.providers.Account;
 import com.android.mail.providers.Conversation;
@@ -88,6 +90,7 @@ import com.android.mail.utils.LogTag;
 import com.android.mail.utils.LogUtils;
 import com.android.mail.utils.Utils;
 import com.android.mail.utils.ViewUtils;
+import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -104,7 +107,8 @@ import java.util.Set;
 public class ConversationViewFragment extends AbstractConversationViewFragment implements
         SuperCollapsedBlock.OnClickListener, OnLayoutChangeListener,
         MessageHeaderView.MessageHeaderViewCallbacks, MessageFooterView.MessageFooterCallbacks,
-        WebViewContextMenu.Callbacks, ConversationFooterCallbacks, View.OnKeyListener {
+        WebViewContextMenu.Callbacks, ConversationFooterCallbacks, View.OnKeyListener,
+        ConversationContainer.OverlayHeightListener {
 
     private static final String LOG_TAG = LogTag.getLogTag();
     public static final String LAYOUT_TAG = "ConvLayout";
@@ -161,6 +165,12 @@ public class ConversationViewFragment extends AbstractConversationViewFragment i
 
     protected HtmlConversationTemplates mTemplates;
 
+    /**
+     * Heights of overlays by configuration, so that only one overlay of each kind needs to be
+     * measured while rendering.
+     */
+    private final OverlayHeightModel mOverlayHeightModel = new OverlayHeightModel();
+
     private final MailJsBridge mJsBridge = new MailJsBridge();
 
     protected ConversationViewAdapter mAdapter;
@@ -202,6 +212,21 @@ public class ConversationViewFragment extends AbstractConversationViewFragment i
 
     private long mWebViewLoadStartMs;
 
+    /** When the user paged to this conversation, if it hasn't been revealed since, or 0. */
+    private long mSwipeStartMs;
+
+    /**
+     * Start time of a conversation update that has not yet been laid out by the WebView, or 0.
+     */
+    private long mUpdateStartMs;
+    /** Whether the pending update was patched in rather than fully re-rendered. */
+    private boolean mUpdateIsPatch;
+    /**
+     * Whether the adapter items were patched and the overlays should be re-bound once the updated
+     * spacer geometry arrives.
+     */
+    private boolean mNotifyOnGeometryChange;
+
     private final Map<String, String> mMessageTransforms = Maps.newHashMap();
 
     private final DataSetObserver mLoadedObserver = new DataSetObserver() {
@@ -385,6 +410,7 @@ public class ConversationViewFragment extends AbstractConversationViewFragment i
         mConversationContainer = (ConversationContainer) rootView
                 .findViewById(R.id.conversation_container);
         mConversationContainer.setAccountController(this);
+        mConversationContainer.setOverlayHeightListener(this);
 
         mTopmostOverlay =
                 (ViewGroup) mConversationContainer.findViewById(R.id.conversation_topmost_overlay);
@@ -558,7 +584,10 @@ public class ConversationViewFragment extends AbstractConversationViewFragment i
 
         if (!userVisible) {
             mProgressController.dismissLoadingStatus();
+            mSwipeStartMs = 0;
         } else if (mViewsCreated) {
+            // Only conversations too heavy to load offscreen can be slow to appear on a swipe
+            final boolean loadDeferred = mLoadWaitReason == LOAD_WAIT_UNTIL_VISIBLE;
             String loadTag = null;
             final boolean isInitialLoading;
             if (mActivity != null) {
@@ -588,6 +617,9 @@ public class ConversationViewFragment extends AbstractConversationViewFragment i
               Analytics.getInstance().sendEvent("pager_swipe", loadTag,
                       getCurrentFolderTypeDesc(), 0);
             }
+            if (!isInitialLoading && loadDeferred) {
+                mSwipeStartMs = SystemClock.uptimeMillis();
+            }
         }
 
         if (mWebView != null) {
@@ -665,6 +697,21 @@ public class ConversationViewFragment extends AbstractConversationViewFragment i
             AnalyticsTimer.getInstance().logDuration(AnalyticsTimer.OPEN_CONV_VIEW_FROM_LIST,
                     true /* isDestructive */, "open_conversation", "from_list", null);
         }
+        if (mSwipeStartMs != 0) {
+            recordSwipeLatency();
+        }
+    }
+
+    /**
+     * Records how long a conversation that wasn't loaded offscreen took to appear after the user
+     * paged to it, split by whether its messages had been prefetched.
+     */
+    private void recordSwipeLatency() {
+        final long elapsed = SystemClock.uptimeMillis() - mSwipeStartMs;
+        mSwipeStartMs = 0;
+        PerfMetrics.recordMillis(wereMessagesPrefetched()
+                ? PerfMetrics.CONVERSATION_SWIPE_PREFETCHED : PerfMetrics.CONVERSATION_SWIPE,
+                elapsed);
     }
 
     private boolean isLoadWaiting() {
@@ -730,6 +777,7 @@ public class ConversationViewFragment extends AbstractConversationViewFragment i
         // When re-rendering, prevent ConversationContainer from laying out overlays until after
         // the new spacers are positioned by WebView.
         mConversationContainer.invalidateSpacerGeometry();
+        mOverlayHeightModel.setWidth(mConversationContainer.getWidth());
 
         mAdapter.clear();
 
@@ -832,6 +880,8 @@ public class ConversationViewFragment extends AbstractConversationViewFragment i
         final MessageHeaderItem lastHeaderItem = getLastMessageHeaderItem();
         final int convFooterPos = mAdapter.addConversationFooter(lastHeaderItem);
         final int convFooterPx = measureOverlayHeight(convFooterPos);
+        LogUtils.d(LOG_TAG, "overlay heights so far: %d estimated, %d measured",
+                mOverlayHeightModel.getEstimateCount(), mOverlayHeightModel.getMeasurementCount());
 
         mWebView.getSettings().setBlockNetworkImage(!allowNetworkImages);
 
@@ -859,7 +909,7 @@ public class ConversationViewFragment extends AbstractConversationViewFragment i
 
     private void renderSuperCollapsedBlock(int start, int end, boolean hasDraft) {
         final int blockPos = mAdapter.addSuperCollapsedBlock(start, end, hasDraft);
-        final int blockPx = measureOverlayHeight(blockPos);
+        final int blockPx = estimateOverlayHeight(mAdapter.getItem(blockPos));
         mTemplates.appendSuperCollapsedHtml(start, mWebView.screenPxToWebPx(blockPx));
     }
 
@@ -874,8 +924,8 @@ public class ConversationViewFragment extends AbstractConversationViewFragment i
         // Measure item header and footer heights to allocate spacers in HTML
         // But since the views themselves don't exist yet, render each item temporarily into
         // a host view for measurement.
-        final int headerPx = measureOverlayHeight(headerPos);
-        final int footerPx = measureOverlayHeight(footerPos);
+        final int headerPx = estimateOverlayHeight(headerItem);
+        final int footerPx = estimateOverlayHeight(mAdapter.getItem(footerPos));
 
         mTemplates.appendMessageHtml(msg, expanded, safeForImages,
                 mWebView.screenPxToWebPx(headerPx), mWebView.screenPxToWebPx(footerPx));
@@ -904,8 +954,8 @@ public class ConversationViewFragment extends AbstractConversationViewFragment i
                     alwaysShowImages || mViewState.getShouldShowImages(msg));
             final MessageFooterItem footer = mAdapter.newMessageFooterItem(mAdapter, header);
 
-            final int headerPx = measureOverlayHeight(header);
-            final int footerPx = measureOverlayHeight(footer);
+            final int headerPx = estimateOverlayHeight(header);
+            final int footerPx = estimateOverlayHeight(footer);
             error += mWebView.screenPxToWebPxError(headerPx)
                     + mWebView.screenPxToWebPxError(footerPx);
 
@@ -965,6 +1015,60 @@ public class ConversationViewFragment extends AbstractConversationViewFragment i
         return heightPx;
     }
 
+    /**
+     * Like {@link #measureOverlayHeight(ConversationOverlayItem)}, but only measures the first
+     * overlay of each configuration. Other overlays get the height of the first as an estimate,
+     * which is checked when the overlay's view is actually positioned (see
+     * {@link #onOverlayHeightsCorrected(List)}).
+     *
+     * @param convItem adapter item whose height is needed
+     * @return estimated height of the rendered view in screen px
+     */
+    private int estimateOverlayHeight(ConversationOverlayItem convItem) {
+        final int estimate = mOverlayHeightModel.getEstimate(convItem);
+        if (estimate != OverlayHeightModel.UNKNOWN) {
+            convItem.setEstimatedHeight(estimate);
+            return estimate;
+        }
+        final int heightPx = measureOverlayHeight(convItem);
+        mOverlayHeightModel.put(convItem, heightPx);
+        return heightPx;
+    }
+
+    @Override
+    public void onOverlayHeightsCorrected(List<ConversationOverlayItem> items) {
+        final StringBuilder spacers = new StringBuilder();
+        for (ConversationOverlayItem item : items) {
+            final String selector;
+            if (item instanceof MessageHeaderItem) {
+                selector = "#" + mTemplates.getMessageDomId(
+                        ((MessageHeaderItem) item).getMessage()) + " > .mail-message-header";
+            } else if (item instanceof MessageFooterItem) {
+                selector = "#" + mTemplates.getMessageDomId(
+                        ((MessageFooterItem) item).getHeaderItem().getMessage())
+                        + " > .mail-message-footer";
+            } else if (item instanceof SuperCollapsedBlockItem) {
+                selector = ".mail-super-collapsed-block[index='"
+                        + ((SuperCollapsedBlockItem) item).getStart() + "']";
+            } else {
+                continue;
+            }
+            // later overlays of this configuration will be estimated correctly
+            mOverlayHeightModel.put(item, item.getHeight());
+            if (spacers.length() > 0) {
+                spacers.append(',');
+            }
+            spacers.append("[\"").append(selector).append("\",")
+                    .append(mWebView.screenPxToWebPx(item.getHeight())).append(']');
+        }
+        if (spacers.length() == 0) {
+            return;
+        }
+        LogUtils.i(LAYOUT_TAG, "correcting %d estimated spacer height(s)", items.size());
+        mConversationContainer.invalidateSpacerGeometry();
+        mWebView.loadUrl("javascript:setSpacerHeights([" + spacers + "]);");
+    }
+
     @Override
     public void onConversationViewHeaderHeightChange(int newHeight) {
         final int h = mWebView.screenPxToWebPx(newHeight);
@@ -1362,8 +1466,17 @@ public class ConversationViewFragment extends AbstractConversationViewFragment i
                                     + " are gone, %s", ConversationViewFragment.this);
                             return;
                         }
+                        if (mNotifyOnGeometryChange) {
+                            // the spacer geometry is still invalid, so this only recycles the
+                            // overlays, which are laid out again just below
+                            mNotifyOnGeometryChange = false;
+                            mAdapter.notifyDataSetChanged();
+                        }
                         mConversationContainer.onGeometryChange(
                                 parsePositions(overlayTopStrs, overlayBottomStrs));
+                        if (mUpdateStartMs != 0) {
+                            onUpdateRendered();
+                        }
                         if (mDiff != 0) {
                             // SCROLL!
                             int scale = (int) (mWebView.getScale() / mWebView.getInitialScale());
@@ -1458,10 +1571,13 @@ public class ConversationViewFragment extends AbstractConversationViewFragment i
                     public void go() {
                         try {
                             if (mWebViewLoadStartMs != 0) {
+                                final long elapsed =
+                                        SystemClock.uptimeMillis() - mWebViewLoadStartMs;
+                                PerfMetrics.recordMillis(PerfMetrics.CONVERSATION_WEBVIEW_LOAD,
+                                        elapsed);
                                 LogUtils.i(LOG_TAG, "IN CVF.onContentReady, f=%s vis=%s t=%sms",
                                         ConversationViewFragment.this,
-                                        isUserVisible(),
-                                        (SystemClock.uptimeMillis() - mWebViewLoadStartMs));
+                                        isUserVisible(), elapsed);
                             }
                             revealConversation();
                         } catch (Throwable t) {
@@ -1573,17 +1689,17 @@ public class ConversationViewFragment extends AbstractConversationViewFragment i
                             + ", ignoring this conversation update (%s)", this);
                 }
                 return;
-            } else if (info.countFromSelf == 1) {
-                // Special-case the very common case of a new cursor that is the same as the old
-                // one, except that there is a new message from yourself. This happens upon send.
-                final boolean sameExceptNewLast = newCursor.getStateHashCode(1) == oldState;
-                if (sameExceptNewLast) {
-                    LogUtils.i(LOG_TAG, "CONV RENDER: update is a single new message from self"
-                            + " (%s)", this);
-                    newCursor.moveToLast();
-                    processNewOutgoingMessage(newCursor.getMessage());
-                    return;
-                }
+            }
+
+            // Most updates (a sent message, a saved or discarded draft, a changed attachment)
+            // only touch a few messages. Patch those into the existing document and only fall
+            // back to a full render when the old and new cursors don't line up.
+            mUpdateStartMs = SystemClock.uptimeMillis();
+            mUpdateIsPatch = processMessagePatches(newCursor, oldCursor);
+            if (mUpdateIsPatch) {
+                LogUtils.i(LOG_TAG, "CONV RENDER: patched changed message(s) in place (%s)",
+                        this);
+                return;
             }
             // cursors are different, and not due to an incoming message. fall
             // through and render.
@@ -1694,39 +1810,235 @@ public class ConversationViewFragment extends AbstractConversationViewFragment i
         return changed;
     }
 
-    private void processNewOutgoingMessage(ConversationMessage msg) {
-        // Temporarily remove the ConversationFooterItem and its view.
-        // It will get re-added right after the new message is added.
-        final ConversationFooterItem footerItem = mAdapter.removeFooterItem();
-        // if no footer, just skip the work for it. The rest should be fine to do.
-        if (footerItem != null) {
-            mConversationContainer.removeViewAtAdapterIndex(footerItem.getPosition());
-        } else {
-            LogUtils.i(LOG_TAG, "footer item not found");
+    /**
+     * Try to apply the difference between the rendered cursor and a new one as a set of message
+     * level patches: messages that are new in the new cursor are inserted, messages whose
+     * attachments or body changed are replaced, and messages that are gone are removed. Each
+     * patch addresses a message block in the document by its
+     * {@link HtmlConversationTemplates#getMessageDomId DOM id}, so the rest of the document
+     * (and its layout) is left alone.
+     *
+     * @return false if the cursors differ structurally (messages were reordered, the change
+     * touches a super-collapsed block, or nothing has been rendered yet), in which case the
+     * caller should re-render the whole conversation
+     */
+    private boolean processMessagePatches(MessageCursor newCursor, MessageCursor oldCursor) {
+        final int oldCount = oldCursor.getCount();
+        final int newCount = newCursor.getCount();
+        if (!mWebViewLoadedData || mNeedRender || oldCount == 0 || newCount == 0) {
+            return false;
+        }
+
+        // Line the adapter up with the old cursor, remembering the adapter position of each
+        // message's header item (or -1 if the message is in a super-collapsed block).
+        final int[] headerPositions = new int[oldCount];
+        final ConversationMessage[] oldMessages = new ConversationMessage[oldCount];
+        final Map<Uri, Integer> oldPositions = Maps.newHashMap();
+        int pos = 0;
+        for (int i = 0, count = mAdapter.getCount(); i < count; i++) {
+            final ConversationOverlayItem item = mAdapter.getItem(i);
+            if (item instanceof SuperCollapsedBlockItem) {
+                final SuperCollapsedBlockItem block = (SuperCollapsedBlockItem) item;
+                if (block.getStart() != pos || block.getEnd() >= oldCount) {
+                    return false;
+                }
+                while (pos <= block.getEnd()) {
+                    headerPositions[pos++] = -1;
+                }
+            } else if (item instanceof MessageHeaderItem) {
+                if (pos >= oldCount || !oldCursor.moveToPosition(pos) || !Objects.equal(
+                        ((MessageHeaderItem) item).getMessage().uri, oldCursor.getMessage().uri)) {
+                    return false;
+                }
+                headerPositions[pos++] = i;
+            }
+        }
+        final ConversationFooterItem footerItem = mAdapter.getFooterItem();
+        if (pos != oldCount || footerItem == null) {
+            return false;
+        }
+        for (pos = 0; pos < oldCount; pos++) {
+            oldCursor.moveToPosition(pos);
+            oldMessages[pos] = oldCursor.getMessage();
+            oldPositions.put(oldMessages[pos].uri, pos);
+        }
+
+        // Classify each new message. Messages common to both cursors must keep their relative
+        // order. firstChange is the first old position affected by an insert, replace or remove.
+        final int[] matchedOldPositions = new int[newCount];
+        final boolean[] replaced = new boolean[newCount];
+        final boolean[] kept = new boolean[oldCount];
+        int firstChange = oldCount;
+        int lastMatched = -1;
+        for (pos = 0; pos < newCount; pos++) {
+            newCursor.moveToPosition(pos);
+            final ConversationMessage newMsg = newCursor.getMessage();
+            final Integer oldPos = oldPositions.get(newMsg.uri);
+            if (oldPos == null) {
+                matchedOldPositions[pos] = -1;
+                firstChange = Math.min(firstChange, lastMatched + 1);
+                continue;
+            }
+            if (oldPos <= lastMatched) {
+                return false;
+            }
+            lastMatched = oldPos;
+            matchedOldPositions[pos] = oldPos;
+            kept[oldPos] = true;
+            final ConversationMessage oldMsg = oldMessages[oldPos];
+            if (newMsg.getStateHashCode() != oldMsg.getStateHashCode()
+                    || !TextUtils.equals(newMsg.bodyHtml, oldMsg.bodyHtml)
+                    || !TextUtils.equals(newMsg.bodyText, oldMsg.bodyText)) {
+                replaced[pos] = true;
+                firstChange = Math.min(firstChange, oldPos);
+            }
+        }
+        for (pos = 0; pos < oldCount; pos++) {
+            if (!kept[pos]) {
+                firstChange = Math.min(firstChange, pos);
+                break;
+            }
+        }
+
+        // Super-collapsed blocks are addressed by cursor position, so everything from the first
+        // change onwards must be individually rendered. The new last message must be too, since
+        // a full render would expand it.
+        for (pos = firstChange; pos < oldCount; pos++) {
+            if (headerPositions[pos] < 0) {
+                return false;
+            }
+        }
+        final int newLastOldPos = matchedOldPositions[newCount - 1];
+        if (newLastOldPos >= 0 && headerPositions[newLastOldPos] < 0) {
+            return false;
+        }
+        if (firstChange == oldCount && newCount == oldCount) {
+            // nothing structural changed
+            return false;
         }
 
+        final boolean alwaysShowImages = (mAccount != null) &&
+                (mAccount.settings.showImages == Settings.ShowImages.ALWAYS);
+        final List<ConversationOverlayItem> items = Lists.newArrayList();
+        final StringBuilder ops = new StringBuilder();
         mTemplates.reset();
-        // this method will add some items to mAdapter, but we deliberately want to avoid notifying
-        // adapter listeners (i.e. ConversationContainer) until onWebContentGeometryChange is next
-        // called, to prevent N+1 headers rendering with N message bodies.
-        renderMessage(msg, true /* expanded */, msg.alwaysShowImages);
-        mTempBodiesHtml = mTemplates.emit();
 
-        if (footerItem != null) {
-            footerItem.setLastMessageHeaderItem(getLastMessageHeaderItem());
-            footerItem.invalidateMeasurement();
-            mAdapter.addItem(footerItem);
+        for (pos = 0; pos < newCount; pos++) {
+            newCursor.moveToPosition(pos);
+            final ConversationMessage msg = newCursor.getMessage();
+            final int oldPos = matchedOldPositions[pos];
+            if (oldPos >= 0 && !replaced[pos]) {
+                if (!msg.isEqual(oldMessages[oldPos])) {
+                    // its overlays are re-bound once the new geometry arrives
+                    mAdapter.updateItemsForMessage(msg, null /* affectedPositions */);
+                }
+                if (oldPos >= firstChange) {
+                    // re-use the existing header and footer
+                    final int headerPos = headerPositions[oldPos];
+                    items.add(mAdapter.getItem(headerPos));
+                    items.add(mAdapter.getItem(headerPos + 1));
+                }
+                continue;
+            }
+
+            final boolean expanded;
+            final String domId = mTemplates.getMessageDomId(msg);
+            if (oldPos >= 0) {
+                expanded = ((MessageHeaderItem) mAdapter.getItem(headerPositions[oldPos]))
+                        .isExpanded();
+                appendPatchOp(ops, "replace", domId, null);
+            } else {
+                expanded = msg.starred || !msg.read || pos == newCount - 1;
+                mViewState.setExpansionState(msg, expanded ? ExpansionState.EXPANDED
+                        : ExpansionState.COLLAPSED);
+                mViewState.setReadState(msg, msg.read);
+                appendPatchOp(ops, "insert", domId, getNextRenderedDomId(newCursor, pos + 1,
+                        matchedOldPositions));
+            }
+            renderPatchedMessage(msg, expanded,
+                    alwaysShowImages || msg.alwaysShowImages || mViewState.getShouldShowImages(msg),
+                    items);
+        }
+        for (pos = firstChange; pos < oldCount; pos++) {
+            if (!kept[pos]) {
+                appendPatchOp(ops, "remove", mTemplates.getMessageDomId(oldMessages[pos]), null);
+            }
         }
 
-        mViewState.setExpansionState(msg, ExpansionState.EXPANDED);
-        // FIXME: should the provider set this as initial state?
-        mViewState.setReadState(msg, false /* read */);
+        final int firstChangedItem = firstChange < oldCount ? headerPositions[firstChange]
+                : footerItem.getPosition();
+        mAdapter.replaceItems(firstChangedItem, footerItem.getPosition(), items);
+        footerItem.setLastMessageHeaderItem(getLastMessageHeaderItem());
+        footerItem.invalidateMeasurement();
+        mTempBodiesHtml = mTemplates.emit();
 
         // From now until the updated spacer geometry is returned, the adapter items are mismatched
-        // with the existing spacers. Do not let them layout.
+        // with the existing spacers. Do not let them layout, and keep showing the current
+        // overlays until then rather than notifying adapter listeners now, which would clear them.
         mConversationContainer.invalidateSpacerGeometry();
+        mNotifyOnGeometryChange = true;
+
+        mWebView.loadUrl("javascript:patchMessages([" + ops + "]);");
+        return true;
+    }
+
+    /**
+     * Returns the DOM id of the first message at or after the given position that is already in
+     * the document, or null if there is none (and new messages go at the end).
+     */
+    private String getNextRenderedDomId(MessageCursor cursor, int fromPos,
+            int[] matchedOldPositions) {
+        for (int pos = fromPos; pos < matchedOldPositions.length; pos++) {
+            if (matchedOldPositions[pos] >= 0) {
+                cursor.moveToPosition(pos);
+                return mTemplates.getMessageDomId(cursor.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private static void appendPatchOp(StringBuilder ops, String op, String domId,
+            String beforeDomId) {
+        if (ops.length() > 0) {
+            ops.append(',');
+        }
+        ops.append("{op:'").append(op).append("',id:'").append(domId).append('\'');
+        if (beforeDomId != null) {
+            ops.append(",before:'").append(beforeDomId).append('\'');
+        }
+        ops.append('}');
+    }
+
+    /**
+     * Like {@link #renderMessage}, but collects the new adapter items rather than appending them
+     * to the adapter.
+     */
+    private void renderPatchedMessage(ConversationMessage msg, boolean expanded,
+            boolean safeForImages, List<ConversationOverlayItem> items) {
+        final MessageHeaderItem header = ConversationViewAdapter.newMessageHeaderItem(
+                mAdapter, mAdapter.getDateBuilder(), msg, expanded, safeForImages);
+        final MessageFooterItem footer = mAdapter.newMessageFooterItem(mAdapter, header);
+
+        final int headerPx = estimateOverlayHeight(header);
+        final int footerPx = estimateOverlayHeight(footer);
 
-        mWebView.loadUrl("javascript:appendMessageHtml();");
+        mTemplates.appendMessageHtml(msg, expanded, safeForImages,
+                mWebView.screenPxToWebPx(headerPx), mWebView.screenPxToWebPx(footerPx));
+        items.add(header);
+        items.add(footer);
+    }
+
+    /**
+     * Called on the first geometry change after a conversation update has been applied, to keep
+     * track of how often updates are patched vs. fully re-rendered and how long each takes.
+     */
+    private void onUpdateRendered() {
+        final long elapsed = SystemClock.uptimeMillis() - mUpdateStartMs;
+        mUpdateStartMs = 0;
+        PerfMetrics.recordMillis(mUpdateIsPatch ? PerfMetrics.CONVERSATION_PATCH
+                : PerfMetrics.CONVERSATION_RERENDER, elapsed);
+        LogUtils.i(LOG_TAG, "CONV RENDER: %s update took %sms",
+                mUpdateIsPatch ? "patched" : "re-rendered", elapsed);
     }
 
     private static class SetCookieTask extends AsyncTask<Void, Void, Void> {
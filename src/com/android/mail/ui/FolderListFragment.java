@@ -26,6 +26,7 @@ import android.app.LoaderManager;
 import android.content.Loader;
 import android.database.DataSetObserver;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v4.widget.DrawerLayout;
@@ -55,6 +56,7 @@ import com.android.mail.providers.AccountObserver;
 import com.android.mail.providers.AllAccountObserver;
 import com.android.mail.providers.Folder;
 import com.android.mail.providers.FolderObserver;
+import com.android.mail.providers.FolderPool;
 import com.android.mail.providers.FolderWatcher;
 import com.android.mail.providers.RecentFolderObserver;
 import com.android.mail.providers.UIProvider;
@@ -68,6 +70,7 @@ import com.google.common.collect.Lists;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This fragment shows the list of folders and the list of accounts. Prior to June 2013,
@@ -147,6 +150,8 @@ public class FolderListFragment extends ListFragment implements
     private static final int FOLDER_LIST_LOADER_ID = 0;
     /** Loader id for the list of all folders in the account */
     private static final int ALL_FOLDER_LIST_LOADER_ID = 1;
+    /** About the folders a drawer shows at once, which are built before the list is loaded. */
+    private static final int FOLDER_WINDOW_SIZE = 20;
     /** Key to store {@link #mParentFolder}. */
     private static final String ARG_PARENT_FOLDER = "arg-parent-folder";
     /** Key to store {@link #mFolderListUri}. */
@@ -696,12 +701,20 @@ public class FolderListFragment extends ListFragment implements
             LogUtils.wtf(LOG_TAG, "FLF.onCreateLoader() with weird type");
             return null;
         }
-        return new ObjectCursorLoader<>(mActivity.getActivityContext(), folderListUri,
-                UIProvider.FOLDERS_PROJECTION, Folder.FACTORY);
+        // The rest of the folders are built at low priority. Folders are updated in place, so
+        // the loader isn't evictable.
+        return new ObjectCursorLoader<Folder>(mActivity.getActivityContext(), folderListUri,
+                UIProvider.FOLDERS_PROJECTION, Folder.FACTORY).setMaterializePolicy(
+                        ObjectCursorLoader.MATERIALIZE_WINDOW, 0 /* windowPosition */,
+                        FOLDER_WINDOW_SIZE);
     }
 
     @Override
     public void onLoadFinished(Loader<ObjectCursor<Folder>> loader, ObjectCursor<Folder> data) {
+        // The account's folders changed, so folders pooled from its conversations may be stale
+        if (mCurrentAccount != null) {
+            FolderPool.invalidate(mCurrentAccount.uri);
+        }
         if (mFolderAdapter != null) {
             if (loader.getId() == FOLDER_LIST_LOADER_ID) {
                 mFolderAdapter.setCursor(data);
@@ -744,7 +757,7 @@ public class FolderListFragment extends ListFragment implements
     }
 
     @Override
-    public void onUnreadCountChange() {
+    public void onUnreadCountChange(Map<Account, Integer> changes) {
         if (mAccountsAdapter != null) {
             mAccountsAdapter.notifyDataSetChanged();
         }
@@ -883,6 +896,10 @@ public class FolderListFragment extends ListFragment implements
         private ObjectCursor<Folder> mCursor = null;
         /** Cursor into the all folder list. This might be null. */
         private ObjectCursor<Folder> mAllFolderListCursor = null;
+        /** Incremented by every rebuild, so that results of superseded rebuilds are dropped. */
+        private int mRebuildGeneration;
+        /** The rebuild running in the background, if any. */
+        private RebuildTask mRebuildTask;
 
         /**
          * Creates a {@link FolderAdapter}. This is a list of all the accounts and folders.
@@ -974,56 +991,125 @@ public class FolderListFragment extends ListFragment implements
 
         /**
          * Responsible for verifying mCursor, and ensuring any recalculate
-         * conditions are met. Also calls notifyDataSetChanged once it's finished
-         * populating {@link com.android.mail.ui.FolderListFragment.FolderAdapter#mItemList}
+         * conditions are met. The new list of {@link DrawerItem}s is built off the UI thread
+         * from a snapshot of the cursors, and then applied by {@link #applyFolderList}.
          */
         private void rebuildFolderList() {
-            final boolean oldInboxPresent = mInboxPresent;
-            mItemList = recalculateListFolders();
-            if (mAccountController != null && mInboxPresent && !oldInboxPresent) {
-                // We didn't have an inbox folder before, but now we do. This can occur when
-                // setting up a new account. We automatically create the "starred" virtual
-                // virtual folder, but we won't create the inbox until it gets synced.
-                // This means that we'll start out looking at the "starred" folder, and the
-                // user will need to manually switch to the inbox. See b/13793316
-                mAccountController.switchToDefaultInboxOrChangeAccount(mCurrentAccount);
+            mRebuildGeneration++;
+            if (mRebuildTask != null) {
+                mRebuildTask.cancel(false);
+                mRebuildTask = null;
             }
-            // Ask the list to invalidate its views.
-            notifyDataSetChanged();
-        }
-
-        /**
-         * Recalculates the system, recent and user label lists.
-         * This method modifies all the three lists on every single invocation.
-         */
-        private List<DrawerItem> recalculateListFolders() {
-            final List<DrawerItem> itemList = new ArrayList<>();
             // If we are waiting for folder initialization, we don't have any kinds of folders,
             // just the "Waiting for initialization" item. Note, this should only be done
             // when we're waiting for account initialization or initial sync.
             if (isCursorInvalid()) {
+                final List<DrawerItem> itemList = new ArrayList<>();
                 if(!mCurrentAccount.isAccountReady()) {
                     itemList.add(DrawerItem.ofWaitView(mActivity));
                 }
-                return itemList;
+                applyFolderList(itemList, mInboxPresent, true /* currentFolderFound */);
+                return;
             }
-            if (mIsDivided) {
-                //Choose an adapter for a divided list with sections
-                return recalculateDividedListFolders(itemList);
-            } else {
-                // Adapter for a flat list. Everything is a FOLDER_OTHER, and there are no headers.
-                return recalculateFlatListFolders(itemList);
+            mRebuildTask = new RebuildTask(mRebuildGeneration, new FolderSnapshot());
+            mRebuildTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+
+        /**
+         * The folders a rebuild works from, captured on the UI thread so that the cursors are
+         * never touched from the background.
+         */
+        private final class FolderSnapshot {
+            /** Folders from mCursor, minus excluded types. */
+            final List<Folder> mFolders = new ArrayList<>();
+            /** Folders from mAllFolderListCursor, minus excluded types; null if there's none. */
+            final List<Folder> mAllFolders;
+            /** Recent folders, minus excluded types. */
+            final List<Folder> mRecents;
+            final FolderUri mSelectedFolderUri;
+
+            FolderSnapshot() {
+                // isCursorInvalid() has already moved mCursor to the first row.
+                do {
+                    final Folder f = mCursor.getModel();
+                    if (!isFolderTypeExcluded(f)) {
+                        mFolders.add(f);
+                    }
+                } while (mCursor.moveToNext());
+
+                if (mIsDivided && mAllFolderListCursor != null) {
+                    mAllFolders = new ArrayList<>();
+                    if (mAllFolderListCursor.moveToFirst()) {
+                        do {
+                            final Folder f = mAllFolderListCursor.getModel();
+                            if (!isFolderTypeExcluded(f)) {
+                                mAllFolders.add(f);
+                            }
+                        } while (mAllFolderListCursor.moveToNext());
+                    }
+                } else {
+                    mAllFolders = null;
+                }
+
+                mRecents = mIsDivided ? getRecentFolders(mRecentFolders)
+                        : new ArrayList<Folder>(0);
+                // Remove any excluded folder types
+                if (mExcludedFolderTypes != null) {
+                    final Iterator<Folder> iterator = mRecents.iterator();
+                    while (iterator.hasNext()) {
+                        if (isFolderTypeExcluded(iterator.next())) {
+                            iterator.remove();
+                        }
+                    }
+                }
+                mSelectedFolderUri = FolderListFragment.this.mSelectedFolderUri;
             }
         }
 
-        // Recalculate folder list intended to be flat (no hearders or sections shown).
-        // This is commonly used for the widget or other simple folder selections
-        private List<DrawerItem> recalculateFlatListFolders(List<DrawerItem> itemList) {
-            final List<DrawerItem> inboxFolders = new ArrayList<>();
-            final List<DrawerItem> allFoldersList = new ArrayList<>();
-            do {
-                final Folder f = mCursor.getModel();
-                if (!isFolderTypeExcluded(f)) {
+        /**
+         * Builds the drawer items for a {@link FolderSnapshot} in the background, and hands them
+         * to {@link #applyFolderList} unless a newer rebuild has started in the meantime.
+         */
+        private final class RebuildTask extends AsyncTask<Void, Void, List<DrawerItem>> {
+            private final int mGeneration;
+            private final FolderSnapshot mSnapshot;
+            private boolean mInboxFound;
+            private boolean mCurrentFolderFound = true;
+
+            RebuildTask(int generation, FolderSnapshot snapshot) {
+                mGeneration = generation;
+                mSnapshot = snapshot;
+            }
+
+            @Override
+            protected List<DrawerItem> doInBackground(Void... params) {
+                final List<DrawerItem> itemList = new ArrayList<>();
+                if (mIsDivided) {
+                    //Choose an adapter for a divided list with sections
+                    return recalculateDividedListFolders(itemList);
+                } else {
+                    // Adapter for a flat list. Everything is a FOLDER_OTHER, and there are no
+                    // headers.
+                    return recalculateFlatListFolders(itemList);
+                }
+            }
+
+            @Override
+            protected void onPostExecute(List<DrawerItem> itemList) {
+                if (mGeneration != mRebuildGeneration) {
+                    return;
+                }
+                mRebuildTask = null;
+                applyFolderList(itemList, mIsDivided ? mInboxFound : mInboxPresent,
+                        mCurrentFolderFound);
+            }
+
+            // Recalculate folder list intended to be flat (no hearders or sections shown).
+            // This is commonly used for the widget or other simple folder selections
+            private List<DrawerItem> recalculateFlatListFolders(List<DrawerItem> itemList) {
+                final List<DrawerItem> inboxFolders = new ArrayList<>();
+                final List<DrawerItem> allFoldersList = new ArrayList<>();
+                for (final Folder f : mSnapshot.mFolders) {
                     // Prioritize inboxes
                     if (f.isInbox()) {
                         inboxFolders.add(DrawerItem.ofFolder(
@@ -1033,20 +1119,17 @@ public class FolderListFragment extends ListFragment implements
                                 DrawerItem.ofFolder(mActivity, f, DrawerItem.FOLDER_OTHER));
                     }
                 }
-            } while (mCursor.moveToNext());
-            itemList.addAll(inboxFolders);
-            itemList.addAll(allFoldersList);
-            return itemList;
-        }
-
-        // Recalculate folder list divided by sections (inboxes, recents, all, etc...)
-        // This is primarily used by the drawer
-        private List<DrawerItem> recalculateDividedListFolders(List<DrawerItem> itemList) {
-            final List<DrawerItem> allFoldersList = new ArrayList<>();
-            final List<DrawerItem> inboxFolders = new ArrayList<>();
-            do {
-                final Folder f = mCursor.getModel();
-                if (!isFolderTypeExcluded(f)) {
+                itemList.addAll(inboxFolders);
+                itemList.addAll(allFoldersList);
+                return itemList;
+            }
+
+            // Recalculate folder list divided by sections (inboxes, recents, all, etc...)
+            // This is primarily used by the drawer
+            private List<DrawerItem> recalculateDividedListFolders(List<DrawerItem> itemList) {
+                final List<DrawerItem> allFoldersList = new ArrayList<>();
+                final List<DrawerItem> inboxFolders = new ArrayList<>();
+                for (final Folder f : mSnapshot.mFolders) {
                     if (f.isInbox()) {
                         inboxFolders.add(DrawerItem.ofFolder(
                                 mActivity, f, DrawerItem.FOLDER_INBOX));
@@ -1055,51 +1138,137 @@ public class FolderListFragment extends ListFragment implements
                                 mActivity, f, DrawerItem.FOLDER_OTHER));
                     }
                 }
-            } while (mCursor.moveToNext());
-
-            // If we have the all folder list, verify that the current folder exists
-            boolean currentFolderFound = false;
-            if (mAllFolderListCursor != null) {
-                final String folderName = mSelectedFolderUri.toString();
-                LogUtils.d(LOG_TAG, "Checking if all folder list contains %s", folderName);
-
-                if (mAllFolderListCursor.moveToFirst()) {
-                    LogUtils.d(LOG_TAG, "Cursor for %s seems reasonably valid", folderName);
-                    do {
-                        final Folder f = mAllFolderListCursor.getModel();
-                        if (!isFolderTypeExcluded(f)) {
-                            if (f.folderUri.equals(mSelectedFolderUri)) {
-                                LogUtils.d(LOG_TAG, "Found %s !", folderName);
-                                currentFolderFound = true;
-                            }
+
+                // If we have the all folder list, verify that the current folder exists
+                if (mSnapshot.mAllFolders != null) {
+                    final FolderUri selected = mSnapshot.mSelectedFolderUri;
+                    LogUtils.d(LOG_TAG, "Checking if all folder list contains %s", selected);
+                    mCurrentFolderFound = false;
+                    for (final Folder f : mSnapshot.mAllFolders) {
+                        if (f.folderUri.equals(selected)) {
+                            LogUtils.d(LOG_TAG, "Found %s !", selected);
+                            mCurrentFolderFound = true;
+                            break;
                         }
-                    } while (!currentFolderFound && mAllFolderListCursor.moveToNext());
+                    }
                 }
 
-                // The search folder will not be found here because it is excluded from the drawer.
-                // Don't switch off from the current folder if it's search.
-                if (!currentFolderFound && !Folder.isType(FolderType.SEARCH, mSelectedFolderType)
-                        && mSelectedFolderUri != FolderUri.EMPTY
-                        && mCurrentAccount != null && mAccountController != null
-                        && mAccountController.isDrawerPullEnabled()) {
-                    LogUtils.d(LOG_TAG, "Current folder (%1$s) has disappeared for %2$s",
-                            folderName, mCurrentAccount.getEmailAddress());
-                    changeAccount(mCurrentAccount);
-                }
+                mInboxFound = (inboxFolders.size() > 0);
+
+                // Add all inboxes (sectioned Inboxes included) before recent folders.
+                addFolderDivision(itemList, inboxFolders, BLANK_HEADER_RESOURCE);
+
+                // Add recent folders next.
+                addRecentsToList(itemList, mSnapshot.mRecents);
+
+                // Add the remaining folders.
+                addFolderDivision(itemList, allFoldersList, R.string.all_folders_heading);
+
+                return itemList;
             }
+        }
 
-            mInboxPresent = (inboxFolders.size() > 0);
+        /**
+         * Replaces {@link #mItemList} with a freshly built list. When the new list holds the same
+         * items in the same order as the old one, as it does when only unread counts change,
+         * only the visible folder views whose content changed are rebound in place. Otherwise
+         * the list is asked to invalidate all its views.
+         */
+        private void applyFolderList(List<DrawerItem> itemList, boolean inboxPresent,
+                boolean currentFolderFound) {
+            final List<DrawerItem> oldList = mItemList;
+            mItemList = itemList;
+
+            if (isSameStructure(oldList, itemList)) {
+                final int rebound = rebindChangedFolders(oldList);
+                LogUtils.d(LOG_TAG, "FolderAdapter: patched %d of %d items", rebound,
+                        itemList.size());
+            } else {
+                // Ask the list to invalidate its views.
+                notifyDataSetChanged();
+                LogUtils.d(LOG_TAG, "FolderAdapter: rebuilt all %d items", itemList.size());
+            }
 
-            // Add all inboxes (sectioned Inboxes included) before recent folders.
-            addFolderDivision(itemList, inboxFolders, BLANK_HEADER_RESOURCE);
+            // The search folder will not be found here because it is excluded from the drawer.
+            // Don't switch off from the current folder if it's search.
+            if (!currentFolderFound && !Folder.isType(FolderType.SEARCH, mSelectedFolderType)
+                    && mSelectedFolderUri != FolderUri.EMPTY
+                    && mCurrentAccount != null && mAccountController != null
+                    && mAccountController.isDrawerPullEnabled()) {
+                LogUtils.d(LOG_TAG, "Current folder (%1$s) has disappeared for %2$s",
+                        mSelectedFolderUri, mCurrentAccount.getEmailAddress());
+                changeAccount(mCurrentAccount);
+            }
 
-            // Add recent folders next.
-            addRecentsToList(itemList);
+            final boolean oldInboxPresent = mInboxPresent;
+            mInboxPresent = inboxPresent;
+            if (mAccountController != null && mInboxPresent && !oldInboxPresent) {
+                // We didn't have an inbox folder before, but now we do. This can occur when
+                // setting up a new account. We automatically create the "starred" virtual
+                // virtual folder, but we won't create the inbox until it gets synced.
+                // This means that we'll start out looking at the "starred" folder, and the
+                // user will need to manually switch to the inbox. See b/13793316
+                mAccountController.switchToDefaultInboxOrChangeAccount(mCurrentAccount);
+            }
+        }
 
-            // Add the remaining folders.
-            addFolderDivision(itemList, allFoldersList, R.string.all_folders_heading);
+        /**
+         * Returns true if both lists hold the same drawer items in the same order, ignoring
+         * changes to their content.
+         */
+        private boolean isSameStructure(List<DrawerItem> oldList, List<DrawerItem> newList) {
+            if (oldList.size() != newList.size() || oldList.isEmpty()) {
+                return false;
+            }
+            for (int i = 0, size = newList.size(); i < size; i++) {
+                if (!newList.get(i).isSameItem(oldList.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
 
-            return itemList;
+        /**
+         * Rebinds the visible views of folders whose content differs from the old list.
+         * Views that are not on screen pick up the new items when they are next bound.
+         *
+         * @return the number of views rebound
+         */
+        private int rebindChangedFolders(List<DrawerItem> oldList) {
+            if (mListView == null) {
+                return 0;
+            }
+            final int offset = (mAccountsAdapter != null ? mAccountsAdapter.getCount() : 0)
+                    + mListView.getHeaderViewsCount() - mListView.getFirstVisiblePosition();
+            int rebound = 0;
+            for (int i = 0, size = mItemList.size(); i < size; i++) {
+                final DrawerItem item = mItemList.get(i);
+                if (item.getType() != DrawerItem.VIEW_FOLDER
+                        || isSameFolderContent(oldList.get(i).mFolder, item.mFolder)) {
+                    continue;
+                }
+                final View child = mListView.getChildAt(offset + i);
+                if (child != null) {
+                    getView(i, child, mListView);
+                    rebound++;
+                }
+            }
+            return rebound;
+        }
+
+        /**
+         * Returns true if the two folders would be displayed identically in the drawer.
+         */
+        private boolean isSameFolderContent(Folder a, Folder b) {
+            return a == b || (a.unreadCount == b.unreadCount
+                    && a.unseenCount == b.unseenCount
+                    && a.totalCount == b.totalCount
+                    && a.type == b.type
+                    && a.capabilities == b.capabilities
+                    && a.iconResId == b.iconResId
+                    && TextUtils.equals(a.name, b.name)
+                    && TextUtils.equals(a.bgColor, b.bgColor)
+                    && TextUtils.equals(a.fgColor, b.fgColor));
         }
 
         /**
@@ -1129,21 +1298,11 @@ public class FolderListFragment extends ListFragment implements
          * Add recent folders to the list in order as acquired by the {@link RecentFolderList}.
          *
          * @param destination List of drawer items to populate
+         * @param recentFolderList Recent folders, with excluded folder types already removed
          */
-        private void addRecentsToList(List<DrawerItem> destination) {
+        private void addRecentsToList(List<DrawerItem> destination,
+                List<Folder> recentFolderList) {
             // If there are recent folders, add them.
-            final List<Folder> recentFolderList = getRecentFolders(mRecentFolders);
-
-            // Remove any excluded folder types
-            if (mExcludedFolderTypes != null) {
-                final Iterator<Folder> iterator = recentFolderList.iterator();
-                while (iterator.hasNext()) {
-                    if (isFolderTypeExcluded(iterator.next())) {
-                        iterator.remove();
-                    }
-                }
-            }
-
             if (recentFolderList.size() > 0) {
                 destination.add(DrawerItem.ofHeader(mActivity, R.string.recent_folders_heading));
                 // Recent folders are not queried for position.
@@ -1198,6 +1357,11 @@ public class FolderListFragment extends ListFragment implements
 
         @Override
         public final void destroy() {
+            mRebuildGeneration++;
+            if (mRebuildTask != null) {
+                mRebuildTask.cancel(false);
+                mRebuildTask = null;
+            }
             mRecentFolderObserver.unregisterAndDestroy();
         }
     }
@@ -41,6 +41,7 @@ import com.android.bitmap.UnrefedBitmapCache;
 import com.android.mail.R;
 import com.android.mail.analytics.Analytics;
 import com.android.mail.analytics.AnalyticsTimer;
+import com.android.mail.bitmap.AvatarDiskCache;
 import com.android.mail.bitmap.ContactResolver;
 import com.android.mail.compose.ComposeActivity;
 import com.android.mail.providers.Account;
@@ -169,6 +170,8 @@ public class MailActivity extends AbstractMailActivity implements ControllableAc
         }
 
         resetSenderImageCache();
+        // Start reading the avatars of the first screen from disk
+        AvatarDiskCache.getInstance(this);
         mViewMode = new ViewMode();
         final boolean tabletUi = Utils.useTabletUI(this.getResources());
         mController = ControllerFactory.forActivity(this, mViewMode, tabletUi);
@@ -463,7 +466,9 @@ public class MailActivity extends AbstractMailActivity implements ControllableAc
 
     @Override
     public ContactResolver getContactResolver(ContentResolver resolver, BitmapCache bitmapCache) {
-        return new ContactResolver(resolver, bitmapCache);
+        final ContactResolver contactResolver = new ContactResolver(resolver, bitmapCache);
+        contactResolver.setDiskCache(AvatarDiskCache.getInstance(this));
+        return contactResolver;
     }
 
     @Override
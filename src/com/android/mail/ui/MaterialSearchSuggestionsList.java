@@ -22,6 +22,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Looper;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -35,6 +36,8 @@ import android.widget.TextView;
 
 import com.android.mail.R;
 import com.android.mail.providers.SearchRecentSuggestionsProvider;
+import com.android.mail.providers.SuggestionsProvider;
+import com.android.mail.utils.DelayedTaskHandler;
 import com.google.common.collect.Lists;
 
 import java.util.List;
@@ -44,6 +47,12 @@ import java.util.List;
  */
 public class MaterialSearchSuggestionsList extends LinearLayout
         implements AdapterView.OnItemClickListener, View.OnClickListener {
+    /**
+     * Keystrokes arriving within this many milliseconds of the last suggestions query are
+     * coalesced into a single query for the latest text.
+     */
+    private static final int QUERY_COALESCE_DELAY_MS = 100;
+
     private MaterialSearchViewController mController;
     private SearchRecentSuggestionsProvider mSuggestionsProvider;
     private List<SuggestionItem> mSuggestions = Lists.newArrayList();
@@ -51,6 +60,7 @@ public class MaterialSearchSuggestionsList extends LinearLayout
 
     private MaterialSearchViewListAdapter mAdapter;
     private QuerySuggestionsTask mQueryTask;
+    private final QueryHandler mQueryHandler = new QueryHandler();
 
     public MaterialSearchSuggestionsList(Context context) {
         super(context);
@@ -69,11 +79,31 @@ public class MaterialSearchSuggestionsList extends LinearLayout
 
     public void setQuery(String query) {
         mQuery = query;
+        // Whatever is in flight is for older text; interrupt it so it stops querying.
         if (mQueryTask != null) {
             mQueryTask.cancel(true);
+            mQueryTask = null;
+        }
+        mQueryHandler.scheduleTask();
+    }
+
+    /**
+     * Runs the suggestions query for the latest text, at most once per
+     * {@link #QUERY_COALESCE_DELAY_MS}.
+     */
+    private class QueryHandler extends DelayedTaskHandler {
+        public QueryHandler() {
+            super(Looper.getMainLooper(), QUERY_COALESCE_DELAY_MS);
+        }
+
+        @Override
+        protected void performTask() {
+            if (mQueryTask != null) {
+                mQueryTask.cancel(true);
+            }
+            mQueryTask = new QuerySuggestionsTask();
+            mQueryTask.execute(mQuery);
         }
-        mQueryTask = new QuerySuggestionsTask();
-        mQueryTask.execute(query);
     }
 
     // PRIVATE API
@@ -111,48 +141,73 @@ public class MaterialSearchSuggestionsList extends LinearLayout
                 MaterialSearchViewController.SEARCH_VIEW_STATE_ONLY_ACTIONBAR);
     }
 
-    // Background task for querying the suggestions list
-    private class QuerySuggestionsTask extends AsyncTask<String, Void, List<SuggestionItem>> {
+    // Background task for querying the suggestions list. Each source's suggestions are
+    // published as soon as they arrive, historical searches ahead of contacts.
+    private class QuerySuggestionsTask extends AsyncTask<String, Object, Void>
+            implements SearchRecentSuggestionsProvider.SuggestionsCallback {
+        private final List<SuggestionItem> mHistory = Lists.newArrayList();
+        private final List<SuggestionItem> mContacts = Lists.newArrayList();
+
         @Override
-        protected List<SuggestionItem> doInBackground(String... strings) {
+        protected Void doInBackground(String... strings) {
             String query = strings[0];
             if (query == null) {
                 query = "";
             }
 
-            Cursor c = null;
-            final List<SuggestionItem> result = Lists.newArrayList();
             try {
-                c = mSuggestionsProvider.query(query);
-
-                if (c != null && c.moveToFirst()) {
-                    final int textIndex = c.getColumnIndex(SearchManager.SUGGEST_COLUMN_QUERY);
-                    final int iconIndex = c.getColumnIndex(SearchManager.SUGGEST_COLUMN_ICON_1);
-                    do {
-                        final String suggestion = c.getString(textIndex);
-                        final Uri iconUri = Uri.parse(c.getString(iconIndex));
-                        result.add(new SuggestionItem(suggestion, iconUri));
-                    } while (c.moveToNext());
-                }
+                mSuggestionsProvider.query(query, this);
             } catch (IllegalStateException e) {
                 // db could have been closed due to cleanup, simply don't do anything.
-            } finally {
-                if (c != null) {
-                    c.close();
-                }
             }
+            return null;
+        }
+
+        @Override
+        public void onSuggestionsLoaded(int source, Cursor c) {
+            if (isCancelled()) {
+                return;
+            }
+            final List<SuggestionItem> result = Lists.newArrayList();
+            if (c.moveToFirst()) {
+                final int textIndex = c.getColumnIndex(SearchManager.SUGGEST_COLUMN_QUERY);
+                final int iconIndex = c.getColumnIndex(SearchManager.SUGGEST_COLUMN_ICON_1);
+                do {
+                    final String suggestion = c.getString(textIndex);
+                    final Uri iconUri = Uri.parse(c.getString(iconIndex));
+                    result.add(new SuggestionItem(suggestion, iconUri));
+                } while (c.moveToNext());
+            }
+            publishProgress(source, result);
+        }
 
-            return result;
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void onProgressUpdate(Object... values) {
+            if (isCancelled()) {
+                return;
+            }
+            final int source = (Integer) values[0];
+            final List<SuggestionItem> items = (List<SuggestionItem>) values[1];
+            if (source == SuggestionsProvider.SOURCE_CONTACTS) {
+                mContacts.addAll(items);
+            } else {
+                mHistory.addAll(items);
+            }
+            // Should not have any race conditions here since we cancel the previous asynctask
+            // before starting the new one, and cancelled tasks don't publish.
+            mSuggestions.clear();
+            mSuggestions.addAll(mHistory);
+            mSuggestions.addAll(mContacts);
+            mAdapter.notifyDataSetChanged();
         }
 
         @Override
-        protected void onPostExecute(List<SuggestionItem> strings) {
-            if (!isCancelled()) {
-                // Should not have any race conditions here since we cancel the previous asynctask
-                // before starting the new one. It's unlikely that the new task finishes fast enough
-                // to get to onPostExecute when this one is in addAll.
+        protected void onPostExecute(Void result) {
+            if (!isCancelled() && mHistory.isEmpty() && mContacts.isEmpty()
+                    && !mSuggestions.isEmpty()) {
+                // Nothing matched the new text; clear out the previous suggestions.
                 mSuggestions.clear();
-                mSuggestions.addAll(strings);
                 mAdapter.notifyDataSetChanged();
             }
         }
@@ -18,7 +18,7 @@ package com.android.mail.utils;
 import android.os.Looper;
 import android.util.Log;
 
-import com.android.mail.perf.Timer;
+import com.android.mail.perf.PerfMetrics;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
@@ -398,11 +398,11 @@ public final class HtmlSanitizer {
         final org.owasp.html.HtmlSanitizer.Policy policy = POLICY_DEFINITION.apply(renderer);
 
         // run the html through the sanitizer
-        Timer.startTiming("sanitizingHTMLEmail");
+        final long start = PerfMetrics.start();
         try {
             org.owasp.html.HtmlSanitizer.sanitize(rawHtml, policy);
         } finally {
-            Timer.stopTiming("sanitizingHTMLEmail");
+            PerfMetrics.stop(PerfMetrics.SANITIZE_HTML, start);
         }
 
         // return the resulting HTML from the builder
@@ -1821,18 +1821,19 @@ public class NotificationUtils {
     }
 
     private static String getMessageBodyWithoutElidedText(final Message message) {
-        return getMessageBodyWithoutElidedText(message.getBodyAsHtml());
+        return getMessageBodyWithoutElidedText(message.id, message.getBodyAsHtml());
     }
 
     public static String getMessageBodyWithoutElidedText(String html) {
+        return getMessageBodyWithoutElidedText(PlainTextCache.NO_MESSAGE_ID, html);
+    }
+
+    private static String getMessageBodyWithoutElidedText(long messageId, String html) {
         if (TextUtils.isEmpty(html)) {
             return "";
         }
-        // Get the html "tree" for this message body
-        final HtmlTree htmlTree = com.android.mail.utils.Utils.getHtmlTree(html);
-        htmlTree.setConverterFactory(MESSAGE_CONVERTER_FACTORY);
-
-        return htmlTree.getPlainText();
+        // Notifications are rebuilt for every change to the folder, so reuse the conversion
+        return PlainTextCache.getPlainText(messageId, html, MESSAGE_CONVERTER_FACTORY);
     }
 
     public static void markSeen(final Context context, final Folder folder) {
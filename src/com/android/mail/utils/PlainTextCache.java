@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.utils;
+
+import android.util.LruCache;
+
+import com.google.android.mail.common.html.parser.HtmlTree;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+
+/**
+ * A process-wide cache of HTML converted to plain text. Notifications, undo toasts and compose
+ * convert the same HTML over and over, and parsing it again each time is much slower than a
+ * lookup.
+ * <p>
+ * Entries are keyed by message id, a hash of the HTML and the converter used. Every entry keeps
+ * its HTML so a hash collision can never return the wrong text. HTML that doesn't belong to a
+ * message can be cached with {@link #NO_MESSAGE_ID}.
+ */
+public final class PlainTextCache {
+    public static final long NO_MESSAGE_ID = -1;
+
+    /** Total chars of HTML and text kept, about 512KB. */
+    private static final int MAX_SIZE_CHARS = 256 * 1024;
+    /** Larger bodies would push most other entries out, so they aren't cached. */
+    private static final int MAX_CACHED_HTML_LENGTH = MAX_SIZE_CHARS / 8;
+
+    private static final LruCache<Key, Entry> sCache = new LruCache<Key, Entry>(MAX_SIZE_CHARS) {
+        @Override
+        protected int sizeOf(Key key, Entry entry) {
+            return entry.html.length() + entry.text.length();
+        }
+    };
+
+    private PlainTextCache() {}
+
+    /**
+     * Returns the plain text of some HTML, converting it with the default converter if it isn't
+     * cached.
+     */
+    public static String getPlainText(long messageId, String html) {
+        return getPlainText(messageId, html, null);
+    }
+
+    /**
+     * Returns the plain text of some HTML, converting it if it isn't cached.
+     *
+     * @param messageId the id of the message the HTML belongs to, or {@link #NO_MESSAGE_ID}
+     * @param html the HTML to convert
+     * @param factory the converters to use, or null for the default. Use the same instance for
+     *                every call, entries are only shared between identical factories.
+     */
+    public static String getPlainText(long messageId, String html,
+            HtmlTree.ConverterFactory factory) {
+        if (html.length() > MAX_CACHED_HTML_LENGTH) {
+            return convert(html, factory);
+        }
+        final Key key = new Key(messageId, html.hashCode(), factory);
+        final Entry cached = sCache.get(key);
+        if (cached != null && cached.html.equals(html)) {
+            return cached.text;
+        }
+        final String text = convert(html, factory);
+        sCache.put(key, new Entry(html, text));
+        return text;
+    }
+
+    /**
+     * Drops every cached conversion, e.g. when memory is low.
+     */
+    public static void clear() {
+        sCache.evictAll();
+    }
+
+    @VisibleForTesting
+    static int size() {
+        return sCache.size();
+    }
+
+    private static String convert(String html, HtmlTree.ConverterFactory factory) {
+        final HtmlTree tree = Utils.getHtmlTree(html);
+        if (factory != null) {
+            tree.setConverterFactory(factory);
+        }
+        return tree.getPlainText();
+    }
+
+    private static final class Key {
+        private final long mMessageId;
+        private final int mHtmlHash;
+        private final HtmlTree.ConverterFactory mFactory;
+
+        Key(long messageId, int htmlHash, HtmlTree.ConverterFactory factory) {
+            mMessageId = messageId;
+            mHtmlHash = htmlHash;
+            mFactory = factory;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return mMessageId == other.mMessageId && mHtmlHash == other.mHtmlHash
+                    && mFactory == other.mFactory;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(mMessageId, mHtmlHash, System.identityHashCode(mFactory));
+        }
+    }
+
+    private static final class Entry {
+        final String html;
+        final String text;
+
+        Entry(String html, String text) {
+            this.html = html;
+            this.text = text;
+        }
+    }
+}
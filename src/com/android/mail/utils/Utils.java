@@ -58,6 +58,7 @@ import com.android.mail.perf.SimpleTimer;
 import com.android.mail.providers.Account;
 import com.android.mail.providers.Conversation;
 import com.android.mail.providers.Folder;
+import com.android.mail.providers.FolderPool;
 import com.android.mail.providers.UIProvider;
 import com.android.mail.providers.UIProvider.EditSettingsExtras;
 import com.android.mail.ui.HelpActivity;
@@ -267,7 +268,10 @@ public class Utils {
         }
 
         @Override
-        public void onLowMemory() {}
+        public void onLowMemory() {
+            PlainTextCache.clear();
+            FolderPool.clearAll();
+        }
     }
 
     public static void getStaticResources(Context context) {
@@ -332,7 +336,8 @@ public class Utils {
     }
 
     /**
-     * Returns displayable text from the provided HTML string.
+     * Returns displayable text from the provided HTML string. Conversions are cached, see
+     * {@link PlainTextCache}.
      * @param htmlText HTML string
      * @return Plain text string representation of the specified Html string
      */
@@ -340,7 +345,7 @@ public class Utils {
         if (TextUtils.isEmpty(htmlText)) {
             return "";
         }
-        return getHtmlTree(htmlText, new HtmlParser(), new HtmlTreeBuilder()).getPlainText();
+        return PlainTextCache.getPlainText(PlainTextCache.NO_MESSAGE_ID, htmlText);
     }
 
     public static String convertHtmlToPlainText(String htmlText, HtmlParser parser,
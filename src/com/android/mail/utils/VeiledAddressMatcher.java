@@ -23,6 +23,7 @@ import com.android.mail.R;
 import com.android.mail.providers.Account;
 import com.android.mail.providers.AccountObserver;
 import com.android.mail.ui.AccountController;
+import com.google.common.annotations.VisibleForTesting;
 
 import java.util.regex.Pattern;
 
@@ -63,20 +64,62 @@ public final class VeiledAddressMatcher{
     public static final int VEILED_SUMMARY_UNKNOWN = R.string.veiled_summary_unknown_person;
 
     /**
-     * Private object that does the actual matching.
+     * Maximum number of address results remembered for each pattern. Large threads show the same
+     * handful of participants over and over, so this comfortably covers a thread.
      */
-    private Pattern mMatcher = null;
+    private static final int MAX_MEMOIZED_ADDRESSES = 512;
 
     /**
-     * True if veiled address matching is enabled, false otherwise.
+     * Maximum number of compiled patterns kept around, so that switching back and forth between
+     * accounts doesn't recompile them.
      */
-    protected boolean mVeiledMatchingEnabled = false;
+    private static final int MAX_COMPILED_PATTERNS = 8;
+
+    /**
+     * A compiled veiled address pattern along with the results of the addresses it has matched.
+     */
+    private static final class CompiledPattern {
+        private final Pattern mPattern;
+        private final LruCache<String, Boolean> mResults =
+                new LruCache<String, Boolean>(MAX_MEMOIZED_ADDRESSES);
+
+        CompiledPattern(String pattern) {
+            mPattern = Pattern.compile(pattern);
+        }
+
+        boolean matches(String address) {
+            final Boolean cached = mResults.getElement(address);
+            if (cached != null) {
+                return cached;
+            }
+            final boolean matches = mPattern.matcher(address).matches();
+            mResults.putElement(address, matches);
+            return matches;
+        }
+    }
+
+    /**
+     * Compiled patterns, keyed by the pattern string of the account they came from.
+     */
+    private final LruCache<String, CompiledPattern> mCompiledPatterns =
+            new LruCache<String, CompiledPattern>(MAX_COMPILED_PATTERNS);
 
     /**
-     * The hash code of the last profile pattern retrieved . This allows us to avoid recompiling the
-     * patterns when nothing has changed.
+     * Private object that does the actual matching. Replaced whenever the current account's
+     * pattern changes, which also discards the results memoized for the old pattern.
      */
-    private int mProfilePatternLastHash = -1;
+    private volatile CompiledPattern mMatcher = null;
+
+    /**
+     * The last profile pattern retrieved. This allows us to avoid recompiling the patterns when
+     * nothing has changed.
+     */
+    private String mProfilePattern = null;
+
+    /**
+     * True if veiled address matching is enabled, false otherwise.
+     */
+    protected boolean mVeiledMatchingEnabled = false;
 
     private final AccountObserver mObserver = new AccountObserver() {
         @Override
@@ -99,14 +142,16 @@ public final class VeiledAddressMatcher{
      * @param pattern
      */
     private final void loadPattern(String pattern) {
-        if (!TextUtils.isEmpty(pattern)) {
-            final int hashCode = pattern.hashCode();
-            if (hashCode != mProfilePatternLastHash) {
-                mProfilePatternLastHash = hashCode;
-                mMatcher = Pattern.compile(pattern);
-                // Since we have a non-empty pattern now, enable pattern matching.
-                mVeiledMatchingEnabled = true;
+        if (!TextUtils.isEmpty(pattern) && !pattern.equals(mProfilePattern)) {
+            mProfilePattern = pattern;
+            CompiledPattern compiled = mCompiledPatterns.getElement(pattern);
+            if (compiled == null) {
+                compiled = new CompiledPattern(pattern);
+                mCompiledPatterns.putElement(pattern, compiled);
             }
+            mMatcher = compiled;
+            // Since we have a non-empty pattern now, enable pattern matching.
+            mVeiledMatchingEnabled = true;
         }
     }
 
@@ -123,6 +168,16 @@ public final class VeiledAddressMatcher{
         return instance;
     }
 
+    /**
+     * Creates an instance matching the given pattern, without consulting resources.
+     */
+    @VisibleForTesting
+    public static VeiledAddressMatcher newInstance(String pattern) {
+        final VeiledAddressMatcher instance = new VeiledAddressMatcher();
+        instance.loadPattern(pattern);
+        return instance;
+    }
+
     /**
      * Initialize the object to listen for account changes. Without this, we cannot obtain updated
      * values of the veiled address pattern and the value is read once from resources.
@@ -140,10 +195,11 @@ public final class VeiledAddressMatcher{
      * @return true if the address is veiled, false otherwise.
      */
     public final boolean isVeiledAddress (String address) {
-        if (!mVeiledMatchingEnabled || mMatcher == null) {
+        final CompiledPattern matcher = mMatcher;
+        if (!mVeiledMatchingEnabled || matcher == null || address == null) {
             // Veiled address matching is explicitly disabled: Match nothing.
             return false;
         }
-        return mMatcher.matcher(address).matches();
+        return matcher.matches(address);
     }
 }
@@ -36,6 +36,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -989,7 +990,7 @@ public final class StringUtil {
   // TODO(pbarry): move all HTML methods to common.html package
 
   static final Map<String, Character> ESCAPE_STRINGS;
-  static final Set<Character> HEX_LETTERS;
+  private static final EntityTrie ENTITY_TRIE;
 
   static {
     // HTML character entity references as defined in HTML 4
@@ -1249,20 +1250,7 @@ public final class StringUtil {
     ESCAPE_STRINGS.put("&rsaquo", '\u203A');
     ESCAPE_STRINGS.put("&euro", '\u20AC');
 
-    HEX_LETTERS = new HashSet<Character>(12);
-
-    HEX_LETTERS.add('a');
-    HEX_LETTERS.add('A');
-    HEX_LETTERS.add('b');
-    HEX_LETTERS.add('B');
-    HEX_LETTERS.add('c');
-    HEX_LETTERS.add('C');
-    HEX_LETTERS.add('d');
-    HEX_LETTERS.add('D');
-    HEX_LETTERS.add('e');
-    HEX_LETTERS.add('E');
-    HEX_LETTERS.add('f');
-    HEX_LETTERS.add('F');
+    ENTITY_TRIE = new EntityTrie(ESCAPE_STRINGS);
   }
 
   /**
@@ -1307,37 +1295,59 @@ public final class StringUtil {
     }
 
     // We found an escaped character. Start slow escaping from there.
-    char[] chars = s.toCharArray();
-    char[] escaped = new char[chars.length];
-    System.arraycopy(chars, 0, escaped, 0, index);
-
-    // Note: escaped[pos] = end of the escaped char array.
-    int pos = index;
+    StringBuilder sb = new StringBuilder(s.length());
+    sb.append(s, 0, index);
+    unescapeHTML(s, index, s.length(), emulateBrowsers, sb);
+    return sb.toString();
+  }
 
-    for (int i = index; i < chars.length;) {
-      if (chars[i] != '&') {
-        escaped[pos++] = chars[i++];
-        continue;
+  /**
+   * Appends the characters of {@code s} in [start, end) to {@code out},
+   * replacing all the occurences of HTML escape strings with the respective
+   * characters. This behaves exactly like
+   * {@link #unescapeHTML(String, boolean)} applied to the substring, but
+   * creates no intermediate strings or arrays.
+   *
+   * @param s the text to unescape
+   * @param start index of the first character to unescape
+   * @param end index after the last character to unescape; characters at or
+   *     after this index are never examined
+   * @param emulateBrowsers see {@link #unescapeHTML(String, boolean)}
+   * @param out destination of the unescaped text
+   */
+  public static void unescapeHTML(CharSequence s, int start, int end,
+      boolean emulateBrowsers, StringBuilder out) {
+    int i = start;
+    while (i < end) {
+      // Copy everything up to the next '&' in one go
+      int amp = i;
+      while (amp < end && s.charAt(amp) != '&') {
+        amp++;
+      }
+      out.append(s, i, amp);
+      if (amp == end) {
+        return;
       }
+      i = amp;
 
       // Allow e.g. &#123;
       int j = i + 1;
       boolean isNumericEntity = false;
-      if (j < chars.length && chars[j] == '#') {
+      if (j < end && s.charAt(j) == '#') {
         j++;
         isNumericEntity = true;
       }
 
       // if it's numeric, also check for hex
       boolean isHexEntity = false;
-      if (j < chars.length && (chars[j] == 'x' || chars[j] == 'X')) {
+      if (j < end && (s.charAt(j) == 'x' || s.charAt(j) == 'X')) {
         j++;
         isHexEntity = true;
       }
 
       // Scan until we find a char that is not valid for this sequence.
-      for (; j < chars.length; j++) {
-        char ch = chars[j];
+      for (; j < end; j++) {
+        char ch = s.charAt(j);
         boolean isDigit = Character.isDigit(ch);
         if (isNumericEntity) {
           // non-hex numeric sequence end condition
@@ -1345,7 +1355,7 @@ public final class StringUtil {
             break;
           }
           // hex sequence end contition
-          if (isHexEntity && !isDigit && !HEX_LETTERS.contains(ch)) {
+          if (isHexEntity && !isDigit && !isHexLetter(ch)) {
             break;
           }
         }
@@ -1356,56 +1366,165 @@ public final class StringUtil {
       }
 
       boolean replaced = false;
-      if ((j <= chars.length && emulateBrowsers) ||
-          (j < chars.length && chars[j] == ';')) {
+      if (emulateBrowsers || (j < end && s.charAt(j) == ';')) {
         // Check for &#D; and &#xD; pattern
-        if (i + 2 < chars.length && s.charAt(i + 1) == '#') {
-          try {
-            long charcode = 0;
-            char ch = s.charAt(i + 2);
-            if (isHexEntity) {
-              charcode = Long.parseLong(
-                  new String(chars, i + 3, j - i - 3), 16);
-            } else if (Character.isDigit(ch)) {
-              charcode = Long.parseLong(
-                  new String(chars, i + 2, j - i - 2));
-            }
-            // D800 to DFFF are for UTF16 surrogate pairs, and are not valid HTML entities
-            // Code points 0xFFFE and 0xFFFF are unicode noncharacters
-            if ((charcode > 0 && charcode < 0xD800) || (charcode > 0xDFFF && charcode < 0xFFFE)) {
-              escaped[pos++] = (char) charcode;
-              replaced = true;
-            } else if (charcode >= 0x10000 && charcode < 0x110000) {
-              // These characters are represented as surrogate pairs in UTF16
-              escaped[pos++] = (char) ((charcode - 0x10000) / 0x400 + 0xD800);
-              escaped[pos++] = (char) ((charcode - 0x10000) % 0x400 + 0xDC00);
-              replaced = true;
-            }
-          } catch (NumberFormatException ex) {
-            // Failed, not replaced.
+        if (i + 2 < end && s.charAt(i + 1) == '#') {
+          int charcode = 0;
+          if (isHexEntity) {
+            charcode = parseCharCode(s, i + 3, j, 16);
+          } else if (Character.isDigit(s.charAt(i + 2))) {
+            charcode = parseCharCode(s, i + 2, j, 10);
+          }
+          // D800 to DFFF are for UTF16 surrogate pairs, and are not valid HTML entities
+          // Code points 0xFFFE and 0xFFFF are unicode noncharacters
+          if ((charcode > 0 && charcode < 0xD800) || (charcode > 0xDFFF && charcode < 0xFFFE)) {
+            out.append((char) charcode);
+            replaced = true;
+          } else if (charcode >= 0x10000 && charcode < 0x110000) {
+            // These characters are represented as surrogate pairs in UTF16
+            out.append((char) ((charcode - 0x10000) / 0x400 + 0xD800));
+            out.append((char) ((charcode - 0x10000) % 0x400 + 0xDC00));
+            replaced = true;
           }
         } else {
-          String key = new String(chars, i, j - i);
-          Character repl = ESCAPE_STRINGS.get(key);
-          if (repl != null) {
-            escaped[pos++] = repl;
+          char repl = ENTITY_TRIE.lookup(s, i + 1, j);
+          if (repl != 0) {
+            out.append(repl);
             replaced = true;
           }
         }
         // Skip over ';'
-        if (j < chars.length && chars[j] == ';') {
+        if (j < end && s.charAt(j) == ';') {
           j++;
         }
       }
 
       if (!replaced) {
         // Not a recognized escape sequence, leave as-is
-        System.arraycopy(chars, i, escaped, pos, j - i);
-        pos += j - i;
+        out.append(s, i, j);
       }
       i = j;
     }
-    return new String(escaped, 0, pos);
+  }
+
+  private static boolean isHexLetter(char ch) {
+    return (ch >= 'a' && ch <= 'f') || (ch >= 'A' && ch <= 'F');
+  }
+
+  /**
+   * Parses the digits in s[start, end) as a character code. Returns -1 if
+   * there are no digits, or if the value is beyond the Unicode range (these
+   * are never valid entities).
+   */
+  private static int parseCharCode(CharSequence s, int start, int end,
+      int radix) {
+    if (start >= end) {
+      return -1;
+    }
+    int charcode = 0;
+    for (int k = start; k < end; k++) {
+      charcode = charcode * radix + Character.digit(s.charAt(k), radix);
+      if (charcode >= 0x110000) {
+        return -1;
+      }
+    }
+    return charcode;
+  }
+
+  /**
+   * The named HTML entities of {@link #ESCAPE_STRINGS} (without their leading
+   * '&') compiled into a trie. The trie is stored as flat arrays: the edges
+   * leaving state s are at [firstEdge[s], firstEdge[s + 1]) of edgeChars and
+   * edgeTargets, sorted by character. State 0 is the root.
+   */
+  private static final class EntityTrie {
+    private final int[] firstEdge;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    /** The entity value of each state, or 0 if no entity ends there. */
+    private final char[] values;
+
+    EntityTrie(Map<String, Character> entities) {
+      // Build a temporary tree of sorted maps, then number its nodes breadth
+      // first so that the edges of each state are contiguous.
+      List<Map<Character, Integer>> children =
+          new ArrayList<Map<Character, Integer>>();
+      List<Character> nodeValues = new ArrayList<Character>();
+      children.add(new TreeMap<Character, Integer>());
+      nodeValues.add((char) 0);
+      for (Map.Entry<String, Character> entity : entities.entrySet()) {
+        String name = entity.getKey();
+        int node = 0;
+        for (int k = 1; k < name.length(); k++) {
+          Integer next = children.get(node).get(name.charAt(k));
+          if (next == null) {
+            next = children.size();
+            children.add(new TreeMap<Character, Integer>());
+            nodeValues.add((char) 0);
+            children.get(node).put(name.charAt(k), next);
+          }
+          node = next;
+        }
+        nodeValues.set(node, entity.getValue());
+      }
+
+      int nodeCount = children.size();
+      int[] stateOfNode = new int[nodeCount];
+      int[] nodeOfState = new int[nodeCount];
+      int stateCount = 1;
+      for (int state = 0; state < stateCount; state++) {
+        for (int child : children.get(nodeOfState[state]).values()) {
+          stateOfNode[child] = stateCount;
+          nodeOfState[stateCount++] = child;
+        }
+      }
+
+      firstEdge = new int[nodeCount + 1];
+      edgeChars = new char[nodeCount - 1];
+      edgeTargets = new int[nodeCount - 1];
+      values = new char[nodeCount];
+      int edge = 0;
+      for (int state = 0; state < nodeCount; state++) {
+        int node = nodeOfState[state];
+        firstEdge[state] = edge;
+        values[state] = nodeValues.get(node);
+        for (Map.Entry<Character, Integer> child : children.get(node).entrySet()) {
+          edgeChars[edge] = child.getKey();
+          edgeTargets[edge++] = stateOfNode[child.getValue()];
+        }
+      }
+      firstEdge[nodeCount] = edge;
+    }
+
+    /**
+     * Returns the value of the entity named by s[start, end), or 0 if there
+     * is no such entity.
+     */
+    char lookup(CharSequence s, int start, int end) {
+      int state = 0;
+      for (int k = start; k < end; k++) {
+        int lo = firstEdge[state];
+        int hi = firstEdge[state + 1] - 1;
+        char ch = s.charAt(k);
+        state = -1;
+        while (lo <= hi) {
+          int mid = (lo + hi) >>> 1;
+          char edgeChar = edgeChars[mid];
+          if (edgeChar < ch) {
+            lo = mid + 1;
+          } else if (edgeChar > ch) {
+            hi = mid - 1;
+          } else {
+            state = edgeTargets[mid];
+            break;
+          }
+        }
+        if (state < 0) {
+          return 0;
+        }
+      }
+      return values[state];
+    }
   }
 
   // Escaper for < and > only.
@@ -21,6 +21,7 @@ import com.google.common.collect.Maps;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
@@ -40,6 +41,13 @@ public final class HTML4 {
   /** Map of all attributes */
   private static final HashMap<String,HTML.Attribute> attributes = Maps.newHashMap();
 
+  /** Elements by name, for lookups that neither copy nor lowercase the name */
+  private static final NameTable<HTML.Element> elementTable = new NameTable<HTML.Element>();
+
+  /** Attributes by name, for lookups that neither copy nor lowercase the name */
+  private static final NameTable<HTML.Attribute> attributeTable =
+      new NameTable<HTML.Attribute>();
+
   /** Default Whitelist */
   private static final HtmlWhitelist defaultWhitelist = new HtmlWhitelist() {
     /**
@@ -64,12 +72,28 @@ public final class HTML4 {
 
   /** Looks for a HTML4 element */
   public static HTML.Element lookupElement(String name) {
-    return elements.get(name.toLowerCase());
+    return elementTable.get(name, 0, name.length());
+  }
+
+  /**
+   * Looks for a HTML4 element named by name[start, end). Only ASCII letters
+   * are case folded.
+   */
+  public static HTML.Element lookupElement(CharSequence name, int start, int end) {
+    return elementTable.get(name, start, end);
   }
 
   /** Looks for a HTML4 attribute */
   public static HTML.Attribute lookupAttribute(String name) {
-    return attributes.get(name.toLowerCase());
+    return attributeTable.get(name, 0, name.length());
+  }
+
+  /**
+   * Looks for a HTML4 attribute named by name[start, end). Only ASCII letters
+   * are case folded.
+   */
+  public static HTML.Attribute lookupAttribute(CharSequence name, int start, int end) {
+    return attributeTable.get(name, start, end);
   }
 
   /**
@@ -106,7 +130,7 @@ public final class HTML4 {
   /** Creates and adds a element to the map */
   private static HTML.Element addElement(String tag, String flags, HTML.Element.Flow flow,
       int type) {
-    tag = tag.toLowerCase();
+    tag = tag.toLowerCase(Locale.ENGLISH);
 
     boolean empty = false;
     boolean optionalEndTag = false;
@@ -121,6 +145,7 @@ public final class HTML4 {
     }
     HTML.Element element = new HTML.Element(tag, type, empty, optionalEndTag, breaksFlow, flow);
     elements.put(tag, element);
+    elementTable.put(tag, element);
     return element;
   }
 
@@ -136,7 +161,7 @@ public final class HTML4 {
   private static HTML.Attribute addAttribute(String attribute,
                                              int type,
                                              String[] values) {
-    attribute = attribute.toLowerCase();
+    attribute = attribute.toLowerCase(Locale.ENGLISH);
     Set<String> valueSet = null;
     if (values != null) {
       valueSet = new HashSet<String>();
@@ -147,6 +172,7 @@ public final class HTML4 {
     }
     HTML.Attribute attr = new HTML.Attribute(attribute, type, valueSet);
     attributes.put(attribute, attr);
+    attributeTable.put(attribute, attr);
     return attr;
   }
 
@@ -182,7 +182,17 @@ public class HtmlDocument {
    * be done lazily).
    */
   public static Text createEscapedText(String htmlText, String original) {
-    return new EscapedText(htmlText, original);
+    return new EscapedText(htmlText, 0, htmlText.length(), original);
+  }
+
+  /**
+   * Creates a Text node over a range of some HTML that hasn't been unescaped
+   * yet (this will be done lazily, without copying the range out first).
+   * The node refers to the HTML until its text is first read.
+   */
+  public static Text createEscapedText(String html, int start, int end,
+      String original) {
+    return new EscapedText(html, start, end, original);
   }
 
   /**
@@ -461,17 +471,36 @@ public class HtmlDocument {
    * unescaping will only be done lazily.
    */
   private static class EscapedText extends Text {
-    private final String htmlText;
+    /** The HTML holding this node's text, or null once it was unescaped. */
+    private String htmlText;
+    private final int start;
+    private final int end;
     private String text;
 
-    private EscapedText(String htmlText, String originalHtml) {
+    private EscapedText(String htmlText, int start, int end,
+        String originalHtml) {
       super(originalHtml);
       this.htmlText = htmlText;
+      this.start = start;
+      this.end = end;
     }
 
     @Override public String getText() {
       if (text == null) {
-        text = StringUtil.unescapeHTML(htmlText);
+        int amp = start;
+        while (amp < end && htmlText.charAt(amp) != '&') {
+          amp++;
+        }
+        if (amp == end) {
+          // Nothing to unescape
+          text = htmlText.substring(start, end);
+        } else {
+          StringBuilder sb = new StringBuilder(end - start);
+          sb.append(htmlText, start, amp);
+          StringUtil.unescapeHTML(htmlText, amp, end, false, sb);
+          text = sb.toString();
+        }
+        htmlText = null;
       }
       return text;
     }
@@ -27,7 +27,6 @@ import com.google.common.io.ByteStreams;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.regex.Matcher;
@@ -186,9 +185,9 @@ public class HtmlParser {
    */
   public HtmlDocument parse(String html) {
     this.html = html;
-    // Use a LinkedList because we don't know the number of nodes ahead of
-    // time. This will be compacted into an ArrayList in coalesceTextNodes().
-    nodes = Lists.newLinkedList();
+    // Most nodes are tags, so guess one node per 16 chars of input to avoid
+    // repeatedly growing the list for large documents.
+    nodes = new ArrayList<HtmlDocument.Node>(Math.min(html.length(), clipLength) / 16 + 16);
     state = State.IN_TEXT;
 
     clipped = false;
@@ -252,7 +251,7 @@ public class HtmlParser {
       List<HtmlDocument.Node> nodes) {
     List<HtmlDocument.Node> out =
         new ArrayList<HtmlDocument.Node>(nodes.size());
-    LinkedList<HtmlDocument.Text> textNodes = Lists.newLinkedList();
+    ArrayList<HtmlDocument.Text> textNodes = new ArrayList<HtmlDocument.Text>();
 
     for (HtmlDocument.Node node : nodes) {
       if (node instanceof HtmlDocument.Text) {
@@ -273,11 +272,11 @@ public class HtmlParser {
    * @param textNodes Text nodes.
    * @param output Destination to which results are added.
    */
-  private static void mergeTextNodes(LinkedList<HtmlDocument.Text> textNodes,
+  private static void mergeTextNodes(ArrayList<HtmlDocument.Text> textNodes,
                                      List<HtmlDocument.Node> output) {
     if (!textNodes.isEmpty()) {
       if (textNodes.size() == 1) {
-        output.add(textNodes.removeFirst());
+        output.add(textNodes.get(0));
       } else {
         int combinedTextLen = 0;
         int combinedInputLen = 0;
@@ -289,8 +288,7 @@ public class HtmlParser {
         }
         StringBuilder combinedText = new StringBuilder(combinedTextLen);
         StringBuilder combinedInput = new StringBuilder(combinedInputLen);
-        while (!textNodes.isEmpty()) {
-          HtmlDocument.Text text = textNodes.removeFirst();
+        for (HtmlDocument.Text text : textNodes) {
           combinedText.append(text.getText());
           if (text.getOriginalHTML() != null) {
             combinedInput.append(text.getOriginalHTML());
@@ -299,6 +297,7 @@ public class HtmlParser {
         String originalInput = combinedInputLen > 0 ? combinedInput.toString() : null;
         output.add(HtmlDocument.createText(combinedText.toString(), originalInput));
       }
+      textNodes.clear();
     }
   }
 
@@ -340,7 +339,6 @@ public class HtmlParser {
 
     if (pos > start) {
       int finalPos = pos;
-      String htmlTail = this.html.substring(start, finalPos);
 
       if ((pos == clipLength) && (clipLength < html.length())) {
         // We're clipping this HTML, not running off the end.
@@ -349,31 +347,32 @@ public class HtmlParser {
         // If it really was a truncated entity, great.
         // If it was a false positive, the user won't notice that we clipped
         // an additional handful of characters.
-        Matcher matcher = TRUNCATED_ENTITY.matcher(htmlTail);
+        Matcher matcher = TRUNCATED_ENTITY.matcher(html.subSequence(start, finalPos));
         if (matcher.find()) {
-          int matchStart = matcher.start();
-          // The matcher matched in htmlTail, not html.
-          // htmlTail starts at html[start]
-          finalPos = start + matchStart;
-          htmlTail = htmlTail.substring(0, matchStart);
+          // The matcher matched in the tail, not html.
+          // The tail starts at html[start]
+          finalPos = start + matcher.start();
         }
       }
 
       if (finalPos > start) {
         String originalHtml = null;
         if (preserveAll) {
-          originalHtml = htmlTail;
+          originalHtml = html.substring(start, finalPos);
         } else if (preserveValidHtml) {
-          // the only way htmlTail can start with '<' is if it's the last character
+          // the only way the text can start with '<' is if it's the last character
           // in html; otherwise, we would have entered State.IN_TAG or
           // State.IN_COMMENT above
 
           // officially a '<' can be valid in a text node, but to be safe we
           // always escape them
-          originalHtml = CharMatcher.is('<').replaceFrom(htmlTail, "&lt;");
+          originalHtml = CharMatcher.is('<').replaceFrom(
+              html.subSequence(start, finalPos), "&lt;");
         }
 
-        HtmlDocument.Text textnode = HtmlDocument.createEscapedText(htmlTail, originalHtml);
+        // The text is unescaped straight from html when it is first read
+        HtmlDocument.Text textnode =
+            HtmlDocument.createEscapedText(html, start, finalPos, originalHtml);
         nodes.add(textnode);
       }
     }
@@ -416,6 +415,13 @@ public class HtmlParser {
       return pos;
     }
 
+    /**
+     * @return True iff a tag name was scanned.
+     */
+    public boolean hasName() {
+      return startNamePos != -1;
+    }
+
     /**
      * @return Tag name.
      */
@@ -571,6 +577,10 @@ public class HtmlParser {
       return pos;
     }
 
+    public boolean hasName() {
+      return startNamePos != -1 && endNamePos != -1;
+    }
+
     public String getName() {
       if (name == null && startNamePos != -1 && endNamePos != -1) {
         name = html.substring(startNamePos, endNamePos);
@@ -584,6 +594,27 @@ public class HtmlParser {
       }
       return value;
     }
+
+    /**
+     * Gets the value with HTML entities unescaped. Unescapes it straight from
+     * the original html, without copying the value out first.
+     *
+     * @return the unescaped value, or null if the attribute has no value
+     */
+    public String getUnescapedValue() {
+      if (startValuePos == -1 || endValuePos == -1) {
+        return null;
+      }
+      for (int i = startValuePos; i < endValuePos; i++) {
+        if (html.charAt(i) == '&') {
+          StringBuilder sb = new StringBuilder(endValuePos - startValuePos);
+          sb.append(html, startValuePos, i);
+          StringUtil.unescapeHTML(html, i, endValuePos, false, sb);
+          return sb.toString();
+        }
+      }
+      return getValue();
+    }
   }
 
   /**
@@ -661,9 +692,8 @@ public class HtmlParser {
     // Tag name and element
     TagNameScanner tagNameScanner = new TagNameScanner(html);
     int pos = tagNameScanner.scanName(nameStart, end);
-    String tagName = tagNameScanner.getTagName();
     HTML.Element element = null;
-    if (tagName == null) {
+    if (!tagNameScanner.hasName()) {
       // For some reason, browsers treat start and end tags differently
       // when they don't have a valid tag name - end tags are swallowed
       // (e.g., "</ >"), start tags treated as text (e.g., "< >")
@@ -679,14 +709,14 @@ public class HtmlParser {
         element = lookupUnknownElement("");
       }
     } else {
-      element = lookupElement(tagName);
+      element = lookupElement(tagNameScanner);
       if (element == null) {
         if (DEBUG) {
           // Unknown element
-          debug("Unknown element: " + tagName);
+          debug("Unknown element: " + tagNameScanner.getTagName());
         }
         if (preserveAll) {
-          element = lookupUnknownElement(tagName);
+          element = lookupUnknownElement(tagNameScanner.getTagName());
         }
       }
     }
@@ -733,7 +763,7 @@ public class HtmlParser {
         X.assertTrue(pos > startPos);
 
         // If it's a valid attribute, scan attribute values
-        if (attributeScanner.getName() != null) {
+        if (attributeScanner.hasName()) {
           pos = attributeScanner.scanValue(pos, end);
 
           // Add the attribute to the list
@@ -812,6 +842,27 @@ public class HtmlParser {
     return null;
   }
 
+  /**
+   * Lookups the scanned element name in our whitelist(s), like
+   * {@link #lookupElement(String)}. The default whitelist is consulted in
+   * place in the html, so the name is only copied out for other whitelists.
+   *
+   * @param scanner Scanned element name.
+   * @return Element.
+   */
+  private HTML.Element lookupElement(TagNameScanner scanner) {
+    for (int i = whitelists.size() - 1; i >= 0; i--) {
+      HtmlWhitelist whitelist = whitelists.get(i);
+      HTML.Element elem = (whitelist == DEFAULT_WHITELIST)
+          ? HTML4.lookupElement(html, scanner.startNamePos, scanner.endNamePos)
+          : whitelist.lookupElement(scanner.getTagName());
+      if (elem != null) {
+        return elem;
+      }
+    }
+    return null;
+  }
+
   /**
    * Lookups the attribute in our whitelist(s). Whitelists are consulted in
    * reverse chronological order (starting from the most recently added
@@ -831,6 +882,27 @@ public class HtmlParser {
     return null;
   }
 
+  /**
+   * Lookups the scanned attribute name in our whitelist(s), like
+   * {@link #lookupAttribute(String)}. The default whitelist is consulted in
+   * place in the html, so the name is only copied out for other whitelists.
+   *
+   * @param scanner Scanned attribute.
+   * @return Attribute.
+   */
+  private HTML.Attribute lookupAttribute(AttributeScanner scanner) {
+    for (int i = whitelists.size() - 1; i >= 0; i--) {
+      HtmlWhitelist whitelist = whitelists.get(i);
+      HTML.Attribute attr = (whitelist == DEFAULT_WHITELIST)
+          ? HTML4.lookupAttribute(html, scanner.startNamePos, scanner.endNamePos)
+          : whitelist.lookupAttribute(scanner.getName());
+      if (attr != null) {
+        return attr;
+      }
+    }
+    return null;
+  }
+
   /**
    * @param element Tag element
    * @param startPos Start of tag, including '<'
@@ -965,25 +1037,22 @@ public class HtmlParser {
       AttributeScanner scanner, final int startPos, final int endPos) {
     X.assertTrue(startPos < endPos);
 
-    String name = scanner.getName();
-    X.assertTrue(name != null);
-    HTML.Attribute htmlAttribute = lookupAttribute(name);
-
-    // This can be null when there's no value, e.g., input.checked attribute.
-    String value = scanner.getValue();
+    X.assertTrue(scanner.hasName());
+    HTML.Attribute htmlAttribute = lookupAttribute(scanner);
 
     if (htmlAttribute == null) {
       // Unknown attribute.
       if (DEBUG) {
-        debug("Unknown attribute: " + name);
+        debug("Unknown attribute: " + scanner.getName());
       }
       if (preserveAll) {
         String original = html.substring(startPos, endPos);
         attributes.add(HtmlDocument.createTagAttribute(
-            lookupUnknownAttribute(name), value, original));
+            lookupUnknownAttribute(scanner.getName()), scanner.getValue(), original));
       }
     } else {
-      String unescapedValue = (value == null) ? null : StringUtil.unescapeHTML(value);
+      // This can be null when there's no value, e.g., input.checked attribute.
+      String unescapedValue = scanner.getUnescapedValue();
       if (preserveAll) {
         attributes.add(HtmlDocument.createTagAttribute(htmlAttribute,
             unescapedValue, html.substring(startPos, endPos)));
@@ -1002,6 +1071,7 @@ public class HtmlParser {
         }
         original.append(originalPrefix);
 
+        String value = scanner.getValue();
         if (value == null) {
           // This includes the name and any following whitespace. Escape in case
           // the name has any quotes or '<' that could confuse a browser.
@@ -1011,7 +1081,7 @@ public class HtmlParser {
         } else {
           // Escape name in case the name has any quotes or '<' that could
           // confuse a browser.
-          original.append(CharEscapers.asciiHtmlEscaper().escape(name));
+          original.append(CharEscapers.asciiHtmlEscaper().escape(scanner.getName()));
 
           // This includes the equal sign, and any other whitespace
           // between the name and value. It also contains the opening quote
@@ -132,13 +132,19 @@ public class HtmlTree {
 
   /**
    * Sets a new {@link ConverterFactory} to be used to convert
-   * the contents of this tree to plaintext.
+   * the contents of this tree to plaintext. Conversions done with
+   * the previous factory are discarded.
    */
   public void setConverterFactory(ConverterFactory factory) {
     if (factory == null) {
       throw new NullPointerException("factory must not be null");
     }
-    converterFactory = factory;
+    if (factory != converterFactory) {
+      converterFactory = factory;
+      plainText = null;
+      textPositions = null;
+      constructedSpan = null;
+    }
   }
 
   /**
@@ -377,6 +383,7 @@ public class HtmlTree {
    * @return a list of 0 or more Block objects, never null
    */
   public ArrayList<Block> createBlocks(int textStart, int textEnd, int minNode, int maxNode) {
+    ensurePlainText();
 
     ArrayList<Block> blocks = new ArrayList<Block>();
     int startNode = Math.max(getBlockStart(textStart), minNode);
@@ -524,6 +531,7 @@ public class HtmlTree {
    * @return the plain-text position corresponding to the node
    */
   public int getTextPosition(int node) {
+    ensurePlainText();
     return textPositions[node];
   }
 
@@ -531,9 +539,7 @@ public class HtmlTree {
    * @return a plain-text String of the html tree
    */
   public String getPlainText() {
-    if (plainText == null) {
-      convertToPlainText();
-    }
+    ensurePlainText();
     return plainText;
   }
 
@@ -541,14 +547,24 @@ public class HtmlTree {
    * @return a plain-text String of a part of the html tree
    */
   public String getPlainText(int fromNode, int toNode) {
-    if (plainText == null) {
-      convertToPlainText();
-    }
+    ensurePlainText();
     int textstart = textPositions[fromNode];
     int textend = textPositions[toNode];
     return plainText.substring(textstart, textend);
   }
 
+  /**
+   * Converts the html tree to plain text, unless that has been done
+   * already. The text and the text position of every node are kept, so
+   * later calls for the whole text or any range of nodes are served
+   * without converting again.
+   */
+  private void ensurePlainText() {
+    if (plainText == null) {
+      convertToPlainText();
+    }
+  }
+
   /**
    * Converts the html tree to plain text.
    * We simply iterate through the nodes in the tree.
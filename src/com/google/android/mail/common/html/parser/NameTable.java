@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2014, Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mail.common.html.parser;
+
+import com.google.android.mail.common.base.X;
+
+/**
+ * NameTable is an open addressing hash table from lowercase ASCII names to
+ * values, that is looked up by a range of characters in a larger sequence
+ * with ASCII case folding done on the fly. This lets the parser look up tag
+ * and attribute names directly in the html being parsed, without creating a
+ * substring or a lowercase copy of every name it scans.
+ *
+ * As in browsers, only the ASCII letters are case folded, so a name
+ * containing any non-ASCII character never matches.
+ *
+ * Not thread safe for writes. HTML4 fills its tables during class
+ * initialization, after which they are only read.
+ */
+final class NameTable<V> {
+  private String[] keys = new String[64];
+  private Object[] values = new Object[64];
+  private int size;
+
+  /**
+   * Adds or replaces the value for a name.
+   *
+   * @param name Lowercase ASCII name
+   * @param value Value to associate with name
+   */
+  void put(String name, V value) {
+    for (int i = 0; i < name.length(); i++) {
+      char ch = name.charAt(i);
+      X.assertTrue(ch < 0x80 && (ch < 'A' || ch > 'Z'));
+    }
+    if (2 * (size + 1) > keys.length) {
+      resize(keys.length * 2);
+    }
+    int index = find(name, 0, name.length());
+    if (keys[index] == null) {
+      keys[index] = name;
+      size++;
+    }
+    values[index] = value;
+  }
+
+  /**
+   * Looks up the value for s[start, end), ignoring ASCII case.
+   *
+   * @return The value, or null if there is none.
+   */
+  @SuppressWarnings("unchecked")
+  V get(CharSequence s, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (s.charAt(i) >= 0x80) {
+        return null;
+      }
+    }
+    return (V) values[find(s, start, end)];
+  }
+
+  /**
+   * @return The number of names in the table.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the slot holding s[start, end), or the empty slot where it
+   * belongs. The table always has at least one empty slot.
+   */
+  private int find(CharSequence s, int start, int end) {
+    int mask = keys.length - 1;
+    int index = hash(s, start, end) & mask;
+    while (keys[index] != null && !matches(keys[index], s, start, end)) {
+      index = (index + 1) & mask;
+    }
+    return index;
+  }
+
+  private void resize(int capacity) {
+    String[] oldKeys = keys;
+    Object[] oldValues = values;
+    keys = new String[capacity];
+    values = new Object[capacity];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != null) {
+        int index = find(oldKeys[i], 0, oldKeys[i].length());
+        keys[index] = oldKeys[i];
+        values[index] = oldValues[i];
+      }
+    }
+  }
+
+  private static int hash(CharSequence s, int start, int end) {
+    int h = 0;
+    for (int i = start; i < end; i++) {
+      h = 31 * h + toLowerAscii(s.charAt(i));
+    }
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean matches(String key, CharSequence s, int start, int end) {
+    if (key.length() != end - start) {
+      return false;
+    }
+    for (int i = 0; i < key.length(); i++) {
+      if (key.charAt(i) != toLowerAscii(s.charAt(start + i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static char toLowerAscii(char ch) {
+    return (ch >= 'A' && ch <= 'Z') ? (char) (ch + ('a' - 'A')) : ch;
+  }
+}
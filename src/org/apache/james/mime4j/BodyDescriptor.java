@@ -39,6 +39,7 @@ public class BodyDescriptor {
     private Map<String, String> parameters = new HashMap<String, String>();
     private boolean contentTypeSet = false;
     private boolean contentTransferEncSet = false;
+    private long offset = -1;
 
     /**
      * Creates a new root <code>BodyDescriptor</code> instance.
@@ -385,6 +386,21 @@ public class BodyDescriptor {
         return "quoted-printable".equals(transferEncoding);
     }
 
+    /**
+     * Return the offset of the body in the stream being parsed, or -1 if
+     * it isn't known (e.g. for the parts of an encoded message/rfc822 body)
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Set the offset of the body in the stream being parsed
+     */
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
     @Override
     public String toString() {
         return mimeType;
@@ -38,6 +38,8 @@ public class EOLConvertingInputStream extends InputStream {
     public static final int CONVERT_LF   = 2;
     /** Converts single '\r' and '\n' to '\r\n' */
     public static final int CONVERT_BOTH = 3;
+    /** How many of the latest added bytes are remembered by getSourcePosition() */
+    private static final int ADDED_HISTORY = 512;
 
     private PushbackInputStream in = null;
     private int previous = 0;
@@ -47,6 +49,12 @@ public class EOLConvertingInputStream extends InputStream {
     private int nextTenPctPos;
     private int tenPctSize;
     private Callback callback;
+    /** Bytes returned so far */
+    private long converted = 0;
+    /** Positions in this stream of the latest bytes added by the conversion */
+    private final long[] added = new long[ADDED_HISTORY];
+    private long addedCount = 0;
+    private boolean nextIsAdded = false;
 
     public interface Callback {
         public void report(int bytesRead);
@@ -118,6 +126,8 @@ public class EOLConvertingInputStream extends InputStream {
             return -1;
         }
         
+        boolean isAdded = nextIsAdded;
+        nextIsAdded = false;
         if ((flags & CONVERT_CR) != 0 && b == '\r') {
             int c = readByte();
             if (c != -1) {
@@ -125,15 +135,49 @@ public class EOLConvertingInputStream extends InputStream {
             }
             if (c != '\n') {
                 unreadByte('\n');
+                nextIsAdded = true;
             }
         } else if ((flags & CONVERT_LF) != 0 && b == '\n' && previous != '\r') {
             b = '\r';
             unreadByte('\n');
+            isAdded = true;
         }
         
+        if (isAdded) {
+            added[(int) (addedCount++ % ADDED_HISTORY)] = converted;
+        }
+        converted++;
         previous = b;
         
         return b;
     }
 
+    /**
+     * Gets the offset in the underlying stream of the byte at the given
+     * offset in this stream. A byte added by the conversion is at the offset
+     * of the byte that follows it. Only offsets shortly before the bytes
+     * returned so far can be converted.
+     *
+     * @param position an offset in this stream, up to the number of bytes
+     *        returned so far.
+     * @return the offset in the underlying stream, or -1 if it is too far back
+     *         to tell.
+     */
+    public long getSourcePosition(long position) {
+        if (position < 0 || position > converted) {
+            return -1;
+        }
+        // Count the added bytes at or after the position, newest first
+        long i = addedCount - 1;
+        while (i >= 0 && added[(int) (i % ADDED_HISTORY)] >= position) {
+            if (i > 0 && i == addedCount - ADDED_HISTORY) {
+                // Older added bytes may be after the position as well
+                return -1;
+            }
+            i--;
+        }
+        // i + 1 bytes were added before the position
+        return position - (i + 1);
+    }
+
 }
@@ -42,6 +42,8 @@ public class MimeBoundaryInputStream extends InputStream {
     private boolean eof = false;
     private boolean parenteof = false;
     private boolean moreParts = true;
+    private long start = -1;
+    private long consumed = 0;
 
     /**
      * Creates a new MimeBoundaryInputStream.
@@ -51,6 +53,7 @@ public class MimeBoundaryInputStream extends InputStream {
     public MimeBoundaryInputStream(InputStream s, String boundary) 
             throws IOException {
         
+        this.start = MimeStreamParser.getPosition(s);
         this.s = new PushbackInputStream(s, boundary.length() + 4);
 
         boundary = "--" + boundary;
@@ -65,10 +68,20 @@ public class MimeBoundaryInputStream extends InputStream {
          */
         int b = read();
         if (b != -1) {
-            this.s.unread(b);
+            unreadByte(b);
         }
     }
 
+    /**
+     * Gets the offset of the next byte of this stream in the stream being
+     * parsed, or -1 if that isn't known.
+     *
+     * @return the current position.
+     */
+    public long getPosition() {
+        return start < 0 ? -1 : start + consumed;
+    }
+
     /**
      * Closes the underlying stream.
      * 
@@ -125,8 +138,8 @@ public class MimeBoundaryInputStream extends InputStream {
             }
         }
         
-        int b1 = s.read();
-        int b2 = s.read();
+        int b1 = readByte();
+        int b2 = readByte();
         
         if (b1 == '\r' && b2 == '\n') {
             if (matchBoundary()) {
@@ -135,7 +148,7 @@ public class MimeBoundaryInputStream extends InputStream {
         }
         
         if (b2 != -1) {
-            s.unread(b2);
+            unreadByte(b2);
         }
 
         parenteof = b1 == -1;
@@ -147,13 +160,13 @@ public class MimeBoundaryInputStream extends InputStream {
     private boolean matchBoundary() throws IOException {
         
         for (int i = 0; i < boundary.length; i++) {
-            int b = s.read();
+            int b = readByte();
             if (b != boundary[i]) {
                 if (b != -1) {
-                    s.unread(b);
+                    unreadByte(b);
                 }
                 for (int j = i - 1; j >= 0; j--) {
-                    s.unread(boundary[j]);
+                    unreadByte(boundary[j]);
                 }
                 return false;
             }
@@ -162,15 +175,15 @@ public class MimeBoundaryInputStream extends InputStream {
         /*
          * We have a match. Is it an end boundary?
          */
-        int prev = s.read();
-        int curr = s.read();
+        int prev = readByte();
+        int curr = readByte();
         moreParts = !(prev == '-' && curr == '-');
         do {
             if (curr == '\n' && prev == '\r') {
                 break;
             }
             prev = curr;
-        } while ((curr = s.read()) != -1);
+        } while ((curr = readByte()) != -1);
         
         if (curr == -1) {
             moreParts = false;
@@ -181,4 +194,17 @@ public class MimeBoundaryInputStream extends InputStream {
         
         return true;
     }
+
+    private int readByte() throws IOException {
+        int b = s.read();
+        if (b != -1) {
+            consumed++;
+        }
+        return b;
+    }
+
+    private void unreadByte(int b) throws IOException {
+        s.unread(b);
+        consumed--;
+    }
 }
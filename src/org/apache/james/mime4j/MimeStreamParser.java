@@ -53,6 +53,7 @@ public class MimeStreamParser {
     private static BitSet fieldChars = null;
 
     private RootInputStream rootStream = null;
+    private EOLConvertingInputStream eolStream = null;
     private LinkedList<BodyDescriptor> bodyDescriptors = new LinkedList<BodyDescriptor>();
     private ContentHandler handler = null;
     private boolean raw = false;
@@ -81,6 +82,8 @@ public class MimeStreamParser {
      * @throws IOException on I/O errors.
      */
     public void parse(InputStream is) throws IOException {
+        eolStream = is instanceof EOLConvertingInputStream
+                ? (EOLConvertingInputStream) is : null;
         rootStream = new RootInputStream(is);
         parseMessage(rootStream);
     }
@@ -182,6 +185,7 @@ public class MimeStreamParser {
             parseMessage(is);
             bodyDescriptors.removeFirst();
         } else {
+            bd.setOffset(getPosition(is));
             handler.body(bd, new CloseShieldInputStream(is));
         }
 
@@ -206,6 +210,39 @@ public class MimeStreamParser {
         return prematureEof;
     }
 
+    /**
+     * Gets the offset in the stream passed to {@link #parse(InputStream)} of
+     * an offset in the stream being parsed, such as
+     * {@link BodyDescriptor#getOffset()}. They differ if line endings are
+     * converted by an {@link EOLConvertingInputStream}, in which case only
+     * offsets shortly before the current position can be converted.
+     *
+     * @param position an offset in the stream being parsed.
+     * @return the offset, or -1 if it isn't known.
+     */
+    public long getSourcePosition(long position) {
+        if (position < 0) {
+            return -1;
+        }
+        return eolStream != null ? eolStream.getSourcePosition(position) : position;
+    }
+
+    /**
+     * Gets the offset of the next byte of an entity stream in the stream
+     * being parsed.
+     *
+     * @param is the entity stream.
+     * @return the offset, or -1 if it isn't known.
+     */
+    static long getPosition(InputStream is) {
+        if (is instanceof RootInputStream) {
+            return ((RootInputStream) is).getPosition();
+        } else if (is instanceof MimeBoundaryInputStream) {
+            return ((MimeBoundaryInputStream) is).getPosition();
+        }
+        return -1;
+    }
+
     private void parseBodyPart(InputStream is) throws IOException {
         if (raw) {
             handler.raw(new CloseShieldInputStream(is));
@@ -35,6 +35,7 @@ import java.io.InputStream;
 class RootInputStream extends InputStream {
     private InputStream is = null;
     private int lineNumber = 1;
+    private long position = 0;
     private int prev = -1;
     private boolean truncated = false;
 
@@ -57,6 +58,16 @@ class RootInputStream extends InputStream {
         return lineNumber;
     }
     
+    /**
+     * Gets the number of bytes read so far, which is the offset of the
+     * next byte in the stream.
+     *
+     * @return the current position.
+     */
+    public long getPosition() {
+        return position;
+    }
+
     /**
      * Truncates this <code>InputStream</code>. After this call any 
      * call to {@link #read()}, {@link #read(byte[]) or 
@@ -76,6 +87,9 @@ class RootInputStream extends InputStream {
         }
         
         int b = is.read();
+        if (b != -1) {
+            position++;
+        }
         if (prev == '\r' && b == '\n') {
             lineNumber++;
         }
@@ -93,6 +107,9 @@ class RootInputStream extends InputStream {
         }
         
         int n = is.read(b, off, len);
+        if (n > 0) {
+            position += n;
+        }
         for (int i = off; i < off + n; i++) {
             if (prev == '\r' && b[i] == '\n') {
                 lineNumber++;
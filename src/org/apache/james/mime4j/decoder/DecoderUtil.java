@@ -29,6 +29,13 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
 
 /**
  * Static methods for decoding strings, byte arrays and encoded words.
@@ -150,24 +157,32 @@ public class DecoderUtil {
      * 
      * ANDROID:  COPIED FROM A NEWER VERSION OF MIME4J
      * 
+     * ANDROID:  Rewritten to decode in a single pass over the string.  Encoded
+     * words are decoded into a reused byte buffer, and adjacent words in the
+     * same charset are converted to characters together, as RFC 2047 requires,
+     * so a character split across two words is decoded correctly.
+     * 
      * @param body the string to decode.
      * @return the decoded string.
      */
-    public static String decodeEncodedWords(String body) {
+    public static String decodeEncodedWords(CharSequence body) {
         
         // ANDROID:  Most strings will not include "=?" so a quick test can prevent unneeded
         // object creation.  This could also be handled via lazy creation of the StringBuilder.
-        if (body.indexOf("=?") == -1) {
-            return body;
+        if (indexOf(body, '=', '?', 0) == -1) {
+            return body.toString();
         }
 
+        final WordDecoder decoder = wordDecoders.get();
+        decoder.clear();
+
         int previousEnd = 0;
         boolean previousWasEncoded = false;
 
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = new StringBuilder(body.length());
 
         while (true) {
-            int begin = body.indexOf("=?", previousEnd);
+            int begin = indexOf(body, '=', '?', previousEnd);
 
             // ANDROID:  The mime4j original version has an error here.  It gets confused if
             // the encoded string begins with an '=' (just after "?Q?").  This patch seeks forward
@@ -175,41 +190,45 @@ public class DecoderUtil {
             if (begin == -1) {
                 break;
             }
-            int qm1 = body.indexOf('?', begin + 2);
+            int qm1 = indexOf(body, '?', begin + 2);
             if (qm1 == -1) {
                 break;
             }
-            int qm2 = body.indexOf('?', qm1 + 1);
+            int qm2 = indexOf(body, '?', qm1 + 1);
             if (qm2 == -1) {
                 break;
             }
-            int end = body.indexOf("?=", qm2 + 1);
+            int end = indexOf(body, '?', '=', qm2 + 1);
             if (end == -1) {
                 break;
             }
             end += 2;
 
-            String sep = body.substring(previousEnd, begin);
+            // Whitespace between two encoded words is dropped
+            boolean joined = previousWasEncoded
+                    && isWhitespace(body, previousEnd, begin);
+            if (!joined) {
+                decoder.flush(sb);
+                sb.append(body, previousEnd, begin);
+            }
 
-            String decoded = decodeEncodedWord(body, begin, end);
-            if (decoded == null) {
-                sb.append(sep);
-                sb.append(body.substring(begin, end));
-            } else {
-                if (!previousWasEncoded || !CharsetUtil.isWhitespace(sep)) {
-                    sb.append(sep);
+            previousWasEncoded = decoder.add(body, begin, qm1, qm2, end, sb);
+            if (!previousWasEncoded) {
+                decoder.flush(sb);
+                if (joined) {
+                    sb.append(body, previousEnd, begin);
                 }
-                sb.append(decoded);
+                sb.append(body, begin, end);
             }
 
             previousEnd = end;
-            previousWasEncoded = decoded != null;
         }
+        decoder.flush(sb);
 
         if (previousEnd == 0)
-            return body;
+            return body.toString();
 
-        sb.append(body.substring(previousEnd));
+        sb.append(body, previousEnd, body.length());
         return sb.toString();
     }
 
@@ -224,61 +243,386 @@ public class DecoderUtil {
         if (qm2 == -1 || qm2 == end - 2)
             return null;
 
-        String mimeCharset = body.substring(begin + 2, qm1);
-        String encoding = body.substring(qm1 + 1, qm2);
-        String encodedText = body.substring(qm2 + 1, end - 2);
+        final WordDecoder decoder = wordDecoders.get();
+        decoder.clear();
+        StringBuilder sb = new StringBuilder(end - qm2);
+        if (!decoder.add(body, begin, qm1, qm2, end, sb)) {
+            return null;
+        }
+        decoder.flush(sb);
+        return sb.toString();
+    }
 
-        String charset = CharsetUtil.toJavaCharset(mimeCharset);
-        if (charset == null) {
-            if (log.isWarnEnabled()) {
-                log.warn("MIME charset '" + mimeCharset + "' in encoded word '"
-                        + body.substring(begin, end) + "' doesn't have a "
-                        + "corresponding Java charset");
+    /**
+     * Returns the index of the first occurrence of a character at or after
+     * an index, or -1.
+     */
+    private static int indexOf(CharSequence s, char c, int from) {
+        for (int i = from, length = s.length(); i < length; i++) {
+            if (s.charAt(i) == c) {
+                return i;
             }
-            return null;
-        } else if (!CharsetUtil.isDecodingSupported(charset)) {
-            if (log.isWarnEnabled()) {
-                log.warn("Current JDK doesn't support decoding of charset '"
-                        + charset + "' (MIME charset '" + mimeCharset
-                        + "' in encoded word '" + body.substring(begin, end)
-                        + "')");
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first occurrence of a pair of characters at or
+     * after an index, or -1.
+     */
+    private static int indexOf(CharSequence s, char c1, char c2, int from) {
+        for (int i = from, last = s.length() - 1; i < last; i++) {
+            if (s.charAt(i) == c1 && s.charAt(i + 1) == c2) {
+                return i;
             }
-            return null;
         }
+        return -1;
+    }
 
-        if (encodedText.length() == 0) {
-            if (log.isWarnEnabled()) {
-                log.warn("Missing encoded text in encoded word: '"
-                        + body.substring(begin, end) + "'");
+    private static boolean isWhitespace(CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!CharsetUtil.isWhitespace(s.charAt(i))) {
+                return false;
             }
-            return null;
         }
+        return true;
+    }
 
-        try {
-            if (encoding.equalsIgnoreCase("Q")) {
-                return DecoderUtil.decodeQ(encodedText, charset);
-            } else if (encoding.equalsIgnoreCase("B")) {
-                return DecoderUtil.decodeB(encodedText, charset);
-            } else {
+    /**
+     * ANDROID:  One WordDecoder per thread, so that its buffers and charset
+     * decoders are reused from one header to the next without locking.
+     */
+    private static final ThreadLocal<WordDecoder> wordDecoders = new ThreadLocal<WordDecoder>() {
+        @Override
+        protected WordDecoder initialValue() {
+            return new WordDecoder();
+        }
+    };
+
+    /**
+     * Decodes encoded words into bytes, and converts the bytes of a run of
+     * adjacent words in the same charset to characters at once.
+     */
+    private static class WordDecoder {
+        /** How many charsets are remembered. */
+        private static final int CHARSETS = 8;
+
+        /** The charsets as named in encoded words, and their decoders. */
+        private final String[] charsetNames = new String[CHARSETS];
+        private final CharsetDecoder[] charsetDecoders = new CharsetDecoder[CHARSETS];
+        private int nextCharset = 0;
+
+        /** The initial size of the buffers. */
+        private static final int DEFAULT_CAPACITY = 256;
+        /**
+         * Buffers grown past this size for an unusually long run of words
+         * are dropped once it has been converted, so that every thread
+         * doesn't keep them for good.
+         */
+        private static final int MAX_KEPT_CAPACITY = 8 * 1024;
+
+        private byte[] bytes = new byte[DEFAULT_CAPACITY];
+        private ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+        private char[] chars = new char[DEFAULT_CAPACITY];
+        private CharBuffer charBuffer = CharBuffer.wrap(chars);
+
+        /** The charset of the bytes that haven't been converted yet. */
+        private CharsetDecoder pending = null;
+        private int count = 0;
+
+        // Quoted-printable decoding state
+        private int qState = 0;
+        private byte qDigit = 0;
+
+        void clear() {
+            pending = null;
+            count = 0;
+        }
+
+        /**
+         * Decodes an encoded word into bytes, after converting the bytes of
+         * the words before it if they are in another charset.
+         *
+         * @return false if the word can't be decoded, in which case nothing
+         *         is added.
+         */
+        boolean add(CharSequence body, int begin, int qm1, int qm2, int end,
+                StringBuilder sb) {
+            CharsetDecoder decoder = getDecoder(body, begin + 2, qm1);
+            if (decoder == null) {
+                if (log.isWarnEnabled()) {
+                    log.warn("MIME charset '" + body.subSequence(begin + 2, qm1)
+                            + "' in encoded word '" + body.subSequence(begin, end)
+                            + "' isn't supported");
+                }
+                return false;
+            }
+
+            int textStart = qm2 + 1;
+            int textEnd = end - 2;
+            if (textStart >= textEnd) {
+                if (log.isWarnEnabled()) {
+                    log.warn("Missing encoded text in encoded word: '"
+                            + body.subSequence(begin, end) + "'");
+                }
+                return false;
+            }
+
+            char encoding = qm2 == qm1 + 2 ? body.charAt(qm1 + 1) : 0;
+            if (encoding != 'Q' && encoding != 'q' && encoding != 'B' && encoding != 'b') {
                 if (log.isWarnEnabled()) {
                     log.warn("Warning: Unknown encoding in encoded word '"
-                            + body.substring(begin, end) + "'");
+                            + body.subSequence(begin, end) + "'");
+                }
+                return false;
+            }
+
+            if (pending != decoder) {
+                flush(sb);
+                pending = decoder;
+            }
+            // Neither encoding produces more bytes than it has characters
+            ensureBytes(count + textEnd - textStart);
+            if (encoding == 'Q' || encoding == 'q') {
+                decodeQ(body, textStart, textEnd);
+            } else {
+                decodeB(body, textStart, textEnd);
+            }
+            return true;
+        }
+
+        /**
+         * Converts the bytes of the words added so far to characters.
+         */
+        void flush(StringBuilder sb) {
+            if (pending == null) {
+                return;
+            }
+            CharsetDecoder decoder = pending;
+            pending = null;
+
+            ensureChars((int) (count * (double) decoder.maxCharsPerByte()) + 1);
+            byteBuffer.clear();
+            byteBuffer.limit(count);
+            charBuffer.clear();
+            decoder.reset();
+            CoderResult result = decoder.decode(byteBuffer, charBuffer, true);
+            if (!result.isOverflow()) {
+                result = decoder.flush(charBuffer);
+            }
+            if (result.isOverflow()) {
+                // Only if the charset misreports how many characters it makes
+                sb.append(new String(bytes, 0, count, decoder.charset()));
+            } else {
+                sb.append(chars, 0, charBuffer.position());
+            }
+            count = 0;
+            shrink();
+        }
+
+        private void shrink() {
+            if (bytes.length > MAX_KEPT_CAPACITY) {
+                bytes = new byte[DEFAULT_CAPACITY];
+                byteBuffer = ByteBuffer.wrap(bytes);
+            }
+            if (chars.length > MAX_KEPT_CAPACITY) {
+                chars = new char[DEFAULT_CAPACITY];
+                charBuffer = CharBuffer.wrap(chars);
+            }
+        }
+
+        /**
+         * Finds the decoder of a charset named in an encoded word, without
+         * copying the name out of the string unless it's a new one.
+         */
+        private CharsetDecoder getDecoder(CharSequence body, int start, int end) {
+            for (int i = 0; i < CHARSETS; i++) {
+                if (charsetNames[i] != null && regionMatches(body, start, end, charsetNames[i])) {
+                    return charsetDecoders[i];
                 }
+            }
+
+            String mimeCharset = body.subSequence(start, end).toString();
+            String charset = CharsetUtil.toJavaCharset(mimeCharset);
+            if (charset == null || !CharsetUtil.isDecodingSupported(charset)) {
                 return null;
             }
-        } catch (UnsupportedEncodingException e) {
-            // should not happen because of isDecodingSupported check above
-            if (log.isWarnEnabled()) {
-                log.warn("Unsupported encoding in encoded word '"
-                        + body.substring(begin, end) + "'", e);
+            CharsetDecoder decoder;
+            try {
+                decoder = Charset.forName(charset).newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            } catch (IllegalArgumentException e) {
+                return null;
             }
-            return null;
-        } catch (RuntimeException e) {
-            if (log.isWarnEnabled()) {
-                log.warn("Could not decode encoded word '"
-                        + body.substring(begin, end) + "'", e);
+            charsetNames[nextCharset] = mimeCharset;
+            charsetDecoders[nextCharset] = decoder;
+            nextCharset = (nextCharset + 1) % CHARSETS;
+            return decoder;
+        }
+
+        private static boolean regionMatches(CharSequence s, int start, int end, String name) {
+            int length = end - start;
+            if (length != name.length()) {
+                return false;
             }
-            return null;
+            for (int i = 0; i < length; i++) {
+                char c1 = s.charAt(start + i);
+                char c2 = name.charAt(i);
+                if (c1 != c2 && Character.toLowerCase(c1) != Character.toLowerCase(c2)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void ensureBytes(int capacity) {
+            if (capacity > bytes.length) {
+                byte[] grown = new byte[Math.max(capacity, bytes.length * 2)];
+                System.arraycopy(bytes, 0, grown, 0, count);
+                bytes = grown;
+                byteBuffer = ByteBuffer.wrap(bytes);
+            }
+        }
+
+        private void ensureChars(int capacity) {
+            if (capacity > chars.length) {
+                chars = new char[Math.max(capacity, chars.length * 2)];
+                charBuffer = CharBuffer.wrap(chars);
+            }
+        }
+
+        /**
+         * Decodes Base64 text like {@link Base64InputStream}: characters
+         * outside the alphabet are skipped, and decoding stops at the first
+         * '='.
+         */
+        private void decodeB(CharSequence s, int start, int end) {
+            int accum = 0;
+            int inCount = 0;
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if (c == '=') {
+                    break;
+                }
+                int sX = c < 0x80 ? BASE64[c] : -1;
+                if (sX < 0) {
+                    continue;
+                }
+                accum = (accum << 6) | sX;
+                if (++inCount == 4) {
+                    bytes[count++] = (byte) (accum >> 16);
+                    bytes[count++] = (byte) (accum >> 8);
+                    bytes[count++] = (byte) accum;
+                    accum = 0;
+                    inCount = 0;
+                }
+            }
+            // A padded partial group, or one cut short, ends the data
+            if (inCount == 3) {
+                bytes[count++] = (byte) (accum >> 10);
+                bytes[count++] = (byte) (accum >> 2);
+            } else if (inCount == 2) {
+                bytes[count++] = (byte) (accum >> 4);
+            }
+        }
+
+        /**
+         * Decodes 'Q' encoded text like {@link QuotedPrintableInputStream}
+         * does once every '_' is replaced with "=20".
+         */
+        private void decodeQ(CharSequence s, int start, int end) {
+            qState = 0;
+            // Spaces and tabs are held back, and dropped at the end of a line
+            int spaces = -1;
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if (c == ' ' || c == '\t') {
+                    if (spaces == -1) {
+                        spaces = i;
+                    }
+                    continue;
+                }
+                if (spaces != -1) {
+                    if (c != '\r' && c != '\n') {
+                        for (int j = spaces; j < i; j++) {
+                            feedQ((byte) s.charAt(j));
+                        }
+                    }
+                    spaces = -1;
+                }
+                if (c == '_') {
+                    feedQ((byte) '=');
+                    feedQ((byte) '2');
+                    feedQ((byte) '0');
+                } else {
+                    feedQ(c < 0x80 ? (byte) c : (byte) '?');
+                }
+            }
+        }
+
+        private void feedQ(byte b) {
+            switch (qState) {
+                case 0:
+                    if (b == '=') {
+                        qState = 1;
+                    } else {
+                        bytes[count++] = b;
+                    }
+                    break;
+                case 1:
+                    if (b == '\r') {
+                        qState = 2;
+                    } else if (hexValue(b) >= 0) {
+                        qState = 3;
+                        qDigit = b;
+                    } else if (b == '=') {
+                        bytes[count++] = '=';
+                    } else {
+                        qState = 0;
+                        bytes[count++] = '=';
+                        bytes[count++] = b;
+                    }
+                    break;
+                case 2:
+                    qState = 0;
+                    if (b != '\n') {
+                        bytes[count++] = '=';
+                        bytes[count++] = '\r';
+                        bytes[count++] = b;
+                    }
+                    break;
+                default:
+                    qState = 0;
+                    if (hexValue(b) >= 0) {
+                        bytes[count++] = (byte) ((hexValue(qDigit) << 4) | hexValue(b));
+                    } else {
+                        bytes[count++] = '=';
+                        bytes[count++] = qDigit;
+                        bytes[count++] = b;
+                    }
+                    break;
+            }
+        }
+
+        private static int hexValue(byte b) {
+            if (b >= '0' && b <= '9') {
+                return b - '0';
+            } else if (b >= 'A' && b <= 'F') {
+                return b - 'A' + 10;
+            } else if (b >= 'a' && b <= 'f') {
+                return b - 'a' + 10;
+            }
+            return -1;
+        }
+    }
+
+    private static final byte[] BASE64 = new byte[0x80];
+    static {
+        Arrays.fill(BASE64, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64[alphabet.charAt(i)] = (byte) i;
         }
     }
 }
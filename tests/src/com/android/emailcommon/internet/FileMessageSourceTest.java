@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.emailcommon.internet;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Base64;
+import android.util.Base64OutputStream;
+
+import com.android.emailcommon.TempDirectory;
+import com.android.emailcommon.mail.Part;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+public class FileMessageSourceTest extends AndroidTestCase {
+    private static final String HEADER = "From: a@example.com\n"
+            + "Subject: large\n"
+            + "Content-Type: multipart/mixed; boundary=\"outer\"\n"
+            + "\n"
+            + "--outer\n"
+            + "Content-Type: text/plain\n"
+            + "\n"
+            + "Hello\r\n"
+            + "there\n"
+            + "--outer\n"
+            + "Content-Type: application/octet-stream; name=\"a.bin\"\n"
+            + "Content-Transfer-Encoding: base64\n"
+            + "\n";
+    private static final String TRAILER = "\n--outer--\n";
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TempDirectory.setTempDirectory(getContext());
+        mFile = new File(getContext().getCacheDir(), "message-test.eml");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Writes a message with a text part and an attachment of random bytes, and returns the
+     * checksum of the attachment.
+     */
+    private long writeMessage(long attachmentSize) throws IOException {
+        final CRC32 crc = new CRC32();
+        final Random random = new Random(attachmentSize);
+        final byte[] buffer = new byte[64 * 1024];
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(mFile));
+        try {
+            out.write(HEADER.getBytes("US-ASCII"));
+            final OutputStream base64Out =
+                    new Base64OutputStream(out, Base64.DEFAULT | Base64.NO_CLOSE);
+            for (long written = 0; written < attachmentSize; written += buffer.length) {
+                final int count = (int) Math.min(buffer.length, attachmentSize - written);
+                random.nextBytes(buffer);
+                crc.update(buffer, 0, count);
+                base64Out.write(buffer, 0, count);
+            }
+            base64Out.close();
+            out.write(TRAILER.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+        return crc.getValue();
+    }
+
+    private static int countTempBodies() {
+        final String[] names = TempDirectory.getTempDirectory().list();
+        int count = 0;
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith("body")) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long checksum(Part part) throws Exception {
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[8 * 1024];
+        final InputStream in = part.getBody().getInputStream();
+        try {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    private void checkMessage(long attachmentSize) throws Exception {
+        final long expectedChecksum = writeMessage(attachmentSize);
+        final int tempBodies = countTempBodies();
+        final long memoryBefore = usedMemory();
+
+        final FileInputStream file = new FileInputStream(mFile);
+        try {
+            final MimeMessage message = new MimeMessage(new BufferedInputStream(file),
+                    new FileMessageSource(file));
+            final ArrayList<Part> viewables = new ArrayList<Part>();
+            final ArrayList<Part> attachments = new ArrayList<Part>();
+            MimeUtility.collectParts(message, viewables, attachments);
+            assertEquals(1, viewables.size());
+            assertEquals(1, attachments.size());
+
+            // Text is read from the file too, and its line endings are converted as it is
+            final Part text = viewables.get(0);
+            assertTrue(text.getBody() instanceof LazyPartBody);
+            assertEquals("Hello\r\nthere", MimeUtility.getTextFromPart(text));
+
+            final Part attachment = attachments.get(0);
+            assertEquals(attachmentSize, ((LazyPartBody) attachment.getBody()).getSize());
+            assertEquals(expectedChecksum, checksum(attachment));
+            assertEquals(tempBodies, countTempBodies());
+            assertTrue(usedMemory() - memoryBefore < 16 * 1024 * 1024);
+        } finally {
+            file.close();
+        }
+    }
+
+    @SmallTest
+    public void testSmallMessage() throws Exception {
+        checkMessage(1000);
+    }
+
+    @LargeTest
+    public void testLargeMessageIsNotCopied() throws Exception {
+        // About 100MB once encoded
+        checkMessage(75L * 1024 * 1024);
+    }
+
+    @SmallTest
+    public void testRangesAreIndependent() throws Exception {
+        final OutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write("0123456789".getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+        final FileInputStream file = new FileInputStream(mFile);
+        try {
+            final FileMessageSource source = new FileMessageSource(file);
+            final InputStream first = source.open(2, 5);
+            final InputStream second = source.open(7, 10);
+            assertEquals('2', first.read());
+            assertEquals("789", new String(IOUtils.toByteArray(second), "US-ASCII"));
+            assertEquals(1, first.skip(1));
+            assertEquals("456", new String(IOUtils.toByteArray(first), "US-ASCII"));
+            // Reading ranges doesn't move the file
+            assertEquals('0', file.read());
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.emailcommon.internet;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.emailcommon.TempDirectory;
+import com.android.emailcommon.mail.Body;
+import com.android.emailcommon.mail.MessagingException;
+import com.android.emailcommon.mail.Multipart;
+import com.android.emailcommon.mail.Part;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SmallTest
+public class LazyPartBodyTest extends AndroidTestCase {
+    private static final String MESSAGE = "From: a@example.com\n"
+            + "Subject: parts\n"
+            + "Content-Type: multipart/mixed; boundary=\"outer\"\n"
+            + "\n"
+            + "--outer\n"
+            + "Content-Type: text/plain\n"
+            + "\n"
+            + "Hello\n"
+            + "--outer\n"
+            + "Content-Type: application/octet-stream; name=\"a.bin\"\n"
+            + "Content-Transfer-Encoding: base64\n"
+            + "\n"
+            + "SGVsbG8sIHdv\n"
+            + "cmxkIQ==\n"
+            + "--outer\n"
+            + "Content-Type: application/pdf; name=\"b.pdf\"\n"
+            + "Content-Transfer-Encoding: quoted-printable\n"
+            + "\n"
+            + "caf=C3=A9 =\n"
+            + "au lait\n"
+            + "--outer\n"
+            + "Content-Type: message/rfc822\n"
+            + "\n"
+            + "Subject: inner\n"
+            + "Content-Type: application/zip\n"
+            + "\n"
+            + "PK\r"
+            + "--outer--\n";
+
+    private final AtomicInteger mOpens = new AtomicInteger();
+    private final LazyPartBody.Source mSource = new LazyPartBody.StreamSource() {
+        @Override
+        protected InputStream openStream() {
+            mOpens.incrementAndGet();
+            return new ByteArrayInputStream(MESSAGE.getBytes());
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TempDirectory.setTempDirectory(getContext());
+    }
+
+    private static String read(Part part) throws Exception {
+        final InputStream in = part.getBody().getInputStream();
+        try {
+            return new String(IOUtils.toByteArray(in), "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long getSize(Part part) {
+        return ((LazyPartBody) part.getBody()).getSize();
+    }
+
+    public void testPartsAreReadFromTheSource() throws Exception {
+        final MimeMessage message =
+                new MimeMessage(new ByteArrayInputStream(MESSAGE.getBytes()), mSource);
+        assertEquals(0, mOpens.get());
+
+        final ArrayList<Part> viewables = new ArrayList<Part>();
+        final ArrayList<Part> attachments = new ArrayList<Part>();
+        MimeUtility.collectParts(message, viewables, attachments);
+        assertEquals(1, viewables.size());
+        assertEquals(3, attachments.size());
+
+        // Text is copied out while parsing, as it is read right away
+        assertFalse(viewables.get(0).getBody() instanceof LazyPartBody);
+        assertEquals("Hello", read(viewables.get(0)));
+
+        final Part base64 = attachments.get(0);
+        assertEquals(13, getSize(base64));
+        assertEquals("Hello, world!", read(base64));
+
+        final Part quotedPrintable = attachments.get(1);
+        assertEquals("café au lait", read(quotedPrintable));
+        assertEquals(read(quotedPrintable).getBytes("UTF-8").length, getSize(quotedPrintable));
+
+        // Parts of an embedded message are found too. Offsets are in the raw message, whose line
+        // endings aren't CRLF, and the bodies don't pick up any line ending.
+        final Part embedded = attachments.get(2);
+        assertEquals("PK", read(embedded));
+        assertEquals(2, getSize(embedded));
+        assertEquals(4, mOpens.get());
+    }
+
+    public void testWithoutSourceEverythingIsCopied() throws Exception {
+        final MimeMessage message = new MimeMessage(new ByteArrayInputStream(MESSAGE.getBytes()));
+        final Multipart multipart = (Multipart) message.getBody();
+        for (int i = 0; i < multipart.getCount(); i++) {
+            final Body body = multipart.getBodyPart(i).getBody();
+            assertFalse(body instanceof LazyPartBody);
+        }
+    }
+
+    public void testUnreadableSource() throws Exception {
+        final LazyPartBody body = new LazyPartBody(new LazyPartBody.StreamSource() {
+            @Override
+            protected InputStream openStream() throws IOException {
+                throw new IOException("gone");
+            }
+        }, 0, 10, null, 10);
+        try {
+            body.getInputStream();
+            fail();
+        } catch (MessagingException expected) {
+        }
+    }
+}
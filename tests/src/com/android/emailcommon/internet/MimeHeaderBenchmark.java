@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.emailcommon.internet;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.emailcommon.TempDirectory;
+import com.android.emailcommon.mail.MessagingException;
+import com.android.mail.perf.Benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Benchmarks of parsing messages and looking up their headers, for messages whose headers start
+ * with 10, 100 and 1000 Received fields, as mail that went through many relays does. See
+ * {@link Benchmark} for how results are reported and compared.
+ */
+@LargeTest
+public class MimeHeaderBenchmark extends AndroidTestCase {
+    private static final int[] RECEIVED_FIELDS = { 10, 100, 1000 };
+
+    private final Benchmark mBenchmark = new Benchmark();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TempDirectory.setTempDirectory(getContext());
+    }
+
+    private static byte[] createMessage(int receivedFields) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < receivedFields; i++) {
+            sb.append("Received: from relay").append(i).append(".example.com\r\n")
+                    .append("\tby relay").append(i + 1).append(".example.com; ")
+                    .append("Mon, 1 Dec 2014 10:00:00 +0000\r\n");
+        }
+        sb.append("From: a@example.com\r\n")
+                .append("To: b@example.com\r\n")
+                .append("Subject: relayed\r\n")
+                .append("Date: Mon, 1 Dec 2014 10:00:00 +0000\r\n")
+                .append("Message-ID: <1@example.com>\r\n")
+                .append("Content-Type: text/plain; charset=utf-8\r\n")
+                .append("Content-Transfer-Encoding: 7bit\r\n")
+                .append("\r\n")
+                .append("Hello\r\n");
+        return sb.toString().getBytes();
+    }
+
+    private static MimeMessage parse(byte[] message) {
+        try {
+            return new MimeMessage(new ByteArrayInputStream(message));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } catch (MessagingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void assertNoRegressions() {
+        final List<String> regressions = mBenchmark.report();
+        if (Benchmark.isStrict()) {
+            assertTrue(regressions.toString(), regressions.isEmpty());
+        }
+    }
+
+    /**
+     * Measures parsing a message and reading the fields that are read for every message. One
+     * operation parses one message.
+     */
+    public void testParse() {
+        for (int fields : RECEIVED_FIELDS) {
+            final byte[] message = createMessage(fields);
+            mBenchmark.measure("MimeMessage.parse", fields, new Benchmark.Body() {
+                @Override
+                public void run(int ops) {
+                    try {
+                        for (int i = 0; i < ops; i++) {
+                            final MimeMessage mimeMessage = parse(message);
+                            mimeMessage.getSubject();
+                            mimeMessage.getSentDate();
+                            mimeMessage.getMimeType();
+                            mimeMessage.getContentId();
+                        }
+                    } catch (MessagingException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+        }
+        assertNoRegressions();
+    }
+
+    /**
+     * Measures looking up the fields that come after the Received fields. One operation looks up
+     * one field.
+     */
+    public void testGetFirstHeader() throws Exception {
+        final String[] names = { MimeHeader.HEADER_CONTENT_TYPE,
+                MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING, MimeHeader.HEADER_CONTENT_ID,
+                "Date" };
+        for (int fields : RECEIVED_FIELDS) {
+            final MimeHeader header = new MimeHeader();
+            for (int i = 0; i < fields; i++) {
+                header.addHeader("Received", "from relay" + i + ".example.com");
+            }
+            header.addHeader("Content-Type", "text/plain");
+            header.addHeader("Content-Transfer-Encoding", "7bit");
+            header.addHeader("Date", "Mon, 1 Dec 2014 10:00:00 +0000");
+            mBenchmark.measure("MimeHeader.getFirstHeader", fields, new Benchmark.Body() {
+                @Override
+                public void run(int ops) {
+                    try {
+                        for (int i = 0; i < ops; i++) {
+                            header.getFirstHeader(names[i % names.length]);
+                        }
+                    } catch (MessagingException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+        }
+        assertNoRegressions();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.emailcommon.internet;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+@SmallTest
+public class MimeHeaderTest extends TestCase {
+    private MimeHeader mHeader;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHeader = new MimeHeader();
+        mHeader.addHeader("Received", "from a");
+        mHeader.addHeader("Content-Type", "text/plain");
+        mHeader.addHeader("received", "from b");
+        mHeader.addHeader(MimeHeader.HEADER_ANDROID_ATTACHMENT_STORE_DATA, "1.2");
+        mHeader.addHeader("RECEIVED", "from c");
+    }
+
+    public void testLookupIgnoresCase() throws Exception {
+        assertEquals("from a", mHeader.getFirstHeader("Received"));
+        assertEquals("from a", mHeader.getFirstHeader("rEcEiVeD"));
+        assertEquals("text/plain", mHeader.getFirstHeader("content-type"));
+        assertTrue(Arrays.equals(new String[] { "from a", "from b", "from c" },
+                mHeader.getHeader("RECEIVED")));
+        assertNull(mHeader.getFirstHeader("Subject"));
+        assertNull(mHeader.getHeader("Subject"));
+    }
+
+    public void testRemoveHeader() throws Exception {
+        mHeader.removeHeader("received");
+        assertNull(mHeader.getFirstHeader("Received"));
+        assertNull(mHeader.getHeader("Received"));
+        assertEquals("Content-Type: text/plain\r\n", mHeader.writeToString());
+
+        // Fields with the name can be added again
+        mHeader.addHeader("Received", "from d");
+        assertTrue(Arrays.equals(new String[] { "from d" }, mHeader.getHeader("Received")));
+    }
+
+    public void testSetHeaderMovesTheFieldToTheEnd() throws Exception {
+        mHeader.setHeader("content-type", "text/html");
+        assertEquals("text/html", mHeader.getFirstHeader("Content-Type"));
+        assertEquals("Received: from a\r\n"
+                + "received: from b\r\n"
+                + "RECEIVED: from c\r\n"
+                + "content-type: text/html\r\n", mHeader.writeToString());
+    }
+
+    public void testWriteKeepsOrderAndSpelling() throws Exception {
+        final String expected = "Received: from a\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "received: from b\r\n"
+                + "RECEIVED: from c\r\n";
+        assertEquals(expected, mHeader.writeToString());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mHeader.writeTo(out);
+        assertEquals(expected, out.toString("US-ASCII"));
+    }
+
+    public void testClear() throws Exception {
+        mHeader.clear();
+        assertNull(mHeader.getFirstHeader("Received"));
+        assertNull(mHeader.writeToString());
+    }
+}
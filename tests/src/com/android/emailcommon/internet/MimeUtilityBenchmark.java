@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.emailcommon.internet;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.mail.perf.Benchmark;
+
+import java.util.List;
+
+/**
+ * Benchmarks of decoding the headers of mailing list messages, whose subjects and senders are
+ * often in several encoded words, folded over several lines. See {@link Benchmark} for how
+ * results are reported and compared.
+ */
+@LargeTest
+public class MimeUtilityBenchmark extends AndroidTestCase {
+    /** The headers of one message that are decoded for display. */
+    private static final String[] HEADERS = {
+        "[android-dev] =?UTF-8?Q?Re:_Probl=C3=A8me_avec_le_t=C3=A9l=C3=A9chargement?=\r\n"
+                + " =?UTF-8?Q?_des_pi=C3=A8ces_jointes?=",
+        "=?UTF-8?B?5bK45pys?= =?UTF-8?B?5aSq6YOO?= <taro@example.co.jp>",
+        "android-dev@example.com",
+        "=?ISO-8859-1?Q?J=F6rg_M=FCller?= <joerg@example.de>, \"Ann\" <ann@example.com>",
+        "=?iso-2022-jp?B?GyRCNF9LXBsoQg==?= <kishimoto@example.co.jp>",
+        "Weekly digest, vol 42, issue 7",
+        "=?UTF-8?B?0JXQttC10L3QtdC00LXQu9GM0L3Ri9C5INC+0YLRh9GR0YI=?=",
+        "=?windows-1252?Q?=93Quoted=94_and_=96_dashed?=",
+        "attachment; filename=\"=?UTF-8?Q?r=C3=A9sum=C3=A9.pdf?=\"",
+        "Android developers <android-dev.example.com>",
+    };
+
+    private final Benchmark mBenchmark = new Benchmark();
+
+    /**
+     * Measures unfolding and decoding the headers of a message. One operation decodes every
+     * header in {@link #HEADERS}.
+     */
+    public void testUnfoldAndDecode() {
+        mBenchmark.measure("MimeUtility.unfoldAndDecode", HEADERS.length, new Benchmark.Body() {
+            @Override
+            public void run(int ops) {
+                for (int i = 0; i < ops; i++) {
+                    for (String header : HEADERS) {
+                        MimeUtility.unfoldAndDecode(header);
+                    }
+                }
+            }
+        });
+        final List<String> regressions = mBenchmark.report();
+        if (Benchmark.isStrict()) {
+            assertTrue(regressions.toString(), regressions.isEmpty());
+        }
+    }
+}
@@ -97,6 +97,40 @@ public class AddressUnitTests extends AndroidTestCase {
         DecoderUtil.decodeEncodedWords(body2);
     }
 
+    /**
+     * Adjacent encoded words in the same charset are decoded together, so a character split
+     * across them survives, and the whitespace between them is dropped.
+     */
+    @SmallTest
+    public void testAdjacentEncodedWords() {
+        assertEquals("\u20AC", DecoderUtil.decodeEncodedWords("=?UTF-8?B?4oI=?= =?UTF-8?B?rA==?="));
+        assertEquals("[list] \u20AC10",
+                DecoderUtil.decodeEncodedWords("[list] =?utf-8?Q?=E2=82?=\r\n =?UTF-8?q?=AC10?="));
+        assertEquals("caf\u00E9 \u00E9t\u00E9", DecoderUtil.decodeEncodedWords(
+                "=?UTF-8?Q?caf=C3=A9_?= =?ISO-8859-1?Q?=E9t=E9?="));
+        // Whitespace is kept around words that can't be decoded
+        assertEquals("a =?x-unknown?Q?b?= c", DecoderUtil.decodeEncodedWords(
+                "=?UTF-8?Q?a?= =?x-unknown?Q?b?= =?UTF-8?Q?c?="));
+        assertEquals("a b", DecoderUtil.decodeEncodedWords("=?UTF-8?Q?a?= b"));
+    }
+
+    /**
+     * A run of words too long for the decoder's buffers grows them, and words decoded after it
+     * are unaffected once they shrink back.
+     */
+    @SmallTest
+    public void testLongEncodedWordRun() {
+        final StringBuilder encoded = new StringBuilder();
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            // the whitespace between the words is dropped, the encoded '_' is kept
+            encoded.append(i > 0 ? " " : "").append("=?UTF-8?Q?caf=C3=A9_?=");
+            expected.append("caf\u00E9 ");
+        }
+        assertEquals(expected.toString(), DecoderUtil.decodeEncodedWords(encoded.toString()));
+        assertEquals("\u20AC", DecoderUtil.decodeEncodedWords("=?UTF-8?B?4oKs?="));
+    }
+
     @SmallTest
     public void testEncodedWord() {
         final String body = "=?UTF-8?B?Foobar?=";
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.emailcommon.utility;
+
+import android.os.SystemClock;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
+
+import com.android.mail.utils.LogUtils;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class SearchTermMatcherTest extends TestCase {
+    private static final String START = "<span style=\"background-color: "
+            + TextUtilities.HIGHLIGHT_COLOR_STRING + "\">";
+    private static final String END = "</span>";
+
+    public void testCompileIsCached() {
+        final SearchTermMatcher first = SearchTermMatcher.compile("foo bar");
+        assertSame(first, SearchTermMatcher.compile("foo bar"));
+        assertNotSame(first, SearchTermMatcher.compile("foo"));
+        assertTrue(SearchTermMatcher.compile("  ").isEmpty());
+        assertTrue(SearchTermMatcher.compile(null).isEmpty());
+    }
+
+    public void testHighlightHtml() {
+        assertEquals("a " + START + "Dog" + END + " and a " + START + "dog" + END,
+                TextUtilities.highlightTermsInHtml("a Dog and a dog", "dog"));
+        // Tags are never searched
+        assertEquals("<dog>" + START + "dog" + END + "</dog>",
+                TextUtilities.highlightTermsInHtml("<dog>dog</dog>", "dog"));
+        // Nor is the content of stripped tags
+        assertEquals("<style>dog</style>" + START + "dog" + END,
+                TextUtilities.highlightTermsInHtml("<style>dog</style>dog", "dog"));
+        // Matches don't span tags
+        assertEquals("do<b>g</b>", TextUtilities.highlightTermsInHtml("do<b>g</b>", "dog"));
+        // No terms
+        assertEquals("<b>dog</b>", TextUtilities.highlightTermsInHtml("<b>dog</b>", " "));
+    }
+
+    public void testOverlappingTermsAreMerged() {
+        assertEquals(START + "abcab" + END + " x",
+                TextUtilities.highlightTermsInHtml("abcab x", "abc cab"));
+        assertEquals("u" + START + "shers" + END,
+                TextUtilities.highlightTermsInHtml("ushers", "he she hers"));
+    }
+
+    public void testHighlightText() {
+        final CharSequence result = TextUtilities.highlightTermsInText("one Two three", "two");
+        assertEquals("one Two three", result.toString());
+        final Spanned spanned = (Spanned) result;
+        final BackgroundColorSpan[] spans =
+                spanned.getSpans(0, spanned.length(), BackgroundColorSpan.class);
+        assertEquals(1, spans.length);
+        assertEquals(4, spanned.getSpanStart(spans[0]));
+        assertEquals(7, spanned.getSpanEnd(spans[0]));
+    }
+
+    @LargeTest
+    public void testBenchmark() {
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            body.append("<p>Lorem <b>ipsum</b> dolor sit amet, consectetur ")
+                    .append("adipiscing elit ").append(i).append("</p>");
+        }
+        final String html = body.toString();
+        final String[] words = {"lorem", "ipsum", "dolor", "sit", "amet", "consectetur",
+                "adipiscing", "elit", "sed", "do", "eiusmod", "tempor", "incididunt", "ut",
+                "labore", "et", "dolore", "magna", "aliqua", "enim"};
+        for (int terms : new int[] {1, 5, 20}) {
+            final StringBuilder query = new StringBuilder();
+            for (int i = 0; i < terms; i++) {
+                query.append(words[i]).append(' ');
+            }
+            final long start = SystemClock.elapsedRealtime();
+            for (int i = 0; i < 10; i++) {
+                TextUtilities.highlightTermsInHtml(html, query.toString());
+            }
+            LogUtils.i(LogUtils.TAG, "highlightTermsInHtml: %d terms, %d chars: %d ms/run",
+                    terms, html.length(), (SystemClock.elapsedRealtime() - start) / 10);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.bitmap;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+@SmallTest
+public class AvatarDiskCacheTest extends AndroidTestCase {
+    private static final long MAX_BYTES = 64 * 1024;
+
+    private File mFile;
+    private AvatarDiskCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "avatars-test");
+        mFile.delete();
+        mCache = open(0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.close();
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private AvatarDiskCache open(long contactsUpdatedMs) {
+        final AvatarDiskCache cache = new AvatarDiskCache(mFile, MAX_BYTES, null);
+        cache.open(contactsUpdatedMs);
+        return cache;
+    }
+
+    private AvatarDiskCache reopen(long contactsUpdatedMs) {
+        mCache.close();
+        mCache = open(contactsUpdatedMs);
+        return mCache;
+    }
+
+    private static Bitmap createPhoto(int size, int color) {
+        final Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        return bitmap;
+    }
+
+    public void testSmallPhotosAreExact() {
+        mCache.put("a@example.com", 48, 48, createPhoto(48, Color.RED), 48, 48);
+        AvatarDiskCache.Entry entry = mCache.get("a@example.com", 48, 48);
+        assertNotNull(entry);
+        assertEquals(48, entry.bitmap.getWidth());
+        assertEquals(Color.RED, entry.bitmap.getPixel(10, 10));
+
+        // Other sizes are other entries
+        assertNull(mCache.get("a@example.com", 96, 96));
+
+        // Survives a restart
+        entry = reopen(0).get("a@example.com", 48, 48);
+        assertNotNull(entry);
+        assertEquals(Color.RED, entry.bitmap.getPixel(47, 47));
+    }
+
+    public void testLargePhotosAreCompressed() {
+        mCache.put("a@example.com", 96, 96, createPhoto(96, Color.BLUE), 96, 96);
+        assertTrue(mFile.length() < 96 * 96 * 4);
+        final AvatarDiskCache.Entry entry = reopen(0).get("a@example.com", 96, 96);
+        assertNotNull(entry);
+        assertEquals(96, entry.bitmap.getHeight());
+    }
+
+    public void testOnlyTheLogicalSizeIsStored() {
+        // Pooled bitmaps may be larger than the photo they hold
+        mCache.put("a@example.com", 48, 48, createPhoto(96, Color.GREEN), 40, 40);
+        final AvatarDiskCache.Entry entry = mCache.get("a@example.com", 48, 48);
+        assertEquals(40, entry.bitmap.getWidth());
+        assertEquals(40, entry.bitmap.getHeight());
+    }
+
+    public void testNoPhoto() {
+        mCache.put("a@example.com", 48, 48, null, 0, 0);
+        final AvatarDiskCache.Entry entry = reopen(0).get("a@example.com", 48, 48);
+        assertNotNull(entry);
+        assertNull(entry.bitmap);
+    }
+
+    public void testLaterEntriesReplaceEarlierOnes() {
+        mCache.put("a@example.com", 48, 48, createPhoto(48, Color.RED), 48, 48);
+        mCache.put("a@example.com", 48, 48, createPhoto(48, Color.BLUE), 48, 48);
+        assertEquals(Color.BLUE, mCache.get("a@example.com", 48, 48).bitmap.getPixel(0, 0));
+        assertEquals(Color.BLUE,
+                reopen(0).get("a@example.com", 48, 48).bitmap.getPixel(0, 0));
+    }
+
+    public void testInvalidate() {
+        mCache.put("a@example.com", 48, 48, null, 0, 0);
+        mCache.invalidate();
+        assertNull(mCache.get("a@example.com", 48, 48));
+
+        mCache.put("b@example.com", 48, 48, null, 0, 0);
+        reopen(0);
+        assertNull(mCache.get("a@example.com", 48, 48));
+        assertNotNull(mCache.get("b@example.com", 48, 48));
+    }
+
+    public void testChangesThatDontTouchContactsAreIgnored() {
+        reopen(1000).put("a@example.com", 48, 48, null, 0, 0);
+        mCache.checkContacts(1000);
+        assertNotNull(mCache.get("a@example.com", 48, 48));
+
+        mCache.checkContacts(2000);
+        assertNull(mCache.get("a@example.com", 48, 48));
+
+        // Without a last update time, every change counts
+        mCache.put("b@example.com", 48, 48, null, 0, 0);
+        mCache.checkContacts(-1);
+        assertNull(mCache.get("b@example.com", 48, 48));
+    }
+
+    public void testContactsChangedSinceLastRun() {
+        reopen(1000).put("a@example.com", 48, 48, null, 0, 0);
+        assertNotNull(reopen(1000).get("a@example.com", 48, 48));
+        mCache.put("b@example.com", 48, 48, null, 0, 0);
+
+        reopen(2000);
+        assertNull(mCache.get("a@example.com", 48, 48));
+        assertNull(mCache.get("b@example.com", 48, 48));
+    }
+
+    public void testSizeIsBounded() {
+        // 9KB each, so only the latest few fit
+        for (int i = 0; i < 20; i++) {
+            mCache.put(i + "@example.com", 48, 48, createPhoto(48, Color.RED), 48, 48);
+        }
+        assertTrue(mFile.length() <= MAX_BYTES);
+        assertNotNull(mCache.get("19@example.com", 48, 48));
+        assertNull(mCache.get("0@example.com", 48, 48));
+
+        reopen(0);
+        assertNotNull(mCache.get("19@example.com", 48, 48));
+        assertNull(mCache.get("0@example.com", 48, 48));
+    }
+
+    public void testTruncatedEntryIsDropped() throws Exception {
+        mCache.put("a@example.com", 48, 48, null, 0, 0);
+        mCache.put("b@example.com", 48, 48, createPhoto(48, Color.RED), 48, 48);
+        mCache.close();
+        final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(file.length() - 100);
+        file.close();
+
+        mCache = open(0);
+        assertNotNull(mCache.get("a@example.com", 48, 48));
+        assertNull(mCache.get("b@example.com", 48, 48));
+
+        // New entries go after the last complete one
+        mCache.put("c@example.com", 48, 48, null, 0, 0);
+        assertNotNull(reopen(0).get("c@example.com", 48, 48));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.bitmap;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.bitmap.RequestKey;
+import com.android.bitmap.ReusableBitmap;
+import com.android.mail.bitmap.ContactResolver.ContactDrawableInterface;
+import com.android.mail.bitmap.ContactResolver.PendingRequest;
+import com.android.mail.perf.PerfMetrics;
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@SmallTest
+public class ContactResolverTest extends AndroidTestCase {
+    private final List<String> mDelivered = Collections.synchronizedList(
+            Lists.<String>newArrayList());
+
+    private final ContactDrawableInterface mDrawable = new ContactDrawableInterface() {
+        @Override
+        public void onDecodeComplete(RequestKey key, ReusableBitmap result) {
+            mDelivered.add(((ContactRequest) key).getEmail());
+        }
+
+        @Override
+        public int getDecodeWidth() {
+            return 48;
+        }
+
+        @Override
+        public int getDecodeHeight() {
+            return 48;
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        PerfMetrics.reset();
+        PerfMetrics.setEnabled(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        PerfMetrics.setEnabled(false);
+        super.tearDown();
+    }
+
+    /**
+     * Runs on the UI thread, which resolvers are used from, and waits for it to finish. Failures
+     * are thrown on the test thread.
+     */
+    private static void runOnUiThread(final Runnable runnable) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Throwable[] failure = new Throwable[1];
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (Throwable t) {
+                    failure[0] = t;
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        if (failure[0] instanceof Error) {
+            throw (Error) failure[0];
+        } else if (failure[0] != null) {
+            throw (RuntimeException) failure[0];
+        }
+    }
+
+    private static ContactRequest newRequest(String email) {
+        return new ContactRequest(email, email);
+    }
+
+    private static List<String> getEmails(List<PendingRequest> requests) {
+        final List<String> emails = Lists.newArrayList();
+        for (PendingRequest pending : requests) {
+            emails.add(pending.holder.getEmail());
+        }
+        return emails;
+    }
+
+    public void testEmailsWithoutPhotoAreNotQueriedAgain() throws Exception {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final ContactResolver resolver = new ContactResolver(null, null);
+                final long now = SystemClock.uptimeMillis();
+                resolver.rememberNoPhoto("a@example.com", now);
+                resolver.rememberNoPhoto("b@example.com",
+                        now - ContactResolver.NO_PHOTO_TTL_MS - 1);
+                resolver.add(newRequest("a@example.com"), mDrawable);
+                resolver.add(newRequest("b@example.com"), mDrawable);
+                resolver.add(newRequest("c@example.com"), mDrawable);
+
+                // a is answered right away, and b's answer has expired
+                final List<PendingRequest> batch = resolver.takeBatch();
+                assertEquals(Lists.newArrayList("b@example.com", "c@example.com"),
+                        getEmails(batch));
+                assertEquals(Lists.newArrayList("a@example.com"), mDelivered);
+                assertEquals(1, PerfMetrics.getCount(
+                        PerfMetrics.COUNT_CONTACT_PHOTO_NEGATIVE_HITS));
+            }
+        });
+    }
+
+    public void testRemovedRequestsAreNotDecoded() throws Exception {
+        final ContactRequest request = newRequest("a@example.com");
+        final List<PendingRequest> batch = Lists.newArrayList();
+        final ContactResolver[] resolver = new ContactResolver[1];
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                resolver[0] = new ContactResolver(null, null);
+                resolver[0].add(request, mDrawable);
+                batch.addAll(resolver[0].takeBatch());
+                // Its row is recycled while it is queried
+                resolver[0].remove(request, mDrawable);
+            }
+        });
+        final PendingRequest pending = batch.get(0);
+        assertTrue(pending.cancelled);
+
+        // The query found a photo, but it is dropped instead of decoded
+        resolver[0].decode(pending, new byte[] { 1, 2, 3 });
+        final long deadline = SystemClock.uptimeMillis() + 5000;
+        while (PerfMetrics.getCount(PerfMetrics.COUNT_CONTACT_PHOTO_DECODES_CANCELLED) == 0
+                && SystemClock.uptimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, PerfMetrics.getCount(PerfMetrics.COUNT_CONTACT_PHOTO_DECODES_CANCELLED));
+        assertNull(request.bytes);
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                // Nothing was posted for it
+            }
+        });
+        assertTrue(mDelivered.isEmpty());
+    }
+
+    public void testDecodesLatestLayoutPassFirstAcrossResolvers() throws Exception {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final ContactResolver conversations = new ContactResolver(null, null);
+                final ContactResolver accounts = new ContactResolver(null, null);
+                conversations.add(newRequest("a@example.com"), mDrawable);
+                conversations.add(newRequest("b@example.com"), mDrawable);
+                accounts.add(newRequest("c@example.com"), mDrawable);
+
+                // The end of a layout pass, seen by any resolver, moves them all on
+                new ContactResolver(null, null).run();
+                conversations.add(newRequest("d@example.com"), mDrawable);
+                accounts.add(newRequest("e@example.com"), mDrawable);
+
+                final List<PendingRequest> decodes = Lists.newArrayList();
+                decodes.addAll(accounts.takeBatch());
+                decodes.addAll(conversations.takeBatch());
+                Collections.sort(decodes, ContactResolver.DECODE_ORDER);
+                assertEquals(Lists.newArrayList("d@example.com", "e@example.com",
+                        "a@example.com", "b@example.com", "c@example.com"), getEmails(decodes));
+            }
+        });
+    }
+}
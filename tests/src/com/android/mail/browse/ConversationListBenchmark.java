@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import android.app.Activity;
+import android.content.Context;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.text.SpannableString;
+
+import com.android.mail.perf.Benchmark;
+import com.android.mail.providers.Account;
+import com.android.mail.providers.Conversation;
+import com.android.mail.providers.ConversationInfo;
+import com.android.mail.providers.UIProvider;
+import com.android.mail.providers.protos.mock.GeneratedCursor;
+import com.android.mail.providers.protos.mock.SyntheticMailbox;
+import com.android.mail.providers.protos.mock.SyntheticUiProvider;
+import com.google.common.collect.Lists;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks of the paths that the conversation list takes for every row, at 1k, 10k and 100k
+ * conversations. See {@link Benchmark} for how results are reported and compared.
+ * <p>
+ * Most benchmarks read a {@link GeneratedCursor} that repeats {@link #DISTINCT_ROWS} synthetic
+ * conversations with their own ids and uris, so large lists don't need large amounts of memory
+ * or time to generate. The local delete benchmark goes through the synthetic provider instead,
+ * since it needs a whole {@link ConversationCursor}.
+ */
+@LargeTest
+public class ConversationListBenchmark extends AndroidTestCase {
+
+    private static final int[] ROWS = { 1000, 10000, 100000 };
+    private static final int DISTINCT_ROWS = 1000;
+    /** One conversation in this many is deleted locally in the local delete benchmark. */
+    private static final int DELETE_INTERVAL = 100;
+    /** How far the local delete benchmark moves the cursor at a time. */
+    private static final int MOVE_STRIDE = 7;
+
+    private final Benchmark mBenchmark = new Benchmark();
+    private SyntheticMailbox mPreviousMailbox;
+    /** The next row an operation works on. */
+    private int mNext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPreviousMailbox = SyntheticUiProvider.getMailbox();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyntheticUiProvider.setMailbox(mPreviousMailbox);
+        super.tearDown();
+    }
+
+    private static SyntheticMailbox createMailbox(int rows) {
+        return new SyntheticMailbox.Builder()
+                .setConversationCount(rows)
+                .setLabelsPerConversation(4)
+                .setMaxMessages(20)
+                .build();
+    }
+
+    /**
+     * Returns the rows of a list of conversations, where row {@code i} has the contents of
+     * conversation {@code i % DISTINCT_ROWS}.
+     */
+    private static GeneratedCursor.RowSource createConversations(final int rows) {
+        final SyntheticMailbox mailbox = createMailbox(Math.min(rows, DISTINCT_ROWS));
+        final Object[][] distinct = new Object[Math.min(rows, DISTINCT_ROWS)][];
+        for (int i = 0; i < distinct.length; i++) {
+            distinct[i] = new Object[UIProvider.CONVERSATION_PROJECTION.length];
+            mailbox.fillConversationRow(0, 0, i, distinct[i]);
+        }
+        final String[] uris = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            uris[i] = SyntheticMailbox.getConversationUri(0, 0, i);
+        }
+
+        return new GeneratedCursor.RowSource() {
+            @Override
+            public String[] getColumnNames() {
+                return UIProvider.CONVERSATION_PROJECTION;
+            }
+
+            @Override
+            public int getCount() {
+                return rows;
+            }
+
+            @Override
+            public void fillRow(int position, Object[] row) {
+                System.arraycopy(distinct[position % distinct.length], 0, row, 0, row.length);
+                row[UIProvider.CONVERSATION_ID_COLUMN] = position;
+                row[UIProvider.CONVERSATION_URI_COLUMN] = uris[position];
+            }
+        };
+    }
+
+    private static List<Conversation> createDistinctConversations() {
+        final GeneratedCursor cursor =
+                new GeneratedCursor(null, createConversations(DISTINCT_ROWS));
+        final List<Conversation> conversations = Lists.newArrayListWithCapacity(DISTINCT_ROWS);
+        while (cursor.moveToNext()) {
+            conversations.add(new Conversation(cursor));
+        }
+        cursor.close();
+        return conversations;
+    }
+
+    private void assertNoRegressions() {
+        final List<String> regressions = mBenchmark.report();
+        if (Benchmark.isStrict()) {
+            assertTrue(regressions.toString(), regressions.isEmpty());
+        }
+    }
+
+    /**
+     * Measures wrapping a list of conversations, which maps every conversation's uri and id to
+     * its position. One operation wraps the whole list.
+     */
+    public void testUnderlyingCursorWrapper() {
+        for (int rows : ROWS) {
+            final GeneratedCursor.RowSource conversations = createConversations(rows);
+            mBenchmark.measure("UnderlyingCursorWrapper", rows, new Benchmark.Body() {
+                @Override
+                public void run(int ops) {
+                    for (int i = 0; i < ops; i++) {
+                        new ConversationCursor.UnderlyingCursorWrapper(
+                                new GeneratedCursor(null, conversations), false).close();
+                    }
+                }
+            });
+        }
+        assertNoRegressions();
+    }
+
+    /**
+     * Measures moving a conversation cursor that has one conversation in
+     * {@link #DELETE_INTERVAL} deleted locally, as when a batch of conversations was just
+     * archived. One operation moves the cursor {@link #MOVE_STRIDE} rows ahead, starting over at
+     * the end.
+     */
+    public void testMoveToPositionWithLocalDeletes() {
+        final Context context = getContext();
+        final Activity activity = new Activity() {
+            {
+                attachBaseContext(context);
+            }
+        };
+        final ConversationCursor.ConversationProvider provider = ConversationCursor.sProvider;
+        assertNotNull(provider);
+
+        for (final int rows : ROWS) {
+            SyntheticUiProvider.setMailbox(createMailbox(rows));
+            final ConversationCursor cursor = new ConversationCursor(activity,
+                    Uri.parse(SyntheticMailbox.getFolderUri(0, 0) + "/conversations"), false,
+                    "benchmark");
+            cursor.load();
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = DELETE_INTERVAL / 2; i < rows; i += DELETE_INTERVAL) {
+                        final Uri uri = Uri.parse(SyntheticMailbox.getConversationUri(0, 0, i));
+                        provider.deleteLocal(uri, cursor, null);
+                    }
+                }
+            });
+            final int count = cursor.getCount();
+            assertEquals(rows - rows / DELETE_INTERVAL, count);
+
+            mNext = 0;
+            mBenchmark.measure("ConversationCursor.moveToPosition", rows, new Benchmark.Body() {
+                @Override
+                public void run(int ops) {
+                    for (int i = 0; i < ops; i++) {
+                        mNext = (mNext + MOVE_STRIDE) % count;
+                        cursor.moveToPosition(mNext);
+                    }
+                }
+            });
+            cursor.close();
+        }
+        assertNoRegressions();
+    }
+
+    /**
+     * Measures making a conversation from a row of the conversation list.
+     */
+    public void testConversationFromCursor() {
+        for (int rows : ROWS) {
+            final GeneratedCursor cursor = new GeneratedCursor(null, createConversations(rows));
+            final int count = cursor.getCount();
+            mNext = 0;
+            mBenchmark.measure("Conversation(Cursor)", rows, new Benchmark.Body() {
+                @Override
+                public void run(int ops) {
+                    for (int i = 0; i < ops; i++) {
+                        cursor.moveToPosition(mNext++ % count);
+                        new Conversation(cursor);
+                    }
+                }
+            });
+            cursor.close();
+        }
+        assertNoRegressions();
+    }
+
+    /**
+     * Measures decoding the conversation info of a row of the conversation list.
+     */
+    public void testConversationInfoFromBlob() {
+        for (int rows : ROWS) {
+            final GeneratedCursor cursor = new GeneratedCursor(null, createConversations(rows));
+            final int count = cursor.getCount();
+            mNext = 0;
+            mBenchmark.measure("ConversationInfo.fromBlob", rows, new Benchmark.Body() {
+                @Override
+                public void run(int ops) {
+                    for (int i = 0; i < ops; i++) {
+                        cursor.moveToPosition(mNext++ % count);
+                        ConversationInfo.fromBlob(
+                                cursor.getBlob(UIProvider.CONVERSATION_INFO_COLUMN));
+                    }
+                }
+            });
+            cursor.close();
+        }
+        assertNoRegressions();
+    }
+
+    /**
+     * Measures formatting the senders of a conversation for its list item.
+     */
+    public void testSendersFormat() {
+        final Context context = getContext();
+        final Account account = createAccount();
+        final List<Conversation> conversations = createDistinctConversations();
+        final ArrayList<SpannableString> styledSenders = Lists.newArrayList();
+        for (final int rows : ROWS) {
+            mNext = 0;
+            mBenchmark.measure("SendersView.format", rows, new Benchmark.Body() {
+                @Override
+                public void run(int ops) {
+                    for (int i = 0; i < ops; i++) {
+                        final Conversation conversation =
+                                conversations.get(mNext++ % rows % conversations.size());
+                        styledSenders.clear();
+                        SendersView.format(context, conversation.conversationInfo, "", 100,
+                                styledSenders, null, null, account, false, true);
+                    }
+                }
+            });
+        }
+        assertNoRegressions();
+    }
+
+    /**
+     * Measures checking whether the view model of a list item is still valid, which hashes the
+     * conversation's state on every bind.
+     */
+    public void testViewModelStateHashing() {
+        final List<Conversation> conversations = createDistinctConversations();
+        for (int rows : ROWS) {
+            final ConversationItemViewModel[] models = new ConversationItemViewModel[rows];
+            for (int i = 0; i < rows; i++) {
+                models[i] = new ConversationItemViewModel();
+                models[i].conversation = conversations.get(i % conversations.size());
+                models[i].dateText = "Jan 1";
+                models[i].validate();
+            }
+            mNext = 0;
+            mBenchmark.measure("ConversationItemViewModel.isDataValid", rows,
+                    new Benchmark.Body() {
+                        @Override
+                        public void run(int ops) {
+                            for (int i = 0; i < ops; i++) {
+                                assertTrue(models[mNext++ % models.length].isDataValid());
+                            }
+                        }
+                    });
+        }
+        assertNoRegressions();
+    }
+
+    private static Account createAccount() {
+        try {
+            final Map<String, Object> map = new HashMap<>(2);
+            map.put(UIProvider.AccountColumns.NAME, "Fred Flintstone");
+            map.put(UIProvider.AccountColumns.ACCOUNT_MANAGER_NAME, "fflintstone@example.com");
+            map.put(UIProvider.AccountColumns.TYPE, "IMAP");
+            map.put(UIProvider.AccountColumns.PROVIDER_VERSION, 1);
+            map.put(UIProvider.AccountColumns.CAPABILITIES, 0);
+            return Account.builder().buildFrom(new JSONObject(map));
+        } catch (JSONException je) {
+            throw new RuntimeException(je);
+        }
+    }
+}
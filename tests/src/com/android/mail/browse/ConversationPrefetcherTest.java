@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.mail.perf.PerfMetrics;
+import com.android.mail.providers.UIProvider;
+import com.google.common.collect.ImmutableList;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SmallTest
+public class ConversationPrefetcherTest extends AndroidTestCase {
+    private static final String AUTHORITY = "com.android.mail.prefetch.test";
+    private static final Uri MESSAGES_1 = Uri.parse("content://" + AUTHORITY + "/messages/1");
+    private static final Uri MESSAGES_2 = Uri.parse("content://" + AUTHORITY + "/messages/2");
+
+    private MockContentResolver mResolver;
+    private final AtomicInteger mQueries = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        PerfMetrics.reset();
+        PerfMetrics.setEnabled(true);
+        mResolver = new MockContentResolver();
+        mResolver.addProvider(AUTHORITY, new MockContentProvider() {
+            @Override
+            public Cursor query(Uri uri, String[] projection, String selection,
+                    String[] selectionArgs, String sortOrder) {
+                mQueries.incrementAndGet();
+                return new MatrixCursor(UIProvider.MESSAGE_PROJECTION);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ConversationPrefetcher.cancelAll();
+        PerfMetrics.setEnabled(false);
+        super.tearDown();
+    }
+
+    public void testPrefetchesAreClaimedOnce() {
+        ConversationPrefetcher.prefetch(mResolver, ImmutableList.of(MESSAGES_1), null);
+        final MessageCursor cursor = ConversationPrefetcher.take(MESSAGES_1);
+        assertNotNull(cursor);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+
+        assertNull(ConversationPrefetcher.take(MESSAGES_1));
+        assertEquals(1, mQueries.get());
+    }
+
+    public void testPrefetchingOtherConversationsCancels() {
+        ConversationPrefetcher.prefetch(mResolver, ImmutableList.of(MESSAGES_1), null);
+        ConversationPrefetcher.prefetch(mResolver, ImmutableList.of(MESSAGES_2), null);
+        assertNull(ConversationPrefetcher.take(MESSAGES_1));
+
+        final MessageCursor cursor = ConversationPrefetcher.take(MESSAGES_2);
+        assertNotNull(cursor);
+        cursor.close();
+    }
+
+    public void testCancelAll() {
+        ConversationPrefetcher.prefetch(mResolver, ImmutableList.of(MESSAGES_1, MESSAGES_2), null);
+        ConversationPrefetcher.cancelAll();
+        assertNull(ConversationPrefetcher.take(MESSAGES_1));
+        assertNull(ConversationPrefetcher.take(MESSAGES_2));
+    }
+
+    public void testPagingToPrefetchedNeighborKeepsItsPrefetch() {
+        // viewing 1, with 2 next to it
+        ConversationPrefetcher.prefetch(mResolver, ImmutableList.of(MESSAGES_2), MESSAGES_1);
+        // paging to 2 makes 1 its neighbor before 2's message loader has run
+        ConversationPrefetcher.prefetch(mResolver, ImmutableList.of(MESSAGES_1), MESSAGES_2);
+
+        final MessageCursor cursor = ConversationPrefetcher.take(MESSAGES_2);
+        assertNotNull(cursor);
+        cursor.close();
+        assertEquals(1, PerfMetrics.getCount(PerfMetrics.COUNT_CONVERSATION_PREFETCH_HITS));
+        assertEquals(0, PerfMetrics.getCount(PerfMetrics.COUNT_CONVERSATION_PREFETCHES_DROPPED));
+    }
+
+    public void testCurrentConversationIsNotPrefetched() {
+        ConversationPrefetcher.prefetch(mResolver, ImmutableList.<Uri>of(), MESSAGES_1);
+        assertNull(ConversationPrefetcher.take(MESSAGES_1));
+        assertEquals(0, mQueries.get());
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.mail.providers.UIProvider.ConversationColumns;
+import com.android.mail.providers.UIProvider.ConversationOperations;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+@SmallTest
+public class ConversationWriteQueueTest extends AndroidTestCase {
+    private static final String AUTHORITY = "com.android.mail.writequeue.test";
+    private static final Uri CONVERSATION_1 = Uri.parse("content://" + AUTHORITY + "/conv/1");
+    private static final Uri CONVERSATION_2 = Uri.parse("content://" + AUTHORITY + "/conv/2");
+
+    private RecordingProvider mProvider;
+    private HandlerThread mThread;
+    private ConversationWriteQueue mQueue;
+
+    /** Records the writes it receives, as "update uri values" or "delete uri". */
+    private static class RecordingProvider extends ContentProvider {
+        final List<String> mWrites = Lists.newArrayList();
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            mWrites.add("insert " + uri);
+            return uri;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            mWrites.add("delete " + uri);
+            return 1;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                String[] selectionArgs) {
+            // sorted, so the expectations don't depend on hash order
+            final Map<String, Object> sorted = new TreeMap<String, Object>();
+            for (String key : values.keySet()) {
+                sorted.put(key, values.get(key));
+            }
+            mWrites.add("update " + uri + " " + sorted);
+            return 1;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mProvider = new RecordingProvider();
+        mProvider.attachInfo(getContext(), null);
+        final MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(AUTHORITY, mProvider);
+        // A looper that has quit, so writes are only sent when the test flushes
+        mThread = new HandlerThread("ConversationWriteQueueTest");
+        mThread.start();
+        mThread.quit();
+        mQueue = new ConversationWriteQueue(resolver, mThread.getLooper());
+    }
+
+    private static ContentValues values(String column, int value) {
+        final ContentValues values = new ContentValues(1);
+        values.put(column, value);
+        return values;
+    }
+
+    private void update(Uri conversation, String column, int value) {
+        mQueue.enqueueUpdate(AUTHORITY, conversation.toString(), conversation,
+                values(column, value), null);
+    }
+
+    public void testUpdatesAreCoalesced() {
+        update(CONVERSATION_1, ConversationColumns.STARRED, 1);
+        mQueue.enqueue(AUTHORITY, CONVERSATION_2.toString(),
+                ContentProviderOperation.newDelete(CONVERSATION_2).build(), null);
+        update(CONVERSATION_1, ConversationColumns.STARRED, 0);
+        update(CONVERSATION_1, ConversationColumns.READ, 1);
+        assertEquals(2, mQueue.getPendingCount());
+
+        mQueue.flush();
+        assertEquals(0, mQueue.getPendingCount());
+        assertEquals(Lists.newArrayList(
+                "update " + CONVERSATION_1 + " {read=1, starred=0}",
+                "delete " + CONVERSATION_2), mProvider.mWrites);
+    }
+
+    public void testCoalescingKeepsOrder() {
+        update(CONVERSATION_1, ConversationColumns.STARRED, 1);
+        mQueue.enqueue(AUTHORITY, CONVERSATION_1.toString(),
+                ContentProviderOperation.newUpdate(CONVERSATION_1)
+                        .withValue(ConversationOperations.OPERATION_KEY,
+                                ConversationOperations.ARCHIVE).build(), null);
+        update(CONVERSATION_1, ConversationColumns.STARRED, 0);
+        assertEquals(3, mQueue.getPendingCount());
+    }
+
+    public void testOnlyPlainColumnsAreCoalescable() {
+        assertTrue(ConversationWriteQueue.isCoalescable(values(ConversationColumns.SEEN, 1)));
+        assertFalse(ConversationWriteQueue.isCoalescable(
+                values(ConversationColumns.FOLDERS_UPDATED, 1)));
+        assertFalse(ConversationWriteQueue.isCoalescable(new ContentValues()));
+    }
+
+    public void testFailuresAreReported() {
+        final Uri unknown = Uri.parse("content://com.android.mail.unknown/conv/3");
+        final List<Set<String>> failures = Lists.newArrayList();
+        mQueue.enqueueUpdate(unknown.getAuthority(), unknown.toString(), unknown,
+                values(ConversationColumns.STARRED, 1),
+                new ConversationWriteQueue.FailureListener() {
+                    @Override
+                    public void onWritesFailed(Set<String> conversationUris) {
+                        failures.add(conversationUris);
+                    }
+                });
+        update(CONVERSATION_1, ConversationColumns.STARRED, 1);
+
+        mQueue.flush();
+        assertEquals(Lists.newArrayList(ImmutableSet.of(unknown.toString())), failures);
+        // the other authority's writes still went through
+        assertEquals(1, mProvider.mWrites.size());
+    }
+}
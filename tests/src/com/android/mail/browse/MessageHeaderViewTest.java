@@ -17,15 +17,20 @@
 
 package com.android.mail.browse;
 
+import android.os.SystemClock;
 import android.support.v4.text.BidiFormatter;
 import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
 import android.test.suitebuilder.annotation.SmallTest;
 
 import com.android.emailcommon.mail.Address;
+import com.android.mail.utils.LogUtils;
+import com.android.mail.utils.VeiledAddressMatcher;
 
 import java.util.HashMap;
 
 public class MessageHeaderViewTest extends AndroidTestCase {
+    private static final String VEILED_PATTERN = "veiled-.*@bar\\.com";
 
     @SmallTest
     public void testRecipientSummaryLongTo() {
@@ -64,6 +69,39 @@ public class MessageHeaderViewTest extends AndroidTestCase {
         return arr;
     }
 
+    @SmallTest
+    public void testVeiledAddressMatcher() {
+        final VeiledAddressMatcher matcher = VeiledAddressMatcher.newInstance(VEILED_PATTERN);
+        assertTrue(matcher.isVeiledAddress("veiled-1@bar.com"));
+        // Second lookup is served from the memo, and must agree
+        assertTrue(matcher.isVeiledAddress("veiled-1@bar.com"));
+        assertFalse(matcher.isVeiledAddress("real@bar.com"));
+        assertFalse(matcher.isVeiledAddress(null));
+    }
+
+    /**
+     * Renders the recipient summary of every message in a 200 message thread that has 500
+     * participants, half of them veiled.
+     */
+    @LargeTest
+    public void testRecipientSummaryBenchmark() {
+        final VeiledAddressMatcher matcher = VeiledAddressMatcher.newInstance(VEILED_PATTERN);
+        final String[] to = new String[250];
+        final String[] cc = new String[250];
+        for (int i = 0; i < to.length; i++) {
+            to[i] = String.format("\"TO%03d\" <veiled-%03d@bar.com>", i, i);
+            cc[i] = String.format("\"CC%03d\" <real-%03d@bar.com>", i, i);
+        }
+        final HashMap<String, Address> addressCache = new HashMap<String, Address>();
+        final long start = SystemClock.elapsedRealtime();
+        for (int message = 0; message < 200; message++) {
+            MessageHeaderView.getRecipientSummaryText(getContext(), "", "", to, cc, null,
+                    addressCache, matcher, BidiFormatter.getInstance());
+        }
+        LogUtils.i(LogUtils.TAG, "Recipient summaries for 200 messages, 500 participants: %d ms",
+                SystemClock.elapsedRealtime() - start);
+    }
+
     @SmallTest
     public void testMakeSnippet() {
         assertSnippetEquals("Hello, world!",
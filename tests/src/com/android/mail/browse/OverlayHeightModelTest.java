@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.mail.browse.ConversationViewAdapter.MessageHeaderItem;
+import com.android.mail.providers.UIProvider;
+
+public class OverlayHeightModelTest extends AndroidTestCase {
+
+    @SmallTest
+    public void testSameConfigurationSharesHeight() {
+        final OverlayHeightModel model = new OverlayHeightModel();
+        model.setWidth(480);
+
+        final MessageHeaderItem first = newHeader(1, true /* expanded */, null);
+        assertEquals(OverlayHeightModel.UNKNOWN, model.getEstimate(first));
+        model.put(first, 100);
+        assertEquals(100, model.getEstimate(newHeader(2, true, null)));
+
+        // a different configuration is measured separately
+        assertEquals(OverlayHeightModel.UNKNOWN, model.getEstimate(newHeader(3, false, null)));
+
+        // changing the width discards everything
+        model.setWidth(320);
+        assertEquals(OverlayHeightModel.UNKNOWN, model.getEstimate(newHeader(4, true, null)));
+    }
+
+    @SmallTest
+    public void testVariableContentIsNotCached() {
+        final OverlayHeightModel model = new OverlayHeightModel();
+        final MessageHeaderItem warned = newHeader(1, true, "spam!");
+        model.put(warned, 100);
+        assertEquals(OverlayHeightModel.UNKNOWN, model.getEstimate(warned));
+
+        // the warning is hidden while collapsed, so collapsed headers are cacheable
+        final MessageHeaderItem collapsed = newHeader(2, false, "spam!");
+        model.put(collapsed, 50);
+        assertEquals(50, model.getEstimate(newHeader(3, false, null)));
+    }
+
+    @SmallTest
+    public void testEachAttributeIsItsOwnConfiguration() {
+        final OverlayHeightModel model = new OverlayHeightModel();
+        model.put(newHeader(1, false, null, false /* hasAttachments */), 50);
+        assertEquals(OverlayHeightModel.UNKNOWN,
+                model.getEstimate(newHeader(2, false, null, true /* hasAttachments */)));
+        model.put(newHeader(3, false, null, true), 60);
+        assertEquals(50, model.getEstimate(newHeader(4, false, null, false)));
+        assertEquals(60, model.getEstimate(newHeader(5, false, null, true)));
+    }
+
+    @SmallTest
+    public void testLongThreadNeedsFewMeasurements() {
+        final OverlayHeightModel model = new OverlayHeightModel();
+        model.setWidth(480);
+        final int count = 200;
+        for (int i = 0; i < count; i++) {
+            final MessageHeaderItem header = newHeader(i, i == count - 1 || i % 7 == 0, null);
+            for (ConversationOverlayItem item : new ConversationOverlayItem[] {
+                    header, ConversationViewAdapter.newMessageFooterItem(null, header) }) {
+                if (model.getEstimate(item) == OverlayHeightModel.UNKNOWN) {
+                    model.put(item, 100);
+                }
+            }
+        }
+        assertTrue(model.getMeasurementCount() < 10);
+        assertEquals(2 * count - model.getMeasurementCount(), model.getEstimateCount());
+    }
+
+    private static MessageHeaderItem newHeader(long id, boolean expanded, String spamWarning) {
+        return newHeader(id, expanded, spamWarning, false /* hasAttachments */);
+    }
+
+    private static MessageHeaderItem newHeader(long id, boolean expanded, String spamWarning,
+            boolean hasAttachments) {
+        final MatrixCursor cursor = new MatrixCursor(UIProvider.MESSAGE_PROJECTION);
+        final Object[] row = new Object[UIProvider.MESSAGE_PROJECTION.length];
+        row[UIProvider.MESSAGE_ID_COLUMN] = id;
+        row[UIProvider.MESSAGE_URI_COLUMN] = "content://test/message/" + id;
+        row[UIProvider.MESSAGE_FROM_COLUMN] = "\"Sender " + id + "\" <sender" + id + "@foo.com>";
+        row[UIProvider.MESSAGE_SPAM_WARNING_STRING_ID_COLUMN] = spamWarning;
+        row[UIProvider.MESSAGE_HAS_ATTACHMENTS_COLUMN] = hasAttachments ? 1 : 0;
+        cursor.addRow(row);
+        cursor.moveToFirst();
+        final ConversationMessage msg = ConversationMessage.FACTORY.createFromCursor(cursor);
+        cursor.close();
+        return ConversationViewAdapter.newMessageHeaderItem(null, null, msg, expanded,
+                false /* showImages */);
+    }
+}
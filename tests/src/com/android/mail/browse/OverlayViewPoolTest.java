@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.view.View;
+
+import com.google.common.collect.Sets;
+
+import java.util.Set;
+
+@SmallTest
+public class OverlayViewPoolTest extends AndroidTestCase {
+
+    public void testPilesAreTypedAndBounded() {
+        final OverlayViewPool pool = new OverlayViewPool(3, 1);
+        pool.setCapacity(2, 2);
+        final View a = new View(getContext());
+        final View b = new View(getContext());
+        final View c = new View(getContext());
+
+        assertNull(pool.poll(0));
+        assertTrue(pool.offer(0, a));
+        assertFalse(pool.offer(0, b));
+        assertTrue(pool.offer(2, b));
+        assertTrue(pool.offer(2, c));
+        assertFalse(pool.offer(2, a));
+        assertEquals(2, pool.size(2));
+
+        // most recently recycled first
+        assertSame(c, pool.peek(2));
+        assertSame(c, pool.poll(2));
+        assertSame(b, pool.poll(2));
+        assertNull(pool.poll(2));
+        assertNull(pool.poll(1));
+        assertSame(a, pool.poll(0));
+    }
+
+    public void testShrinkingDropsViews() {
+        final OverlayViewPool pool = new OverlayViewPool(1, 3);
+        final View a = new View(getContext());
+        pool.offer(0, a);
+        pool.offer(0, new View(getContext()));
+        pool.setCapacity(0, 1);
+        assertEquals(1, pool.getCapacity(0));
+        assertEquals(1, pool.size(0));
+        assertSame(a, pool.poll(0));
+    }
+
+    public void testAddAllTo() {
+        final OverlayViewPool pool = new OverlayViewPool(2, 2);
+        final View a = new View(getContext());
+        final View b = new View(getContext());
+        pool.offer(0, a);
+        pool.offer(1, b);
+        final Set<View> views = Sets.newHashSet();
+        pool.addAllTo(views);
+        assertEquals(Sets.newHashSet(a, b), views);
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.perf;
+
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+
+import com.android.mail.utils.LogUtils;
+import com.google.common.collect.Lists;
+import com.google.common.io.CharStreams;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A small harness for benchmarks of the UI's hot paths, run as instrumentation tests on a device.
+ * <p>
+ * Each benchmark is timed in several passes after a warm up, and reports the median number of
+ * operations per second. The bytes allocated per operation are counted in a separate pass, since
+ * counting slows the operations down.
+ * <p>
+ * Results are compared with the baseline in the test apk's {@link #BASELINE_ASSET} and written to
+ * {@link #RESULTS_FILE} in the app's external files directory. To update the baseline, pull that
+ * file after a run and check it in as the asset. Regressions are only logged, unless the
+ * instrumentation is run with {@code -e benchmarkStrict true}, in which case they fail the test.
+ * A benchmark without a baseline is a regression in strict mode, so that a missing baseline
+ * can't pass for a clean run.
+ */
+public final class Benchmark {
+    private static final String LOG_TAG = "MailBenchmark";
+
+    public static final String BASELINE_ASSET = "benchmark_baseline.json";
+    public static final String RESULTS_FILE = "benchmark_results.json";
+    private static final String STRICT_ARGUMENT = "benchmarkStrict";
+
+    private static final long MIN_PASS_NS = 10 * 1000 * 1000;
+    private static final long WARMUP_NS = 500 * 1000 * 1000;
+    private static final int PASSES = 5;
+    /** How much slower, or how many more bytes, than the baseline is a regression. */
+    private static final double TOLERANCE = 0.2;
+
+    private static final String KEY_OPS_PER_SECOND = "opsPerSecond";
+    private static final String KEY_BYTES_PER_OP = "bytesPerOp";
+
+    private final List<Result> mResults = Lists.newArrayList();
+
+    /**
+     * The code being measured.
+     */
+    public interface Body {
+        /** Performs the operation being measured {@code ops} times. */
+        void run(int ops);
+    }
+
+    public static final class Result {
+        public final String name;
+        public final int rows;
+        public final double opsPerSecond;
+        public final long bytesPerOp;
+
+        Result(String name, int rows, double opsPerSecond, long bytesPerOp) {
+            this.name = name;
+            this.rows = rows;
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        public String getKey() {
+            return name + "@" + rows;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.1f ops/s, %d bytes/op", getKey(), opsPerSecond,
+                    bytesPerOp);
+        }
+    }
+
+    /**
+     * Measures a benchmark and keeps its result for {@link #report()}.
+     *
+     * @param name what is being measured
+     * @param rows the number of rows the benchmark works on
+     */
+    public Result measure(String name, int rows, Body body) {
+        // Find how many operations take long enough to time reliably
+        int ops = 1;
+        while (time(body, ops) < MIN_PASS_NS && ops < Integer.MAX_VALUE / 2) {
+            ops *= 2;
+        }
+
+        final long warmupEnd = System.nanoTime() + WARMUP_NS;
+        while (System.nanoTime() < warmupEnd) {
+            body.run(ops);
+        }
+
+        final double[] opsPerSecond = new double[PASSES];
+        for (int i = 0; i < PASSES; i++) {
+            opsPerSecond[i] = ops * 1e9 / time(body, ops);
+        }
+        Arrays.sort(opsPerSecond);
+
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        body.run(ops);
+        Debug.stopAllocCounting();
+        final long bytesPerOp = Debug.getThreadAllocSize() / ops;
+
+        final Result result = new Result(name, rows, opsPerSecond[PASSES / 2], bytesPerOp);
+        LogUtils.i(LOG_TAG, "%s", result);
+        mResults.add(result);
+        return result;
+    }
+
+    private static long time(Body body, int ops) {
+        System.gc();
+        SystemClock.sleep(10);
+        final long start = System.nanoTime();
+        body.run(ops);
+        return Math.max(System.nanoTime() - start, 1);
+    }
+
+    /**
+     * Compares the results measured so far with the baseline, reports them to the instrumentation
+     * and writes them to {@link #RESULTS_FILE}.
+     *
+     * @return a description of every regression, empty if there are none
+     */
+    public List<String> report() {
+        final JSONObject baseline = loadBaseline();
+        final JSONObject results = new JSONObject();
+        final List<String> regressions = Lists.newArrayList();
+        final boolean strict = isStrict();
+        final Bundle status = new Bundle();
+        try {
+            for (Result result : mResults) {
+                final String key = result.getKey();
+                final JSONObject json = new JSONObject();
+                json.put(KEY_OPS_PER_SECOND, result.opsPerSecond);
+                json.put(KEY_BYTES_PER_OP, result.bytesPerOp);
+                results.put(key, json);
+                status.putString(key, result.toString());
+
+                final JSONObject base = baseline.optJSONObject(key);
+                if (base == null) {
+                    LogUtils.i(LOG_TAG, "%s has no baseline", key);
+                    if (strict) {
+                        regressions.add(key + ": no baseline");
+                    }
+                    continue;
+                }
+                final double baseOps = base.getDouble(KEY_OPS_PER_SECOND);
+                final long baseBytes = base.getLong(KEY_BYTES_PER_OP);
+                if (result.opsPerSecond < baseOps * (1 - TOLERANCE)) {
+                    regressions.add(String.format("%s: %.1f ops/s, baseline %.1f", key,
+                            result.opsPerSecond, baseOps));
+                }
+                if (result.bytesPerOp > baseBytes * (1 + TOLERANCE) + 16) {
+                    regressions.add(String.format("%s: %d bytes/op, baseline %d", key,
+                            result.bytesPerOp, baseBytes));
+                }
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        for (String regression : regressions) {
+            LogUtils.w(LOG_TAG, "Regression: %s", regression);
+        }
+
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+        writeResults(results);
+        mResults.clear();
+        return regressions;
+    }
+
+    /**
+     * Whether regressions should fail the benchmark.
+     */
+    public static boolean isStrict() {
+        return Boolean.parseBoolean(
+                InstrumentationRegistry.getArguments().getString(STRICT_ARGUMENT));
+    }
+
+    private static JSONObject loadBaseline() {
+        try {
+            return readJson(new InputStreamReader(
+                    InstrumentationRegistry.getContext().getAssets().open(BASELINE_ASSET)));
+        } catch (IOException e) {
+            LogUtils.w(LOG_TAG, e, "No benchmark baseline");
+            return new JSONObject();
+        }
+    }
+
+    /**
+     * Adds results to the ones already in {@link #RESULTS_FILE}, so that the benchmarks of a run
+     * end up in one file.
+     */
+    private static void writeResults(JSONObject results) {
+        final File dir = InstrumentationRegistry.getTargetContext().getExternalFilesDir(null);
+        if (dir == null) {
+            LogUtils.w(LOG_TAG, "No external storage to write benchmark results to");
+            return;
+        }
+        final File file = new File(dir, RESULTS_FILE);
+        FileWriter writer = null;
+        try {
+            final JSONObject all =
+                    file.exists() ? readJson(new FileReader(file)) : new JSONObject();
+            final Iterator<String> keys = results.keys();
+            while (keys.hasNext()) {
+                final String key = keys.next();
+                all.put(key, results.get(key));
+            }
+            writer = new FileWriter(file);
+            writer.write(all.toString(2));
+        } catch (IOException e) {
+            LogUtils.w(LOG_TAG, e, "Unable to write benchmark results");
+        } catch (JSONException e) {
+            LogUtils.w(LOG_TAG, e, "Unable to write benchmark results");
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Reads and closes a JSON object, returning an empty object if it can't be parsed.
+     */
+    private static JSONObject readJson(Reader reader) throws IOException {
+        try {
+            return new JSONObject(CharStreams.toString(reader));
+        } catch (JSONException e) {
+            LogUtils.w(LOG_TAG, e, "Unable to parse benchmark results");
+            return new JSONObject();
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.perf;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@SmallTest
+public class PerfMetricsTest extends TestCase {
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        PerfMetrics.reset();
+        PerfMetrics.setEnabled(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        PerfMetrics.reset();
+        PerfMetrics.setEnabled(false);
+        PerfMetrics.setDetailed(false);
+        super.tearDown();
+    }
+
+    public void testBucketsCoverEveryValue() {
+        long previousHighest = -1;
+        for (int bucket = 0; bucket < 200; bucket++) {
+            final long highest = PerfMetrics.LatencyHistogram.getBucketHighestValue(bucket);
+            final long lowest = previousHighest + 1;
+            assertEquals(bucket, PerfMetrics.LatencyHistogram.getBucket(lowest));
+            assertEquals(bucket, PerfMetrics.LatencyHistogram.getBucket(highest));
+            // Every bucket is within 1/8 of its values
+            assertTrue(highest - lowest <= lowest / 8);
+            previousHighest = highest;
+        }
+    }
+
+    public void testPercentiles() {
+        for (int i = 1; i <= 100; i++) {
+            PerfMetrics.recordMillis(PerfMetrics.SANITIZE_HTML, i);
+        }
+        final PerfMetrics.LatencyHistogram histogram =
+                PerfMetrics.getHistogram(PerfMetrics.SANITIZE_HTML);
+        assertEquals(100, histogram.getCount());
+        assertEquals(100000, histogram.getMaxMicros());
+        assertEquals(50500, histogram.getMeanMicros());
+        assertEquals(50000, histogram.getPercentileMicros(50), 50000 / 8);
+        assertEquals(99000, histogram.getPercentileMicros(99), 99000 / 8);
+        assertEquals(100000, histogram.getPercentileMicros(100));
+    }
+
+    public void testDisabled() {
+        PerfMetrics.setEnabled(false);
+        final long start = PerfMetrics.start();
+        assertEquals(0, start);
+        PerfMetrics.stop(PerfMetrics.CURSOR_PRELOAD, start);
+        PerfMetrics.recordMillis(PerfMetrics.CURSOR_PRELOAD, 5);
+        PerfMetrics.increment(PerfMetrics.COUNT_ROWS_PRELOADED);
+        assertEquals(0, PerfMetrics.getHistogram(PerfMetrics.CURSOR_PRELOAD).getCount());
+        assertEquals(0, PerfMetrics.getCount(PerfMetrics.COUNT_ROWS_PRELOADED));
+    }
+
+    public void testDetailedPathsNeedDetailedSampling() {
+        assertEquals(0, PerfMetrics.startDetailed());
+        PerfMetrics.setDetailed(true);
+        assertTrue(PerfMetrics.startDetailed() != 0);
+        PerfMetrics.setEnabled(false);
+        assertEquals(0, PerfMetrics.startDetailed());
+    }
+
+    public void testDumpArgsSwitchSampling() {
+        PerfMetrics.applyDumpArgs(new String[] { PerfMetrics.DUMP_ARG, "off" });
+        assertFalse(PerfMetrics.isEnabled());
+        PerfMetrics.applyDumpArgs(new String[] { "-a", PerfMetrics.DUMP_ARG, "detailed" });
+        assertTrue(PerfMetrics.isEnabled());
+        assertTrue(PerfMetrics.startDetailed() != 0);
+        PerfMetrics.applyDumpArgs(new String[] { PerfMetrics.DUMP_ARG, "on" });
+        assertTrue(PerfMetrics.isEnabled());
+        assertEquals(0, PerfMetrics.startDetailed());
+        // Unknown values and a missing value change nothing
+        PerfMetrics.applyDumpArgs(new String[] { PerfMetrics.DUMP_ARG, "maybe" });
+        PerfMetrics.applyDumpArgs(new String[] { PerfMetrics.DUMP_ARG });
+        assertTrue(PerfMetrics.isEnabled());
+    }
+
+    public void testDump() {
+        PerfMetrics.recordMillis(PerfMetrics.CURSOR_PRELOAD, 5);
+        PerfMetrics.add(PerfMetrics.COUNT_ROWS_PRELOADED, 42);
+        final StringWriter out = new StringWriter();
+        final PrintWriter writer = new PrintWriter(out);
+        PerfMetrics.dump("", writer);
+        writer.flush();
+        final String dump = out.toString();
+        assertTrue(dump, dump.contains("cursor_preload: n=1 "));
+        assertTrue(dump, dump.contains("rows_preloaded: 42"));
+        assertFalse(dump, dump.contains("sanitize_html"));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.preferences;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.mail.utils.LogUtils;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import java.util.Set;
+import java.util.regex.Pattern;
+
+public class MailPrefsTest extends AndroidTestCase {
+    private static final String PREFS_NAME = "MailPrefsTest";
+
+    private MailPrefs mPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = new MailPrefs(getContext(), PREFS_NAME);
+        mPrefs.clearSenderWhiteList();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.clearAllPreferences();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testSenderWhitelist() {
+        assertFalse(mPrefs.getDisplayImagesFromSender("a@foo.com"));
+
+        mPrefs.setDisplayImagesFromSender("a@foo.com", null);
+        assertTrue(mPrefs.getDisplayImagesFromSender("a@foo.com"));
+        assertFalse(mPrefs.getDisplayImagesFromSender("b@foo.com"));
+
+        mPrefs.setDisplayImagesFromSender("b@social.com",
+                ImmutableList.of(Pattern.compile(".*@social\\.com")));
+        assertTrue(mPrefs.getDisplayImagesFromSender("c@social.com"));
+        assertFalse(mPrefs.getDisplayImagesFromSender("c@social.company"));
+
+        mPrefs.clearSenderWhiteList();
+        assertFalse(mPrefs.getDisplayImagesFromSender("a@foo.com"));
+        assertFalse(mPrefs.getDisplayImagesFromSender("c@social.com"));
+    }
+
+    @SmallTest
+    public void testPatternsAreMatchedIndependently() {
+        final SenderWhitelist whitelist = new SenderWhitelist(ImmutableSet.<String>of(),
+                ImmutableSet.of("a.*", "(x)\\1@foo\\.com", "(?i)B@BAR\\.COM"));
+        assertTrue(whitelist.contains("a@baz.com"));
+        assertTrue(whitelist.contains("xx@foo.com"));
+        assertFalse(whitelist.contains("xy@foo.com"));
+        assertTrue(whitelist.contains("b@bar.com"));
+        // The case insensitive flag doesn't leak into the other patterns
+        assertFalse(whitelist.contains("A@baz.com"));
+    }
+
+    /**
+     * Compares looking up senders in a large whitelist with the compiled whitelist and by
+     * reading the preferences and compiling every pattern, as was done before.
+     */
+    @LargeTest
+    public void testLookupBenchmark() {
+        final Set<String> addresses = Sets.newHashSet();
+        final Set<String> patterns = Sets.newHashSet();
+        for (int i = 0; i < 500; i++) {
+            addresses.add("sender" + i + "@foo.com");
+        }
+        for (int i = 0; i < 20; i++) {
+            patterns.add(".*@notify" + i + "\\.example\\.com");
+        }
+        mPrefs.setSenderWhitelist(addresses);
+        mPrefs.setSenderWhitelistPatterns(patterns);
+
+        final String[] senders = {"sender250@foo.com", "x@notify19.example.com", "no@bar.com"};
+        final int iterations = 1000;
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < iterations; i++) {
+            for (String sender : senders) {
+                mPrefs.getDisplayImagesFromSender(sender);
+            }
+        }
+        final long compiledMs = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < iterations; i++) {
+            for (String sender : senders) {
+                new SenderWhitelist(Sets.newHashSet(addresses), Sets.newHashSet(patterns))
+                        .contains(sender);
+            }
+        }
+        final long uncachedMs = SystemClock.elapsedRealtime() - start;
+
+        LogUtils.i(LogUtils.TAG, "%d sender lookups: compiled whitelist %d ms, uncached %d ms",
+                iterations * senders.length, compiledMs, uncachedMs);
+    }
+}
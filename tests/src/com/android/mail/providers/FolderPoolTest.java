@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.providers;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.mail.utils.LogUtils;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+public class FolderPoolTest extends AndroidTestCase {
+    private static final Uri ACCOUNT = Uri.parse("content://com.android.mail.test/account/1");
+
+    private static Folder folder(int id, String name) {
+        final String base = "content://com.android.mail.test/folder/" + id;
+        return new Folder.Builder()
+                .setId(id)
+                .setUri(Uri.parse(base))
+                .setName(name)
+                .setConversationListUri(Uri.parse(base + "/conversations"))
+                .setRefreshUri(Uri.parse(base + "/refresh"))
+                .setBgColor("-16776961")
+                .setFgColor("-1")
+                .setParent(Uri.EMPTY)
+                .build();
+    }
+
+    @SmallTest
+    public void testEqualFoldersAreShared() {
+        final FolderPool pool = new FolderPool(ACCOUNT);
+        final Folder inbox = folder(1, "Inbox");
+        assertSame(inbox, pool.intern(inbox));
+        assertSame(inbox, pool.intern(folder(1, "Inbox")));
+        assertEquals(1, pool.size());
+    }
+
+    @SmallTest
+    public void testChangedFoldersReplacePooledOnes() {
+        final FolderPool pool = new FolderPool(ACCOUNT);
+        final Folder inbox = folder(1, "Inbox");
+        pool.intern(inbox);
+        final Folder renamed = folder(1, "Renamed");
+        assertSame(renamed, pool.intern(renamed));
+        assertSame(renamed, pool.intern(folder(1, "Renamed")));
+        assertEquals(1, pool.size());
+    }
+
+    @SmallTest
+    public void testInvalidateStartsNewVersion() {
+        final FolderPool pool = new FolderPool(ACCOUNT);
+        final Folder inbox = folder(1, "Inbox");
+        pool.intern(inbox);
+        pool.invalidate();
+        final Folder decodedAgain = folder(1, "Inbox");
+        assertSame(decodedAgain, pool.intern(decodedAgain));
+        assertSame(decodedAgain, pool.intern(folder(1, "Inbox")));
+    }
+
+    @SmallTest
+    public void testBlobsShareFolders() {
+        final FolderPool pool = new FolderPool(ACCOUNT);
+        final byte[] blob = FolderList.listToBlob(
+                ImmutableList.of(folder(1, "Inbox"), folder(2, "Work")));
+        final FolderList first = FolderList.fromBlob(blob, pool);
+        final FolderList second = FolderList.fromBlob(blob, pool);
+        assertEquals(first, second);
+        assertSame(first.folders.get(0), second.folders.get(0));
+        assertSame(first.folders.get(1), second.folders.get(1));
+        // without a pool every decode has its own folders
+        assertNotSame(FolderList.fromBlob(blob).folders.get(0),
+                FolderList.fromBlob(blob).folders.get(0));
+    }
+
+    /**
+     * Decodes the raw folders of a synthetic 20k conversation folder, with and without a pool,
+     * and compares how much heap the results hold on to.
+     */
+    @LargeTest
+    public void testHeapUsage() {
+        final int conversations = 20000;
+        final List<Folder> labels = Lists.newArrayList();
+        for (int i = 0; i < 6; i++) {
+            labels.add(folder(i, "Label " + i));
+        }
+        final List<byte[]> blobs = Lists.newArrayListWithCapacity(conversations);
+        for (int i = 0; i < conversations; i++) {
+            blobs.add(FolderList.listToBlob(ImmutableList.of(labels.get(0),
+                    labels.get(1 + i % (labels.size() - 1)))));
+        }
+
+        final List<FolderList> unpooled = Lists.newArrayListWithCapacity(conversations);
+        final long unpooledBytes = retainedBytes(blobs, null, unpooled);
+        final List<FolderList> pooled = Lists.newArrayListWithCapacity(conversations);
+        final long pooledBytes = retainedBytes(blobs, new FolderPool(ACCOUNT), pooled);
+        LogUtils.i("FolderPoolTest", "%d conversations hold %d bytes of folders, %d when pooled",
+                conversations, unpooledBytes, pooledBytes);
+
+        assertEquals(conversations * 2, countDistinctFolders(unpooled));
+        assertEquals(labels.size(), countDistinctFolders(pooled));
+        assertTrue(pooledBytes < unpooledBytes);
+    }
+
+    private static long retainedBytes(List<byte[]> blobs, FolderPool pool,
+            List<FolderList> out) {
+        final long before = usedHeap();
+        for (byte[] blob : blobs) {
+            out.add(FolderList.fromBlob(blob, pool));
+        }
+        return usedHeap() - before;
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            runtime.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static int countDistinctFolders(List<FolderList> lists) {
+        final Set<Folder> distinct =
+                Collections.newSetFromMap(new IdentityHashMap<Folder, Boolean>());
+        for (FolderList list : lists) {
+            distinct.addAll(list.folders);
+        }
+        return distinct.size();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.providers;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.mail.perf.PerfMetrics;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SmallTest
+public class UnreadCountLoaderTest extends AndroidTestCase {
+    private static final String AUTHORITY = "com.android.mail.unread.test";
+    private static final Uri INBOX_1 = Uri.parse("content://" + AUTHORITY + "/inbox/1");
+    private static final Uri INBOX_2 = Uri.parse("content://" + AUTHORITY + "/inbox/2");
+    private static final Uri INBOX_3 = Uri.parse("content://" + AUTHORITY + "/inbox/3");
+
+    private final AtomicInteger mQueries = new AtomicInteger();
+    private final Map<Uri, Integer> mUnreadCounts = Maps.newConcurrentMap();
+    private UnreadCountLoader mLoader;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        PerfMetrics.reset();
+        PerfMetrics.setEnabled(true);
+        final MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(AUTHORITY, new MockContentProvider() {
+            @Override
+            public Cursor query(Uri uri, String[] projection, String selection,
+                    String[] selectionArgs, String sortOrder) {
+                mQueries.incrementAndGet();
+                final Object[] row = new Object[UIProvider.FOLDERS_PROJECTION.length];
+                row[UIProvider.FOLDER_URI_COLUMN] = uri.toString();
+                row[UIProvider.FOLDER_UNREAD_COUNT_COLUMN] = mUnreadCounts.get(uri);
+                final MatrixCursor cursor = new MatrixCursor(UIProvider.FOLDERS_PROJECTION);
+                cursor.addRow(row);
+                return cursor;
+            }
+        });
+        final Context context = new ContextWrapper(getContext()) {
+            @Override
+            public Context getApplicationContext() {
+                return this;
+            }
+
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+        };
+        mLoader = new UnreadCountLoader(context);
+        mUnreadCounts.put(INBOX_1, 1);
+        mUnreadCounts.put(INBOX_2, 2);
+        mUnreadCounts.put(INBOX_3, 3);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mLoader.reset();
+        PerfMetrics.setEnabled(false);
+        super.tearDown();
+    }
+
+    public void testLoadsOnlyChangedInboxes() {
+        mLoader.setUris(ImmutableList.of(INBOX_1, INBOX_2, INBOX_3));
+        Map<Uri, Folder> folders = mLoader.loadInBackground();
+        assertEquals(3, mQueries.get());
+        assertEquals(3, folders.size());
+        assertEquals(2, folders.get(INBOX_2).unreadCount);
+
+        // A burst of changes to one inbox is one query
+        mUnreadCounts.put(INBOX_2, 20);
+        mLoader.onInboxChanged(INBOX_2);
+        mLoader.onInboxChanged(INBOX_2);
+        mLoader.onInboxChanged(INBOX_2);
+        folders = mLoader.loadInBackground();
+        assertEquals(4, mQueries.get());
+        assertEquals(2, PerfMetrics.getCount(PerfMetrics.COUNT_UNREAD_LOADS_AVOIDED));
+        assertEquals(3, folders.size());
+        assertEquals(1, folders.get(INBOX_1).unreadCount);
+        assertEquals(20, folders.get(INBOX_2).unreadCount);
+
+        // Nothing changed, nothing to query
+        folders = mLoader.loadInBackground();
+        assertEquals(4, mQueries.get());
+        assertEquals(3, folders.size());
+    }
+
+    public void testWatchedInboxesChange() {
+        mLoader.setUris(ImmutableList.of(INBOX_1, INBOX_2));
+        mLoader.loadInBackground();
+        assertEquals(2, mQueries.get());
+
+        mLoader.setUris(ImmutableList.of(INBOX_2, INBOX_3));
+        final Map<Uri, Folder> folders = mLoader.loadInBackground();
+        assertEquals(3, mQueries.get());
+        assertEquals(2, folders.size());
+        assertFalse(folders.containsKey(INBOX_1));
+        assertEquals(3, folders.get(INBOX_3).unreadCount);
+
+        // Changes to inboxes that aren't watched are ignored
+        mLoader.onInboxChanged(INBOX_1);
+        mLoader.loadInBackground();
+        assertEquals(3, mQueries.get());
+    }
+}
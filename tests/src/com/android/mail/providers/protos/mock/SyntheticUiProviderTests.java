@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.providers.protos.mock;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.mail.providers.Account;
+import com.android.mail.providers.Conversation;
+import com.android.mail.providers.Folder;
+import com.android.mail.providers.Message;
+import com.android.mail.providers.UIProvider;
+
+import java.util.Arrays;
+
+public class SyntheticUiProviderTests extends AndroidTestCase {
+
+    private SyntheticMailbox mPreviousMailbox;
+    private SyntheticUiProvider mProvider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPreviousMailbox = SyntheticUiProvider.getMailbox();
+        mProvider = new SyntheticUiProvider();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyntheticUiProvider.setMailbox(mPreviousMailbox);
+        super.tearDown();
+    }
+
+    private static SyntheticMailbox.Builder small() {
+        return new SyntheticMailbox.Builder()
+                .setLabelCount(6)
+                .setConversationCount(50)
+                .setMaxMessages(20)
+                .setBodyChars(2048);
+    }
+
+    private Cursor query(String uri, String[] projection) {
+        return mProvider.query(Uri.parse(uri), projection, null, null, null);
+    }
+
+    @SmallTest
+    public void testSameSeedSameMailbox() {
+        final SyntheticMailbox first = small().setSeed(42).build();
+        final SyntheticMailbox second = small().setSeed(42).build();
+        final SyntheticMailbox other = small().setSeed(43).build();
+
+        final Object[] firstRow = new Object[UIProvider.MESSAGE_PROJECTION.length];
+        final Object[] secondRow = new Object[UIProvider.MESSAGE_PROJECTION.length];
+        final Object[] otherRow = new Object[UIProvider.MESSAGE_PROJECTION.length];
+        first.fillMessageRow(0, 0, 7, 0, firstRow);
+        second.fillMessageRow(0, 0, 7, 0, secondRow);
+        other.fillMessageRow(0, 0, 7, 0, otherRow);
+        assertTrue(Arrays.equals(firstRow, secondRow));
+        assertFalse(firstRow[UIProvider.MESSAGE_BODY_HTML_COLUMN].equals(
+                otherRow[UIProvider.MESSAGE_BODY_HTML_COLUMN]));
+
+        // rows come out the same however many times they are made
+        first.fillMessageRow(0, 0, 7, 0, secondRow);
+        assertTrue(Arrays.equals(firstRow, secondRow));
+    }
+
+    @SmallTest
+    public void testTraverseMailbox() {
+        final SyntheticMailbox mailbox = small().build();
+        SyntheticUiProvider.setMailbox(mailbox);
+
+        final Cursor accounts = mProvider.query(SyntheticMailbox.getAccountsUri(),
+                UIProvider.ACCOUNTS_PROJECTION, null, null, null);
+        assertEquals(1, accounts.getCount());
+        assertTrue(accounts.moveToFirst());
+        final Account account = Account.builder().buildFrom(accounts);
+
+        final Cursor folders = query(account.folderListUri.toString(),
+                UIProvider.FOLDERS_PROJECTION);
+        assertEquals(mailbox.getFolderCount(), folders.getCount());
+        assertTrue(folders.moveToFirst());
+        final Folder inbox = new Folder(folders);
+        assertEquals("Inbox", inbox.name);
+        assertEquals(50, inbox.totalCount);
+
+        final Cursor conversations = query(inbox.conversationListUri.toString(),
+                UIProvider.CONVERSATION_PROJECTION);
+        assertEquals(50, conversations.getCount());
+        assertTrue(conversations.moveToFirst());
+        final Conversation conversation = new Conversation(conversations);
+        assertEquals(20, conversation.getNumMessages());
+        assertTrue(conversation.getRawFolders().contains(inbox));
+
+        final Cursor messages = query(conversation.messageListUri.toString(),
+                UIProvider.MESSAGE_PROJECTION);
+        assertEquals(20, messages.getCount());
+        long lastDate = 0;
+        while (messages.moveToNext()) {
+            final Message message = new Message(messages);
+            assertEquals(conversation.uri, message.conversationUri);
+            assertTrue(message.bodyHtml.length() >= 2048);
+            assertTrue(message.dateReceivedMs > lastDate);
+            lastDate = message.dateReceivedMs;
+            if (message.hasAttachments) {
+                final Cursor attachments = query(message.attachmentListUri.toString(),
+                        UIProvider.ATTACHMENT_PROJECTION);
+                assertEquals(message.getAttachments().size(), attachments.getCount());
+            }
+        }
+        assertEquals(conversation.dateMs, lastDate);
+    }
+
+    @SmallTest
+    public void testLargeFolder() {
+        SyntheticUiProvider.setMailbox(new SyntheticMailbox.Builder().build());
+        final Cursor conversations = query(SyntheticMailbox.getFolderUri(0, 0) + "/conversations",
+                new String[] { UIProvider.ConversationColumns.SUBJECT });
+        assertEquals(100000, conversations.getCount());
+        assertTrue(conversations.moveToLast());
+        final String last = conversations.getString(0);
+        assertTrue(last.endsWith("#99999"));
+        assertTrue(conversations.moveToFirst());
+        assertTrue(conversations.moveToLast());
+        assertEquals(last, conversations.getString(0));
+    }
+
+    @SmallTest
+    public void testMissingRows() {
+        SyntheticUiProvider.setMailbox(small().build());
+        assertNull(query(SyntheticMailbox.getAccountUri(1), null));
+        assertNull(query(SyntheticMailbox.getConversationUri(0, 0, 50), null));
+        assertNull(query(SyntheticMailbox.getMessageUri(0, 0, 0, 20) + "/attachments", null));
+        assertNotNull(query(SyntheticMailbox.getMessageUri(0, 0, 0, 19), null));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.utils;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.android.mail.common.html.parser.HtmlTree;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class PlainTextCacheTest extends TestCase {
+    private static final HtmlTree.ConverterFactory OTHER_FACTORY =
+            new HtmlTree.ConverterFactory() {
+                @Override
+                public HtmlTree.Converter<String> createInstance() {
+                    return new HtmlTree.DefaultPlainTextConverter();
+                }
+            };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        PlainTextCache.clear();
+    }
+
+    public void testConversionsAreReused() {
+        final String text = PlainTextCache.getPlainText(1, "<p>hello <b>world</b></p>");
+        assertEquals("hello world", text);
+        assertSame(text, PlainTextCache.getPlainText(1, "<p>hello <b>world</b></p>"));
+        assertEquals(1, PlainTextCache.size());
+    }
+
+    public void testKeysAreDistinct() {
+        PlainTextCache.getPlainText(1, "<p>one</p>");
+        PlainTextCache.getPlainText(2, "<p>one</p>");
+        PlainTextCache.getPlainText(1, "<p>one</p>", OTHER_FACTORY);
+        assertEquals(3, PlainTextCache.size());
+    }
+
+    public void testHashCollisionsAreDetected() {
+        // "Aa" and "BB" have the same String hash code
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertEquals("Aa", PlainTextCache.getPlainText(PlainTextCache.NO_MESSAGE_ID, "Aa"));
+        assertEquals("BB", PlainTextCache.getPlainText(PlainTextCache.NO_MESSAGE_ID, "BB"));
+    }
+}
@@ -16,10 +16,16 @@
 
 package com.google.android.mail.common.base;
 
+import android.os.SystemClock;
+import android.test.suitebuilder.annotation.LargeTest;
 import android.test.suitebuilder.annotation.SmallTest;
 
+import com.android.mail.utils.LogUtils;
+
 import junit.framework.TestCase;
 
+import java.util.Random;
+
 @SmallTest
 public class StringUtilTest extends TestCase {
     public void testUnescapeHtml() {
@@ -47,4 +53,140 @@ public class StringUtilTest extends TestCase {
         final String unescaped6 = StringUtil.unescapeHTML("&Alpha;");
         assertEquals(unescaped6, "\u0391");
     }
+
+    private static final String[] ENTITY_PARTS = {"&", "#", "x", "X", ";", "amp", "nbsp", "lt",
+            "alpha", "Alpha", "euro", "1", "9", "65", "8203", "1f63d", "D83D", "a", "F", "z", " ",
+            "\u0661", "<", "\uD83D", "&nbsp;", "&#", "&#x", "0000000065", "99999999999999999999"};
+
+    public void testUnescapeHtmlMatchesReference() {
+        final Random random = new Random(0);
+        for (int i = 0; i < 20000; i++) {
+            final StringBuilder sb = new StringBuilder();
+            for (int j = random.nextInt(12); j > 0; j--) {
+                sb.append(ENTITY_PARTS[random.nextInt(ENTITY_PARTS.length)]);
+            }
+            final String s = sb.toString();
+            assertEquals(s, referenceUnescapeHTML(s, false), StringUtil.unescapeHTML(s, false));
+            assertEquals(s, referenceUnescapeHTML(s, true), StringUtil.unescapeHTML(s, true));
+        }
+    }
+
+    public void testUnescapeHtmlRange() {
+        final StringBuilder sb = new StringBuilder("x");
+        StringUtil.unescapeHTML("<b>&lt;&nbsp;&#65;</b>", 3, 18, false, sb);
+        assertEquals("x<\u00A0A", sb.toString());
+
+        // Entities that straddle the end of the range are left alone
+        sb.setLength(0);
+        StringUtil.unescapeHTML("&amp;", 0, 4, false, sb);
+        assertEquals("&amp", sb.toString());
+    }
+
+    @LargeTest
+    public void testUnescapeHtmlBenchmark() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append("Hi&nbsp;there&#8203;&amp;&lt;b&gt; &copy;&#x2014;&nbsp;&nbsp;x ");
+        }
+        final String html = sb.toString();
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < 20; i++) {
+            referenceUnescapeHTML(html, false);
+        }
+        final long referenceMs = SystemClock.elapsedRealtime() - start;
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < 20; i++) {
+            StringUtil.unescapeHTML(html, false);
+        }
+        LogUtils.i(LogUtils.TAG, "unescapeHTML, %d chars: reference %d ms, trie %d ms",
+                html.length(), referenceMs / 20, (SystemClock.elapsedRealtime() - start) / 20);
+    }
+
+    /**
+     * The map based implementation that {@link StringUtil#unescapeHTML(String, boolean)} used to
+     * have, kept to check that the trie based one behaves identically.
+     */
+    private static String referenceUnescapeHTML(String s, boolean emulateBrowsers) {
+        int index = s.indexOf('&');
+        if (index == -1) {
+            return s;
+        }
+        char[] chars = s.toCharArray();
+        char[] escaped = new char[chars.length];
+        System.arraycopy(chars, 0, escaped, 0, index);
+        int pos = index;
+        for (int i = index; i < chars.length;) {
+            if (chars[i] != '&') {
+                escaped[pos++] = chars[i++];
+                continue;
+            }
+            int j = i + 1;
+            boolean isNumericEntity = false;
+            if (j < chars.length && chars[j] == '#') {
+                j++;
+                isNumericEntity = true;
+            }
+            boolean isHexEntity = false;
+            if (j < chars.length && (chars[j] == 'x' || chars[j] == 'X')) {
+                j++;
+                isHexEntity = true;
+            }
+            for (; j < chars.length; j++) {
+                char ch = chars[j];
+                boolean isDigit = Character.isDigit(ch);
+                if (isNumericEntity) {
+                    if (!isHexEntity && !isDigit) {
+                        break;
+                    }
+                    if (isHexEntity && !isDigit && "abcdefABCDEF".indexOf(ch) < 0) {
+                        break;
+                    }
+                }
+                if (!isDigit && !Character.isLetter(ch)) {
+                    break;
+                }
+            }
+            boolean replaced = false;
+            if ((j <= chars.length && emulateBrowsers) ||
+                    (j < chars.length && chars[j] == ';')) {
+                if (i + 2 < chars.length && s.charAt(i + 1) == '#') {
+                    try {
+                        long charcode = 0;
+                        char ch = s.charAt(i + 2);
+                        if (isHexEntity) {
+                            charcode = Long.parseLong(new String(chars, i + 3, j - i - 3), 16);
+                        } else if (Character.isDigit(ch)) {
+                            charcode = Long.parseLong(new String(chars, i + 2, j - i - 2));
+                        }
+                        if ((charcode > 0 && charcode < 0xD800)
+                                || (charcode > 0xDFFF && charcode < 0xFFFE)) {
+                            escaped[pos++] = (char) charcode;
+                            replaced = true;
+                        } else if (charcode >= 0x10000 && charcode < 0x110000) {
+                            escaped[pos++] = (char) ((charcode - 0x10000) / 0x400 + 0xD800);
+                            escaped[pos++] = (char) ((charcode - 0x10000) % 0x400 + 0xDC00);
+                            replaced = true;
+                        }
+                    } catch (NumberFormatException ex) {
+                        // Failed, not replaced.
+                    }
+                } else {
+                    Character repl = StringUtil.ESCAPE_STRINGS.get(new String(chars, i, j - i));
+                    if (repl != null) {
+                        escaped[pos++] = repl;
+                        replaced = true;
+                    }
+                }
+                if (j < chars.length && chars[j] == ';') {
+                    j++;
+                }
+            }
+            if (!replaced) {
+                System.arraycopy(chars, i, escaped, pos, j - i);
+                pos += j - i;
+            }
+            i = j;
+        }
+        return new String(escaped, 0, pos);
+    }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mail.common.html.parser;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.mail.utils.LogUtils;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class HtmlParserTest extends TestCase {
+    public void testLookupIgnoresAsciiCase() {
+        assertSame(HTML4.DIV_ELEMENT, HTML4.lookupElement("dIv"));
+        assertSame(HTML4.DIV_ELEMENT, HTML4.lookupElement("<DIV>", 1, 4));
+        assertSame(HTML4.HREF_ATTRIBUTE, HTML4.lookupAttribute("a HrEf=x", 2, 6));
+        assertNull(HTML4.lookupElement("<DIV>", 1, 3));
+        assertNull(HTML4.lookupElement("blink"));
+        // Only ASCII letters are folded, like browsers do
+        assertNull(HTML4.lookupElement("lin\u212A"));
+    }
+
+    public void testNameTable() {
+        final NameTable<Integer> table = new NameTable<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            table.put("name" + i, i);
+        }
+        table.put("name7", -7);
+        assertEquals(1000, table.size());
+        assertEquals(Integer.valueOf(999), table.get("xNAME999x", 1, 8));
+        assertEquals(Integer.valueOf(-7), table.get("Name7", 0, 5));
+        assertNull(table.get("name1000", 0, 8));
+        assertNull(table.get("", 0, 0));
+    }
+
+    public void testParseMixedCase() {
+        final HtmlParser parser = new HtmlParser();
+        final HtmlDocument doc = parser.parse("<DiV Class=a onClick=x>one <B>two</b> three</DIV>");
+        assertEquals("<div class=\"a\" onclick=\"x\">one <b>two</b> three</div>", doc.toHTML());
+    }
+
+    public void testCustomWhitelistIsConsulted() {
+        final HTML.Element blink = new HTML.Element("blink", HTML.Element.NO_TYPE, false, false,
+                false, HTML.Element.Flow.INLINE);
+        final HtmlParser parser = new HtmlParser();
+        parser.addWhitelist(new HtmlWhitelist() {
+            @Override
+            public HTML.Element lookupElement(String name) {
+                return "blink".equalsIgnoreCase(name) ? blink : null;
+            }
+
+            @Override
+            public HTML.Attribute lookupAttribute(String name) {
+                return null;
+            }
+        });
+        assertEquals("<blink>hi</blink>", parser.parse("<BLINK>hi</Blink>").toHTML());
+    }
+
+    public void testTreeTextPositions() {
+        final HtmlTreeBuilder builder = new HtmlTreeBuilder();
+        new HtmlParser().parse("<div>one</div><div>two</div>").accept(builder);
+        final HtmlTree tree = builder.getTree();
+        // positions are available without asking for the text first
+        assertEquals(3, tree.getTextPosition(4));
+        assertEquals("one", tree.getPlainText(0, 3));
+        assertEquals("\ntwo", tree.getPlainText(3, 6));
+        assertEquals("one\ntwo", tree.getPlainText());
+    }
+
+    /**
+     * Reports the bytes allocated and the time taken by parse() per KB of input.
+     */
+    @LargeTest
+    public void testParseBenchmark() {
+        final StringBuilder sb = new StringBuilder();
+        while (sb.length() < 256 * 1024) {
+            sb.append("<TABLE Width=100% CellPadding=0><tr><TD class=x style=\"color:red\">")
+                    .append("Hello <B>world</B> &amp; friends<br/></td></tr></table>\n");
+        }
+        final String html = sb.toString();
+        final int kb = html.length() / 1024;
+        for (HtmlParser.ParseStyle style : HtmlParser.ParseStyle.values()) {
+            new HtmlParser(style).parse(html);
+
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            final long start = SystemClock.elapsedRealtime();
+            new HtmlParser(style).parse(html);
+            final long elapsedMs = SystemClock.elapsedRealtime() - start;
+            Debug.stopAllocCounting();
+
+            LogUtils.i(LogUtils.TAG, "parse %s: %d allocations/KB, %d bytes/KB, %d ms for %d KB",
+                    style, Debug.getThreadAllocCount() / kb, Debug.getThreadAllocSize() / kb,
+                    elapsedMs, kb);
+        }
+    }
+}